@@ -0,0 +1,210 @@
+package org.bonej.ops.binary;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.BooleanType;
+import net.imglib2.view.Views;
+
+import java.util.function.Predicate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A coarse index of the foreground in a 3D image, which divides it into cubic blocks (bricks),
+ * and stores the number of foreground elements in each.
+ * The index is computed once, and can then be passed to ops so that they skip empty blocks,
+ * and use closed form results for full blocks.
+ *
+ * @author Richard Domander
+ * @implNote The blocks at the far ends of the axes are smaller if the block size doesn't divide the image size
+ */
+public final class BlockOccupancy {
+    public static final int DEFAULT_BLOCK_SIZE = 16;
+    private static final int MAX_BLOCK_SIZE = 1024;
+
+    /** State of the elements in a block */
+    public enum State {
+        /** All elements are background */
+        EMPTY,
+        /** All elements are foreground */
+        FULL,
+        /** Both foreground and background elements */
+        MIXED
+    }
+
+    private final int blockSize;
+    private final long[] imageSize;
+    private final int[] gridSize;
+    /** Number of foreground elements in block (bu, bv, bw) at index (bw * gridV + bv) * gridU + bu */
+    private final int[] counts;
+
+    private BlockOccupancy(final long[] imageSize, final int blockSize) {
+        this.imageSize = imageSize;
+        this.blockSize = blockSize;
+        gridSize = new int[3];
+        for (int d = 0; d < 3; d++) {
+            gridSize[d] = (int) ((imageSize[d] + blockSize - 1) / blockSize);
+        }
+        counts = new int[gridSize[0] * gridSize[1] * gridSize[2]];
+    }
+
+    /**
+     * Computes the occupancy of a binary image in blocks of {@link #DEFAULT_BLOCK_SIZE}
+     *
+     * @throws NullPointerException     if interval is null
+     * @throws IllegalArgumentException if interval is not 3D
+     */
+    public static <B extends BooleanType<B>> BlockOccupancy of(final RandomAccessibleInterval<B> interval)
+            throws NullPointerException, IllegalArgumentException {
+        return of(interval, BooleanType::get, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Computes the occupancy of an image
+     *
+     * @param foreground Returns true if an element is foreground, e.g. it's within thresholds
+     * @param blockSize  Size of the blocks in each dimension
+     * @throws NullPointerException     if interval or foreground is null
+     * @throws IllegalArgumentException if interval is not 3D, or blockSize is not in [1, 1024]
+     */
+    public static <T> BlockOccupancy of(final RandomAccessibleInterval<T> interval,
+                                        final Predicate<? super T> foreground, final int blockSize)
+            throws NullPointerException, IllegalArgumentException {
+        checkNotNull(interval, "Interval cannot be null");
+        checkNotNull(foreground, "Foreground predicate cannot be null");
+        checkArgument(interval.numDimensions() == 3, "Interval must be 3D");
+        checkArgument(blockSize > 0 && blockSize <= MAX_BLOCK_SIZE, "Block size must be in [1, 1024]");
+
+        final long[] imageSize = new long[3];
+        interval.dimensions(imageSize);
+        final BlockOccupancy occupancy = new BlockOccupancy(imageSize, blockSize);
+        occupancy.countForeground(interval, foreground);
+        return occupancy;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /** Returns the number of blocks in dimension d */
+    public int getGridSize(final int d) {
+        return gridSize[d];
+    }
+
+    /** Checks if the index was computed for an image of the given size */
+    public boolean matches(final Interval interval) {
+        if (interval.numDimensions() != 3) {
+            return false;
+        }
+
+        for (int d = 0; d < 3; d++) {
+            if (interval.dimension(d) != imageSize[d]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of foreground elements in the block
+     *
+     * @return The count, or 0 if the block is outside the grid
+     */
+    public long getForegroundCount(final long bu, final long bv, final long bw) {
+        if (!isInGrid(bu, bv, bw)) {
+            return 0;
+        }
+
+        return counts[(int) ((bw * gridSize[1] + bv) * gridSize[0] + bu)];
+    }
+
+    /** Returns the number of foreground elements in the image */
+    public long getForegroundCount() {
+        long sum = 0;
+        for (final int count : counts) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the state of the block
+     *
+     * @return The state, or {@link State#EMPTY} if the block is outside the grid
+     */
+    public State getState(final long bu, final long bv, final long bw) {
+        final long count = getForegroundCount(bu, bv, bw);
+        if (count == 0) {
+            return State.EMPTY;
+        }
+
+        return count == blockVolume(bu, bv, bw) ? State.FULL : State.MIXED;
+    }
+
+    /**
+     * Checks if all the elements of the 2x2x2 blocks ending at the block have the same value.
+     * Then every 2x2x2 neighborhood whose last element is in the block is either empty or full.
+     * Blocks outside the grid are empty.
+     */
+    public boolean isUniformNeighborhood(final long bu, final long bv, final long bw) {
+        final State state = getState(bu, bv, bw);
+        if (state == State.MIXED) {
+            return false;
+        }
+
+        for (int i = 1; i < 8; i++) {
+            if (getState(bu - (i & 1), bv - ((i >> 1) & 1), bw - ((i >> 2) & 1)) != state) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the interval of image elements in the block */
+    public Interval getBlock(final long bu, final long bv, final long bw) {
+        final long[] block = {bu, bv, bw};
+        final long[] min = new long[3];
+        final long[] max = new long[3];
+        for (int d = 0; d < 3; d++) {
+            min[d] = block[d] * blockSize;
+            max[d] = Math.min(min[d] + blockSize, imageSize[d]) - 1;
+        }
+        return new FinalInterval(min, max);
+    }
+
+    //region -- Helper methods --
+    private boolean isInGrid(final long bu, final long bv, final long bw) {
+        return bu >= 0 && bv >= 0 && bw >= 0 && bu < gridSize[0] && bv < gridSize[1] && bw < gridSize[2];
+    }
+
+    /** Returns the number of elements in a block in the grid */
+    private long blockVolume(final long bu, final long bv, final long bw) {
+        final long[] block = {bu, bv, bw};
+        long volume = 1;
+        for (int d = 0; d < 3; d++) {
+            volume *= Math.min(blockSize, imageSize[d] - block[d] * blockSize);
+        }
+        return volume;
+    }
+
+    /** Counts the foreground elements of each block in one pass in flat iteration order */
+    private <T> void countForeground(final RandomAccessibleInterval<T> interval,
+                                     final Predicate<? super T> foreground) {
+        final Cursor<T> cursor = Views.flatIterable(interval).cursor();
+        for (long w = 0; w < imageSize[2]; w++) {
+            final int blockPlane = (int) (w / blockSize) * gridSize[1];
+            for (long v = 0; v < imageSize[1]; v++) {
+                final int blockRow = (blockPlane + (int) (v / blockSize)) * gridSize[0];
+                for (long u = 0; u < imageSize[0]; u++) {
+                    if (foreground.test(cursor.next())) {
+                        counts[blockRow + (int) (u / blockSize)]++;
+                    }
+                }
+            }
+        }
+    }
+    //endregion
+}
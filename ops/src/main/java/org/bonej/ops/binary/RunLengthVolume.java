@@ -0,0 +1,323 @@
+package org.bonej.ops.binary;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.BooleanType;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A 3D binary volume stored as runs of foreground elements along the u-axis.
+ * Binarized bone samples compress well this way, because the foreground and background form long runs.
+ *
+ * The runs of each row (v, w) are sorted, and separated by at least one background element.
+ * A run is identified by an index, and rows are indexed in flat order, i.e. row (v, w) is w * vSize + v.
+ *
+ * @author Richard Domander
+ */
+public final class RunLengthVolume {
+    private final int uSize;
+    private final int vSize;
+    private final int wSize;
+    /** Runs of row r have the indices [rowOffsets[r], rowOffsets[r + 1]) */
+    private final int[] rowOffsets;
+    /** Run i covers the elements [bounds[2 * i], bounds[2 * i + 1]) of its row */
+    private final int[] bounds;
+    private final long foregroundCount;
+
+    private RunLengthVolume(final Builder builder) {
+        uSize = builder.uSize;
+        vSize = builder.vSize;
+        wSize = builder.wSize;
+        rowOffsets = builder.rowOffsets;
+        bounds = Arrays.copyOf(builder.bounds, 2 * builder.runs);
+        long count = 0;
+        for (int i = 0; i < builder.runs; i++) {
+            count += bounds[2 * i + 1] - bounds[2 * i];
+        }
+        foregroundCount = count;
+    }
+
+    /**
+     * Encodes a binary image
+     *
+     * @throws NullPointerException     if interval is null
+     * @throws IllegalArgumentException if the interval is not 3D, or too large
+     */
+    public static <B extends BooleanType<B>> RunLengthVolume of(final RandomAccessibleInterval<B> interval)
+            throws NullPointerException, IllegalArgumentException {
+        return of(interval, BooleanType::get);
+    }
+
+    /**
+     * Encodes the elements of an image within the thresholds as foreground
+     *
+     * @param min Minimum value of foreground elements, inclusive
+     * @param max Maximum value of foreground elements, inclusive
+     * @throws NullPointerException     if interval is null
+     * @throws IllegalArgumentException if the interval is not 3D, or too large
+     */
+    public static <T extends RealType<T>> RunLengthVolume ofThreshold(final RandomAccessibleInterval<T> interval,
+                                                                      final double min, final double max)
+            throws NullPointerException, IllegalArgumentException {
+        return of(interval, e -> {
+            final double value = e.getRealDouble();
+            return value >= min && value <= max;
+        });
+    }
+
+    /**
+     * Encodes the foreground elements of an image in one pass in flat iteration order
+     *
+     * @param foreground Returns true if an element is foreground
+     * @throws NullPointerException     if interval or foreground is null
+     * @throws IllegalArgumentException if the interval is not 3D, or too large
+     */
+    public static <T> RunLengthVolume of(final RandomAccessibleInterval<T> interval,
+                                         final Predicate<? super T> foreground)
+            throws NullPointerException, IllegalArgumentException {
+        checkNotNull(interval, "Interval cannot be null");
+        checkNotNull(foreground, "Foreground predicate cannot be null");
+        checkArgument(interval.numDimensions() == 3, "Interval must be 3D");
+        for (int d = 0; d < 3; d++) {
+            checkArgument(interval.dimension(d) < Integer.MAX_VALUE, "Interval is too large");
+        }
+
+        final int uSize = (int) interval.dimension(0);
+        final int vSize = (int) interval.dimension(1);
+        final int wSize = (int) interval.dimension(2);
+        final Builder builder = new Builder(uSize, vSize, wSize);
+        final Cursor<T> cursor = Views.flatIterable(interval).cursor();
+
+        for (int w = 0; w < wSize; w++) {
+            for (int v = 0; v < vSize; v++) {
+                int runStart = -1;
+                for (int u = 0; u < uSize; u++) {
+                    final boolean isForeground = foreground.test(cursor.next());
+                    if (isForeground && runStart < 0) {
+                        runStart = u;
+                    } else if (!isForeground && runStart >= 0) {
+                        builder.addRun(v, w, runStart, u);
+                        runStart = -1;
+                    }
+                }
+                if (runStart >= 0) {
+                    builder.addRun(v, w, runStart, uSize);
+                }
+            }
+        }
+
+        return builder.build();
+    }
+
+    public int getUSize() {
+        return uSize;
+    }
+
+    public int getVSize() {
+        return vSize;
+    }
+
+    public int getWSize() {
+        return wSize;
+    }
+
+    /** Checks if the volume has the size of the given interval */
+    public boolean matches(final Interval interval) {
+        return interval.numDimensions() == 3 && interval.dimension(0) == uSize && interval.dimension(1) == vSize &&
+                interval.dimension(2) == wSize;
+    }
+
+    /** Returns the number of foreground elements in the volume */
+    public long getForegroundCount() {
+        return foregroundCount;
+    }
+
+    /**
+     * Returns the smallest interval that contains all the foreground elements
+     *
+     * @return The bounding box, or empty if there are no runs
+     */
+    public Optional<Interval> getBoundingBox() {
+        final long[] min = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+        final long[] max = {Long.MIN_VALUE, Long.MIN_VALUE, Long.MIN_VALUE};
+        for (int w = 0; w < wSize; w++) {
+            for (int v = 0; v < vSize; v++) {
+                final int first = firstRun(v, w);
+                final int end = endRun(v, w);
+                if (first == end) {
+                    continue;
+                }
+                min[0] = Math.min(min[0], runStart(first));
+                max[0] = Math.max(max[0], runEnd(end - 1) - 1);
+                min[1] = Math.min(min[1], v);
+                max[1] = Math.max(max[1], v);
+                min[2] = Math.min(min[2], w);
+                max[2] = Math.max(max[2], w);
+            }
+        }
+        return min[0] > max[0] ? Optional.empty() : Optional.of(new FinalInterval(min, max));
+    }
+
+    /** Returns the number of runs in the volume */
+    public int getRunCount() {
+        return bounds.length / 2;
+    }
+
+    /** Returns the index of the first run of row (v, w) */
+    public int firstRun(final int v, final int w) {
+        return rowOffsets[rowIndex(v, w)];
+    }
+
+    /** Returns the index after the last run of row (v, w) */
+    public int endRun(final int v, final int w) {
+        return rowOffsets[rowIndex(v, w) + 1];
+    }
+
+    /** Returns the first element of a run */
+    public int runStart(final int run) {
+        return bounds[2 * run];
+    }
+
+    /** Returns the element after the last element of a run */
+    public int runEnd(final int run) {
+        return bounds[2 * run + 1];
+    }
+
+    /** Returns true if the element is foreground, false if it's background or outside the volume */
+    public boolean get(final long u, final long v, final long w) {
+        if (u < 0 || v < 0 || w < 0 || u >= uSize || v >= vSize || w >= wSize) {
+            return false;
+        }
+
+        // Find the last run that starts at or before u
+        int low = firstRun((int) v, (int) w);
+        int high = endRun((int) v, (int) w) - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (runStart(middle) <= u) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high >= firstRun((int) v, (int) w) && u < runEnd(high);
+    }
+
+    /** Decodes the volume into a dense image */
+    public Img<BitType> toImg() {
+        final Img<BitType> img = ArrayImgs.bits(uSize, vSize, wSize);
+        final Cursor<BitType> cursor = Views.flatIterable(img).cursor();
+        for (int w = 0; w < wSize; w++) {
+            for (int v = 0; v < vSize; v++) {
+                int u = 0;
+                for (int run = firstRun(v, w); run < endRun(v, w); run++) {
+                    for (; u < runEnd(run); u++) {
+                        cursor.next().set(u >= runStart(run));
+                    }
+                }
+                for (; u < uSize; u++) {
+                    cursor.next().setZero();
+                }
+            }
+        }
+        return img;
+    }
+
+    private int rowIndex(final int v, final int w) {
+        return w * vSize + v;
+    }
+
+    //region -- Helper classes --
+
+    /**
+     * Builds a volume run by run.
+     * The runs must be added in flat order: rows in order of w, then v, and the runs of a row in order of u.
+     * Runs which overlap or touch the previous run of the row are merged into it.
+     */
+    public static final class Builder {
+        private final int uSize;
+        private final int vSize;
+        private final int wSize;
+        private final int[] rowOffsets;
+        private int[] bounds = new int[16];
+        private int runs;
+        /** Index of the row of the latest run */
+        private int row;
+
+        /**
+         * Creates a builder for an empty volume
+         *
+         * @throws IllegalArgumentException if a size is negative, or the volume has too many rows
+         */
+        public Builder(final int uSize, final int vSize, final int wSize) throws IllegalArgumentException {
+            checkArgument(uSize >= 0 && vSize >= 0 && wSize >= 0, "Size cannot be negative");
+            checkArgument((long) vSize * wSize < Integer.MAX_VALUE, "Volume has too many rows");
+
+            this.uSize = uSize;
+            this.vSize = vSize;
+            this.wSize = wSize;
+            rowOffsets = new int[vSize * wSize + 1];
+        }
+
+        /**
+         * Adds the foreground elements [start, end) of row (v, w)
+         *
+         * @throws IllegalArgumentException if the run is outside the volume, or out of order
+         */
+        public Builder addRun(final int v, final int w, final int start, final int end)
+                throws IllegalArgumentException {
+            checkArgument(v >= 0 && v < vSize && w >= 0 && w < wSize, "Row is outside the volume");
+            checkArgument(0 <= start && start <= end && end <= uSize, "Run is outside the volume");
+            final int runRow = w * vSize + v;
+            checkArgument(runRow >= row, "Runs must be added in flat order");
+            if (start == end) {
+                return this;
+            }
+
+            if (runRow > row) {
+                closeRows(runRow);
+            }
+
+            if (runs > rowOffsets[row] && start <= bounds[2 * runs - 1]) {
+                checkArgument(start >= bounds[2 * runs - 2], "Runs must be added in flat order");
+                bounds[2 * runs - 1] = Math.max(end, bounds[2 * runs - 1]);
+                return this;
+            }
+
+            if (2 * runs == bounds.length) {
+                bounds = Arrays.copyOf(bounds, 2 * bounds.length);
+            }
+            bounds[2 * runs] = start;
+            bounds[2 * runs + 1] = end;
+            runs++;
+            return this;
+        }
+
+        public RunLengthVolume build() {
+            closeRows(rowOffsets.length - 1);
+            return new RunLengthVolume(this);
+        }
+
+        /** Ends the rows before the given row, so that it becomes the current one */
+        private void closeRows(final int nextRow) {
+            for (int r = row + 1; r <= nextRow; r++) {
+                rowOffsets[r] = runs;
+            }
+            row = nextRow;
+        }
+    }
+    //endregion
+}
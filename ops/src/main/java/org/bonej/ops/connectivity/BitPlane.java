@@ -0,0 +1,106 @@
+package org.bonej.ops.connectivity;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A 2D binary plane stored as packed bits, e.g. a uv-slice of a 3D BitType image.
+ * Each row starts from a new word so that rows can be processed 64 elements at a time.
+ *
+ * @author Richard Domander
+ */
+public final class BitPlane {
+    final int uSize;
+    final int vSize;
+    /** Number of words used to store a row */
+    final int wordsPerRow;
+    /** Element (u, v) is stored in bit (u & 63) of word v * wordsPerRow + (u >>> 6) */
+    final long[] words;
+
+    /**
+     * Creates an empty (background) plane
+     *
+     * @throws IllegalArgumentException if uSize < 0 || vSize < 0
+     */
+    public BitPlane(final int uSize, final int vSize) throws IllegalArgumentException {
+        checkArgument(uSize >= 0 && vSize >= 0, "Plane size cannot be negative");
+
+        this.uSize = uSize;
+        this.vSize = vSize;
+        wordsPerRow = (uSize + 63) >>> 6;
+        words = new long[wordsPerRow * vSize];
+    }
+
+    public int getUSize() {
+        return uSize;
+    }
+
+    public int getVSize() {
+        return vSize;
+    }
+
+    /** Returns true if the element is foreground, false if it's background or outside the plane */
+    public boolean get(final long u, final long v) {
+        if (u < 0 || u >= uSize || v < 0 || v >= vSize) {
+            return false;
+        }
+
+        final int u0 = (int) u;
+        return ((words[(int) v * wordsPerRow + (u0 >>> 6)] >>> (u0 & 63)) & 1L) != 0;
+    }
+
+    /**
+     * Sets the element at (u, v)
+     *
+     * @throws ArrayIndexOutOfBoundsException if (u, v) is outside the plane
+     */
+    public void set(final int u, final int v, final boolean foreground) throws ArrayIndexOutOfBoundsException {
+        if (u < 0 || u >= uSize || v < 0 || v >= vSize) {
+            throw new ArrayIndexOutOfBoundsException("Position (" + u + ", " + v + ") is outside the plane");
+        }
+
+        final int index = v * wordsPerRow + (u >>> 6);
+        final long bit = 1L << (u & 63);
+        if (foreground) {
+            words[index] |= bit;
+        } else {
+            words[index] &= ~bit;
+        }
+    }
+
+    /**
+     * Sets the elements [uStart, uEnd) of row v foreground, a word at a time
+     *
+     * @throws ArrayIndexOutOfBoundsException if the run is outside the plane
+     */
+    public void setRun(final int v, final int uStart, final int uEnd) throws ArrayIndexOutOfBoundsException {
+        if (v < 0 || v >= vSize || uStart < 0 || uEnd > uSize || uStart > uEnd) {
+            throw new ArrayIndexOutOfBoundsException("Run [" + uStart + ", " + uEnd + ") on row " + v +
+                    " is outside the plane");
+        }
+
+        if (uStart == uEnd) {
+            return;
+        }
+
+        final int rowStart = v * wordsPerRow;
+        final int firstWord = uStart >>> 6;
+        final int lastWord = (uEnd - 1) >>> 6;
+        final long firstMask = -1L << (uStart & 63);
+        final long lastMask = -1L >>> (63 - ((uEnd - 1) & 63));
+        if (firstWord == lastWord) {
+            words[rowStart + firstWord] |= firstMask & lastMask;
+            return;
+        }
+
+        words[rowStart + firstWord] |= firstMask;
+        Arrays.fill(words, rowStart + firstWord + 1, rowStart + lastWord, -1L);
+        words[rowStart + lastWord] |= lastMask;
+    }
+
+    /** Sets all the elements in the plane background */
+    public void clear() {
+        Arrays.fill(words, 0L);
+    }
+}
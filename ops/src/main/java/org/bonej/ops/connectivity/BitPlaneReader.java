@@ -0,0 +1,55 @@
+package org.bonej.ops.connectivity;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.view.Views;
+
+/**
+ * Reads uv-planes of a 3D BitType interval into {@link BitPlane BitPlanes}.
+ * Planes of ArrayImgs and PlanarImgs are copied word by word.
+ * Other intervals, e.g. lazy converter views of grayscale images, are read element by element.
+ *
+ * @author Richard Domander
+ * @implNote Assumes that the interval starts from the origin
+ */
+final class BitPlaneReader {
+    private final RandomAccessibleInterval<BitType> interval;
+    /** Direct access to the bits of the interval, or null if it isn't backed by packed LongArrays */
+    private final PackedBitVolume packedBits;
+
+    BitPlaneReader(final RandomAccessibleInterval<BitType> interval) {
+        this.interval = interval;
+        packedBits = PackedBitVolume.of(interval).orElse(null);
+    }
+
+    /** Creates an empty plane with the size of a uv-plane of the interval */
+    BitPlane createPlane() {
+        return new BitPlane((int) interval.dimension(0), (int) interval.dimension(1));
+    }
+
+    /** Reads the uv-plane at w into the given plane */
+    void read(final long w, final BitPlane plane) {
+        if (packedBits != null) {
+            for (int v = 0; v < plane.vSize; v++) {
+                packedBits.copyRow(v, w, plane.words, v * plane.wordsPerRow);
+            }
+            return;
+        }
+
+        // Each element is read once, so lazy views, e.g. thresholded images, are evaluated once per plane
+        final Cursor<BitType> cursor = Views.flatIterable(Views.hyperSlice(interval, 2, w)).cursor();
+        for (int v = 0; v < plane.vSize; v++) {
+            for (int i = 0; i < plane.wordsPerRow; i++) {
+                final int lanes = Math.min(64, plane.uSize - (i << 6));
+                long word = 0;
+                for (int lane = 0; lane < lanes; lane++) {
+                    if (cursor.next().get()) {
+                        word |= 1L << lane;
+                    }
+                }
+                plane.words[v * plane.wordsPerRow + i] = word;
+            }
+        }
+    }
+}
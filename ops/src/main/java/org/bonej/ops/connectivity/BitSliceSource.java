@@ -0,0 +1,43 @@
+package org.bonej.ops.connectivity;
+
+/**
+ * A source of binary uv-slices of a 3D image, which can be read one at a time in w-order.
+ * Lets ops process images which don't fit in memory.
+ *
+ * @author Richard Domander
+ */
+public interface BitSliceSource {
+    /** Number of elements in the 1st dimension */
+    int getUSize();
+
+    /** Number of elements in the 2nd dimension */
+    int getVSize();
+
+    /** Number of slices, i.e. elements in the 3rd dimension */
+    int getWSize();
+
+    /**
+     * Reads a slice into the given plane
+     *
+     * @param w     Index of the slice, 0 <= w < getWSize()
+     * @param plane A plane with the size of the slice
+     */
+    void read(int w, BitPlane plane);
+
+    /**
+     * Returns true if the slices can be read in any order, and concurrently from several threads.
+     * Then ops may split the slices into slabs, which are processed in parallel.
+     */
+    default boolean supportsConcurrentReads() {
+        return false;
+    }
+
+    /**
+     * Returns the calibrated size (volume) of a single element
+     *
+     * @return Calibrated element size, or 1.0 if calibration cannot be determined
+     */
+    default double getCalibratedElementSize() {
+        return 1.0;
+    }
+}
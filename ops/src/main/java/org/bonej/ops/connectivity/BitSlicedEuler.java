@@ -0,0 +1,132 @@
+package org.bonej.ops.connectivity;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Sums the Euler deltas of the octants of a pair of planes 64 octants at a time.
+ *
+ * Each packed row word holds one element of 64 consecutive octants, so with shifts the words of the rows
+ * v - 1 and v of both planes give the eight neighbors of the octants as bit-slices.
+ * The Euler delta of an octant can be written as a sum over the background cells of its cube:
+ * it has +1 for each background vertex, -2 for each edge, +4 for each face and -8 if the whole cube is background
+ * (the polynomial expansion of {@link Connectivity#getDeltaEuler(int)} in the background neighbors).
+ * The sum over the 64 octants is then a weighted sum of 27 popcounts of ANDed bit-slices.
+ *
+ * @author Richard Domander
+ * @see Octant#getNeighborhoodPattern() for the numbering of the neighbors
+ */
+final class BitSlicedEuler {
+    private BitSlicedEuler() {}
+
+    /**
+     * Sums the changes in the Euler characteristic of all the octants whose last element is in the front plane
+     *
+     * @param back  The plane at w - 1
+     * @param front The plane at w
+     * @return Sum of the Euler deltas, the same as summing {@link Connectivity#getDeltaEuler(int)} of the patterns
+     *         of an {@link Octant} over the planes
+     * @throws NullPointerException     if either plane is null
+     * @throws IllegalArgumentException if the planes have different sizes
+     */
+    static int sumDeltaEuler(final BitPlane back, final BitPlane front)
+            throws NullPointerException, IllegalArgumentException {
+        return sumDeltaEuler(back, front, null);
+    }
+
+    /**
+     * Sums the changes in the Euler characteristic of the octants whose last element is in the front plane,
+     * except those in the skipped words
+     *
+     * @param back         The plane at w - 1
+     * @param front        The plane at w
+     * @param skippedWords If skippedWords[v * wordsPerRow + i] is true, the octants of word i on row v are known
+     *                     to be empty or full, and thus add nothing. Null if none are skipped.
+     * @throws NullPointerException     if either plane is null
+     * @throws IllegalArgumentException if the planes have different sizes
+     */
+    static int sumDeltaEuler(final BitPlane back, final BitPlane front, final boolean[] skippedWords)
+            throws NullPointerException, IllegalArgumentException {
+        checkNotNull(back, "Back plane cannot be null");
+        checkNotNull(front, "Front plane cannot be null");
+        checkArgument(back.uSize == front.uSize && back.vSize == front.vSize, "Planes must have the same size");
+
+        final int wordsPerRow = back.wordsPerRow;
+        final int tail = back.uSize & 63;
+        final long tailLanes = tail == 0 ? -1L : (1L << tail) - 1;
+        int sum = 0;
+
+        for (int v = 0; v < back.vSize; v++) {
+            final int rowStart = v * wordsPerRow;
+            final int previousRowStart = rowStart - wordsPerRow;
+            // Words at u - 64, whose top bits shift in as the neighbors at u - 1
+            long backRowBefore = 0;
+            long backPreviousRowBefore = 0;
+            long frontRowBefore = 0;
+            long frontPreviousRowBefore = 0;
+
+            for (int i = 0; i < wordsPerRow; i++) {
+                final long backRow = back.words[rowStart + i];
+                final long backPreviousRow = v > 0 ? back.words[previousRowStart + i] : 0;
+                final long frontRow = front.words[rowStart + i];
+                final long frontPreviousRow = v > 0 ? front.words[previousRowStart + i] : 0;
+                final long lanes = i == wordsPerRow - 1 ? tailLanes : -1L;
+
+                if (skippedWords == null || !skippedWords[rowStart + i]) {
+                    sum += sumBackground(~shiftIn(backPreviousRow, backPreviousRowBefore) & lanes,
+                            ~shiftIn(backRow, backRowBefore) & lanes, ~backPreviousRow & lanes, ~backRow & lanes,
+                            ~shiftIn(frontPreviousRow, frontPreviousRowBefore) & lanes,
+                            ~shiftIn(frontRow, frontRowBefore) & lanes, ~frontPreviousRow & lanes, ~frontRow & lanes);
+                }
+
+                backRowBefore = backRow;
+                backPreviousRowBefore = backPreviousRow;
+                frontRowBefore = frontRow;
+                frontPreviousRowBefore = frontPreviousRow;
+            }
+        }
+
+        return sum;
+    }
+
+    /** Returns the word with each bit moved up one lane, i.e. the elements at u - 1 */
+    private static long shiftIn(final long word, final long wordBefore) {
+        return word << 1 | wordBefore >>> 63;
+    }
+
+    /**
+     * Sums the Euler deltas of 64 octants from their background bit-slices
+     *
+     * @param b0 Lanes where the 1st neighbor is background, and so on, see {@link Octant}
+     */
+    private static int sumBackground(final long b0, final long b1, final long b2, final long b3, final long b4,
+                                     final long b5, final long b6, final long b7) {
+        final int vertices = Long.bitCount(b0) + Long.bitCount(b1) + Long.bitCount(b2) + Long.bitCount(b3) +
+                Long.bitCount(b4) + Long.bitCount(b5) + Long.bitCount(b6) + Long.bitCount(b7);
+
+        final long e01 = b0 & b1;
+        final long e23 = b2 & b3;
+        final long e45 = b4 & b5;
+        final long e67 = b6 & b7;
+        final long e02 = b0 & b2;
+        final long e13 = b1 & b3;
+        final long e46 = b4 & b6;
+        final long e57 = b5 & b7;
+        final long e04 = b0 & b4;
+        final long e15 = b1 & b5;
+        final long e26 = b2 & b6;
+        final long e37 = b3 & b7;
+        final int edges = Long.bitCount(e01) + Long.bitCount(e23) + Long.bitCount(e45) + Long.bitCount(e67) +
+                Long.bitCount(e02) + Long.bitCount(e13) + Long.bitCount(e46) + Long.bitCount(e57) +
+                Long.bitCount(e04) + Long.bitCount(e15) + Long.bitCount(e26) + Long.bitCount(e37);
+
+        final long wBefore = e01 & e23;
+        final long wAt = e45 & e67;
+        final int faces = Long.bitCount(wBefore) + Long.bitCount(wAt) + Long.bitCount(e01 & e45) +
+                Long.bitCount(e23 & e67) + Long.bitCount(e02 & e46) + Long.bitCount(e13 & e57);
+
+        final int cubes = Long.bitCount(wBefore & wAt);
+
+        return vertices - 2 * edges + 4 * faces - 8 * cubes;
+    }
+}
@@ -0,0 +1,434 @@
+package org.bonej.ops.connectivity;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.view.Views;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Counts the foreground elements and their intersections with the borders of a 3D binary interval.
+ * The counts are needed to convert the Euler characteristic of the interval (χ)
+ * to its contribution to the Euler characteristic of whatever it is cut from (Δχ).
+ *
+ * Every count is a sum over the six faces of the interval, so the faces are visited only once,
+ * one row at a time. All the elements needed for a row are in the row itself and the previous row.
+ * The terms that each position of a row adds to are defined once in {@link #visitPosition}, so that
+ * {@link LabelBorderCounts} and {@link LevelBorderCounts} only provide their own way of accumulating them.
+ *
+ * @author Michael Doube
+ * @author Richard Domander
+ * @implNote Reproduces the counts of the legacy code, including its quirks in the loop limits
+ */
+final class BorderCounts {
+    /** Orientation of a face of the interval */
+    enum Face {
+        /** Faces at w = 0 and w = wSize - 1, whose rows run along u, and row index y = v */
+        UV,
+        /** Faces at v = 0 and v = vSize - 1, whose rows run along u, and row index y = w */
+        UW,
+        /** Faces at u = 0 and u = uSize - 1, whose rows run along v, and row index y = w */
+        VW
+    }
+
+    /** A term of the counts */
+    enum Term {
+        CORNERS, EDGES, FACES, EDGE_VERTICES, FACE_VERTICES, FACE_EDGES
+    }
+
+    /** The elements around position x of a face row, which decide what the position adds to a term */
+    enum Neighbors {
+        /** Adds 1 if the element at x is foreground */
+        ELEMENT,
+        /** Adds 1 if the element at x or x - 1 is foreground */
+        PAIR,
+        /** Adds 1 if the element at x of the row or the previous row is foreground */
+        COLUMN,
+        /** Adds 1 if any of the elements at x - 1 and x of the row or the previous row is foreground */
+        QUAD,
+        /**
+         * Adds 2 if the element at x is foreground, otherwise 1 for the element at x - 1 and 1 for the element at x
+         * of the previous row, if they are foreground. These are the intersections of element edges and a face.
+         */
+        CROSSINGS
+    }
+
+    /** Receives the terms of the positions of a face row from {@link #visitRow(Face, int, int, int, TermVisitor)} */
+    @FunctionalInterface
+    interface TermVisitor {
+        /**
+         * Adds to a term at position x of the row
+         *
+         * @param term      The term that the position adds to
+         * @param neighbors The elements which decide what the position adds
+         * @param x         Position in the row
+         */
+        void visit(Term term, Neighbors neighbors, int x);
+    }
+
+    /** Number of foreground elements in the corners of the interval */
+    long corners;
+    /** Number of foreground elements on the edges of the interval, excluding corners */
+    long edges;
+    /** Number of foreground elements on the faces of the interval, excluding edges */
+    long faces;
+    /** Number of intersections between foreground element vertices and the edges of the interval */
+    long edgeVertices;
+    /** Number of intersections between foreground element vertices and the faces of the interval */
+    long faceVertices;
+    /**
+     * Number of intersections between foreground element edges and the faces of the interval
+     *
+     * @implNote The legacy code had a loop over the vw-faces, which read elements outside the interval,
+     *           and thus never added to the count. It's omitted here.
+     */
+    long faceEdges;
+
+    /**
+     * Counts the border elements of the given interval
+     *
+     * @param parallel If true, the faces are counted concurrently
+     * @implNote Assumes that the interval starts from the origin
+     */
+    static BorderCounts count(final RandomAccessibleInterval<BitType> interval, final boolean parallel) {
+        final List<Supplier<BorderCounts>> faceCounters = new ArrayList<>();
+
+        for (final long w : borderPositions(interval.dimension(2))) {
+            faceCounters.add(() -> countFace(interval, Face.UV, w));
+        }
+
+        for (final long v : borderPositions(interval.dimension(1))) {
+            faceCounters.add(() -> countFace(interval, Face.UW, v));
+        }
+
+        for (final long u : borderPositions(interval.dimension(0))) {
+            faceCounters.add(() -> countFace(interval, Face.VW, u));
+        }
+
+        final Stream<Supplier<BorderCounts>> stream =
+                parallel ? faceCounters.parallelStream() : faceCounters.stream();
+        return stream.map(Supplier::get).reduce(new BorderCounts(), BorderCounts::sum);
+    }
+
+    /**
+     * Counts the border elements on a face of the interval
+     *
+     * @param face     Orientation of the face
+     * @param position Position of the face on the axis perpendicular to it, e.g. w for a uv-face
+     */
+    static BorderCounts countFace(final RandomAccessibleInterval<BitType> interval, final Face face,
+                                  final long position) {
+        switch (face) {
+            case UV:
+                final BitPlaneReader reader = new BitPlaneReader(interval);
+                final BitPlane plane = reader.createPlane();
+                reader.read(position, plane);
+                return countFace(face, plane);
+            case UW:
+                return countFace(face, readFace(Views.hyperSlice(interval, 1, position)));
+            default:
+                return countFace(face, readFace(Views.hyperSlice(interval, 0, position)));
+        }
+    }
+
+    /**
+     * Counts the border elements on a face of the interval
+     *
+     * @param face  Orientation of the face
+     * @param plane The elements of the face, rows along the u-axis of the plane
+     */
+    static BorderCounts countFace(final Face face, final BitPlane plane) {
+        final BorderCounts counts = new BorderCounts();
+        boolean[] previousRow = new boolean[plane.uSize];
+        boolean[] row = new boolean[plane.uSize];
+
+        for (int y = 0; y <= plane.vSize; y++) {
+            for (int x = 0; x < plane.uSize; x++) {
+                row[x] = plane.get(x, y);
+            }
+            counts.addRow(face, previousRow, row, y, plane.vSize);
+
+            final boolean[] swap = previousRow;
+            previousRow = row;
+            row = swap;
+        }
+
+        return counts;
+    }
+
+    /** Returns the sum of the counts in a and b */
+    static BorderCounts sum(final BorderCounts a, final BorderCounts b) {
+        final BorderCounts sum = new BorderCounts();
+        sum.add(a);
+        sum.add(b);
+        return sum;
+    }
+
+    /** Adds the other counts to these counts */
+    void add(final BorderCounts other) {
+        corners += other.corners;
+        edges += other.edges;
+        faces += other.faces;
+        edgeVertices += other.edgeVertices;
+        faceVertices += other.faceVertices;
+        faceEdges += other.faceEdges;
+    }
+
+    /** Subtracts the other counts from these counts */
+    void subtract(final BorderCounts other) {
+        corners -= other.corners;
+        edges -= other.edges;
+        faces -= other.faces;
+        edgeVertices -= other.edgeVertices;
+        faceVertices -= other.faceVertices;
+        faceEdges -= other.faceEdges;
+    }
+
+    /**
+     * Adds the counts of a row of a face
+     *
+     * Rows have to be added for all y in [0, ySize]. Row ySize is outside the face, and should be empty.
+     *
+     * @param face        Orientation of the face
+     * @param previousRow Row y - 1 of the face, empty if y == 0
+     * @param row         Row y of the face
+     * @param y           Index of the row
+     * @param ySize       Number of rows in the face
+     */
+    void addRow(final Face face, final boolean[] previousRow, final boolean[] row, final int y, final int ySize) {
+        visitRow(face, row.length, y, ySize, (term, neighbors, x) -> add(term,
+                count(neighbors, at(previousRow, x - 1), at(previousRow, x), at(row, x - 1), at(row, x))));
+    }
+
+    /**
+     * Adds the counts of position x in a row of a face, i.e. the terms of
+     * {@link #addRow(Face, boolean[], boolean[], int, int)} which are counted at x.
+     *
+     * The counts of a row are the sum of the counts of its positions x in [0, xSize],
+     * and they depend only on the elements at x - 1 and x of the row and the previous row.
+     * Thus a change in an element at (x, y) affects only the positions x and x + 1 of rows y and y + 1.
+     *
+     * @param previous      Element at x of row y - 1
+     * @param previousLeft  Element at x - 1 of row y - 1
+     * @param element       Element at x of row y
+     * @param left          Element at x - 1 of row y
+     * @param x             Position in the row
+     * @param xSize         Length of the rows
+     * @param y             Index of the row
+     * @param ySize         Number of rows in the face
+     * @implNote Elements outside the face must be false
+     */
+    void addPosition(final Face face, final boolean previous, final boolean previousLeft, final boolean element,
+                     final boolean left, final int x, final int xSize, final int y, final int ySize) {
+        visitPosition(face, x, xSize, y, ySize, (term, neighbors, position) -> add(term,
+                count(neighbors, toInt(previousLeft), toInt(previous), toInt(left), toInt(element))));
+    }
+
+    /**
+     * Reports the terms that the positions x in [0, xSize] of a face row add to, and which of their neighbors
+     * decide what they add. This is where the counts of the binary, label and level counters are defined.
+     *
+     * @param face    Orientation of the face
+     * @param xSize   Length of the rows
+     * @param y       Index of the row in [0, ySize]
+     * @param ySize   Number of rows in the face
+     * @param visitor Receives the terms
+     * @see #visitPosition(Face, int, int, int, int, TermVisitor)
+     */
+    static void visitRow(final Face face, final int xSize, final int y, final int ySize,
+                         final TermVisitor visitor) {
+        for (int x = 0; x <= xSize; x++) {
+            visitPosition(face, x, xSize, y, ySize, visitor);
+        }
+    }
+
+    /**
+     * Reports the terms that position x of a face row adds to
+     *
+     * @see #visitRow(Face, int, int, int, TermVisitor)
+     */
+    static void visitPosition(final Face face, final int x, final int xSize, final int y, final int ySize,
+                              final TermVisitor visitor) {
+        final boolean borderRow = y == 0 || y == ySize - 1;
+        final boolean innerRow = y >= 1 && y <= ySize - 2;
+        final boolean lowerRow = y >= 1 && y <= ySize - 1;
+        final boolean inRow = x < xSize;
+        final boolean end = inRow && (x == 0 || x == xSize - 1);
+        final boolean inner = x >= 1 && x <= xSize - 2;
+
+        switch (face) {
+            case UV:
+                if (borderRow) {
+                    if (end) {
+                        visitor.visit(Term.CORNERS, Neighbors.ELEMENT, x);
+                    }
+                    if (inner) {
+                        visitor.visit(Term.EDGES, Neighbors.ELEMENT, x);
+                    }
+                    if (x >= 1 && x <= xSize - 1) {
+                        visitor.visit(Term.EDGE_VERTICES, Neighbors.PAIR, x);
+                    }
+                }
+                if (innerRow) {
+                    if (end) {
+                        visitor.visit(Term.EDGES, Neighbors.ELEMENT, x);
+                    }
+                    if (inner) {
+                        visitor.visit(Term.FACES, Neighbors.ELEMENT, x);
+                    }
+                }
+                if (lowerRow && end) {
+                    visitor.visit(Term.EDGE_VERTICES, Neighbors.COLUMN, x);
+                }
+                if (y < ySize && inRow) {
+                    visitor.visit(Term.FACE_VERTICES, Neighbors.QUAD, x);
+                }
+                visitor.visit(Term.FACE_EDGES, Neighbors.CROSSINGS, x);
+                break;
+            case UW:
+                if (innerRow) {
+                    if (end) {
+                        visitor.visit(Term.EDGES, Neighbors.ELEMENT, x);
+                    }
+                    if (inner) {
+                        visitor.visit(Term.FACES, Neighbors.ELEMENT, x);
+                    }
+                }
+                if (lowerRow) {
+                    if (end) {
+                        visitor.visit(Term.EDGE_VERTICES, Neighbors.COLUMN, x);
+                    }
+                    if (inRow && x >= 1) {
+                        visitor.visit(Term.FACE_VERTICES, Neighbors.QUAD, x);
+                    }
+                }
+                if (y >= 1 && inRow) {
+                    visitor.visit(Term.FACE_EDGES, Neighbors.COLUMN, x);
+                }
+                visitor.visit(Term.FACE_EDGES, Neighbors.PAIR, x);
+                break;
+            case VW:
+                if (innerRow && inner) {
+                    visitor.visit(Term.FACES, Neighbors.ELEMENT, x);
+                }
+                if (lowerRow && inRow) {
+                    visitor.visit(Term.FACE_VERTICES, Neighbors.QUAD, x);
+                }
+                if (y >= 1 && inRow) {
+                    visitor.visit(Term.FACE_EDGES, Neighbors.COLUMN, x);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Calculates a correction value to convert the Euler number of a stack to
+     * the stack's contribution to the Euler number of whatever it is cut from.
+     */
+    double edgeCorrection() {
+        return edgeCorrection(corners, edges, faces, edgeVertices, faceVertices, faceEdges);
+    }
+
+    /**
+     * Calculates the edge correction from the counts
+     *
+     * @see #edgeCorrection()
+     */
+    static double edgeCorrection(final long corners, final long edges, final long faces, final long edgeVertices,
+                                 final long faceVertices, final long faceEdges) {
+        final long chiZero = corners;
+        final long e = edges + 3 * chiZero;
+        // there are already 6 * chiZero in 2 * e, so remove 3 * chiZero
+        final long c = faces + 2 * e - 3 * chiZero;
+        final long d = edgeVertices + chiZero;
+        final long a = faceVertices;
+        final long b = faceEdges;
+
+        final double chiOne = d - e;
+        final double chiTwo = a - b + c;
+
+        return chiTwo / 2.0 + chiOne / 4.0 + chiZero / 8.0;
+    }
+
+    //region -- Helper methods --
+
+    /** Returns the distinct positions of the first and last element in a dimension of the given size */
+    static long[] borderPositions(final long size) {
+        return size > 1 ? new long[]{0, size - 1} : new long[]{0};
+    }
+
+    /** Reads a 2D face of the interval into a plane */
+    private static BitPlane readFace(final RandomAccessibleInterval<BitType> face) {
+        final BitPlane plane = new BitPlane((int) face.dimension(0), (int) face.dimension(1));
+        final Cursor<BitType> cursor = Views.flatIterable(face).cursor();
+        for (int y = 0; y < plane.vSize; y++) {
+            for (int x = 0; x < plane.uSize; x++) {
+                if (cursor.next().get()) {
+                    plane.set(x, y, true);
+                }
+            }
+        }
+        return plane;
+    }
+
+    /** Returns 1 if the element at x is foreground, 0 if it's background or outside the row */
+    private static int at(final boolean[] row, final int x) {
+        return x >= 0 && x < row.length && row[x] ? 1 : 0;
+    }
+
+    private static int toInt(final boolean b) {
+        return b ? 1 : 0;
+    }
+
+    /**
+     * Returns what a position adds to a term
+     *
+     * @param previousLeft 1 if the element at x - 1 of the previous row is foreground, 0 otherwise
+     * @param previous     1 if the element at x of the previous row is foreground, 0 otherwise
+     * @param left         1 if the element at x - 1 of the row is foreground, 0 otherwise
+     * @param element      1 if the element at x of the row is foreground, 0 otherwise
+     */
+    private static int count(final Neighbors neighbors, final int previousLeft, final int previous, final int left,
+                             final int element) {
+        switch (neighbors) {
+            case ELEMENT:
+                return element;
+            case PAIR:
+                return element | left;
+            case COLUMN:
+                return element | previous;
+            case QUAD:
+                return element | left | previous | previousLeft;
+            default:
+                return element == 1 ? 2 : left + previous;
+        }
+    }
+
+    private void add(final Term term, final int count) {
+        switch (term) {
+            case CORNERS:
+                corners += count;
+                break;
+            case EDGES:
+                edges += count;
+                break;
+            case FACES:
+                faces += count;
+                break;
+            case EDGE_VERTICES:
+                edgeVertices += count;
+                break;
+            case FACE_VERTICES:
+                faceVertices += count;
+                break;
+            default:
+                faceEdges += count;
+                break;
+        }
+    }
+    //endregion
+}
@@ -4,14 +4,17 @@ import net.imagej.ImgPlus;
 import net.imagej.ops.Contingent;
 import net.imagej.ops.Op;
 import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
-import net.imglib2.Cursor;
-import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.logic.BitType;
-import net.imglib2.view.Views;
+import org.bonej.ops.binary.BlockOccupancy;
 import org.bonej.utilities.CalibratedAxisUtil;
+import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
 import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * An Op which determines the number of connected structures in an ImgPlus image
@@ -42,17 +45,23 @@ import java.util.Arrays;
  * @author Richard Domander
  * @implNote Assuming that all axis are linear
  * @implNote Assuming that all dimensions are spatial
- * @implNote Assuming that there's only one continuous foreground particle in the image
+ * @implNote Assuming that there's only one continuous foreground particle in the image,
+ *           see {@link org.bonej.ops.particles.ParticleLabelling} for isolating one
  * @todo Split into smaller ops
  */
 @Plugin(type = Op.class, name = "connectivityCharacteristics")
 public class Connectivity extends AbstractUnaryFunctionOp<ImgPlus<BitType>, Connectivity.Characteristics>
         implements Contingent {
-    private static final int U_INDEX = 0;
-    private static final int V_INDEX = 1;
     private static final int W_INDEX = 2;
 
-    private static final int[] EULER_LUT = new int[256];
+    static final int[] EULER_LUT = new int[256];
+
+    /**
+     * Changes in the Euler characteristic indexed directly by the occupancy pattern of an octant
+     *
+     * @see Octant#getNeighborhoodPattern()
+     */
+    private static final int[] OCTANT_EULER_LUT = new int[256];
 
     //region fill EULER_LUT
     static {
@@ -175,16 +184,38 @@ public class Connectivity extends AbstractUnaryFunctionOp<ImgPlus<BitType>, Conn
     }
     //endregion
 
+    //region fill OCTANT_EULER_LUT
+    static {
+        // An empty neighborhood does not change the Euler characteristic
+        for (int pattern = 1; pattern < 256; pattern++) {
+            OCTANT_EULER_LUT[pattern] = EULER_LUT[eulerLutIndex(pattern)];
+        }
+    }
+    //endregion
+
+    /**
+     * If true, the Euler characteristic is summed in w-slabs concurrently.
+     * The result is exactly the same as in the serial calculation.
+     */
+    @Parameter(required = false)
+    private boolean parallel = true;
+
+    /**
+     * Optional block occupancy of the image.
+     * If given, the octants in blocks whose neighborhood is all empty or all full are skipped.
+     */
+    @Parameter(required = false)
+    private BlockOccupancy blocks = null;
+
+    /**
+     * @throws IllegalArgumentException if blocks were given for an image of a different size
+     */
     @Override
-    public Characteristics compute1(final ImgPlus<BitType> imgPlus) {
-        final double eulerCharacteristic = calculateEulerCharacteristic(imgPlus);
-        final ConnectivityAccess connectivityAccess = new ConnectivityAccess(imgPlus);
-        final double deltaChi = calculateDeltaChi(eulerCharacteristic, connectivityAccess);
-        /** The connectivity of the sample = 1 - Δ(χ) */
-        final double connectivity = 1 - deltaChi;
-        final double connectivityDensity = calculateConnectivityDensity(connectivity, imgPlus);
+    public Characteristics compute1(final ImgPlus<BitType> imgPlus) throws IllegalArgumentException {
+        checkArgument(blocks == null || blocks.matches(imgPlus), "Block occupancy doesn't match the image");
 
-        return new Characteristics(eulerCharacteristic, deltaChi, connectivity, connectivityDensity);
+        final double calibratedImgVolume = CalibratedAxisUtil.calibratedSpatialSpaceSize(imgPlus);
+        return calculateCharacteristics(imgPlus, calibratedImgVolume, parallel, blocks);
     }
 
     @Override
@@ -194,445 +225,207 @@ public class Connectivity extends AbstractUnaryFunctionOp<ImgPlus<BitType>, Conn
 
     //region -- Helper methods --
 
-    /** Calculates the Euler characteristic of the object in the image as though floating in space (χ). */
-    private static double calculateEulerCharacteristic(final ImgPlus<BitType> imgPlus) {
-        final int[] eulerSums = new int[(int) imgPlus.dimension(W_INDEX)];
-        final Cursor<BitType> cursor = imgPlus.localizingCursor();
-        final Octant octant = new Octant(imgPlus);
-
-        cursor.forEachRemaining(c -> {
-            long u = cursor.getLongPosition(U_INDEX);
-            long v = cursor.getLongPosition(V_INDEX);
-            long w = cursor.getLongPosition(W_INDEX);
-            octant.setNeighborhood(u, v, w);
-            eulerSums[(int) w] += getDeltaEuler(octant);
-        });
+    /**
+     * Calculates the connectivity characteristics of the foreground in the interval
+     *
+     * @param interval            A binary interval, e.g. an image or a lazy view of one
+     * @param calibratedImgVolume Calibrated size of the interval
+     * @param blocks              Block occupancy of the interval, or null
+     * @implNote Assumes that the interval starts from the origin
+     */
+    static Characteristics calculateCharacteristics(final RandomAccessibleInterval<BitType> interval,
+                                                    final double calibratedImgVolume, final boolean parallel,
+                                                    final BlockOccupancy blocks) {
+        final double eulerCharacteristic = calculateEulerCharacteristic(interval, parallel, blocks);
+        final double deltaChi = calculateDeltaChi(eulerCharacteristic, interval, parallel);
+        /** The connectivity of the sample = 1 - Δ(χ) */
+        final double connectivity = 1 - deltaChi;
+        final double connectivityDensity = connectivity / calibratedImgVolume;
 
-        return Arrays.stream(eulerSums).sum() / 8.0;
+        return new Characteristics(eulerCharacteristic, deltaChi, connectivity, connectivityDensity);
     }
 
-    private static int getDeltaEuler(final Octant octant) {
-        if (octant.isNeighborhoodEmpty()) {
-            return 0;
-        }
-
-        int index = 1;
-        if (octant.isNeighborForeground(8)) {
-            if (octant.isNeighborForeground(1)) { index |= 128; }
-            if (octant.isNeighborForeground(2)) { index |= 64; }
-            if (octant.isNeighborForeground(3)) { index |= 32; }
-            if (octant.isNeighborForeground(4)) { index |= 16; }
-            if (octant.isNeighborForeground(5)) { index |= 8; }
-            if (octant.isNeighborForeground(6)) { index |= 4; }
-            if (octant.isNeighborForeground(7)) { index |= 2; }
-        } else if (octant.isNeighborForeground(7)) {
-            if (octant.isNeighborForeground(2)) { index |= 128; }
-            if (octant.isNeighborForeground(4)) { index |= 64; }
-            if (octant.isNeighborForeground(1)) { index |= 32; }
-            if (octant.isNeighborForeground(3)) { index |= 16; }
-            if (octant.isNeighborForeground(6)) { index |= 8; }
-            if (octant.isNeighborForeground(5)) { index |= 2; }
-        } else if (octant.isNeighborForeground(6)) {
-            if (octant.isNeighborForeground(3)) { index |= 128; }
-            if (octant.isNeighborForeground(1)) { index |= 64; }
-            if (octant.isNeighborForeground(4)) { index |= 32; }
-            if (octant.isNeighborForeground(2)) { index |= 16; }
-            if (octant.isNeighborForeground(5)) { index |= 4; }
-        } else if (octant.isNeighborForeground(5)) {
-            if (octant.isNeighborForeground(4)) { index |= 128; }
-            if (octant.isNeighborForeground(3)) { index |= 64; }
-            if (octant.isNeighborForeground(2)) { index |= 32; }
-            if (octant.isNeighborForeground(1)) { index |= 16; }
-        } else if (octant.isNeighborForeground(4)) {
-            if (octant.isNeighborForeground(1)) { index |= 8; }
-            if (octant.isNeighborForeground(3)) { index |= 4; }
-            if (octant.isNeighborForeground(2)) { index |= 2; }
-        } else if (octant.isNeighborForeground(3)) {
-            if (octant.isNeighborForeground(2)) { index |= 8; }
-            if (octant.isNeighborForeground(1)) { index |= 4; }
-        } else if (octant.isNeighborForeground(2)) {
-            if (octant.isNeighborForeground(1)) { index |= 2; }
-        }
-
-        return EULER_LUT[index];
+    /** Calculates the Euler characteristic of the object in the image as though floating in space (χ). */
+    private static double calculateEulerCharacteristic(final RandomAccessibleInterval<BitType> interval,
+                                                       final boolean parallel, final BlockOccupancy blocks) {
+        return sumDeltaEuler(interval, parallel, blocks) / 8.0;
     }
 
     /**
-     * Calculates Δ(χ): the sample's contribution to the Euler characteristic of the structure to which it's connected.
-     * Calculated by counting the intersections of foreground elements, and the edges of the imgPlus.
+     * Sums the changes in the Euler characteristic of all the octants in the interval
+     *
+     * @param parallel If true, the interval is split into w-slabs which are summed concurrently
+     * @return Sum of the Euler deltas, i.e. 8χ
+     * @implNote Assumes that the interval starts from the origin
      */
-    private static double calculateDeltaChi(final double eulerCharacteristic,
-                                            final ConnectivityAccess connectivityAccess) {
-        final double edgeCorrection = calculateEdgeCorrection(connectivityAccess);
-        return eulerCharacteristic - edgeCorrection;
+    static long sumDeltaEuler(final RandomAccessibleInterval<BitType> interval, final boolean parallel) {
+        return sumDeltaEuler(interval, parallel, null);
     }
 
     /**
-     * Calculate a correction value to convert the Euler number of a stack to
-     * the stack's contribution to the Euler number of whatever it is cut from.
+     * Sums the changes in the Euler characteristic of all the octants in the interval
+     *
+     * @param parallel If true, the interval is split into w-slabs which are summed concurrently
+     * @param blocks   Block occupancy of the interval used to skip uniform regions, or null
+     * @return Sum of the Euler deltas, i.e. 8χ
+     * @implNote Assumes that the interval starts from the origin
      */
-    private static double calculateEdgeCorrection(final ConnectivityAccess connectivityAccess) {
-        final long chiZero = countBorderCornerForegroundElements(connectivityAccess);
-        final long e = countBorderEdgeForegroundElements(connectivityAccess) + 3 * chiZero;
-        final long c = countBorderFaceForegroundElements(connectivityAccess) + 2 * e - 3 * chiZero;
-
-        // there are already 6 * chiZero in 2 * e, so remove 3 * chiZero
-
-        final long d = countStackEdgeVertexIntersections(connectivityAccess) + chiZero;
-        final long a = countStackFaceVertexIntersections(connectivityAccess);
-        final long b = getFaceEdges(connectivityAccess);
-
-        final double chiOne = d - e;
-        final double chiTwo = a - b + c;
+    static long sumDeltaEuler(final RandomAccessibleInterval<BitType> interval, final boolean parallel,
+                              final BlockOccupancy blocks) {
+        final int wSize = (int) interval.dimension(W_INDEX);
+        final int[] eulerSums = new int[wSize];
+        final int slabs = parallel ? Math.max(1, Math.min(wSize, Runtime.getRuntime().availableProcessors())) : 1;
+        final IntStream slabStream = IntStream.range(0, slabs);
+
+        (parallel ? slabStream.parallel() : slabStream).forEach(slab -> {
+            final int wStart = (int) ((long) slab * wSize / slabs);
+            final int wEnd = (int) ((long) (slab + 1) * wSize / slabs);
+            sumSlabEulerCharacteristics(interval, blocks, eulerSums, wStart, wEnd);
+        });
 
-        return chiTwo / 2.0 + chiOne / 4.0 + chiZero / 8.0;
+        return Arrays.stream(eulerSums).asLongStream().sum();
     }
 
     /**
-     * "Count the number of intersections between voxel edges and stack faces."
+     * Sums the Euler characteristics of the elements in the slices [wStart, wEnd) of the image
      *
-     * @implNote Blindly copying legacy code because I don't know what's happening here
+     * @implNote Each slab reads its own planes so that slabs can be summed in separate threads.
+     *           Only two planes of the slab are resident at a time, and they're summed 64 octants at a time
+     *           by {@link BitSlicedEuler}.
+     *           A slab writes only to its own slices in eulerSums.
      */
-    private static long getFaceEdges(final ConnectivityAccess connectivityAccess) {
-        long intersections = 0;
-
-        // uv-plane faces
-        for (long w = 0; w < connectivityAccess.wSize; w += connectivityAccess.wInc) {
-            connectivityAccess.access.setPosition(w, W_INDEX);
-            for (long v = 0; v <= connectivityAccess.vSize; v++) {
-                for (long u = 0; u <= connectivityAccess.uSize; u++) {
-                    connectivityAccess.access.setPosition(u, U_INDEX);
-                    connectivityAccess.access.setPosition(v, V_INDEX);
-                    final boolean a = connectivityAccess.access.get().get();
-                    if (a) {
-                        intersections = intersections + 2;
-                        continue;
-                    }
-
-                    connectivityAccess.access.setPosition(u - 1, U_INDEX);
-                    connectivityAccess.access.setPosition(v, V_INDEX);
-                    final boolean b = connectivityAccess.access.get().get();
-                    if (b) {
-                        intersections++;
-                    }
-
-                    connectivityAccess.access.setPosition(u, U_INDEX);
-                    connectivityAccess.access.setPosition(v - 1, V_INDEX);
-                    final boolean c = connectivityAccess.access.get().get();
-                    if (c) {
-                        intersections++;
-                    }
-                }
-            }
+    private static void sumSlabEulerCharacteristics(final RandomAccessibleInterval<BitType> interval,
+                                                    final BlockOccupancy blocks, final int[] eulerSums,
+                                                    final int wStart, final int wEnd) {
+        final BitPlaneReader reader = new BitPlaneReader(interval);
+        BitPlane back = reader.createPlane();
+        BitPlane front = reader.createPlane();
+        final boolean[] skippedWords = blocks == null ? null : new boolean[back.words.length];
+        long skippedLayer = -1;
+        if (wStart > 0) {
+            reader.read(wStart - 1, back);
         }
 
-        // @todo any reason this stuff can't be done in the same loop?
-        // uw-plane faces
-        for (long v = 0; v <= connectivityAccess.vSize; v += connectivityAccess.vInc) {
-            connectivityAccess.access.setPosition(v, V_INDEX);
-            for (long u = 0; u <= connectivityAccess.uSize; u++) {
-                connectivityAccess.access.setPosition(u, U_INDEX);
-                // @todo why does w (z) start from 1?
-                for (long w = 1; w <= connectivityAccess.wSize; w++) {
-                    if (isNeighborhoodForeground(connectivityAccess.access, w, W_INDEX)) {
-                        intersections++;
-                    }
-                }
+        for (int w = wStart; w < wEnd; w++) {
+            reader.read(w, front);
+            if (blocks != null && w / blocks.getBlockSize() != skippedLayer) {
+                skippedLayer = w / blocks.getBlockSize();
+                findSkippedWords(blocks, skippedLayer, front, skippedWords);
             }
-        }
+            eulerSums[w] = BitSlicedEuler.sumDeltaEuler(back, front, skippedWords);
 
-        for (long v = 0; v <= connectivityAccess.vSize; v += connectivityAccess.vInc) {
-            connectivityAccess.access.setPosition(v, V_INDEX);
-            for (long w = 0; w <= connectivityAccess.wSize; w++) {
-                connectivityAccess.access.setPosition(w, W_INDEX);
-                // @todo should u start from 1 here?
-                for (long u = 0; u <= connectivityAccess.uSize; u++) {
-                    if (isNeighborhoodForeground(connectivityAccess.access, u, U_INDEX)) {
-                        intersections++;
-                    }
-                }
-            }
-        }
-
-        // @todo any reason this stuff can't be done in the same loop?
-        // vw-plane faces
-        for (long u = 0; u < connectivityAccess.uSize; u += connectivityAccess.uInc) {
-            connectivityAccess.access.setPosition(u, U_INDEX);
-            for (long v = 0; v <= connectivityAccess.vSize; v++) {
-                connectivityAccess.access.setPosition(v, V_INDEX);
-                for (long w = 1; w <= connectivityAccess.wSize; w++) {
-                    if (isNeighborhoodForeground(connectivityAccess.access, w, W_INDEX)) {
-                        intersections++;
-                    }
-                }
-            }
-        }
-
-        for (long u = 0; u < connectivityAccess.uSize; u += connectivityAccess.uInc) {
-            connectivityAccess.access.setPosition(u, U_INDEX);
-            for (long w = 0; w <= connectivityAccess.wSize; w++) {
-                connectivityAccess.access.setPosition(w, W_INDEX);
-                for (long v = 1; v <= connectivityAccess.vSize; v++) {
-                    if (isNeighborhoodForeground(connectivityAccess.access, v, W_INDEX)) {
-                        intersections++;
-                    }
-                }
-            }
+            final BitPlane swap = back;
+            back = front;
+            front = swap;
         }
-
-        return intersections;
     }
 
     /**
-     * Count the number of intersections between foreground voxel vertices
-     * and the border faces of the interval
+     * Finds the words of a plane whose octants are all empty or full
+     *
+     * @param layer        Index of the layer of blocks the plane is in
+     * @param skippedWords Flags for the words of the plane, see {@link BitSlicedEuler#sumDeltaEuler}
      */
-    private static long countStackFaceVertexIntersections(final ConnectivityAccess connectivityAccess) {
-        long intersections = 0;
-
-        // uv-plane faces
-        for (long w = 0; w < connectivityAccess.wSize; w += connectivityAccess.wInc) {
-            connectivityAccess.access.setPosition(w, W_INDEX);
-            for (long v = 0; v < connectivityAccess.vSize; v++) {
-                for (long u = 0; u < connectivityAccess.uSize; u++) {
-                    if (isNeighborhoodForeground(connectivityAccess.access, u, v, U_INDEX, V_INDEX)) {
-                        intersections++;
-                    }
-                }
-            }
-        }
-
-        // vw-plane faces
-        for (long u = 0; u < connectivityAccess.uSize; u += connectivityAccess.uInc) {
-            connectivityAccess.access.setPosition(u, U_INDEX);
-            for (long v = 0; v < connectivityAccess.vSize; v++) {
-                for (long w = 1; w < connectivityAccess.wSize; w++) {
-                    if (isNeighborhoodForeground(connectivityAccess.access, v, w, V_INDEX, W_INDEX)) {
-                        intersections++;
-                    }
-                }
+    private static void findSkippedWords(final BlockOccupancy blocks, final long layer, final BitPlane plane,
+                                         final boolean[] skippedWords) {
+        final int blockSize = blocks.getBlockSize();
+        for (int v = 0; v < plane.vSize; v++) {
+            final long blockRow = v / blockSize;
+            if (v % blockSize != 0) {
+                // Rows in the same block row have the same flags
+                System.arraycopy(skippedWords, (v - 1) * plane.wordsPerRow, skippedWords, v * plane.wordsPerRow,
+                        plane.wordsPerRow);
+                continue;
             }
-        }
 
-        // uw-plane faces
-        for (long v = 0; v < connectivityAccess.vSize; v += connectivityAccess.vInc) {
-            connectivityAccess.access.setPosition(v, V_INDEX);
-            for (long u = 1; u < connectivityAccess.uSize; u++) {
-                for (long w = 1; w < connectivityAccess.wSize; w++) {
-                    if (isNeighborhoodForeground(connectivityAccess.access, u, w, U_INDEX, W_INDEX)) {
-                        intersections++;
-                    }
+            for (int i = 0; i < plane.wordsPerRow; i++) {
+                final long firstBlock = (i * 64L) / blockSize;
+                final long lastBlock = (Math.min(i * 64L + 64, plane.uSize) - 1) / blockSize;
+                boolean skipped = true;
+                for (long block = firstBlock; block <= lastBlock && skipped; block++) {
+                    skipped = blocks.isUniformNeighborhood(block, blockRow, layer);
                 }
+                skippedWords[v * plane.wordsPerRow + i] = skipped;
             }
         }
+    }
 
-        return intersections;
+    /** Returns the change in the Euler characteristic caused by the octant's neighborhood */
+    static int getDeltaEuler(final Octant octant) {
+        return getDeltaEuler(octant.getNeighborhoodPattern());
     }
 
     /**
-     * Check if any of the elements in the given 4-neighborhood are foreground
+     * Returns the change in the Euler characteristic caused by an octant neighborhood
      *
-     * @param access A zero extended RandomAccess
-     * @param pos0   The starting position of the neighborhood in the first dimension
-     * @param pos1   The starting position of the neighborhood in the second dimension
-     * @param dim0   The first dimension of the neighborhood
-     * @param dim1   The second dimension of the neighborhood
+     * @param pattern Occupancy pattern of the neighborhood, see {@link Octant#getNeighborhoodPattern()}
      */
-    private static boolean isNeighborhoodForeground(final RandomAccess<BitType> access, final long pos0,
-                                                    final long pos1, final int dim0, final int dim1) {
-        access.setPosition(pos0, dim0);
-        access.setPosition(pos1, dim1);
-        boolean a = access.get().get();
-
-        access.setPosition(pos0 - 1, dim0);
-        access.setPosition(pos1, dim1);
-        boolean b = access.get().get();
-
-        access.setPosition(pos0, dim0);
-        access.setPosition(pos1 - 1, dim1);
-        boolean c = access.get().get();
-
-        access.setPosition(pos0 - 1, dim0);
-        access.setPosition(pos1 - 1, dim1);
-        boolean d = access.get().get();
-
-        return a || b || c || d;
+    static int getDeltaEuler(final int pattern) {
+        return OCTANT_EULER_LUT[pattern];
     }
 
     /**
-     * Count the number of intersections between foreground voxel vertices
-     * and the border edges of the interval
+     * Maps the occupancy pattern of a non-empty octant to an index of EULER_LUT
+     *
+     * @param pattern Bit n - 1 is set if the nth neighbor in the octant is foreground
      */
-    private static long countStackEdgeVertexIntersections(final ConnectivityAccess connectivityAccess) {
-        long intersections = 0;
-
-        // uv-plane edges
-        for (long w = 0; w < connectivityAccess.wSize; w += connectivityAccess.wInc) {
-            connectivityAccess.access.setPosition(w, W_INDEX);
-            for (long v = 0; v < connectivityAccess.vSize; v += connectivityAccess.vInc) {
-                connectivityAccess.access.setPosition(v, V_INDEX);
-                for (long u = 1; u < connectivityAccess.uSize; u++) {
-                    if (isNeighborhoodForeground(connectivityAccess.access, u, U_INDEX)) {
-                        intersections++;
-                    }
-                }
-            }
-        }
-
-        // vw-plane edges
-        for (long w = 0; w < connectivityAccess.wSize; w += connectivityAccess.wInc) {
-            connectivityAccess.access.setPosition(w, W_INDEX);
-            for (long u = 0; u < connectivityAccess.uSize; u += connectivityAccess.uInc) {
-                connectivityAccess.access.setPosition(u, U_INDEX);
-                for (long v = 1; v < connectivityAccess.vSize; v++) {
-                    if (isNeighborhoodForeground(connectivityAccess.access, v, V_INDEX)) {
-                        intersections++;
-                    }
-                }
-            }
+    private static int eulerLutIndex(final int pattern) {
+        int index = 1;
+        if (isNeighborForeground(pattern, 8)) {
+            if (isNeighborForeground(pattern, 1)) { index |= 128; }
+            if (isNeighborForeground(pattern, 2)) { index |= 64; }
+            if (isNeighborForeground(pattern, 3)) { index |= 32; }
+            if (isNeighborForeground(pattern, 4)) { index |= 16; }
+            if (isNeighborForeground(pattern, 5)) { index |= 8; }
+            if (isNeighborForeground(pattern, 6)) { index |= 4; }
+            if (isNeighborForeground(pattern, 7)) { index |= 2; }
+        } else if (isNeighborForeground(pattern, 7)) {
+            if (isNeighborForeground(pattern, 2)) { index |= 128; }
+            if (isNeighborForeground(pattern, 4)) { index |= 64; }
+            if (isNeighborForeground(pattern, 1)) { index |= 32; }
+            if (isNeighborForeground(pattern, 3)) { index |= 16; }
+            if (isNeighborForeground(pattern, 6)) { index |= 8; }
+            if (isNeighborForeground(pattern, 5)) { index |= 2; }
+        } else if (isNeighborForeground(pattern, 6)) {
+            if (isNeighborForeground(pattern, 3)) { index |= 128; }
+            if (isNeighborForeground(pattern, 1)) { index |= 64; }
+            if (isNeighborForeground(pattern, 4)) { index |= 32; }
+            if (isNeighborForeground(pattern, 2)) { index |= 16; }
+            if (isNeighborForeground(pattern, 5)) { index |= 4; }
+        } else if (isNeighborForeground(pattern, 5)) {
+            if (isNeighborForeground(pattern, 4)) { index |= 128; }
+            if (isNeighborForeground(pattern, 3)) { index |= 64; }
+            if (isNeighborForeground(pattern, 2)) { index |= 32; }
+            if (isNeighborForeground(pattern, 1)) { index |= 16; }
+        } else if (isNeighborForeground(pattern, 4)) {
+            if (isNeighborForeground(pattern, 1)) { index |= 8; }
+            if (isNeighborForeground(pattern, 3)) { index |= 4; }
+            if (isNeighborForeground(pattern, 2)) { index |= 2; }
+        } else if (isNeighborForeground(pattern, 3)) {
+            if (isNeighborForeground(pattern, 2)) { index |= 8; }
+            if (isNeighborForeground(pattern, 1)) { index |= 4; }
+        } else if (isNeighborForeground(pattern, 2)) {
+            if (isNeighborForeground(pattern, 1)) { index |= 2; }
         }
 
-        // uw-plane edges
-        for (long u = 0; u < connectivityAccess.uSize; u += connectivityAccess.uInc) {
-            connectivityAccess.access.setPosition(u, U_INDEX);
-            for (long v = 0; v < connectivityAccess.vSize; v += connectivityAccess.vInc) {
-                connectivityAccess.access.setPosition(v, V_INDEX);
-                for (long w = 1; w < connectivityAccess.wSize; w++) {
-                    if (isNeighborhoodForeground(connectivityAccess.access, w, W_INDEX)) {
-                        intersections++;
-                    }
-                }
-            }
-        }
+        return index;
+    }
 
-        return intersections;
+    private static boolean isNeighborForeground(final int pattern, final int n) {
+        return (pattern & (1 << (n - 1))) != 0;
     }
 
     /**
-     * Check if any of the elements at the given 2-neighborhood are foreground
+     * Calculates Δ(χ): the sample's contribution to the Euler characteristic of the structure to which it's connected.
+     * Calculated by counting the intersections of foreground elements, and the edges of the imgPlus.
      *
-     * @param access A zero extended RandomAccess
-     * @param pos    The starting position of the neighborhood in the given dimension
-     * @param dim    The dimension of the neighborhood
+     * @param parallel If true, the faces of the image are counted concurrently
      */
-    private static boolean isNeighborhoodForeground(final RandomAccess<BitType> access, final long pos, final int dim) {
-        access.setPosition(pos, dim);
-        boolean a = access.get().get();
-
-        access.setPosition(pos - 1, dim);
-        boolean b = access.get().get();
-
-        return a || b;
-    }
-
-    /** Count the number of foreground elements on the faces that touch the borders of the Img interval */
-    private static long countBorderFaceForegroundElements(final ConnectivityAccess connectivityAccess) {
-        long foregroundElements = 0;
-
-        // front and back (uv-plane) faces
-        for (long w = 0; w < connectivityAccess.wSize; w += connectivityAccess.wInc) {
-            connectivityAccess.access.setPosition(w, W_INDEX);
-            for (long v = 1; v < connectivityAccess.vSize - 1; v++) {
-                connectivityAccess.access.setPosition(v, V_INDEX);
-                for (long u = 1; u < connectivityAccess.uSize - 1; u++) {
-                    connectivityAccess.access.setPosition(u, U_INDEX);
-                    foregroundElements += connectivityAccess.access.get().getIntegerLong();
-                }
-            }
-        }
-
-        // top and bottom (uw-plane) faces
-        for (long w = 1; w < connectivityAccess.wSize - 1; w++) {
-            connectivityAccess.access.setPosition(w, W_INDEX);
-            for (long v = 0; v < connectivityAccess.vSize; v += connectivityAccess.vInc) {
-                connectivityAccess.access.setPosition(v, V_INDEX);
-                for (long u = 1; u < connectivityAccess.uSize - 1; u++) {
-                    connectivityAccess.access.setPosition(u, U_INDEX);
-                    foregroundElements += connectivityAccess.access.get().getIntegerLong();
-                }
-            }
-        }
-
-        // left and right (vw-plane) faces
-        for (long w = 1; w < connectivityAccess.wSize - 1; w++) {
-            connectivityAccess.access.setPosition(w, W_INDEX);
-            for (long v = 1; v < connectivityAccess.vSize - 1; v++) {
-                connectivityAccess.access.setPosition(v, V_INDEX);
-                for (long u = 0; u < connectivityAccess.uSize; u += connectivityAccess.uInc) {
-                    connectivityAccess.access.setPosition(u, U_INDEX);
-                    foregroundElements += connectivityAccess.access.get().getIntegerLong();
-                }
-            }
-        }
-
-        return foregroundElements;
-    }
-
-    /** Count the number of foreground elements in the edges that line the borders of the Img interval */
-    private static long countBorderEdgeForegroundElements(final ConnectivityAccess connectivityAccess) {
-        long foregroundElements = 0;
-
-        // left to right (u-axis) edges
-        for (long w = 0; w < connectivityAccess.wSize; w += connectivityAccess.wInc) {
-            connectivityAccess.access.setPosition(w, W_INDEX);
-            for (long v = 0; v < connectivityAccess.vSize; v += connectivityAccess.vInc) {
-                connectivityAccess.access.setPosition(v, V_INDEX);
-                for (long u = 1; u < connectivityAccess.uSize - 1; u++) {
-                    connectivityAccess.access.setPosition(u, U_INDEX);
-                    foregroundElements += connectivityAccess.access.get().getIntegerLong();
-                }
-            }
-        }
-
-        // top to bottom (v-axis) edges
-        for (long w = 0; w < connectivityAccess.wSize; w += connectivityAccess.wInc) {
-            connectivityAccess.access.setPosition(w, W_INDEX);
-            for (long v = 1; v < connectivityAccess.vSize - 1; v++) {
-                connectivityAccess.access.setPosition(v, V_INDEX);
-                for (long u = 0; u < connectivityAccess.uSize; u += connectivityAccess.uInc) {
-                    connectivityAccess.access.setPosition(u, U_INDEX);
-                    foregroundElements += connectivityAccess.access.get().getIntegerLong();
-                }
-            }
-        }
-
-        // back to front (w-axis) edges
-        for (long w = 1; w < connectivityAccess.wSize - 1; w++) {
-            connectivityAccess.access.setPosition(w, W_INDEX);
-            for (long v = 0; v < connectivityAccess.vSize; v += connectivityAccess.vInc) {
-                connectivityAccess.access.setPosition(v, V_INDEX);
-                for (long u = 0; u < connectivityAccess.uSize; u += connectivityAccess.uInc) {
-                    connectivityAccess.access.setPosition(u, U_INDEX);
-                    foregroundElements += connectivityAccess.access.get().getIntegerLong();
-                }
-            }
-        }
-
-        return foregroundElements;
-    }
-
-    /** Count the number of foreground elements in the bordering corners of the Img interval */
-    private static long countBorderCornerForegroundElements(final ConnectivityAccess connectivityAccess) {
-        long foregroundElements = 0;
-
-        for (long w = 0; w < connectivityAccess.wSize; w += connectivityAccess.wInc) {
-            connectivityAccess.access.setPosition(w, W_INDEX);
-            for (long v = 0; v < connectivityAccess.vSize; v += connectivityAccess.vInc) {
-                connectivityAccess.access.setPosition(v, V_INDEX);
-                for (long u = 0; u < connectivityAccess.uSize; u += connectivityAccess.uInc) {
-                    connectivityAccess.access.setPosition(u, U_INDEX);
-                    foregroundElements += connectivityAccess.access.get().getIntegerLong();
-                }
-            }
-        }
-
-        return foregroundElements;
-    }
-
-    /** Calculates the connectivity density of the sample by dividing connectivity by the calibrated size of the interval */
-    private static double calculateConnectivityDensity(final double connectivity, final ImgPlus<BitType> imgPlus) {
-        final double calibratedImgVolume = CalibratedAxisUtil.calibratedSpatialSpaceSize(imgPlus);
-        return connectivity / calibratedImgVolume;
+    private static double calculateDeltaChi(final double eulerCharacteristic,
+                                            final RandomAccessibleInterval<BitType> interval,
+                                            final boolean parallel) {
+        final double edgeCorrection = BorderCounts.count(interval, parallel).edgeCorrection();
+        return eulerCharacteristic - edgeCorrection;
     }
     //endregion
 
@@ -651,52 +444,5 @@ public class Connectivity extends AbstractUnaryFunctionOp<ImgPlus<BitType>, Conn
             this.connectivityDensity = connectivityDensity;
         }
     }
-
-    /**
-     * A Convenience class used to traverse the plugin's input ImgPlus.
-     * If these fields were part of the parent class,
-     * it wouldn't be threadsafe
-     *
-     * @implNote element sizes are accurate only if axes are linear
-     */
-    private static final class ConnectivityAccess {
-        public final RandomAccess<BitType> access;
-        /** The calibrated size of an element in the 1st dimension */
-        public final double uElementSize;
-        /** The calibrated size of an element in the 2nd dimension */
-        public final double vElementSize;
-        /** The calibrated size of an element in the 3rd dimension */
-        public final double wElementSize;
-
-        /** Number of elements (voxels) in the 1st dimension */
-        public final long uSize;
-        /** Number of elements (voxels) in the 2nd dimension */
-        public final long vSize;
-        /** Number of elements (voxels) in the 3rd dimension */
-        public final long wSize;
-
-        /** Increment value to jump to the end of 1st dimension in a loop */
-        public final long uInc;
-        /** Increment value to jump to the end of 2nd dimension in a loop */
-        public final long vInc;
-        /** Increment value to jump to the end of 3rd dimension in a loop */
-        public final long wInc;
-
-        public ConnectivityAccess(final ImgPlus<BitType> img) {
-            access = Views.extendZero(img).randomAccess();
-
-            uSize = img.dimension(U_INDEX);
-            vSize = img.dimension(V_INDEX);
-            wSize = img.dimension(W_INDEX);
-
-            uElementSize = img.axis(U_INDEX).averageScale(0.0, uSize);
-            vElementSize = img.axis(V_INDEX).averageScale(0.0, vSize);
-            wElementSize = img.axis(W_INDEX).averageScale(0.0, wSize);
-
-            uInc = Math.max(1L, uSize - 1L);
-            vInc = Math.max(1L, vSize - 1L);
-            wInc = Math.max(1L, wSize - 1L);
-        }
-    }
     //endregion
 }
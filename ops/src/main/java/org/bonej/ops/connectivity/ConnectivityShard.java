@@ -0,0 +1,302 @@
+package org.bonej.ops.connectivity;
+
+import org.bonej.ops.connectivity.BorderCounts.Face;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The partial connectivity sums of a w-range of slices, i.e. a shard of an image.
+ *
+ * The Euler deltas and the border counts are additive over disjoint ranges of slices,
+ * so the shards of an image can be computed separately, e.g. in several processes or on several machines,
+ * and then merged into exactly the same {@link Connectivity.Characteristics} as a single sweep of the image.
+ * A shard reads the slice before its range too, because its first octants reach back to it.
+ *
+ * Shards can be written to and read from small text files. The {@link #main(String...)} method runs a worker,
+ * which computes a shard of a directory of slices and writes it to a file, or merges shard files.
+ *
+ * @author Richard Domander
+ */
+public final class ConnectivityShard {
+    private static final String USAGE = "Usage: ConnectivityShard shard <slice directory> <w start> <w end> " +
+            "<shard file> | ConnectivityShard merge <shard file>...";
+
+    private final int uSize;
+    private final int vSize;
+    private final int wSize;
+    private final int wStart;
+    private final int wEnd;
+    private final double elementSize;
+    private long eulerSum;
+    private final BorderCounts borderCounts = new BorderCounts();
+
+    private ConnectivityShard(final int uSize, final int vSize, final int wSize, final int wStart, final int wEnd,
+                              final double elementSize) {
+        this.uSize = uSize;
+        this.vSize = vSize;
+        this.wSize = wSize;
+        this.wStart = wStart;
+        this.wEnd = wEnd;
+        this.elementSize = elementSize;
+    }
+
+    /**
+     * Computes the partial sums of the slices [wStart, wEnd) of the source
+     *
+     * @throws NullPointerException     if source == null
+     * @throws IllegalArgumentException if the range is empty, or not within [0, wSize]
+     */
+    public static ConnectivityShard compute(final BitSliceSource source, final int wStart, final int wEnd)
+            throws NullPointerException, IllegalArgumentException {
+        checkNotNull(source, "Source cannot be null");
+        checkArgument(0 <= wStart && wStart < wEnd && wEnd <= source.getWSize(), "Invalid range of slices");
+
+        return sweep(source, wStart, wEnd);
+    }
+
+    /**
+     * Merges the shards of an image into the characteristics of the whole image
+     *
+     * @param shards Shards whose ranges cover the slices of the image exactly once, in any order
+     * @throws NullPointerException     if shards == null
+     * @throws IllegalArgumentException if there are no shards, they are from images of different sizes,
+     *                                  or their ranges are empty, or have gaps or overlaps
+     */
+    public static Connectivity.Characteristics merge(final Collection<ConnectivityShard> shards)
+            throws NullPointerException, IllegalArgumentException {
+        checkNotNull(shards, "Shards cannot be null");
+        checkArgument(!shards.isEmpty(), "There must be at least one shard");
+
+        final List<ConnectivityShard> sorted = new ArrayList<>(shards);
+        sorted.sort(Comparator.comparingInt(shard -> shard.wStart));
+        final ConnectivityShard first = sorted.get(0);
+        long eulerSum = 0;
+        final BorderCounts borderCounts = new BorderCounts();
+        int nextStart = 0;
+        for (final ConnectivityShard shard : sorted) {
+            checkArgument(shard.uSize == first.uSize && shard.vSize == first.vSize && shard.wSize == first.wSize &&
+                    shard.elementSize == first.elementSize, "Shards are from different images");
+            checkArgument(shard.wStart < shard.wEnd, "Shard cannot be empty");
+            checkArgument(shard.wStart == nextStart, "Shards don't cover slice " + nextStart + " exactly once");
+            eulerSum += shard.eulerSum;
+            borderCounts.add(shard.borderCounts);
+            nextStart = shard.wEnd;
+        }
+        checkArgument(nextStart == first.wSize, "Shards don't cover slice " + nextStart);
+
+        final double eulerCharacteristic = eulerSum / 8.0;
+        final double deltaChi = eulerCharacteristic - borderCounts.edgeCorrection();
+        final double connectivity = 1 - deltaChi;
+        final double imageVolume = (double) first.uSize * first.vSize * first.wSize * first.elementSize;
+        final double connectivityDensity = connectivity / imageVolume;
+
+        return new Connectivity.Characteristics(eulerCharacteristic, deltaChi, connectivity, connectivityDensity);
+    }
+
+    /** Writes the shard to a text file */
+    public void write(final Path file) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty("uSize", Integer.toString(uSize));
+        properties.setProperty("vSize", Integer.toString(vSize));
+        properties.setProperty("wSize", Integer.toString(wSize));
+        properties.setProperty("wStart", Integer.toString(wStart));
+        properties.setProperty("wEnd", Integer.toString(wEnd));
+        properties.setProperty("elementSize", Double.toString(elementSize));
+        properties.setProperty("eulerSum", Long.toString(eulerSum));
+        properties.setProperty("corners", Long.toString(borderCounts.corners));
+        properties.setProperty("edges", Long.toString(borderCounts.edges));
+        properties.setProperty("faces", Long.toString(borderCounts.faces));
+        properties.setProperty("edgeVertices", Long.toString(borderCounts.edgeVertices));
+        properties.setProperty("faceVertices", Long.toString(borderCounts.faceVertices));
+        properties.setProperty("faceEdges", Long.toString(borderCounts.faceEdges));
+
+        try (final OutputStream stream = Files.newOutputStream(file)) {
+            properties.store(stream, "Connectivity shard");
+        }
+    }
+
+    /**
+     * Reads a shard from a file written by {@link #write(Path)}
+     *
+     * @throws IOException if the file cannot be read, it's not a shard file, or its range of slices is invalid
+     */
+    public static ConnectivityShard read(final Path file) throws IOException {
+        final Properties properties = new Properties();
+        try (final InputStream stream = Files.newInputStream(file)) {
+            properties.load(stream);
+        }
+
+        try {
+            final ConnectivityShard shard = new ConnectivityShard(intProperty(properties, "uSize"),
+                    intProperty(properties, "vSize"), intProperty(properties, "wSize"),
+                    intProperty(properties, "wStart"), intProperty(properties, "wEnd"),
+                    Double.parseDouble(property(properties, "elementSize")));
+            if (shard.wStart < 0 || shard.wStart >= shard.wEnd || shard.wEnd > shard.wSize) {
+                throw new IOException("Invalid range of slices in shard file " + file);
+            }
+            shard.eulerSum = longProperty(properties, "eulerSum");
+            shard.borderCounts.corners = longProperty(properties, "corners");
+            shard.borderCounts.edges = longProperty(properties, "edges");
+            shard.borderCounts.faces = longProperty(properties, "faces");
+            shard.borderCounts.edgeVertices = longProperty(properties, "edgeVertices");
+            shard.borderCounts.faceVertices = longProperty(properties, "faceVertices");
+            shard.borderCounts.faceEdges = longProperty(properties, "faceEdges");
+            return shard;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid shard file " + file, e);
+        }
+    }
+
+    public int getWStart() {
+        return wStart;
+    }
+
+    public int getWEnd() {
+        return wEnd;
+    }
+
+    /**
+     * Runs a shard worker, or merges the results of the workers
+     * <p>
+     * {@code shard <slice directory> <w start> <w end> <shard file>} reads the TIFF slices [w start, w end)
+     * (and the one before) of the directory, and writes their partial sums to the shard file.
+     * See {@link ImageStackSliceSource#fromDirectory(File)}.
+     * </p>
+     * <p>
+     * {@code merge <shard file>...} prints the characteristics of the image from the shard files.
+     * </p>
+     *
+     * @throws IOException              if the slices or shard files cannot be read, or the shard cannot be written
+     * @throws IllegalArgumentException if the arguments are invalid, or the shards can't be merged
+     */
+    public static void main(final String... args) throws IOException, IllegalArgumentException {
+        checkArgument(args.length > 0, USAGE);
+
+        if ("shard".equals(args[0])) {
+            checkArgument(args.length == 5, USAGE);
+            final BitSliceSource source = ImageStackSliceSource.fromDirectory(new File(args[1]));
+            final ConnectivityShard shard =
+                    compute(source, Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+            shard.write(Paths.get(args[4]));
+        } else if ("merge".equals(args[0])) {
+            checkArgument(args.length > 1, USAGE);
+            final List<ConnectivityShard> shards = new ArrayList<>();
+            for (int i = 1; i < args.length; i++) {
+                shards.add(read(Paths.get(args[i])));
+            }
+            final Connectivity.Characteristics characteristics = merge(shards);
+            System.out.println("Euler characteristic: " + characteristics.eulerCharacteristic);
+            System.out.println("Delta chi: " + characteristics.deltaChi);
+            System.out.println("Connectivity: " + characteristics.connectivity);
+            System.out.println("Connectivity density: " + characteristics.connectivityDensity);
+        } else {
+            throw new IllegalArgumentException(USAGE);
+        }
+    }
+
+    //region -- Helper methods --
+
+    /**
+     * Sweeps the slices [wStart, wEnd) of the source, and sums the Euler deltas and the border counts
+     *
+     * @implNote A slab after the first reads the slice before it too, because its first octants reach back to it
+     */
+    private static ConnectivityShard sweep(final BitSliceSource source, final int wStart, final int wEnd) {
+        final int uSize = source.getUSize();
+        final int vSize = source.getVSize();
+        final int wSize = source.getWSize();
+        final long[] uFaces = BorderCounts.borderPositions(uSize);
+        final long[] vFaces = BorderCounts.borderPositions(vSize);
+        final ConnectivityShard shard = new ConnectivityShard(uSize, vSize, wSize, wStart, wEnd,
+                source.getCalibratedElementSize());
+        BitPlane back = new BitPlane(uSize, vSize);
+        BitPlane front = new BitPlane(uSize, vSize);
+        if (wStart > 0) {
+            source.read(wStart - 1, back);
+        }
+
+        for (int w = wStart; w < wEnd; w++) {
+            source.read(w, front);
+
+            shard.eulerSum += BitSlicedEuler.sumDeltaEuler(back, front);
+
+            if (w == 0 || w == wSize - 1) {
+                shard.borderCounts.add(BorderCounts.countFace(Face.UV, front));
+            }
+            addFaceRows(shard.borderCounts, back, front, uFaces, vFaces, w, wSize);
+
+            final BitPlane swap = back;
+            back = front;
+            front = swap;
+        }
+
+        if (wEnd == wSize) {
+            // The last rows of the uw- and vw-faces are outside the image
+            front.clear();
+            addFaceRows(shard.borderCounts, back, front, uFaces, vFaces, wSize, wSize);
+        }
+
+        return shard;
+    }
+
+    /** Adds the rows at w of the uw- and vw-faces, which are in the plane front, and the plane before it */
+    private static void addFaceRows(final BorderCounts counts, final BitPlane back, final BitPlane front,
+                                    final long[] uFaces, final long[] vFaces, final int w, final int wSize) {
+        for (final long v : vFaces) {
+            counts.addRow(Face.UW, uRow(back, v), uRow(front, v), w, wSize);
+        }
+
+        for (final long u : uFaces) {
+            counts.addRow(Face.VW, vRow(back, u), vRow(front, u), w, wSize);
+        }
+    }
+
+    /** Returns the elements of the plane at v, which run along the u-axis */
+    private static boolean[] uRow(final BitPlane plane, final long v) {
+        final boolean[] row = new boolean[plane.uSize];
+        for (int u = 0; u < row.length; u++) {
+            row[u] = plane.get(u, v);
+        }
+        return row;
+    }
+
+    /** Returns the elements of the plane at u, which run along the v-axis */
+    private static boolean[] vRow(final BitPlane plane, final long u) {
+        final boolean[] row = new boolean[plane.vSize];
+        for (int v = 0; v < row.length; v++) {
+            row[v] = plane.get(u, v);
+        }
+        return row;
+    }
+
+    private static String property(final Properties properties, final String key) throws IOException {
+        final String value = properties.getProperty(key);
+        if (value == null) {
+            throw new IOException("Shard file has no " + key);
+        }
+        return value;
+    }
+
+    private static int intProperty(final Properties properties, final String key) throws IOException {
+        return Integer.parseInt(property(properties, key));
+    }
+
+    private static long longProperty(final Properties properties, final String key) throws IOException {
+        return Long.parseLong(property(properties, key));
+    }
+    //endregion
+}
@@ -0,0 +1,299 @@
+package org.bonej.ops.connectivity;
+
+import net.imagej.ImgPlus;
+import net.imagej.ops.Contingent;
+import net.imagej.ops.Op;
+import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.bonej.utilities.CalibratedAxisUtil;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An Op which calculates the connectivity characteristics of a grayscale image at a series of thresholds.
+ * At each threshold the results are the same as running {@link Connectivity} on the image binarized so that
+ * elements whose values >= threshold are foreground.
+ *
+ * The occupancy pattern of an octant changes only at the values of its own eight elements,
+ * so the Euler deltas of all thresholds are found in a single sweep of the octants.
+ * The edge corrections of all thresholds are counted in a single pass over the faces of the image.
+ *
+ * @author Richard Domander
+ * @implNote Elements whose value is NaN are background at every threshold
+ * @implNote Assuming that all axis are linear
+ * @implNote Assuming that all dimensions are spatial
+ */
+@Plugin(type = Op.class, name = "eulerCharacteristicCurve")
+public class EulerCharacteristicCurve<T extends RealType<T>>
+        extends AbstractUnaryFunctionOp<ImgPlus<T>, EulerCharacteristicCurve.Results> implements Contingent {
+    private static final int W_INDEX = 2;
+
+    /**
+     * Thresholds in strictly ascending order.
+     * If null, the given number of levels are spread evenly over the range of the values in the image.
+     */
+    @Parameter(required = false)
+    private double[] thresholds = null;
+
+    /** Number of thresholds used if they're not given */
+    @Parameter(required = false)
+    private int levels = 256;
+
+    /** If true, the octants are swept in w-slabs concurrently, and the faces are counted concurrently */
+    @Parameter(required = false)
+    private boolean parallel = true;
+
+    @Override
+    public Results compute1(final ImgPlus<T> imgPlus) {
+        final double[] curveThresholds = thresholds != null ? thresholds.clone() :
+                evenThresholds(imgPlus, levels, parallel);
+        for (int i = 1; i < curveThresholds.length; i++) {
+            checkArgument(curveThresholds[i - 1] < curveThresholds[i], "Thresholds must be in ascending order");
+        }
+
+        final long[] eulerSums = sumDeltaEulers(imgPlus, curveThresholds, parallel);
+        final double[] edgeCorrections = LevelBorderCounts.count(imgPlus, curveThresholds, parallel)
+                .edgeCorrections();
+        final double calibratedImgVolume = CalibratedAxisUtil.calibratedSpatialSpaceSize(imgPlus);
+        final Connectivity.Characteristics[] characteristics =
+                new Connectivity.Characteristics[curveThresholds.length];
+
+        for (int k = 0; k < curveThresholds.length; k++) {
+            final double eulerCharacteristic = eulerSums[k] / 8.0;
+            final double deltaChi = eulerCharacteristic - edgeCorrections[k];
+            final double connectivity = 1 - deltaChi;
+            characteristics[k] = new Connectivity.Characteristics(eulerCharacteristic, deltaChi, connectivity,
+                    connectivity / calibratedImgVolume);
+        }
+
+        return new Results(curveThresholds, characteristics);
+    }
+
+    @Override
+    public boolean conforms() {
+        return in().numDimensions() == 3 && (thresholds != null || levels > 0);
+    }
+
+    //region -- Helper methods --
+
+    /**
+     * Returns n thresholds spread evenly from the smallest to the largest value in the interval
+     *
+     * @param parallel If true, the range of values is found in w-slabs concurrently
+     * @implNote NaN values are skipped
+     */
+    private static <T extends RealType<T>> double[] evenThresholds(final RandomAccessibleInterval<T> interval,
+                                                                   final int n, final boolean parallel) {
+        final int wSize = (int) interval.dimension(W_INDEX);
+        final int slabs = parallel ? Math.max(1, Math.min(wSize, Runtime.getRuntime().availableProcessors())) : 1;
+        final IntStream slabStream = IntStream.range(0, slabs);
+        final double[] range = (parallel ? slabStream.parallel() : slabStream).mapToObj(slab -> {
+            final long[] slabMin = Intervals.minAsLongArray(interval);
+            final long[] slabMax = Intervals.maxAsLongArray(interval);
+            slabMin[W_INDEX] = interval.min(W_INDEX) + (long) slab * wSize / slabs;
+            slabMax[W_INDEX] = interval.min(W_INDEX) + (long) (slab + 1) * wSize / slabs - 1;
+            final double[] slabRange = {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+            for (final T element : Views.interval(interval, slabMin, slabMax)) {
+                final double value = element.getRealDouble();
+                if (value != value) {
+                    continue;
+                }
+                slabRange[0] = Math.min(slabRange[0], value);
+                slabRange[1] = Math.max(slabRange[1], value);
+            }
+            return slabRange;
+        }).reduce(new double[]{Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY},
+                (a, b) -> new double[]{Math.min(a[0], b[0]), Math.max(a[1], b[1])});
+        final double min = range[0];
+        final double max = range[1];
+
+        if (min > max || min == max || n == 1) {
+            return new double[]{min > max ? 0.0 : min};
+        }
+
+        final double step = (max - min) / (n - 1);
+        return IntStream.range(0, n).mapToDouble(i -> i == n - 1 ? max : min + i * step).toArray();
+    }
+
+    /**
+     * Sums the changes in the Euler characteristic of all the octants at each threshold
+     *
+     * @return Sums of the Euler deltas, i.e. 8χ, indexed like the thresholds
+     */
+    private static <T extends RealType<T>> long[] sumDeltaEulers(final RandomAccessibleInterval<T> interval,
+                                                                 final double[] thresholds,
+                                                                 final boolean parallel) {
+        final int wSize = (int) interval.dimension(W_INDEX);
+        final int slabs = parallel ? Math.max(1, Math.min(wSize, Runtime.getRuntime().availableProcessors())) : 1;
+        final IntStream slabStream = IntStream.range(0, slabs);
+
+        final List<long[]> slabDifferences = (parallel ? slabStream.parallel() : slabStream).mapToObj(slab -> {
+            final int wStart = (int) ((long) slab * wSize / slabs);
+            final int wEnd = (int) ((long) (slab + 1) * wSize / slabs);
+            return sumSlabDifferences(interval, thresholds, wStart, wEnd);
+        }).collect(Collectors.toList());
+
+        final long[] eulerSums = new long[thresholds.length];
+        long sum = 0;
+        for (int k = 0; k < thresholds.length; k++) {
+            for (final long[] differences : slabDifferences) {
+                sum += differences[k];
+            }
+            eulerSums[k] = sum;
+        }
+
+        return eulerSums;
+    }
+
+    /**
+     * Sums the Euler deltas of the octants in the slices [wStart, wEnd) as a difference array over the thresholds
+     *
+     * @return Array whose prefix sum at k is the Euler delta sum of the slab at threshold k
+     */
+    private static <T extends RealType<T>> long[] sumSlabDifferences(final RandomAccessibleInterval<T> interval,
+                                                                     final double[] thresholds, final int wStart,
+                                                                     final int wEnd) {
+        final int uSize = (int) interval.dimension(0);
+        final int vSize = (int) interval.dimension(1);
+        final long[] differences = new long[thresholds.length + 1];
+        final int[] octantLevels = new int[8];
+        int[] back = new int[uSize * vSize];
+        int[] front = new int[uSize * vSize];
+        if (wStart > 0) {
+            readLevels(Views.hyperSlice(interval, W_INDEX, wStart - 1), thresholds, back);
+        } else {
+            Arrays.fill(back, -1);
+        }
+
+        for (int w = wStart; w < wEnd; w++) {
+            readLevels(Views.hyperSlice(interval, W_INDEX, w), thresholds, front);
+            for (int v = 0; v < vSize; v++) {
+                for (int u = 0; u < uSize; u++) {
+                    octantLevels[0] = level(back, uSize, u - 1, v - 1);
+                    octantLevels[1] = level(back, uSize, u - 1, v);
+                    octantLevels[2] = level(back, uSize, u, v - 1);
+                    octantLevels[3] = level(back, uSize, u, v);
+                    octantLevels[4] = level(front, uSize, u - 1, v - 1);
+                    octantLevels[5] = level(front, uSize, u - 1, v);
+                    octantLevels[6] = level(front, uSize, u, v - 1);
+                    octantLevels[7] = front[v * uSize + u];
+                    addOctant(octantLevels, differences);
+                }
+            }
+
+            final int[] swap = back;
+            back = front;
+            front = swap;
+        }
+
+        return differences;
+    }
+
+    /**
+     * Adds the Euler deltas of an octant at every threshold to the difference array
+     *
+     * Going down from the highest level in the octant, elements join the pattern when the threshold reaches
+     * their level. The pattern, and thus the delta, stays the same until the next lower level.
+     *
+     * @param octantLevels Threshold levels of the elements in the octant in neighbor order, see {@link Octant}
+     */
+    private static void addOctant(final int[] octantLevels, final long[] differences) {
+        int pattern = 0;
+        int level = maxLevelBelow(octantLevels, Integer.MAX_VALUE);
+        while (level >= 0) {
+            for (int i = 0; i < 8; i++) {
+                if (octantLevels[i] == level) {
+                    pattern |= 1 << i;
+                }
+            }
+
+            final int nextLevel = maxLevelBelow(octantLevels, level);
+            final int deltaEuler = Connectivity.getDeltaEuler(pattern);
+            if (deltaEuler != 0) {
+                differences[nextLevel + 1] += deltaEuler;
+                differences[level + 1] -= deltaEuler;
+            }
+            level = nextLevel;
+        }
+    }
+
+    /** Returns the largest level less than the limit, or -1 if there's none */
+    private static int maxLevelBelow(final int[] octantLevels, final int limit) {
+        int max = -1;
+        for (final int level : octantLevels) {
+            if (level < limit && level > max) {
+                max = level;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Reads the threshold levels of a plane in flat iteration order
+     *
+     * @see #level(double[], double)
+     */
+    private static <T extends RealType<T>> void readLevels(final RandomAccessibleInterval<T> plane,
+                                                           final double[] thresholds, final int[] levels) {
+        final Cursor<T> cursor = Views.flatIterable(plane).cursor();
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = level(thresholds, cursor.next().getRealDouble());
+        }
+    }
+
+    /**
+     * Returns the threshold level of a value
+     *
+     * @return Index of the highest threshold <= value, i.e. the value is foreground at thresholds [0, level].
+     *         -1 if the value is below all thresholds, or NaN.
+     */
+    static int level(final double[] thresholds, final double value) {
+        if (Double.isNaN(value)) {
+            return -1;
+        }
+
+        // Arrays.binarySearch orders -0.0 below 0.0, but they're equal thresholds
+        final int index = Arrays.binarySearch(thresholds, value == 0.0 ? 0.0 : value);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /** Returns the level at (u, v) of a plane, or -1 if it's outside the plane */
+    private static int level(final int[] plane, final int uSize, final int u, final int v) {
+        if (u < 0 || v < 0) {
+            return -1;
+        }
+
+        return plane[v * uSize + u];
+    }
+    //endregion
+
+    //region -- Helper classes --
+
+    /**
+     * A helper class for passing the output results of the Op type safely,
+     * without having to memorize array indices etc.
+     */
+    public static final class Results {
+        /** Thresholds of the curve in ascending order */
+        public final double[] thresholds;
+        /** Characteristics of the image binarized at each threshold */
+        public final Connectivity.Characteristics[] characteristics;
+
+        private Results(final double[] thresholds, final Connectivity.Characteristics[] characteristics) {
+            this.thresholds = thresholds;
+            this.characteristics = characteristics;
+        }
+    }
+    //endregion
+}
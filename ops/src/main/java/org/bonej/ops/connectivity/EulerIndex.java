@@ -0,0 +1,446 @@
+package org.bonej.ops.connectivity;
+
+import net.imagej.ImgPlus;
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.real.DoubleType;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An index which answers connectivity queries for any axis-aligned box inside an image in constant time.
+ * A query gives the same characteristics as running {@link Connectivity} on the image cropped to the box.
+ *
+ * The index is built in one pass over the image. It stores 3D summed-area tables of the Euler contributions
+ * of the octants, and of the local element patterns needed to count the border terms of the edge correction.
+ * The octants on the lower faces of a box see elements outside it, so there are separate tables for their
+ * contributions with those elements masked out.
+ *
+ * The tables are stored in slabs of planes. Each plane of a table is an int array of the sums relative to
+ * the first plane of its slab, and the first planes of the slabs hold the absolute sums as longs.
+ * The slabs are as thick as the relative sums allow without overflowing an int, so the sums of any box are exact,
+ * and the number of elements is only limited by memory.
+ *
+ * @author Richard Domander
+ * @implNote The relative tables take 4 * 17 = 68 bytes per element, plus 8 * 17 bytes per element of the first
+ *           plane of each slab. For example a 1000 x 1000 x 1000 image needs about 70 GB,
+ *           so the index is meant for volumes of interest rather than whole high resolution scans.
+ * @implNote Planes are limited to ~2.7 * 10^8 elements, so that the sums of a plane fit in an int
+ */
+public final class EulerIndex {
+    //region -- Table indices --
+    /** Element values */
+    private static final int ELEMENT = 0;
+    /** Element or its predecessor on the u-axis is foreground */
+    private static final int U_PAIR = 1;
+    /** Element or its predecessor on the v-axis is foreground */
+    private static final int V_PAIR = 2;
+    /** Element or its predecessor on the w-axis is foreground */
+    private static final int W_PAIR = 3;
+    /** Any element in the 2x2 uv-neighborhood ending at the element is foreground */
+    private static final int UV_QUAD = 4;
+    /** Any element in the 2x2 uw-neighborhood ending at the element is foreground */
+    private static final int UW_QUAD = 5;
+    /** Any element in the 2x2 vw-neighborhood ending at the element is foreground */
+    private static final int VW_QUAD = 6;
+    /** Intersections of element edges and a uv-face, see {@link BorderCounts#faceEdges} */
+    private static final int UV_EDGES = 7;
+    /** UV_EDGES when the predecessor on the u-axis is outside the face */
+    private static final int UV_EDGES_NO_U = 8;
+    /** UV_EDGES when the predecessor on the v-axis is outside the face */
+    private static final int UV_EDGES_NO_V = 9;
+    /** Euler deltas of the octants */
+    private static final int EULER = 10;
+    /** Euler deltas of the octants, whose elements before the given axes are masked out */
+    private static final int EULER_NO_U = 11;
+    private static final int EULER_NO_V = 12;
+    private static final int EULER_NO_W = 13;
+    private static final int EULER_NO_UV = 14;
+    private static final int EULER_NO_UW = 15;
+    private static final int EULER_NO_VW = 16;
+    private static final int TABLES = 17;
+    //endregion
+
+    /** Upper bound of the absolute value of a table value of an element */
+    private static final int MAX_ELEMENT_VALUE = 8;
+
+    /** Octant pattern bits of the elements at u - 1, v - 1 and w - 1 respectively */
+    private static final int U_BEFORE_BITS = 0b0011_0011;
+    private static final int V_BEFORE_BITS = 0b0101_0101;
+    private static final int W_BEFORE_BITS = 0b0000_1111;
+
+    private final int uSize;
+    private final int vSize;
+    private final int wSize;
+    private final double elementSize;
+    /** Row length of the table planes */
+    private final int uStride;
+    /** Number of elements in a table plane */
+    private final int planeSize;
+    /** Number of table planes in a slab */
+    private final int slabPlanes;
+    /**
+     * Element i = v * uStride + u of planes[t][w] is the sum of the values of table t at [0, u) x [0, v) x [0, w),
+     * minus slabSums[t][w / slabPlanes][i]. The first plane of each slab is null, because it's all zero.
+     */
+    private final int[][][] planes;
+    /** Sums of the tables at the first planes of the slabs, i.e. at w = k * slabPlanes */
+    private final long[][][] slabSums;
+
+    /**
+     * Builds the index from the given image
+     *
+     * @throws NullPointerException     if imgPlus == null
+     * @throws IllegalArgumentException if imgPlus is not 3D, or its planes are too large to index
+     */
+    public EulerIndex(final ImgPlus<BitType> imgPlus) throws NullPointerException, IllegalArgumentException {
+        this(new IntervalSliceSource(imgPlus));
+    }
+
+    /**
+     * Builds the index by reading the slices of the given source once
+     *
+     * @throws NullPointerException     if source == null
+     * @throws IllegalArgumentException if the planes of the source are too large to index
+     */
+    public EulerIndex(final BitSliceSource source) throws NullPointerException, IllegalArgumentException {
+        this(source, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Builds the index by reading the slices of the given source once
+     *
+     * @param maxSlabPlanes Upper limit for the number of table planes in a slab
+     */
+    EulerIndex(final BitSliceSource source, final int maxSlabPlanes) throws NullPointerException,
+            IllegalArgumentException {
+        checkNotNull(source, "Source cannot be null");
+        checkArgument(maxSlabPlanes > 0, "Slabs must have planes");
+
+        uSize = source.getUSize();
+        vSize = source.getVSize();
+        wSize = source.getWSize();
+        elementSize = source.getCalibratedElementSize();
+        uStride = uSize + 1;
+        final long maxPlaneSum = (long) MAX_ELEMENT_VALUE * uSize * vSize;
+        checkArgument(maxPlaneSum <= Integer.MAX_VALUE, "Image planes are too large to index");
+
+        planeSize = uStride * (vSize + 1);
+        slabPlanes = (int) Math.min(maxSlabPlanes, Math.max(1, Integer.MAX_VALUE / Math.max(1, maxPlaneSum)));
+        planes = new int[TABLES][wSize + 1][];
+        slabSums = new long[TABLES][wSize / slabPlanes + 1][];
+        for (int t = 0; t < TABLES; t++) {
+            slabSums[t][0] = new long[planeSize];
+        }
+        buildTables(source);
+    }
+
+    public int getUSize() {
+        return uSize;
+    }
+
+    public int getVSize() {
+        return vSize;
+    }
+
+    public int getWSize() {
+        return wSize;
+    }
+
+    /**
+     * Returns the connectivity characteristics of the box [min, max]
+     *
+     * @param min Smallest {u, v, w} coordinates in the box, inclusive
+     * @param max Largest {u, v, w} coordinates in the box, inclusive
+     * @throws IllegalArgumentException if the box is empty or not inside the image
+     */
+    public Connectivity.Characteristics query(final long[] min, final long[] max) throws IllegalArgumentException {
+        checkArgument(min.length == 3 && max.length == 3, "Box must be 3D");
+        checkArgument(min[0] >= 0 && min[1] >= 0 && min[2] >= 0, "Box must be inside the image");
+        checkArgument(max[0] < uSize && max[1] < vSize && max[2] < wSize, "Box must be inside the image");
+        checkArgument(min[0] <= max[0] && min[1] <= max[1] && min[2] <= max[2], "Box cannot be empty");
+
+        final int u0 = (int) min[0];
+        final int v0 = (int) min[1];
+        final int w0 = (int) min[2];
+        final int u1 = (int) max[0];
+        final int v1 = (int) max[1];
+        final int w1 = (int) max[2];
+
+        final double eulerCharacteristic = sumEulerDeltas(u0, v0, w0, u1, v1, w1) / 8.0;
+        final BorderCounts counts = countBorders(u0, v0, w0, u1, v1, w1);
+        final double deltaChi = eulerCharacteristic - counts.edgeCorrection();
+        final double connectivity = 1 - deltaChi;
+        final double boxVolume = (double) (u1 - u0 + 1) * (v1 - v0 + 1) * (w1 - w0 + 1) * elementSize;
+
+        return new Connectivity.Characteristics(eulerCharacteristic, deltaChi, connectivity,
+                connectivity / boxVolume);
+    }
+
+    /**
+     * Creates an image of local connectivity densities.
+     * The input image is divided into a grid of cells, and each element of the output is the density of its cell.
+     * The cells at the far ends of the axes are smaller if the cell size doesn't divide the image size.
+     *
+     * @param cellSize Size of a cell in each dimension {u, v, w}
+     * @throws IllegalArgumentException if cell sizes are not positive
+     */
+    public Img<DoubleType> localConnectivityDensity(final long[] cellSize) throws IllegalArgumentException {
+        checkArgument(cellSize.length == 3, "Cell size must be 3D");
+        checkArgument(cellSize[0] > 0 && cellSize[1] > 0 && cellSize[2] > 0, "Cell sizes must be positive");
+
+        final long[] gridSize = {(uSize + cellSize[0] - 1) / cellSize[0], (vSize + cellSize[1] - 1) / cellSize[1],
+                (wSize + cellSize[2] - 1) / cellSize[2]};
+        final Img<DoubleType> densities = ArrayImgs.doubles(gridSize);
+        final Cursor<DoubleType> cursor = densities.localizingCursor();
+        final long[] cell = new long[3];
+        final long[] min = new long[3];
+        final long[] max = new long[3];
+        final long[] imageSize = {uSize, vSize, wSize};
+
+        while (cursor.hasNext()) {
+            cursor.fwd();
+            cursor.localize(cell);
+            for (int d = 0; d < 3; d++) {
+                min[d] = cell[d] * cellSize[d];
+                max[d] = Math.min(min[d] + cellSize[d], imageSize[d]) - 1;
+            }
+            cursor.get().set(query(min, max).connectivityDensity);
+        }
+
+        return densities;
+    }
+
+    //region -- Helper methods --
+
+    /**
+     * Reads the image plane by plane, and accumulates the tables.
+     * Table plane w + 1 is the sum of table plane w, and the 2D prefix sums of the values of image plane w.
+     */
+    private void buildTables(final BitSliceSource source) {
+        BitPlane back = new BitPlane(uSize, vSize);
+        BitPlane front = new BitPlane(uSize, vSize);
+        final Octant octant = new Octant(back, front);
+        final int[] values = new int[TABLES];
+        final int[][] sums = new int[TABLES][];
+
+        for (int w = 0; w < wSize; w++) {
+            source.read(w, front);
+            octant.setPlanes(back, front);
+            for (int t = 0; t < TABLES; t++) {
+                sums[t] = new int[planeSize];
+            }
+            for (int v = 0; v < vSize; v++) {
+                octant.setNeighborhood(0, v, w);
+                for (int u = 0; u < uSize; u++) {
+                    if (u > 0) {
+                        octant.next();
+                    }
+                    elementValues(back, front, u, v, octant.getNeighborhoodPattern(), values);
+                    final int index = (v + 1) * uStride + u + 1;
+                    for (int t = 0; t < TABLES; t++) {
+                        final int[] sum = sums[t];
+                        sum[index] = values[t] + sum[index - 1] + sum[index - uStride] - sum[index - 1 - uStride];
+                    }
+                }
+            }
+            addPlane(w + 1, sums);
+
+            final BitPlane swap = back;
+            back = front;
+            front = swap;
+        }
+    }
+
+    /**
+     * Stores table plane w, given the 2D prefix sums of image plane w - 1.
+     * If w starts a new slab, the plane is added to the sums of the slab instead.
+     */
+    private void addPlane(final int w, final int[][] prefixSums) {
+        for (int t = 0; t < TABLES; t++) {
+            final int[] previous = planes[t][w - 1];
+            final int[] plane = prefixSums[t];
+            if (previous != null) {
+                for (int i = 0; i < planeSize; i++) {
+                    plane[i] += previous[i];
+                }
+            }
+
+            if (w % slabPlanes != 0) {
+                planes[t][w] = plane;
+                continue;
+            }
+
+            final long[] slabStart = slabSums[t][w / slabPlanes - 1];
+            final long[] nextSlabStart = new long[planeSize];
+            for (int i = 0; i < planeSize; i++) {
+                nextSlabStart[i] = slabStart[i] + plane[i];
+            }
+            slabSums[t][w / slabPlanes] = nextSlabStart;
+        }
+    }
+
+    /**
+     * Calculates the values of all the tables for the element at (u, v) of the front plane
+     *
+     * @param pattern Pattern of the octant whose last element is at (u, v) of the front plane
+     */
+    private static void elementValues(final BitPlane back, final BitPlane front, final int u, final int v,
+                                      final int pattern, final int[] values) {
+        final boolean e = front.get(u, v);
+        final boolean uBefore = front.get(u - 1, v);
+        final boolean vBefore = front.get(u, v - 1);
+        final boolean wBefore = back.get(u, v);
+        final boolean uvBefore = front.get(u - 1, v - 1);
+
+        values[ELEMENT] = toInt(e);
+        values[U_PAIR] = toInt(e || uBefore);
+        values[V_PAIR] = toInt(e || vBefore);
+        values[W_PAIR] = toInt(e || wBefore);
+        values[UV_QUAD] = toInt(e || uBefore || vBefore || uvBefore);
+        values[UW_QUAD] = toInt(e || uBefore || wBefore || back.get(u - 1, v));
+        values[VW_QUAD] = toInt(e || vBefore || wBefore || back.get(u, v - 1));
+        values[UV_EDGES] = e ? 2 : toInt(uBefore) + toInt(vBefore);
+        values[UV_EDGES_NO_U] = e ? 2 : toInt(vBefore);
+        values[UV_EDGES_NO_V] = e ? 2 : toInt(uBefore);
+
+        values[EULER] = Connectivity.getDeltaEuler(pattern);
+        values[EULER_NO_U] = Connectivity.getDeltaEuler(pattern & ~U_BEFORE_BITS);
+        values[EULER_NO_V] = Connectivity.getDeltaEuler(pattern & ~V_BEFORE_BITS);
+        values[EULER_NO_W] = Connectivity.getDeltaEuler(pattern & ~W_BEFORE_BITS);
+        values[EULER_NO_UV] = Connectivity.getDeltaEuler(pattern & ~(U_BEFORE_BITS | V_BEFORE_BITS));
+        values[EULER_NO_UW] = Connectivity.getDeltaEuler(pattern & ~(U_BEFORE_BITS | W_BEFORE_BITS));
+        values[EULER_NO_VW] = Connectivity.getDeltaEuler(pattern & ~(V_BEFORE_BITS | W_BEFORE_BITS));
+    }
+
+    /**
+     * Sums the Euler deltas of the octants in the box, as if the elements outside it were background.
+     * The octants on the lower faces, edges and corner of the box use the tables with the outside masked out.
+     */
+    private long sumEulerDeltas(final int u0, final int v0, final int w0, final int u1, final int v1,
+                                final int w1) {
+        final int cornerElement = (int) sum(ELEMENT, u0, u0, v0, v0, w0, w0);
+        return sum(EULER, u0 + 1, u1, v0 + 1, v1, w0 + 1, w1) +
+                sum(EULER_NO_U, u0, u0, v0 + 1, v1, w0 + 1, w1) +
+                sum(EULER_NO_V, u0 + 1, u1, v0, v0, w0 + 1, w1) +
+                sum(EULER_NO_W, u0 + 1, u1, v0 + 1, v1, w0, w0) +
+                sum(EULER_NO_UV, u0, u0, v0, v0, w0 + 1, w1) +
+                sum(EULER_NO_UW, u0, u0, v0 + 1, v1, w0, w0) +
+                sum(EULER_NO_VW, u0 + 1, u1, v0, v0, w0, w0) +
+                Connectivity.getDeltaEuler(cornerElement << 7);
+    }
+
+    /** Counts the border terms of the box, as if it were cropped from the image */
+    private BorderCounts countBorders(final int u0, final int v0, final int w0, final int u1, final int v1,
+                                      final int w1) {
+        final BorderCounts counts = new BorderCounts();
+        for (final int w : distinct(w0, w1)) {
+            addUVFace(counts, w, u0, u1, v0, v1);
+        }
+        for (final int v : distinct(v0, v1)) {
+            addUWFace(counts, v, u0, u1, w0, w1);
+        }
+        for (final int u : distinct(u0, u1)) {
+            addVWFace(counts, u, v0, v1, w0, w1);
+        }
+        return counts;
+    }
+
+    /**
+     * Adds the counts of the uv-face at w, whose elements are in [a, b] on the u-axis and [c, d] on the v-axis
+     *
+     * @see BorderCounts#addRow
+     */
+    private void addUVFace(final BorderCounts counts, final int w, final int a, final int b, final int c,
+                           final int d) {
+        for (final int y : distinct(c, d)) {
+            for (final int x : distinct(a, b)) {
+                counts.corners += sum(ELEMENT, x, x, y, y, w, w);
+            }
+            counts.edges += sum(ELEMENT, a + 1, b - 1, y, y, w, w);
+            counts.edgeVertices += sum(U_PAIR, a + 1, b, y, y, w, w);
+        }
+        for (final int x : distinct(a, b)) {
+            counts.edges += sum(ELEMENT, x, x, c + 1, d - 1, w, w);
+            counts.edgeVertices += sum(V_PAIR, x, x, c + 1, d, w, w);
+        }
+        counts.faces += sum(ELEMENT, a + 1, b - 1, c + 1, d - 1, w, w);
+        counts.faceVertices += sum(UV_QUAD, a + 1, b, c + 1, d, w, w) + sum(V_PAIR, a, a, c + 1, d, w, w) +
+                sum(U_PAIR, a + 1, b, c, c, w, w) + sum(ELEMENT, a, a, c, c, w, w);
+        counts.faceEdges += sum(UV_EDGES, a + 1, b, c + 1, d, w, w) + sum(UV_EDGES_NO_U, a, a, c + 1, d, w, w) +
+                sum(UV_EDGES_NO_V, a + 1, b, c, c, w, w) + 2 * sum(ELEMENT, a, a, c, c, w, w) +
+                sum(ELEMENT, b, b, c, d, w, w) + sum(ELEMENT, a, b, d, d, w, w);
+    }
+
+    /** Adds the counts of the uw-face at v, whose elements are in [a, b] on the u-axis and [c, d] on the w-axis */
+    private void addUWFace(final BorderCounts counts, final int v, final int a, final int b, final int c,
+                           final int d) {
+        for (final int x : distinct(a, b)) {
+            counts.edges += sum(ELEMENT, x, x, v, v, c + 1, d - 1);
+            counts.edgeVertices += sum(W_PAIR, x, x, v, v, c + 1, d);
+        }
+        counts.faces += sum(ELEMENT, a + 1, b - 1, v, v, c + 1, d - 1);
+        counts.faceVertices += sum(UW_QUAD, a + 1, b, v, v, c + 1, d);
+        counts.faceEdges += sum(W_PAIR, a, b, v, v, c + 1, d) + sum(ELEMENT, a, b, v, v, d, d) +
+                sum(ELEMENT, a, a, v, v, c, d) + sum(U_PAIR, a + 1, b, v, v, c, d) + sum(ELEMENT, b, b, v, v, c, d);
+    }
+
+    /** Adds the counts of the vw-face at u, whose elements are in [a, b] on the v-axis and [c, d] on the w-axis */
+    private void addVWFace(final BorderCounts counts, final int u, final int a, final int b, final int c,
+                           final int d) {
+        counts.faces += sum(ELEMENT, u, u, a + 1, b - 1, c + 1, d - 1);
+        counts.faceVertices += sum(VW_QUAD, u, u, a + 1, b, c + 1, d) + sum(W_PAIR, u, u, a, a, c + 1, d);
+        counts.faceEdges += sum(W_PAIR, u, u, a, b, c + 1, d) + sum(ELEMENT, u, u, a, b, d, d);
+    }
+
+    /**
+     * Sums the values of a table in the box [u0, u1] x [v0, v1] x [w0, w1]
+     *
+     * @return The sum, or 0 if the box is empty
+     */
+    private long sum(final int table, final int u0, final int u1, final int v0, final int v1, final int w0,
+                     final int w1) {
+        if (u0 > u1 || v0 > v1 || w0 > w1) {
+            return 0;
+        }
+
+        final int a = v0 * uStride + u0;
+        final int b = v0 * uStride + u1 + 1;
+        final int c = (v1 + 1) * uStride + u0;
+        final int d = (v1 + 1) * uStride + u1 + 1;
+
+        return planeSum(table, w1 + 1, a, b, c, d) - planeSum(table, w0, a, b, c, d);
+    }
+
+    /**
+     * Sums the values of a table in the rectangle of table plane w whose corners are at the given indices
+     *
+     * @param a Index of the corner (u0, v0)
+     * @param b Index of the corner (u1 + 1, v0)
+     * @param c Index of the corner (u0, v1 + 1)
+     * @param d Index of the corner (u1 + 1, v1 + 1)
+     */
+    private long planeSum(final int table, final int w, final int a, final int b, final int c, final int d) {
+        final long[] slabStart = slabSums[table][w / slabPlanes];
+        long sum = slabStart[d] - slabStart[c] - slabStart[b] + slabStart[a];
+        final int[] plane = planes[table][w];
+        if (plane != null) {
+            // The relative sums of the rectangle fit in an int, even if the corners have overflowed
+            sum += plane[d] - plane[c] - plane[b] + plane[a];
+        }
+        return sum;
+    }
+
+    /** Returns the distinct values of a and b */
+    private static int[] distinct(final int a, final int b) {
+        return a == b ? new int[]{a} : new int[]{a, b};
+    }
+
+    private static int toInt(final boolean b) {
+        return b ? 1 : 0;
+    }
+    //endregion
+}
@@ -0,0 +1,355 @@
+package org.bonej.ops.connectivity;
+
+import net.imagej.ImgPlus;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.bonej.ops.connectivity.BorderCounts.Face;
+import org.bonej.utilities.CalibratedAxisUtil;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps track of the connectivity characteristics of a binary image while its elements are edited,
+ * e.g. when an operator paints corrections.
+ *
+ * The Euler characteristic is a sum of contributions of 2x2x2 octants, so a change in an element
+ * affects only the eight octants around it. After the image has been seeded once,
+ * each update re-evaluates only the octants around the changed elements, and the face positions next to them.
+ *
+ * @author Richard Domander
+ * @implNote Not thread safe
+ * @implNote Assumes that the image starts from the origin
+ */
+public final class EulerTracker {
+    private final ImgPlus<BitType> imgPlus;
+    private final Octant octant;
+    private final RandomAccess<BitType> access;
+    private final long uSize;
+    private final long vSize;
+    private final long wSize;
+    /** Positions of the faces of the image: w for the uv-faces, v for uw-faces and u for vw-faces */
+    private final long[][] facePositions = new long[Face.values().length][];
+    /** Border counts of each face, in the same order as facePositions */
+    private final BorderCounts[][] faceCounts = new BorderCounts[Face.values().length][];
+    private long eulerSum;
+
+    /**
+     * Seeds the tracker from the current elements of the image
+     *
+     * @throws NullPointerException     if imgPlus == null
+     * @throws IllegalArgumentException if imgPlus is not 3D
+     */
+    public EulerTracker(final ImgPlus<BitType> imgPlus) throws NullPointerException, IllegalArgumentException {
+        checkNotNull(imgPlus, "Image cannot be null");
+        checkArgument(imgPlus.numDimensions() == 3, "Image must be 3D");
+
+        this.imgPlus = imgPlus;
+        octant = new Octant(imgPlus);
+        access = imgPlus.randomAccess();
+        uSize = imgPlus.dimension(0);
+        vSize = imgPlus.dimension(1);
+        wSize = imgPlus.dimension(2);
+        facePositions[Face.UV.ordinal()] = BorderCounts.borderPositions(wSize);
+        facePositions[Face.UW.ordinal()] = BorderCounts.borderPositions(vSize);
+        facePositions[Face.VW.ordinal()] = BorderCounts.borderPositions(uSize);
+
+        eulerSum = Connectivity.sumDeltaEuler(imgPlus, true);
+        for (final Face face : Face.values()) {
+            final long[] positions = facePositions[face.ordinal()];
+            faceCounts[face.ordinal()] = new BorderCounts[positions.length];
+            for (int i = 0; i < positions.length; i++) {
+                faceCounts[face.ordinal()][i] = BorderCounts.countFace(imgPlus, face, positions[i]);
+            }
+        }
+    }
+
+    /**
+     * Updates the characteristics after the given elements have changed (flipped) in the image
+     *
+     * @param changedPositions {u, v, w} positions of the elements that have changed since the last update
+     * @throws NullPointerException     if changedPositions == null
+     * @throws IllegalArgumentException if a position is outside the image
+     */
+    public void update(final Collection<long[]> changedPositions) throws NullPointerException,
+            IllegalArgumentException {
+        checkNotNull(changedPositions, "Changed positions cannot be null");
+
+        final long[] changed = new long[changedPositions.size()];
+        int count = 0;
+        for (final long[] position : changedPositions) {
+            checkArgument(position.length == 3 && contains(position[0], position[1], position[2]),
+                    "Position must be in the image");
+            changed[count++] = toIndex(position[0], position[1], position[2]);
+        }
+
+        update(changed, count);
+    }
+
+    /**
+     * Updates the characteristics after elements have changed (flipped) in the image
+     *
+     * @param diffMask A mask of the image's size whose foreground elements have changed since the last update
+     * @throws NullPointerException     if diffMask == null
+     * @throws IllegalArgumentException if diffMask doesn't have the dimensions of the image
+     */
+    public void update(final RandomAccessibleInterval<BitType> diffMask)
+            throws NullPointerException, IllegalArgumentException {
+        checkNotNull(diffMask, "Mask cannot be null");
+        checkArgument(Intervals.equalDimensions(diffMask, imgPlus), "Mask must have the dimensions of the image");
+
+        long[] changed = new long[16];
+        int count = 0;
+        final Cursor<BitType> cursor = Views.flatIterable(Views.zeroMin(diffMask)).cursor();
+        for (long index = 0; cursor.hasNext(); index++) {
+            if (!cursor.next().get()) {
+                continue;
+            }
+
+            if (count == changed.length) {
+                changed = Arrays.copyOf(changed, 2 * count);
+            }
+            // Flat iteration order is the order of toIndex
+            changed[count++] = index;
+        }
+
+        update(changed, count);
+    }
+
+    /**
+     * Sets the element at the given position in the image, and updates the characteristics
+     *
+     * @throws IllegalArgumentException if the position is outside the image
+     */
+    public void set(final long u, final long v, final long w, final boolean foreground)
+            throws IllegalArgumentException {
+        checkArgument(contains(u, v, w), "Position must be in the image");
+        access.setPosition(new long[]{u, v, w});
+        if (access.get().get() == foreground) {
+            return;
+        }
+
+        access.get().set(foreground);
+        update(new long[]{toIndex(u, v, w)}, 1);
+    }
+
+    /** Returns the current characteristics of the image, see {@link Connectivity} */
+    public Connectivity.Characteristics getCharacteristics() {
+        final BorderCounts borderCounts = new BorderCounts();
+        for (final BorderCounts[] counts : faceCounts) {
+            for (final BorderCounts faceCount : counts) {
+                borderCounts.add(faceCount);
+            }
+        }
+
+        final double eulerCharacteristic = eulerSum / 8.0;
+        final double deltaChi = eulerCharacteristic - borderCounts.edgeCorrection();
+        final double connectivity = 1 - deltaChi;
+        final double connectivityDensity = connectivity / CalibratedAxisUtil.calibratedSpatialSpaceSize(imgPlus);
+
+        return new Connectivity.Characteristics(eulerCharacteristic, deltaChi, connectivity, connectivityDensity);
+    }
+
+    //region -- Helper methods --
+
+    /**
+     * Updates the characteristics after the elements at the given indices have changed
+     *
+     * @param changed Indices of the changed elements in the first count slots, see {@link #toIndex(long, long, long)}
+     */
+    private void update(final long[] changed, final int count) {
+        final long[] sortedChanged = sortedDistinct(changed, count);
+        updateEulerSum(sortedChanged);
+        updateFaces(sortedChanged);
+    }
+
+    /**
+     * Re-evaluates the octants which contain changed elements.
+     * The octants are visited in index order, so runs of them along the u-axis slide instead of being re-read.
+     * Their old patterns are found by flipping back the changed elements in their current patterns.
+     *
+     * @param changed Sorted indices of the changed elements
+     */
+    private void updateEulerSum(final long[] changed) {
+        // The element is in the octants whose last element is at +0 or +1 from it on each axis
+        final long[] octants = new long[8 * changed.length];
+        int count = 0;
+        for (final long index : changed) {
+            final long[] position = toLocation(index);
+            for (long w = position[2]; w <= position[2] + 1 && w < wSize; w++) {
+                for (long v = position[1]; v <= position[1] + 1 && v < vSize; v++) {
+                    for (long u = position[0]; u <= position[0] + 1 && u < uSize; u++) {
+                        octants[count++] = toIndex(u, v, w);
+                    }
+                }
+            }
+        }
+
+        long previous = -2;
+        for (final long index : sortedDistinct(octants, count)) {
+            final long[] position = toLocation(index);
+            if (index == previous + 1 && position[0] > 0) {
+                // Consecutive octants on a row share half of their elements
+                octant.next();
+            } else {
+                octant.setNeighborhood(position[0], position[1], position[2]);
+            }
+            previous = index;
+            final int pattern = octant.getNeighborhoodPattern();
+            final int oldPattern = pattern ^ changedNeighbors(position[0], position[1], position[2], changed);
+            eulerSum += Connectivity.getDeltaEuler(pattern) - Connectivity.getDeltaEuler(oldPattern);
+        }
+    }
+
+    /** Returns a pattern where the bits of the changed elements in the octant at (u, v, w) are set */
+    private int changedNeighbors(final long u, final long v, final long w, final long[] changed) {
+        int mask = 0;
+        for (int n = 0; n < 8; n++) {
+            // See the bit order of Octant#getNeighborhoodPattern()
+            final long nU = u - 1 + ((n >> 1) & 1);
+            final long nV = v - 1 + (n & 1);
+            final long nW = w - 1 + ((n >> 2) & 1);
+            if (nU >= 0 && nV >= 0 && nW >= 0 && Arrays.binarySearch(changed, toIndex(nU, nV, nW)) >= 0) {
+                mask |= 1 << n;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Updates the border counts of the faces which contain changed elements.
+     * A change at (x, y) of a face affects only the counts at positions x and x + 1 of rows y and y + 1,
+     * so only they are re-evaluated, with the changed elements flipped back for their old counts.
+     *
+     * @param changed Sorted indices of the changed elements
+     * @see BorderCounts#addPosition(Face, boolean, boolean, boolean, boolean, int, int, int, int)
+     */
+    private void updateFaces(final long[] changed) {
+        for (final Face face : Face.values()) {
+            final int dimension = perpendicularDimension(face);
+            final int xDimension = face == Face.VW ? 1 : 0;
+            final int rowDimension = face == Face.UV ? 1 : 2;
+            final int xSize = (int) imgPlus.dimension(xDimension);
+            final int ySize = (int) imgPlus.dimension(rowDimension);
+            final long[] positions = facePositions[face.ordinal()];
+
+            for (int i = 0; i < positions.length; i++) {
+                final long position = positions[i];
+                // Affected (x, y) of the face, as indices y * (xSize + 1) + x
+                final long[] affected = new long[4 * changed.length];
+                int count = 0;
+                for (final long index : changed) {
+                    final long[] location = toLocation(index);
+                    if (location[dimension] != position) {
+                        continue;
+                    }
+                    final long x = location[xDimension];
+                    final long y = location[rowDimension];
+                    for (long affectedY = y; affectedY <= y + 1; affectedY++) {
+                        affected[count++] = affectedY * (xSize + 1) + x;
+                        affected[count++] = affectedY * (xSize + 1) + x + 1;
+                    }
+                }
+
+                final BorderCounts counts = faceCounts[face.ordinal()][i];
+                for (final long index : sortedDistinct(affected, count)) {
+                    final int x = (int) (index % (xSize + 1));
+                    final int y = (int) (index / (xSize + 1));
+                    counts.subtract(countPosition(face, position, x, y, xSize, ySize, changed, true));
+                    counts.add(countPosition(face, position, x, y, xSize, ySize, changed, false));
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the border elements at position x in row y of a face
+     *
+     * @param old If true, the changed elements are flipped back to their values before the update
+     */
+    private BorderCounts countPosition(final Face face, final long position, final int x, final int y,
+                                       final int xSize, final int ySize, final long[] changed, final boolean old) {
+        final BorderCounts counts = new BorderCounts();
+        counts.addPosition(face, faceElement(face, position, x, y - 1, changed, old),
+                faceElement(face, position, x - 1, y - 1, changed, old),
+                faceElement(face, position, x, y, changed, old), faceElement(face, position, x - 1, y, changed, old),
+                x, xSize, y, ySize);
+        return counts;
+    }
+
+    /**
+     * Reads an element of a face of the image
+     *
+     * @param position Position of the face on the axis perpendicular to it
+     * @param changed  Sorted indices of the changed elements
+     * @param old      If true, a changed element is flipped back to its value before the update
+     * @return Value of the element, false if (x, y) is outside the face
+     */
+    private boolean faceElement(final Face face, final long position, final int x, final int y,
+                                final long[] changed, final boolean old) {
+        final int xDimension = face == Face.VW ? 1 : 0;
+        final int rowDimension = face == Face.UV ? 1 : 2;
+        if (x < 0 || x >= imgPlus.dimension(xDimension) || y < 0 || y >= imgPlus.dimension(rowDimension)) {
+            return false;
+        }
+
+        final long[] location = new long[3];
+        location[perpendicularDimension(face)] = position;
+        location[xDimension] = x;
+        location[rowDimension] = y;
+        access.setPosition(location);
+        final boolean foreground = access.get().get();
+        if (!old) {
+            return foreground;
+        }
+
+        return Arrays.binarySearch(changed, toIndex(location[0], location[1], location[2])) >= 0 ? !foreground :
+                foreground;
+    }
+
+    /** Returns the first count values of the array sorted, without duplicates */
+    private static long[] sortedDistinct(final long[] values, final int count) {
+        final long[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, distinct);
+    }
+
+    private static int perpendicularDimension(final Face face) {
+        switch (face) {
+            case UV:
+                return 2;
+            case UW:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    private boolean contains(final long u, final long v, final long w) {
+        return u >= 0 && u < uSize && v >= 0 && v < vSize && w >= 0 && w < wSize;
+    }
+
+    /** Returns the index of the element at (u, v, w) in flat iteration order */
+    private long toIndex(final long u, final long v, final long w) {
+        return (w * vSize + v) * uSize + u;
+    }
+
+    /** Returns the {u, v, w} position of the element at the index */
+    private long[] toLocation(final long index) {
+        return new long[]{index % uSize, index / uSize % vSize, index / uSize / vSize};
+    }
+    //endregion
+}
@@ -0,0 +1,148 @@
+package org.bonej.ops.connectivity;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.measure.Calibration;
+import ij.process.ImageProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Reads the slices of an ImageJ1 ImageStack. Elements whose value is not zero are foreground.
+ *
+ * If the stack is a VirtualStack, only the slice being read is loaded in memory.
+ * Otherwise the byte slices are read directly from the arrays of the stack, and slabs of slices can be read
+ * concurrently, so the image is never converted or copied.
+ *
+ * @author Richard Domander
+ */
+public final class ImageStackSliceSource implements BitSliceSource {
+    private final ImageStack stack;
+    private final double elementSize;
+
+    /**
+     * @param stack       The slices of the image
+     * @param calibration Calibration of the image, or null if it's uncalibrated
+     * @throws NullPointerException if stack == null
+     */
+    public ImageStackSliceSource(final ImageStack stack, final Calibration calibration) throws NullPointerException {
+        checkNotNull(stack, "Stack cannot be null");
+
+        this.stack = stack;
+        elementSize = calibration == null ? 1.0 :
+                calibration.pixelWidth * calibration.pixelHeight * calibration.pixelDepth;
+    }
+
+    /** Creates a source from the stack and calibration of the given image */
+    public static ImageStackSliceSource fromImagePlus(final ImagePlus imagePlus) throws NullPointerException {
+        checkNotNull(imagePlus, "Image cannot be null");
+        return new ImageStackSliceSource(imagePlus.getStack(), imagePlus.getCalibration());
+    }
+
+    /**
+     * Creates a source which reads TIFF slices one by one from the given directory.
+     * The slices are ordered by their file names, and calibrated by the first slice.
+     *
+     * @throws IOException if the directory has no TIFF files, or the first one cannot be opened
+     */
+    public static ImageStackSliceSource fromDirectory(final File directory) throws IOException {
+        final String[] names = directory.list((dir, name) -> {
+            final String lowerCase = name.toLowerCase();
+            return lowerCase.endsWith(".tif") || lowerCase.endsWith(".tiff");
+        });
+        if (names == null || names.length == 0) {
+            throw new IOException("No TIFF slices in " + directory);
+        }
+        Arrays.sort(names);
+
+        final ImagePlus firstSlice = IJ.openImage(new File(directory, names[0]).getPath());
+        if (firstSlice == null) {
+            throw new IOException("Cannot open " + names[0]);
+        }
+
+        final VirtualStack stack = new VirtualStack(firstSlice.getWidth(), firstSlice.getHeight(), null,
+                directory.getPath() + File.separator);
+        Arrays.stream(names).forEach(stack::addSlice);
+        return new ImageStackSliceSource(stack, firstSlice.getCalibration());
+    }
+
+    @Override
+    public int getUSize() {
+        return stack.getWidth();
+    }
+
+    @Override
+    public int getVSize() {
+        return stack.getHeight();
+    }
+
+    @Override
+    public int getWSize() {
+        return stack.getSize();
+    }
+
+    /**
+     * @implNote Gets the processor of the slice once, because a virtual stack loads the slice from disk on each call
+     */
+    @Override
+    public void read(final int w, final BitPlane plane) {
+        final ImageProcessor processor = stack.getProcessor(w + 1);
+        final Object pixels = processor.getPixels();
+        if (pixels instanceof byte[]) {
+            readBytes((byte[]) pixels, plane);
+            return;
+        }
+
+        plane.clear();
+        for (int v = 0; v < plane.vSize; v++) {
+            for (int u = 0; u < plane.uSize; u++) {
+                if (processor.get(u, v) != 0) {
+                    plane.set(u, v, true);
+                }
+            }
+        }
+    }
+
+    /** Slices of a stack in memory are shared arrays, which are only read, so any thread can read them */
+    @Override
+    public boolean supportsConcurrentReads() {
+        return !stack.isVirtual();
+    }
+
+    @Override
+    public double getCalibratedElementSize() {
+        return elementSize;
+    }
+
+    //region -- Helper methods --
+
+    /**
+     * Packs the elements of a byte slice into the plane a word at a time
+     *
+     * @implNote Reads the pixel array of the slice directly, without a copy of it
+     */
+    private static void readBytes(final byte[] bytes, final BitPlane plane) {
+        final int uSize = plane.uSize;
+        for (int v = 0; v < plane.vSize; v++) {
+            final int rowStart = v * uSize;
+            for (int i = 0; i < plane.wordsPerRow; i++) {
+                final int wordStart = rowStart + (i << 6);
+                final int lanes = Math.min(64, uSize - (i << 6));
+                long word = 0;
+                for (int lane = 0; lane < lanes; lane++) {
+                    if (bytes[wordStart + lane] != 0) {
+                        word |= 1L << lane;
+                    }
+                }
+                plane.words[v * plane.wordsPerRow + i] = word;
+            }
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,66 @@
+package org.bonej.ops.connectivity;
+
+import net.imagej.ImgPlus;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.logic.BitType;
+import org.bonej.utilities.CalibratedAxisUtil;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Reads the slices of a 3D BitType interval, e.g. a lazily loaded CellImg or a view
+ *
+ * @author Richard Domander
+ * @implNote Assumes that the interval starts from the origin
+ */
+public final class IntervalSliceSource implements BitSliceSource {
+    private final RandomAccessibleInterval<BitType> interval;
+    private final BitPlaneReader reader;
+    private final double elementSize;
+
+    /**
+     * @throws NullPointerException     if interval == null
+     * @throws IllegalArgumentException if interval is not 3D
+     */
+    public IntervalSliceSource(final RandomAccessibleInterval<BitType> interval)
+            throws NullPointerException, IllegalArgumentException {
+        checkNotNull(interval, "Interval cannot be null");
+        checkArgument(interval.numDimensions() == 3, "Interval must be 3D");
+
+        this.interval = interval;
+        reader = new BitPlaneReader(interval);
+        elementSize = interval instanceof ImgPlus ?
+                CalibratedAxisUtil.calibratedSpatialElementSize((ImgPlus<BitType>) interval) : 1.0;
+    }
+
+    @Override
+    public int getUSize() {
+        return (int) interval.dimension(0);
+    }
+
+    @Override
+    public int getVSize() {
+        return (int) interval.dimension(1);
+    }
+
+    @Override
+    public int getWSize() {
+        return (int) interval.dimension(2);
+    }
+
+    @Override
+    public void read(final int w, final BitPlane plane) {
+        reader.read(w, plane);
+    }
+
+    @Override
+    public boolean supportsConcurrentReads() {
+        return true;
+    }
+
+    @Override
+    public double getCalibratedElementSize() {
+        return elementSize;
+    }
+}
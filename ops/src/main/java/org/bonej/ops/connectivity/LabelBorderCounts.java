@@ -0,0 +1,222 @@
+package org.bonej.ops.connectivity;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.view.Views;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Counts the border elements of each label of a 3D label image, i.e. the same counts as {@link BorderCounts}
+ * for the binary image of each label, but in one pass over the faces.
+ *
+ * Each row of a face is visited once. Every term of {@link BorderCounts} is a count of positions in the row,
+ * where the binary image of a label has a foreground element among the neighbours of the position.
+ * Thus each position adds one to each distinct label among its neighbours.
+ *
+ * @author Richard Domander
+ * @implNote Elements with a label less than 1 are background
+ */
+final class LabelBorderCounts {
+    final long[] corners;
+    final long[] edges;
+    final long[] faces;
+    final long[] edgeVertices;
+    final long[] faceVertices;
+    final long[] faceEdges;
+
+    /** @param labelCount Number of labels, including the background */
+    LabelBorderCounts(final int labelCount) {
+        corners = new long[labelCount];
+        edges = new long[labelCount];
+        faces = new long[labelCount];
+        edgeVertices = new long[labelCount];
+        faceVertices = new long[labelCount];
+        faceEdges = new long[labelCount];
+    }
+
+    /**
+     * Counts the border elements of each label on the faces of the interval
+     *
+     * @param labelCount Number of labels, including the background. Larger labels must not occur in the interval
+     * @param parallel   If true, the faces are counted concurrently
+     * @implNote Assumes that the interval starts from the origin
+     */
+    static <T extends IntegerType<T>> LabelBorderCounts count(final RandomAccessibleInterval<T> interval,
+                                                              final int labelCount, final boolean parallel) {
+        final List<Supplier<LabelBorderCounts>> faceCounters = new ArrayList<>();
+
+        for (final long w : BorderCounts.borderPositions(interval.dimension(2))) {
+            faceCounters.add(() -> countFace(Views.hyperSlice(interval, 2, w), BorderCounts.Face.UV, labelCount));
+        }
+
+        for (final long v : BorderCounts.borderPositions(interval.dimension(1))) {
+            faceCounters.add(() -> countFace(Views.hyperSlice(interval, 1, v), BorderCounts.Face.UW, labelCount));
+        }
+
+        for (final long u : BorderCounts.borderPositions(interval.dimension(0))) {
+            faceCounters.add(() -> countFace(Views.hyperSlice(interval, 0, u), BorderCounts.Face.VW, labelCount));
+        }
+
+        final Stream<Supplier<LabelBorderCounts>> stream =
+                parallel ? faceCounters.parallelStream() : faceCounters.stream();
+        final List<LabelBorderCounts> faceCounts = stream.map(Supplier::get).collect(Collectors.toList());
+        final LabelBorderCounts counts = new LabelBorderCounts(labelCount);
+        faceCounts.forEach(counts::add);
+        return counts;
+    }
+
+    /**
+     * Counts the border elements of each label on a face of the interval
+     *
+     * @param faceInterval The elements of the face, rows along its first dimension
+     */
+    static <T extends IntegerType<T>> LabelBorderCounts countFace(final RandomAccessibleInterval<T> faceInterval,
+                                                                  final BorderCounts.Face face,
+                                                                  final int labelCount) {
+        final int xSize = (int) faceInterval.dimension(0);
+        final int ySize = (int) faceInterval.dimension(1);
+        final LabelBorderCounts counts = new LabelBorderCounts(labelCount);
+        final Cursor<T> cursor = Views.flatIterable(faceInterval).cursor();
+        int[] previousRow = new int[xSize];
+        int[] row = new int[xSize];
+
+        for (int y = 0; y <= ySize; y++) {
+            for (int x = 0; x < xSize; x++) {
+                row[x] = y < ySize ? Math.max(0, cursor.next().getInteger()) : 0;
+            }
+            counts.addRow(face, previousRow, row, y, ySize);
+
+            final int[] swap = previousRow;
+            previousRow = row;
+            row = swap;
+        }
+
+        return counts;
+    }
+
+    /** Adds the other counts to these counts, label by label */
+    void add(final LabelBorderCounts other) {
+        for (int i = 0; i < corners.length; i++) {
+            corners[i] += other.corners[i];
+            edges[i] += other.edges[i];
+            faces[i] += other.faces[i];
+            edgeVertices[i] += other.edgeVertices[i];
+            faceVertices[i] += other.faceVertices[i];
+            faceEdges[i] += other.faceEdges[i];
+        }
+    }
+
+    /**
+     * Adds the counts of a row of a face
+     *
+     * @param previousRow Labels of row y - 1 of the face, all 0 if y == 0
+     * @param row         Labels of row y of the face, all 0 if y == ySize
+     * @see BorderCounts#visitRow(BorderCounts.Face, int, int, int, BorderCounts.TermVisitor)
+     */
+    void addRow(final BorderCounts.Face face, final int[] previousRow, final int[] row, final int y,
+                final int ySize) {
+        BorderCounts.visitRow(face, row.length, y, ySize, (term, neighbors, x) -> add(counts(term), neighbors,
+                at(previousRow, x - 1), at(previousRow, x), at(row, x - 1), at(row, x)));
+    }
+
+    /**
+     * Calculates the edge correction of a label
+     *
+     * @see BorderCounts#edgeCorrection()
+     */
+    double edgeCorrection(final int label) {
+        return BorderCounts.edgeCorrection(corners[label], edges[label], faces[label], edgeVertices[label],
+                faceVertices[label], faceEdges[label]);
+    }
+
+    //region -- Helper methods --
+
+    /** Returns the label at x, or 0 if it's outside the row */
+    private static int at(final int[] row, final int x) {
+        return x >= 0 && x < row.length ? row[x] : 0;
+    }
+
+    /** Adds one to each distinct foreground label of a and b */
+    private static void addDistinct(final long[] counts, final int a, final int b) {
+        if (a != 0) {
+            counts[a]++;
+        }
+        if (b != 0 && b != a) {
+            counts[b]++;
+        }
+    }
+
+    /** Adds one to each distinct foreground label of a, b, c and d */
+    private static void addDistinct(final long[] counts, final int a, final int b, final int c, final int d) {
+        addDistinct(counts, a, b);
+        if (c != 0 && c != a && c != b) {
+            counts[c]++;
+        }
+        if (d != 0 && d != a && d != b && d != c) {
+            counts[d]++;
+        }
+    }
+
+    /** Returns the counts of the term */
+    private long[] counts(final BorderCounts.Term term) {
+        switch (term) {
+            case CORNERS:
+                return corners;
+            case EDGES:
+                return edges;
+            case FACES:
+                return faces;
+            case EDGE_VERTICES:
+                return edgeVertices;
+            case FACE_VERTICES:
+                return faceVertices;
+            default:
+                return faceEdges;
+        }
+    }
+
+    /**
+     * Adds what a position adds to the counts of each label among its neighbors
+     *
+     * @param previousLeft Label at x - 1 of the previous row
+     * @param previous     Label at x of the previous row
+     * @param left         Label at x - 1 of the row
+     * @param label        Label at x of the row
+     */
+    private static void add(final long[] counts, final BorderCounts.Neighbors neighbors, final int previousLeft,
+                            final int previous, final int left, final int label) {
+        switch (neighbors) {
+            case ELEMENT:
+                addDistinct(counts, label, 0);
+                break;
+            case PAIR:
+                addDistinct(counts, label, left);
+                break;
+            case COLUMN:
+                addDistinct(counts, label, previous);
+                break;
+            case QUAD:
+                addDistinct(counts, label, left, previous, previousLeft);
+                break;
+            default:
+                // A label at x adds 2, otherwise the labels at x - 1, and x of the previous row add 1 each
+                if (label != 0) {
+                    counts[label] += 2;
+                }
+                if (left != 0 && left != label) {
+                    counts[left]++;
+                }
+                if (previous != 0 && previous != label) {
+                    counts[previous]++;
+                }
+                break;
+        }
+    }
+    //endregion
+}
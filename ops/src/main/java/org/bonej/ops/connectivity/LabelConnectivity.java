@@ -0,0 +1,227 @@
+package org.bonej.ops.connectivity;
+
+import net.imagej.ImgPlus;
+import net.imagej.ops.Contingent;
+import net.imagej.ops.Op;
+import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.view.Views;
+import org.bonej.utilities.CalibratedAxisUtil;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * An Op which calculates the connectivity characteristics of each label in an integer label image.
+ * The results are the same as running {@link Connectivity} on a binary image of each label separately,
+ * but all the labels are processed in a single sweep of the octants.
+ *
+ * @author Richard Domander
+ * @implNote Elements with a label less than 1 are background
+ * @implNote The per label sums are stored in arrays indexed by label, so the labels should be compact
+ * @implNote Assuming that all axis are linear
+ * @implNote Assuming that all dimensions are spatial
+ */
+@Plugin(type = Op.class, name = "labelConnectivityCharacteristics")
+public class LabelConnectivity<T extends IntegerType<T>>
+        extends AbstractUnaryFunctionOp<ImgPlus<T>, Map<Integer, Connectivity.Characteristics>>
+        implements Contingent {
+    private static final int W_INDEX = 2;
+
+    /**
+     * If true, the octants are swept in w-slabs concurrently, and the faces are counted concurrently.
+     * The result is exactly the same as in the serial calculation.
+     */
+    @Parameter(required = false)
+    private boolean parallel = true;
+
+    /** @return Characteristics of each label found in the image, sorted by label */
+    @Override
+    public Map<Integer, Connectivity.Characteristics> compute1(final ImgPlus<T> imgPlus) {
+        final LabelSums sums = sumLabelDeltaEuler(imgPlus, parallel);
+        final LabelBorderCounts borderCounts = LabelBorderCounts.count(imgPlus, sums.size(), parallel);
+        final double calibratedImgVolume = CalibratedAxisUtil.calibratedSpatialSpaceSize(imgPlus);
+        final Map<Integer, Connectivity.Characteristics> characteristics = new TreeMap<>();
+
+        for (int label = 1; label < sums.size(); label++) {
+            if (sums.elementCounts[label] == 0) {
+                continue;
+            }
+
+            final double eulerCharacteristic = sums.eulerSums[label] / 8.0;
+            final double deltaChi = eulerCharacteristic - borderCounts.edgeCorrection(label);
+            final double connectivity = 1 - deltaChi;
+            characteristics.put(label, new Connectivity.Characteristics(eulerCharacteristic, deltaChi,
+                    connectivity, connectivity / calibratedImgVolume));
+        }
+
+        return characteristics;
+    }
+
+    @Override
+    public boolean conforms() {
+        return in().numDimensions() == 3;
+    }
+
+    //region -- Helper methods --
+
+    /**
+     * Sums the changes in the Euler characteristics of each label in all the octants of the interval
+     *
+     * @param parallel If true, the interval is split into w-slabs which are summed concurrently
+     * @implNote Assumes that the interval starts from the origin
+     */
+    static <T extends IntegerType<T>> LabelSums sumLabelDeltaEuler(final RandomAccessibleInterval<T> interval,
+                                                                   final boolean parallel) {
+        final int wSize = (int) interval.dimension(W_INDEX);
+        final int slabs = parallel ? Math.max(1, Math.min(wSize, Runtime.getRuntime().availableProcessors())) : 1;
+        final IntStream slabStream = IntStream.range(0, slabs);
+
+        final List<LabelSums> slabSums = (parallel ? slabStream.parallel() : slabStream).mapToObj(slab -> {
+            final int wStart = (int) ((long) slab * wSize / slabs);
+            final int wEnd = (int) ((long) (slab + 1) * wSize / slabs);
+            return sumSlabDeltaEuler(interval, wStart, wEnd);
+        }).collect(Collectors.toList());
+
+        final LabelSums sums = new LabelSums();
+        slabSums.forEach(sums::add);
+        return sums;
+    }
+
+    /**
+     * Sums the changes in the Euler characteristics of the labels in the slices [wStart, wEnd) of the image
+     *
+     * @implNote Only the label planes at w - 1 and w are resident at a time
+     */
+    private static <T extends IntegerType<T>> LabelSums sumSlabDeltaEuler(final RandomAccessibleInterval<T> interval,
+                                                                          final int wStart, final int wEnd) {
+        final int uSize = (int) interval.dimension(0);
+        final int vSize = (int) interval.dimension(1);
+        final LabelSums sums = new LabelSums();
+        final int[] labels = new int[8];
+        int[] back = new int[uSize * vSize];
+        int[] front = new int[uSize * vSize];
+        if (wStart > 0) {
+            readLabels(Views.hyperSlice(interval, W_INDEX, wStart - 1), back);
+        }
+
+        for (int w = wStart; w < wEnd; w++) {
+            readLabels(Views.hyperSlice(interval, W_INDEX, w), front);
+            for (int v = 0; v < vSize; v++) {
+                for (int u = 0; u < uSize; u++) {
+                    labels[0] = label(back, uSize, u - 1, v - 1);
+                    labels[1] = label(back, uSize, u - 1, v);
+                    labels[2] = label(back, uSize, u, v - 1);
+                    labels[3] = label(back, uSize, u, v);
+                    labels[4] = label(front, uSize, u - 1, v - 1);
+                    labels[5] = label(front, uSize, u - 1, v);
+                    labels[6] = label(front, uSize, u, v - 1);
+                    labels[7] = front[v * uSize + u];
+                    addOctant(labels, sums);
+                }
+            }
+
+            final int[] swap = back;
+            back = front;
+            front = swap;
+        }
+
+        return sums;
+    }
+
+    /**
+     * Adds the Euler deltas of an octant to each label in it
+     *
+     * @param labels Labels of the elements in the octant in neighbor order, see {@link Octant}
+     */
+    private static void addOctant(final int[] labels, final LabelSums sums) {
+        for (int i = 0; i < 8; i++) {
+            final int label = labels[i];
+            if (label == 0 || isLabelBefore(labels, i)) {
+                continue;
+            }
+
+            int pattern = 1 << i;
+            for (int j = i + 1; j < 8; j++) {
+                if (labels[j] == label) {
+                    pattern |= 1 << j;
+                }
+            }
+            sums.ensureCapacity(label);
+            sums.eulerSums[label] += Connectivity.getDeltaEuler(pattern);
+        }
+
+        // Each element is the last one of exactly one octant
+        if (labels[7] != 0) {
+            sums.elementCounts[labels[7]]++;
+        }
+    }
+
+    /** Checks if the label at index i was already found at a lower index */
+    private static boolean isLabelBefore(final int[] labels, final int i) {
+        for (int j = 0; j < i; j++) {
+            if (labels[j] == labels[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Reads the labels of a plane in flat iteration order, mapping background to 0 */
+    private static <T extends IntegerType<T>> void readLabels(final RandomAccessibleInterval<T> plane,
+                                                              final int[] labels) {
+        final Cursor<T> cursor = Views.flatIterable(plane).cursor();
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = Math.max(0, cursor.next().getInteger());
+        }
+    }
+
+    /** Returns the label at (u, v) of a plane, or 0 if it's outside the plane */
+    private static int label(final int[] plane, final int uSize, final int u, final int v) {
+        if (u < 0 || v < 0) {
+            return 0;
+        }
+
+        return plane[v * uSize + u];
+    }
+    //endregion
+
+    //region -- Helper classes --
+
+    /** Euler sums and element counts indexed by label, grown as new labels are found */
+    static final class LabelSums {
+        long[] eulerSums = new long[0];
+        long[] elementCounts = new long[0];
+
+        int size() {
+            return eulerSums.length;
+        }
+
+        void ensureCapacity(final int label) {
+            if (label < eulerSums.length) {
+                return;
+            }
+
+            final int length = Math.max(label + 1, 2 * eulerSums.length);
+            eulerSums = Arrays.copyOf(eulerSums, length);
+            elementCounts = Arrays.copyOf(elementCounts, length);
+        }
+
+        void add(final LabelSums other) {
+            ensureCapacity(other.size() - 1);
+            for (int i = 0; i < other.size(); i++) {
+                eulerSums[i] += other.eulerSums[i];
+                elementCounts[i] += other.elementCounts[i];
+            }
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,230 @@
+package org.bonej.ops.connectivity;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Counts the border elements of a 3D grayscale image at a series of thresholds, i.e. the same counts as
+ * {@link BorderCounts} for the image binarized at each threshold, but in one pass over the faces.
+ *
+ * Every term of {@link BorderCounts} is a count of positions in a row of a face, where any of the neighbours
+ * of the position is foreground. A neighbourhood has a foreground element at the thresholds up to the highest
+ * level in it, so each position adds one to a range of thresholds in difference arrays, like the octants
+ * in {@link EulerCharacteristicCurve}.
+ *
+ * @author Richard Domander
+ * @see EulerCharacteristicCurve#level(double[], double)
+ */
+final class LevelBorderCounts {
+    /** Difference arrays whose prefix sum at k is the count at threshold k */
+    final long[] corners;
+    final long[] edges;
+    final long[] faces;
+    final long[] edgeVertices;
+    final long[] faceVertices;
+    final long[] faceEdges;
+
+    /** @param levelCount Number of thresholds */
+    LevelBorderCounts(final int levelCount) {
+        corners = new long[levelCount + 1];
+        edges = new long[levelCount + 1];
+        faces = new long[levelCount + 1];
+        edgeVertices = new long[levelCount + 1];
+        faceVertices = new long[levelCount + 1];
+        faceEdges = new long[levelCount + 1];
+    }
+
+    /**
+     * Counts the border elements on the faces of the interval at each threshold
+     *
+     * @param thresholds Thresholds in strictly ascending order
+     * @param parallel   If true, the faces are counted concurrently
+     * @implNote Assumes that the interval starts from the origin
+     */
+    static <T extends RealType<T>> LevelBorderCounts count(final RandomAccessibleInterval<T> interval,
+                                                           final double[] thresholds, final boolean parallel) {
+        final List<Supplier<LevelBorderCounts>> faceCounters = new ArrayList<>();
+
+        for (final long w : BorderCounts.borderPositions(interval.dimension(2))) {
+            faceCounters.add(() -> countFace(Views.hyperSlice(interval, 2, w), BorderCounts.Face.UV, thresholds));
+        }
+
+        for (final long v : BorderCounts.borderPositions(interval.dimension(1))) {
+            faceCounters.add(() -> countFace(Views.hyperSlice(interval, 1, v), BorderCounts.Face.UW, thresholds));
+        }
+
+        for (final long u : BorderCounts.borderPositions(interval.dimension(0))) {
+            faceCounters.add(() -> countFace(Views.hyperSlice(interval, 0, u), BorderCounts.Face.VW, thresholds));
+        }
+
+        final Stream<Supplier<LevelBorderCounts>> stream =
+                parallel ? faceCounters.parallelStream() : faceCounters.stream();
+        final List<LevelBorderCounts> faceCounts = stream.map(Supplier::get).collect(Collectors.toList());
+        final LevelBorderCounts counts = new LevelBorderCounts(thresholds.length);
+        faceCounts.forEach(counts::add);
+        return counts;
+    }
+
+    /**
+     * Counts the border elements on a face of the interval at each threshold
+     *
+     * @param faceInterval The elements of the face, rows along its first dimension
+     */
+    static <T extends RealType<T>> LevelBorderCounts countFace(final RandomAccessibleInterval<T> faceInterval,
+                                                               final BorderCounts.Face face,
+                                                               final double[] thresholds) {
+        final int xSize = (int) faceInterval.dimension(0);
+        final int ySize = (int) faceInterval.dimension(1);
+        final LevelBorderCounts counts = new LevelBorderCounts(thresholds.length);
+        final Cursor<T> cursor = Views.flatIterable(faceInterval).cursor();
+        int[] previousRow = new int[xSize];
+        int[] row = new int[xSize];
+        Arrays.fill(previousRow, -1);
+
+        for (int y = 0; y <= ySize; y++) {
+            for (int x = 0; x < xSize; x++) {
+                row[x] = y < ySize ? EulerCharacteristicCurve.level(thresholds, cursor.next().getRealDouble()) : -1;
+            }
+            counts.addRow(face, previousRow, row, y, ySize);
+
+            final int[] swap = previousRow;
+            previousRow = row;
+            row = swap;
+        }
+
+        return counts;
+    }
+
+    /** Adds the other counts to these counts */
+    void add(final LevelBorderCounts other) {
+        for (int i = 0; i < corners.length; i++) {
+            corners[i] += other.corners[i];
+            edges[i] += other.edges[i];
+            faces[i] += other.faces[i];
+            edgeVertices[i] += other.edgeVertices[i];
+            faceVertices[i] += other.faceVertices[i];
+            faceEdges[i] += other.faceEdges[i];
+        }
+    }
+
+    /**
+     * Adds the counts of a row of a face
+     *
+     * @param previousRow Levels of row y - 1 of the face, all -1 if y == 0
+     * @param row         Levels of row y of the face, all -1 if y == ySize
+     * @see BorderCounts#visitRow(BorderCounts.Face, int, int, int, BorderCounts.TermVisitor)
+     */
+    void addRow(final BorderCounts.Face face, final int[] previousRow, final int[] row, final int y,
+                final int ySize) {
+        BorderCounts.visitRow(face, row.length, y, ySize, (term, neighbors, x) -> add(differences(term),
+                neighbors, at(previousRow, x - 1), at(previousRow, x), at(row, x - 1), at(row, x)));
+    }
+
+    /**
+     * Calculates the edge correction at each threshold
+     *
+     * @see BorderCounts#edgeCorrection()
+     */
+    double[] edgeCorrections() {
+        final double[] corrections = new double[corners.length - 1];
+        long cornerSum = 0;
+        long edgeSum = 0;
+        long faceSum = 0;
+        long edgeVertexSum = 0;
+        long faceVertexSum = 0;
+        long faceEdgeSum = 0;
+        for (int k = 0; k < corrections.length; k++) {
+            cornerSum += corners[k];
+            edgeSum += edges[k];
+            faceSum += faces[k];
+            edgeVertexSum += edgeVertices[k];
+            faceVertexSum += faceVertices[k];
+            faceEdgeSum += faceEdges[k];
+            corrections[k] = BorderCounts.edgeCorrection(cornerSum, edgeSum, faceSum, edgeVertexSum, faceVertexSum,
+                    faceEdgeSum);
+        }
+        return corrections;
+    }
+
+    //region -- Helper methods --
+
+    /** Returns the level at x, or -1 if it's outside the row */
+    private static int at(final int[] row, final int x) {
+        return x >= 0 && x < row.length ? row[x] : -1;
+    }
+
+    /** Adds the count to the thresholds in [from, to] */
+    private static void addRange(final long[] differences, final int from, final int to, final int count) {
+        if (from > to) {
+            return;
+        }
+        differences[from] += count;
+        differences[to + 1] -= count;
+    }
+
+    /** Adds one to the thresholds where any of the levels is foreground, i.e. up to the highest level */
+    private static void addAny(final long[] differences, final int level) {
+        addRange(differences, 0, level, 1);
+    }
+
+    /** Returns the difference array of the term */
+    private long[] differences(final BorderCounts.Term term) {
+        switch (term) {
+            case CORNERS:
+                return corners;
+            case EDGES:
+                return edges;
+            case FACES:
+                return faces;
+            case EDGE_VERTICES:
+                return edgeVertices;
+            case FACE_VERTICES:
+                return faceVertices;
+            default:
+                return faceEdges;
+        }
+    }
+
+    /**
+     * Adds what a position adds to a term at each threshold
+     *
+     * @param previousLeft Level at x - 1 of the previous row
+     * @param previous     Level at x of the previous row
+     * @param left         Level at x - 1 of the row
+     * @param level        Level at x of the row
+     */
+    private static void add(final long[] differences, final BorderCounts.Neighbors neighbors,
+                            final int previousLeft, final int previous, final int left, final int level) {
+        switch (neighbors) {
+            case ELEMENT:
+                addAny(differences, level);
+                break;
+            case PAIR:
+                addAny(differences, Math.max(level, left));
+                break;
+            case COLUMN:
+                addAny(differences, Math.max(level, previous));
+                break;
+            case QUAD:
+                addAny(differences, Math.max(Math.max(level, left), Math.max(previous, previousLeft)));
+                break;
+            default:
+                // A foreground element at x adds 2, otherwise the elements at x - 1, and x of the previous row
+                // add 1 each
+                addRange(differences, 0, level, 2);
+                addRange(differences, level + 1, left, 1);
+                addRange(differences, level + 1, previous, 1);
+                break;
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,526 @@
+package org.bonej.ops.connectivity;
+
+import net.imagej.ImgPlus;
+import net.imagej.ops.Contingent;
+import net.imagej.ops.Op;
+import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.logic.BitType;
+import org.bonej.utilities.CalibratedAxisUtil;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import java.util.stream.IntStream;
+
+/**
+ * An Op which estimates the four Minkowski functionals of the foreground in a binary image:
+ * volume, surface area, integral of mean curvature and the Euler characteristic.
+ * <p>
+ * The image is swept once, and the 2x2x2 configurations of all the octants are counted into a 256-bin histogram.
+ * Each functional is then a weighted sum of the histogram (Ohser &amp; Mücklich, 2000):
+ * the volume counts the foreground elements, the surface area counts the foreground-background transitions
+ * along the 13 lattice directions (discrete Crofton formula), and the mean breadth sums the Euler characteristics
+ * of the sections along the 13 families of lattice planes. The Euler characteristic uses the same 26-connected
+ * weights as {@link Connectivity}.
+ * </p>
+ *
+ * @author Richard Domander
+ * @implNote The foreground is treated as floating in space, i.e. the image is padded with background.
+ *           The Euler characteristic is the same as in {@link Connectivity}
+ *           unless the foreground touches the faces at the far ends of the axes.
+ * @implNote The weights of the lattice directions are their shares of the unit sphere,
+ *           which are integrated numerically
+ * @implNote Assuming that all axis are linear
+ * @implNote Assuming that all dimensions are spatial
+ */
+@Plugin(type = Op.class, name = "minkowskiFunctionals")
+public class MinkowskiFunctionals extends AbstractUnaryFunctionOp<ImgPlus<BitType>, MinkowskiFunctionals.Results>
+        implements Contingent {
+    static final int CONFIGURATIONS = 256;
+    private static final int W_INDEX = 2;
+    /** Number of points used to integrate the shares of the lattice directions over the sphere */
+    private static final int SPHERE_POINTS = 100_000;
+
+    /**
+     * If true, the octants are counted in w-slabs concurrently.
+     * The result is exactly the same as in the serial calculation.
+     */
+    @Parameter(required = false)
+    private boolean parallel = true;
+
+    @Override
+    public Results compute1(final ImgPlus<BitType> imgPlus) {
+        final long[] histogram = countConfigurations(imgPlus, parallel);
+        final double[] elementSize = CalibratedAxisUtil.calibratedSpatialElementSizes(imgPlus);
+        final ConfigurationWeights weights = new ConfigurationWeights(elementSize);
+
+        return new Results(weights.volume(histogram), weights.surfaceArea(histogram),
+                weights.meanBreadth(histogram), weights.eulerCharacteristic(histogram));
+    }
+
+    @Override
+    public boolean conforms() {
+        return in().numDimensions() == 3 && CalibratedAxisUtil.countSpatialDimensions(in()) == 3;
+    }
+
+    //region -- Helper methods --
+
+    /**
+     * Counts the configurations of all the octants of the interval padded with background,
+     * i.e. the octants whose last element is at [0, size] in each dimension
+     *
+     * @param parallel If true, the interval is split into w-slabs which are counted concurrently
+     * @return Number of octants with each neighborhood pattern, see {@link Octant#getNeighborhoodPattern()}
+     * @implNote Assumes that the interval starts from the origin
+     */
+    public static long[] countConfigurations(final RandomAccessibleInterval<BitType> interval,
+                                             final boolean parallel) {
+        final int layers = (int) interval.dimension(W_INDEX) + 1;
+        final int slabs = parallel ? Math.max(1, Math.min(layers, Runtime.getRuntime().availableProcessors())) : 1;
+        final IntStream slabStream = IntStream.range(0, slabs);
+
+        return (parallel ? slabStream.parallel() : slabStream).mapToObj(slab -> {
+            final int wStart = (int) ((long) slab * layers / slabs);
+            final int wEnd = (int) ((long) (slab + 1) * layers / slabs);
+            return countSlabConfigurations(interval, wStart, wEnd);
+        }).reduce(new long[CONFIGURATIONS], MinkowskiFunctionals::sum);
+    }
+
+    /**
+     * Counts the configurations of the octants whose last element is in the slices [wStart, wEnd)
+     *
+     * @implNote Only two planes are resident at a time. The octants are read 64 at a time as bit-slices,
+     *           and the words where all the octants are empty or full are counted without looking at each.
+     */
+    private static long[] countSlabConfigurations(final RandomAccessibleInterval<BitType> interval,
+                                                  final int wStart, final int wEnd) {
+        final long[] histogram = new long[CONFIGURATIONS];
+        final int wSize = (int) interval.dimension(W_INDEX);
+        final BitPlaneReader reader = new BitPlaneReader(interval);
+        BitPlane back = reader.createPlane();
+        BitPlane front = reader.createPlane();
+        if (wStart > 0) {
+            reader.read(wStart - 1, back);
+        }
+
+        for (int w = wStart; w < wEnd; w++) {
+            if (w < wSize) {
+                reader.read(w, front);
+            } else {
+                front.clear();
+            }
+            countPlaneConfigurations(back, front, histogram);
+
+            final BitPlane swap = back;
+            back = front;
+            front = swap;
+        }
+
+        return histogram;
+    }
+
+    /**
+     * Counts the configurations of the octants between two planes,
+     * whose last element is at [0, uSize] x [0, vSize] of the front plane
+     */
+    private static void countPlaneConfigurations(final BitPlane back, final BitPlane front, final long[] histogram) {
+        final int octantWords = (back.uSize >>> 6) + 1;
+        final int lastLanes = (back.uSize & 63) + 1;
+        final long lastLaneMask = lastLanes == 64 ? -1L : (1L << lastLanes) - 1;
+
+        for (int v = 0; v <= back.vSize; v++) {
+            // Words at u - 64, whose top bits shift in as the neighbors at u - 1
+            long backRowBefore = 0;
+            long backPreviousRowBefore = 0;
+            long frontRowBefore = 0;
+            long frontPreviousRowBefore = 0;
+
+            for (int i = 0; i < octantWords; i++) {
+                final long backRow = word(back, v, i);
+                final long backPreviousRow = word(back, v - 1, i);
+                final long frontRow = word(front, v, i);
+                final long frontPreviousRow = word(front, v - 1, i);
+                final long lanes = i == octantWords - 1 ? lastLaneMask : -1L;
+
+                countWord(histogram, lanes, shiftIn(backPreviousRow, backPreviousRowBefore),
+                        shiftIn(backRow, backRowBefore), backPreviousRow, backRow,
+                        shiftIn(frontPreviousRow, frontPreviousRowBefore), shiftIn(frontRow, frontRowBefore),
+                        frontPreviousRow, frontRow);
+
+                backRowBefore = backRow;
+                backPreviousRowBefore = backPreviousRow;
+                frontRowBefore = frontRow;
+                frontPreviousRowBefore = frontPreviousRow;
+            }
+        }
+    }
+
+    /**
+     * Counts the configurations of 64 octants from the bit-slices of their neighbors
+     *
+     * @param lanes Lanes of the octants that are counted
+     * @param n0    Lanes where the 1st neighbor is foreground, and so on, see {@link Octant}
+     */
+    private static void countWord(final long[] histogram, final long lanes, final long n0, final long n1,
+                                  final long n2, final long n3, final long n4, final long n5, final long n6,
+                                  final long n7) {
+        final long any = (n0 | n1 | n2 | n3 | n4 | n5 | n6 | n7) & lanes;
+        final long all = n0 & n1 & n2 & n3 & n4 & n5 & n6 & n7 & lanes;
+        histogram[0] += Long.bitCount(lanes & ~any);
+        histogram[CONFIGURATIONS - 1] += Long.bitCount(all);
+
+        long mixed = any & ~all;
+        while (mixed != 0) {
+            final int lane = Long.numberOfTrailingZeros(mixed);
+            final int pattern = (int) ((n0 >>> lane) & 1 | ((n1 >>> lane) & 1) << 1 | ((n2 >>> lane) & 1) << 2 |
+                    ((n3 >>> lane) & 1) << 3 | ((n4 >>> lane) & 1) << 4 | ((n5 >>> lane) & 1) << 5 |
+                    ((n6 >>> lane) & 1) << 6 | ((n7 >>> lane) & 1) << 7);
+            histogram[pattern]++;
+            mixed &= mixed - 1;
+        }
+    }
+
+    /** Returns word i of row v of the plane, or 0 if it's outside the plane */
+    private static long word(final BitPlane plane, final int v, final int i) {
+        if (v < 0 || v >= plane.vSize || i >= plane.wordsPerRow) {
+            return 0;
+        }
+
+        final long word = plane.words[v * plane.wordsPerRow + i];
+        final int tail = plane.uSize & 63;
+        return i == plane.wordsPerRow - 1 && tail != 0 ? word & ((1L << tail) - 1) : word;
+    }
+
+    /** Returns the word with each bit moved up one lane, i.e. the elements at u - 1 */
+    private static long shiftIn(final long word, final long wordBefore) {
+        return word << 1 | wordBefore >>> 63;
+    }
+
+    private static long[] sum(final long[] a, final long[] b) {
+        final long[] sum = new long[CONFIGURATIONS];
+        for (int i = 0; i < CONFIGURATIONS; i++) {
+            sum[i] = a[i] + b[i];
+        }
+        return sum;
+    }
+    //endregion
+
+    //region -- Helper classes --
+
+    /**
+     * The contribution of each octant configuration to the Minkowski functionals of an image
+     *
+     * @implNote Neighbor n of an octant is at corner (x, y, z) of the cube, where n = 4z + 2x + y,
+     *           see {@link Octant#getNeighborhoodPattern()}
+     */
+    static final class ConfigurationWeights {
+        /** Corners of the cube in the order of the neighbors */
+        private static final int[][] CORNERS = {{0, 0, 0}, {0, 1, 0}, {1, 0, 0}, {1, 1, 0}, {0, 0, 1}, {0, 1, 1},
+                {1, 0, 1}, {1, 1, 1}};
+
+        private final double[] volumeWeights = new double[CONFIGURATIONS];
+        private final double[] surfaceWeights = new double[CONFIGURATIONS];
+        private final double[] meanBreadthWeights = new double[CONFIGURATIONS];
+
+        /** @param elementSize Calibrated size of an element in each dimension */
+        ConfigurationWeights(final double[] elementSize) {
+            final double elementVolume = elementSize[0] * elementSize[1] * elementSize[2];
+            for (int pattern = 0; pattern < CONFIGURATIONS; pattern++) {
+                // Each element is in 8 octants
+                volumeWeights[pattern] = Integer.bitCount(pattern) * elementVolume / 8.0;
+            }
+            addTransitionWeights(elementSize, elementVolume);
+            addSectionWeights(elementSize, elementVolume);
+        }
+
+        double volume(final long[] histogram) {
+            return weightedSum(histogram, volumeWeights);
+        }
+
+        double surfaceArea(final long[] histogram) {
+            return weightedSum(histogram, surfaceWeights);
+        }
+
+        double meanBreadth(final long[] histogram) {
+            return weightedSum(histogram, meanBreadthWeights);
+        }
+
+        double eulerCharacteristic(final long[] histogram) {
+            long sum = 0;
+            for (int pattern = 0; pattern < CONFIGURATIONS; pattern++) {
+                sum += histogram[pattern] * Connectivity.getDeltaEuler(pattern);
+            }
+            return sum / 8.0;
+        }
+
+        /**
+         * Adds the surface area weights: S = 2 sum_k c_k (V / |t_k|) N_k,
+         * where N_k is the number of transitions along lattice direction t_k, c_k is the share of the direction
+         * of the unit sphere, and V the volume of an element
+         */
+        private void addTransitionWeights(final double[] elementSize, final double elementVolume) {
+            final int[][] directions = latticeDirections();
+            final double[][] lines = new double[directions.length][];
+            for (int k = 0; k < directions.length; k++) {
+                lines[k] = calibrate(directions[k], elementSize);
+            }
+            final double[] shares = sphereShares(lines);
+
+            for (int a = 0; a < 8; a++) {
+                for (int b = a + 1; b < 8; b++) {
+                    final int[] step = difference(CORNERS[a], CORNERS[b]);
+                    final int k = directionIndex(directions, step);
+                    // Axis steps are shared by 4 octants, face diagonals by 2, and space diagonals by 1
+                    final int sharing = 1 << (3 - nonZeros(step));
+                    final double weight = 2.0 * shares[k] * elementVolume / (norm(lines[k]) * sharing);
+                    for (int pattern = 0; pattern < CONFIGURATIONS; pattern++) {
+                        if (isForeground(pattern, a) != isForeground(pattern, b)) {
+                            surfaceWeights[pattern] += weight;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Adds the mean breadth weights: b = sum_j c_j d_j X_j,
+         * where X_j is the sum of the 8-connected Euler characteristics of the sections along the lattice planes
+         * with normal j, d_j is the distance between the planes, and c_j the share of the normal of the unit sphere
+         */
+        private void addSectionWeights(final double[] elementSize, final double elementVolume) {
+            final int[][] directions = latticeDirections();
+            final double[][] normals = new double[directions.length][];
+            final double[] cellAreas = new double[directions.length];
+            final int[][][] cells = new int[directions.length][][];
+            for (int j = 0; j < directions.length; j++) {
+                cells[j] = planeCells(directions[j]);
+                final int[] first = cells[j][0];
+                // The plane lattice is spanned by the first two sides of a cell
+                final double[] normal = cross(calibrate(difference(CORNERS[first[0]], CORNERS[first[1]]), elementSize),
+                        calibrate(difference(CORNERS[first[1]], CORNERS[first[2]]), elementSize));
+                cellAreas[j] = norm(normal);
+                normals[j] = normal;
+            }
+            final double[] shares = sphereShares(normals);
+
+            for (int j = 0; j < directions.length; j++) {
+                // Axis planes cut the octants at their faces, which are shared by 2 octants
+                final int sharing = nonZeros(directions[j]) == 1 ? 2 : 1;
+                // Each element of the plane lattice has a cell of the area, and a prism of the element volume
+                final double distance = elementVolume / cellAreas[j];
+                final double weight = shares[j] * distance / sharing;
+                for (final int[] cell : cells[j]) {
+                    for (int pattern = 0; pattern < CONFIGURATIONS; pattern++) {
+                        meanBreadthWeights[pattern] += weight * cellEuler(pattern, cell);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the share of the 8-connected Euler characteristic of a plane section for one of its cells
+         *
+         * @param cell Neighbors at the corners of a square in cyclic order, or a triangle.
+         *             A vertex is shared by 4 squares or 6 triangles, and an edge by 2 cells
+         */
+        private static double cellEuler(final int pattern, final int[] cell) {
+            final int n = cell.length;
+            int vertices = 0;
+            int edges = 0;
+            for (int i = 0; i < n; i++) {
+                if (isForeground(pattern, cell[i])) {
+                    vertices++;
+                    if (isForeground(pattern, cell[(i + 1) % n])) {
+                        edges++;
+                    }
+                }
+            }
+            final double euler = vertices / (n == 4 ? 4.0 : 6.0) - edges / 2.0 + (vertices == n ? 1 : 0);
+            if (n == 4 && vertices == 2 && edges == 0) {
+                // Diagonal elements are connected, and not two separate particles
+                return euler - 1;
+            }
+            return euler;
+        }
+
+        /**
+         * Returns the cells of the lattice planes with the given normal that are inside the octant
+         *
+         * @param normal A lattice direction in index space, see {@link #latticeDirections()}
+         * @return Cells as neighbor indices in cyclic order
+         */
+        private static int[][] planeCells(final int[] normal) {
+            final int nonZeros = nonZeros(normal);
+            if (nonZeros == 1) {
+                // The two faces of the cube perpendicular to the axis
+                return new int[][]{cornersAt(normal, 0), cornersAt(normal, 1)};
+            }
+            if (nonZeros == 2) {
+                // A diagonal rectangle through two opposite edges of the cube
+                return new int[][]{cornersAt(normal, 1)};
+            }
+            // Two triangles, cut by the planes at 1/3 and 2/3 along the space diagonal
+            return new int[][]{cornersAt(normal, 1), cornersAt(normal, 2)};
+        }
+
+        /**
+         * Returns the corners of the cube with n . c == level, where negative components of n count from 1,
+         * in cyclic order around n
+         */
+        private static int[] cornersAt(final int[] normal, final int level) {
+            final int[] corners = IntStream.range(0, 8).filter(c -> projection(normal, CORNERS[c]) == level).toArray();
+            return inCyclicOrder(corners);
+        }
+
+        /** Returns n . c, where the corner is mirrored in each dimension where n is negative */
+        private static int projection(final int[] normal, final int[] corner) {
+            int sum = 0;
+            for (int d = 0; d < 3; d++) {
+                sum += Math.abs(normal[d]) * (normal[d] < 0 ? 1 - corner[d] : corner[d]);
+            }
+            return sum;
+        }
+
+        /** Sorts the corners of a planar polygon so that consecutive corners are joined by sides */
+        private static int[] inCyclicOrder(final int[] corners) {
+            if (corners.length != 4) {
+                // All three corners of a triangle are joined to each other
+                return corners;
+            }
+
+            // The corner opposite to the first is the one farthest from it
+            int opposite = 1;
+            for (int i = 2; i < 4; i++) {
+                if (nonZeros(difference(CORNERS[corners[0]], CORNERS[corners[i]])) >
+                        nonZeros(difference(CORNERS[corners[0]], CORNERS[corners[opposite]]))) {
+                    opposite = i;
+                }
+            }
+            final int[] cycle = {corners[0], 0, corners[opposite], 0};
+            int side = 1;
+            for (int i = 1; i < 4; i++) {
+                if (i != opposite) {
+                    cycle[side] = corners[i];
+                    side += 2;
+                }
+            }
+            return cycle;
+        }
+
+        /**
+         * Returns the 13 directions of the lines between the elements of an octant, one of each opposite pair:
+         * 3 axes, 6 face diagonals and 4 space diagonals
+         */
+        private static int[][] latticeDirections() {
+            return new int[][]{{1, 0, 0}, {0, 1, 0}, {0, 0, 1}, {1, 1, 0}, {1, -1, 0}, {1, 0, 1}, {1, 0, -1},
+                    {0, 1, 1}, {0, 1, -1}, {1, 1, 1}, {1, 1, -1}, {1, -1, 1}, {1, -1, -1}};
+        }
+
+        /**
+         * Returns the shares of the unit sphere closest to each direction or its opposite,
+         * i.e. the areas of their spherical Voronoi cells. The shares sum to 1.
+         *
+         * @implNote Integrated with a Fibonacci lattice of points on the sphere
+         */
+        static double[] sphereShares(final double[][] directions) {
+            final double[][] units = new double[directions.length][];
+            for (int k = 0; k < directions.length; k++) {
+                final double norm = norm(directions[k]);
+                units[k] = new double[]{directions[k][0] / norm, directions[k][1] / norm, directions[k][2] / norm};
+            }
+
+            final double goldenAngle = Math.PI * (3.0 - Math.sqrt(5.0));
+            final long[] counts = new long[directions.length];
+            for (int i = 0; i < SPHERE_POINTS; i++) {
+                final double z = 1.0 - (2.0 * i + 1.0) / SPHERE_POINTS;
+                final double r = Math.sqrt(1.0 - z * z);
+                final double x = r * Math.cos(goldenAngle * i);
+                final double y = r * Math.sin(goldenAngle * i);
+                int closest = 0;
+                double maxCosine = -1.0;
+                for (int k = 0; k < units.length; k++) {
+                    final double cosine = Math.abs(x * units[k][0] + y * units[k][1] + z * units[k][2]);
+                    if (cosine > maxCosine) {
+                        maxCosine = cosine;
+                        closest = k;
+                    }
+                }
+                counts[closest]++;
+            }
+
+            final double[] shares = new double[directions.length];
+            for (int k = 0; k < directions.length; k++) {
+                shares[k] = counts[k] / (double) SPHERE_POINTS;
+            }
+            return shares;
+        }
+
+        /** Returns the index of the direction of the step, or its opposite */
+        private static int directionIndex(final int[][] directions, final int[] step) {
+            for (int k = 0; k < directions.length; k++) {
+                final int[] direction = directions[k];
+                if ((direction[0] == step[0] && direction[1] == step[1] && direction[2] == step[2]) ||
+                        (direction[0] == -step[0] && direction[1] == -step[1] && direction[2] == -step[2])) {
+                    return k;
+                }
+            }
+            throw new IllegalArgumentException("Not a lattice step");
+        }
+
+        private static boolean isForeground(final int pattern, final int neighbor) {
+            return ((pattern >> neighbor) & 1) != 0;
+        }
+
+        private static int[] difference(final int[] a, final int[] b) {
+            return new int[]{b[0] - a[0], b[1] - a[1], b[2] - a[2]};
+        }
+
+        private static int nonZeros(final int[] v) {
+            return (v[0] != 0 ? 1 : 0) + (v[1] != 0 ? 1 : 0) + (v[2] != 0 ? 1 : 0);
+        }
+
+        private static double[] calibrate(final int[] v, final double[] elementSize) {
+            return new double[]{v[0] * elementSize[0], v[1] * elementSize[1], v[2] * elementSize[2]};
+        }
+
+        private static double[] cross(final double[] a, final double[] b) {
+            return new double[]{a[1] * b[2] - a[2] * b[1], a[2] * b[0] - a[0] * b[2], a[0] * b[1] - a[1] * b[0]};
+        }
+
+        private static double norm(final double[] v) {
+            return Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+        }
+
+        private static double weightedSum(final long[] histogram, final double[] weights) {
+            double sum = 0.0;
+            for (int pattern = 0; pattern < CONFIGURATIONS; pattern++) {
+                sum += histogram[pattern] * weights[pattern];
+            }
+            return sum;
+        }
+    }
+
+    /** The Minkowski functionals of the foreground, in calibrated units */
+    public static final class Results {
+        /** Volume of the foreground (V) */
+        public final double volume;
+        /** Surface area of the foreground (S) */
+        public final double surfaceArea;
+        /** Mean breadth of the foreground, i.e. its mean width over all directions */
+        public final double meanBreadth;
+        /** Integral of the mean curvature over the surface (M = 2π * mean breadth) */
+        public final double integralOfMeanCurvature;
+        /** Euler characteristic of the foreground (χ) */
+        public final double eulerCharacteristic;
+
+        private Results(final double volume, final double surfaceArea, final double meanBreadth,
+                        final double eulerCharacteristic) {
+            this.volume = volume;
+            this.surfaceArea = surfaceArea;
+            this.meanBreadth = meanBreadth;
+            integralOfMeanCurvature = 2 * Math.PI * meanBreadth;
+            this.eulerCharacteristic = eulerCharacteristic;
+        }
+    }
+    //endregion
+}
@@ -11,22 +11,58 @@ import static com.google.common.base.Preconditions.checkNotNull;
 /**
  * A convenience class for storing a special 8-neighborhood in a 3D BitType interval
  *
+ * If the interval is an ArrayImg or a PlanarImg, the neighborhood is read directly from its packed bits.
+ * Otherwise it's read with a RandomAccess of a zero extended view.
+ * The neighborhood can also be read from a pair of {@link BitPlane}s, e.g. when an image is streamed slice by slice.
+ * When the neighborhood moves forward along the u-axis with {@link #next()}, the four elements it shares
+ * with the previous neighborhood are shifted in, and only the four new ones are read.
+ *
  * @author Richard Domander
  * @author Mark Hiner
  */
 public final class Octant {
-    private final boolean[] neighborhood = new boolean[8];
+    /** Mask of the neighbors at u - 1 after the neighbors at u have been shifted to their place */
+    private static final int SHIFTED_COLUMN_MASK = 0b0011_0011;
+    /** Bit n - 1 is set if the nth neighbor is foreground */
+    private int neighborhood;
     private int foregroundNeighbors;
     private RandomAccess<BitType> access;
+    /** Direct access to the bits of the interval, or null if it isn't backed by packed LongArrays */
+    private PackedBitVolume packedBits;
+    /** The planes at w - 1 and w, or null if the neighborhood is read from an interval */
+    private BitPlane backPlane;
+    private BitPlane frontPlane;
+    /** Position of the last element of the neighborhood */
+    private long u;
+    private long v;
+    private long w;
 
     public Octant(final RandomAccessibleInterval<BitType> interval) {
         setInterval(interval);
     }
 
+    /**
+     * Creates an octant that reads its neighborhoods from a pair of planes
+     *
+     * @see #setPlanes(BitPlane, BitPlane)
+     */
+    public Octant(final BitPlane back, final BitPlane front) {
+        setPlanes(back, front);
+    }
+
     public int getNeighborCount() {
         return foregroundNeighbors;
     }
 
+    /**
+     * Returns the occupancy pattern of the neighborhood as an 8-bit number
+     *
+     * @return A number where bit n - 1 is set if the nth neighbor is foreground, 0 <= pattern <= 255
+     */
+    public int getNeighborhoodPattern() {
+        return neighborhood;
+    }
+
     /**
      * Check if the nth neighbor in the 8-neighborhood is foreground
      *
@@ -34,7 +70,11 @@ public final class Octant {
      * @throws ArrayIndexOutOfBoundsException if n < 1 || n > 8
      */
     public boolean isNeighborForeground(final int n) throws ArrayIndexOutOfBoundsException {
-        return neighborhood[n - 1];
+        if (n < 1 || n > 8) {
+            throw new ArrayIndexOutOfBoundsException(n - 1);
+        }
+
+        return (neighborhood & (1 << (n - 1))) != 0;
     }
 
     /** True if none of the elements in the neighborhood are foreground (true) */
@@ -54,30 +94,77 @@ public final class Octant {
         checkNotNull(interval, "Interval cannot be set null");
         checkArgument(interval.numDimensions() >= 3, "Interval must have at least three dimensions");
 
-        access = Views.extendZero(interval).randomAccess();
+        packedBits = PackedBitVolume.of(interval).orElse(null);
+        access = packedBits == null ? Views.extendZero(interval).randomAccess() : null;
+        backPlane = null;
+        frontPlane = null;
+    }
+
+    /**
+     * Sets the planes where the neighborhood is located. Elements outside the planes are background.
+     * The w-coordinate of {@link #setNeighborhood(long, long, long)} is then ignored.
+     *
+     * @param back  The plane at w - 1
+     * @param front The plane at w
+     * @throws NullPointerException     if either plane is null
+     * @throws IllegalArgumentException if the planes have different sizes
+     * @implNote Copies references
+     */
+    public void setPlanes(final BitPlane back, final BitPlane front)
+            throws NullPointerException, IllegalArgumentException {
+        checkNotNull(back, "Back plane cannot be null");
+        checkNotNull(front, "Front plane cannot be null");
+        checkArgument(back.uSize == front.uSize && back.vSize == front.vSize, "Planes must have the same size");
+
+        backPlane = back;
+        frontPlane = front;
+        packedBits = null;
+        access = null;
     }
 
     /** Set the starting coordinates of the neighborhood in the interval */
     public void setNeighborhood(final long u, final long v, final long w) {
-        neighborhood[0] = getAtLocation(access, u - 1, v - 1, w - 1);
-        neighborhood[1] = getAtLocation(access, u - 1, v, w - 1);
-        neighborhood[2] = getAtLocation(access, u, v - 1, w - 1);
-        neighborhood[3] = getAtLocation(access, u, v, w - 1);
-        neighborhood[4] = getAtLocation(access, u - 1, v - 1, w);
-        neighborhood[5] = getAtLocation(access, u - 1, v, w);
-        neighborhood[6] = getAtLocation(access, u, v - 1, w);
-        neighborhood[7] = getAtLocation(access, u, v, w);
-
-        countForegroundNeighbors();
+        this.u = u;
+        this.v = v;
+        this.w = w;
+        if (packedBits != null) {
+            setPattern(packedBits.readOctant(u, v, w));
+            return;
+        }
+
+        setPattern(readColumn(u - 1) >>> 2 | readColumn(u));
+    }
+
+    /** Moves the neighborhood one step forward along the u-axis, i.e. to (u + 1, v, w) */
+    public void next() {
+        u++;
+        setPattern(((neighborhood >>> 2) & SHIFTED_COLUMN_MASK) | readColumn(u));
     }
 
-    private void countForegroundNeighbors() {
-        foregroundNeighbors = 0;
-        for (boolean neighbor : neighborhood) {
-            if (neighbor) {
-                foregroundNeighbors++;
-            }
+    /**
+     * Reads the four elements at u in the rows v - 1 and v of the planes w - 1 and w
+     *
+     * @return The elements in the bits of the neighbors at u, see {@link #getNeighborhoodPattern()}
+     */
+    private int readColumn(final long u) {
+        int column = 0;
+        if (isForeground(u, v - 1, w - 1)) { column |= 4; }
+        if (isForeground(u, v, w - 1)) { column |= 8; }
+        if (isForeground(u, v - 1, w)) { column |= 64; }
+        if (isForeground(u, v, w)) { column |= 128; }
+        return column;
+    }
+
+    private boolean isForeground(final long u, final long v, final long w) {
+        if (backPlane != null) {
+            return (w < this.w ? backPlane : frontPlane).get(u, v);
         }
+        return packedBits != null ? packedBits.get(u, v, w) : getAtLocation(access, u, v, w);
+    }
+
+    private void setPattern(final int pattern) {
+        neighborhood = pattern;
+        foregroundNeighbors = Integer.bitCount(pattern);
     }
 
     private boolean getAtLocation(final RandomAccess<BitType> access, final long u, final long v, final long w) {
@@ -0,0 +1,166 @@
+package org.bonej.ops.connectivity;
+
+import net.imagej.ImgPlus;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.type.logic.BitType;
+
+import java.util.Optional;
+
+/**
+ * Direct read access to the packed bits of a 3D BitType image which is backed by LongArrays,
+ * i.e. an ArrayImg or a PlanarImg.
+ *
+ * Reading an element costs a shift and a mask instead of positioning a RandomAccess.
+ * Elements outside the interval are read as background (zero), like in a zero extended view.
+ *
+ * @author Richard Domander
+ * @implNote Element i of a LongArray is stored in bit (i & 63) of word (i >>> 6), like in BitType
+ */
+final class PackedBitVolume {
+    private final long uSize;
+    private final long vSize;
+    private final long wSize;
+    /** Storage words of each w-plane. In an ArrayImg all the planes share the same array */
+    private final long[][] planeWords;
+    /** Index of the first element of each w-plane in its storage words */
+    private final long[] planeOffsets;
+
+    private PackedBitVolume(final long uSize, final long vSize, final long wSize, final long[][] planeWords,
+                            final long[] planeOffsets) {
+        this.uSize = uSize;
+        this.vSize = vSize;
+        this.wSize = wSize;
+        this.planeWords = planeWords;
+        this.planeOffsets = planeOffsets;
+    }
+
+    /**
+     * Creates direct access to the packed bits of the given interval
+     *
+     * @return The Optional is empty if the interval is not a 3D ArrayImg or PlanarImg backed by LongArrays
+     */
+    @SuppressWarnings("unchecked")
+    static Optional<PackedBitVolume> of(final RandomAccessibleInterval<BitType> interval) {
+        RandomAccessibleInterval<BitType> img = interval;
+        while (img instanceof ImgPlus) {
+            img = ((ImgPlus<BitType>) img).getImg();
+        }
+
+        if (img.numDimensions() != 3) {
+            return Optional.empty();
+        }
+
+        final long uSize = img.dimension(0);
+        final long vSize = img.dimension(1);
+        final long wSize = img.dimension(2);
+        final int planes = (int) wSize;
+        final long[][] planeWords = new long[planes][];
+        final long[] planeOffsets = new long[planes];
+
+        if (img instanceof ArrayImg) {
+            final Object access = ((ArrayImg<?, ?>) img).update(null);
+            if (!(access instanceof LongArray)) {
+                return Optional.empty();
+            }
+
+            final long[] words = ((LongArray) access).getCurrentStorageArray();
+            final long planeSize = uSize * vSize;
+            for (int w = 0; w < planes; w++) {
+                planeWords[w] = words;
+                planeOffsets[w] = w * planeSize;
+            }
+        } else if (img instanceof PlanarImg) {
+            final PlanarImg<?, ?> planarImg = (PlanarImg<?, ?>) img;
+            for (int w = 0; w < planes; w++) {
+                final Object plane = planarImg.getPlane(w);
+                if (!(plane instanceof LongArray)) {
+                    return Optional.empty();
+                }
+                planeWords[w] = ((LongArray) plane).getCurrentStorageArray();
+            }
+        } else {
+            return Optional.empty();
+        }
+
+        return Optional.of(new PackedBitVolume(uSize, vSize, wSize, planeWords, planeOffsets));
+    }
+
+    /** Returns true if the element at the given position is foreground, false if it's background or outside */
+    boolean get(final long u, final long v, final long w) {
+        if (u < 0 || u >= uSize || v < 0 || v >= vSize || w < 0 || w >= wSize) {
+            return false;
+        }
+
+        return getBit(planeWords[(int) w], planeOffsets[(int) w] + v * uSize + u);
+    }
+
+    /**
+     * Reads the special 8-neighborhood whose last element is at (u, v, w)
+     *
+     * @return The occupancy pattern of the neighborhood in the bit order of {@link Octant#getNeighborhoodPattern()}
+     * @implNote Elements are read without bounds checks when the whole neighborhood is inside the interval
+     */
+    int readOctant(final long u, final long v, final long w) {
+        if (u < 1 || u >= uSize || v < 1 || v >= vSize || w < 1 || w >= wSize) {
+            return bit(get(u - 1, v - 1, w - 1), 0) | bit(get(u - 1, v, w - 1), 1) |
+                    bit(get(u, v - 1, w - 1), 2) | bit(get(u, v, w - 1), 3) |
+                    bit(get(u - 1, v - 1, w), 4) | bit(get(u - 1, v, w), 5) |
+                    bit(get(u, v - 1, w), 6) | bit(get(u, v, w), 7);
+        }
+
+        final long[] backWords = planeWords[(int) w - 1];
+        final long back = planeOffsets[(int) w - 1] + v * uSize + u;
+        final long[] frontWords = planeWords[(int) w];
+        final long front = planeOffsets[(int) w] + v * uSize + u;
+
+        return readBit(backWords, back - uSize - 1) | readBit(backWords, back - 1) << 1 |
+                readBit(backWords, back - uSize) << 2 | readBit(backWords, back) << 3 |
+                readBit(frontWords, front - uSize - 1) << 4 | readBit(frontWords, front - 1) << 5 |
+                readBit(frontWords, front - uSize) << 6 | readBit(frontWords, front) << 7;
+    }
+
+    /**
+     * Copies the elements of row (v, w) to the given words so that element u is in bit (u & 63) of word u >>> 6
+     *
+     * @param target Destination words
+     * @param offset Index of the first destination word
+     */
+    void copyRow(final long v, final long w, final long[] target, final int offset) {
+        final long[] source = planeWords[(int) w];
+        final long rowStart = planeOffsets[(int) w] + v * uSize;
+        final int rowWords = (int) ((uSize + 63) >>> 6);
+
+        for (int k = 0; k < rowWords; k++) {
+            final long index = rowStart + 64L * k;
+            final int word = (int) (index >>> 6);
+            final int shift = (int) (index & 63);
+            long bits = source[word] >>> shift;
+            if (shift != 0 && word + 1 < source.length) {
+                bits |= source[word + 1] << (64 - shift);
+            }
+            target[offset + k] = bits;
+        }
+
+        // Clear the bits of the elements in the next row
+        final int tail = (int) (uSize & 63);
+        if (tail != 0 && rowWords > 0) {
+            target[offset + rowWords - 1] &= (1L << tail) - 1;
+        }
+    }
+
+    private static int bit(final boolean foreground, final int shift) {
+        return foreground ? 1 << shift : 0;
+    }
+
+    /** Returns 1 if the element at the given index is foreground, 0 otherwise */
+    private static int readBit(final long[] words, final long index) {
+        return (int) ((words[(int) (index >>> 6)] >>> (index & 63)) & 1L);
+    }
+
+    private static boolean getBit(final long[] words, final long index) {
+        return readBit(words, index) != 0;
+    }
+}
@@ -0,0 +1,74 @@
+package org.bonej.ops.connectivity;
+
+import org.bonej.ops.binary.RunLengthVolume;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Reads the slices of a run-length encoded volume.
+ * A slice is drawn from the runs a word at a time, so reading costs in proportion to the runs,
+ * not the elements in the slice.
+ *
+ * @author Richard Domander
+ */
+public final class RunLengthSliceSource implements BitSliceSource {
+    private final RunLengthVolume volume;
+    private final double elementSize;
+
+    /**
+     * @throws NullPointerException if volume == null
+     */
+    public RunLengthSliceSource(final RunLengthVolume volume) throws NullPointerException {
+        this(volume, 1.0);
+    }
+
+    /**
+     * @param elementSize Calibrated volume of a single element
+     * @throws NullPointerException     if volume == null
+     * @throws IllegalArgumentException if elementSize is not positive
+     */
+    public RunLengthSliceSource(final RunLengthVolume volume, final double elementSize)
+            throws NullPointerException, IllegalArgumentException {
+        checkNotNull(volume, "Volume cannot be null");
+        checkArgument(elementSize > 0, "Element size must be positive");
+
+        this.volume = volume;
+        this.elementSize = elementSize;
+    }
+
+    @Override
+    public int getUSize() {
+        return volume.getUSize();
+    }
+
+    @Override
+    public int getVSize() {
+        return volume.getVSize();
+    }
+
+    @Override
+    public int getWSize() {
+        return volume.getWSize();
+    }
+
+    @Override
+    public void read(final int w, final BitPlane plane) {
+        plane.clear();
+        for (int v = 0; v < volume.getVSize(); v++) {
+            for (int run = volume.firstRun(v, w); run < volume.endRun(v, w); run++) {
+                plane.setRun(v, volume.runStart(run), volume.runEnd(run));
+            }
+        }
+    }
+
+    @Override
+    public boolean supportsConcurrentReads() {
+        return true;
+    }
+
+    @Override
+    public double getCalibratedElementSize() {
+        return elementSize;
+    }
+}
@@ -0,0 +1,50 @@
+package org.bonej.ops.connectivity;
+
+import net.imagej.ops.Op;
+import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * An Op which calculates the same characteristics as {@link Connectivity},
+ * but reads the image one slice at a time from a {@link BitSliceSource}.
+ *
+ * The Euler characteristic and the edge correction are calculated in a single forward sweep over the slices,
+ * and only two slices are in memory at a time (per slab, if the slabs are swept in parallel, see
+ * {@link ConnectivityShard}). Thus memory use doesn't depend on the depth of the image,
+ * which lets the Op process images that don't fit in memory.
+ *
+ * @author Richard Domander
+ * @implNote Assuming that there's only one continuous foreground particle in the image
+ */
+@Plugin(type = Op.class, name = "streamingConnectivityCharacteristics")
+public class StreamingConnectivity extends AbstractUnaryFunctionOp<BitSliceSource, Connectivity.Characteristics> {
+    /**
+     * If true, and the source supports concurrent reads, the slices are swept in w-slabs concurrently.
+     * Each slab reads only two slices at a time. The result is exactly the same as in the serial calculation.
+     *
+     * @see BitSliceSource#supportsConcurrentReads()
+     */
+    @Parameter(required = false)
+    private boolean parallel = true;
+
+    @Override
+    public Connectivity.Characteristics compute1(final BitSliceSource source) {
+        final int wSize = source.getWSize();
+        final int slabs = parallel && source.supportsConcurrentReads() ?
+                Math.max(1, Math.min(wSize, Runtime.getRuntime().availableProcessors())) : 1;
+        final IntStream slabStream = IntStream.range(0, slabs);
+
+        final List<ConnectivityShard> shards = (slabs > 1 ? slabStream.parallel() : slabStream).mapToObj(slab -> {
+            final int wStart = (int) ((long) slab * wSize / slabs);
+            final int wEnd = (int) ((long) (slab + 1) * wSize / slabs);
+            return ConnectivityShard.compute(source, wStart, wEnd);
+        }).collect(Collectors.toList());
+
+        return ConnectivityShard.merge(shards);
+    }
+}
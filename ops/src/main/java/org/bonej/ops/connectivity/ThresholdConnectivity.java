@@ -0,0 +1,70 @@
+package org.bonej.ops.connectivity;
+
+import net.imagej.ImgPlus;
+import net.imagej.ops.Contingent;
+import net.imagej.ops.Op;
+import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+import org.bonej.utilities.CalibratedAxisUtil;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+/**
+ * An Op which calculates the connectivity characteristics of the elements of a grayscale image within a threshold range.
+ * The results are the same as running {@link Connectivity} on the image binarized so that
+ * elements whose values are in [min, max] are foreground.
+ *
+ * The image is never binarized. Instead the octants and the faces of the image are read through a lazy view,
+ * which thresholds each element as it's read.
+ *
+ * @author Richard Domander
+ * @implNote Elements whose value is NaN are background
+ * @implNote Assuming that all axis are linear
+ * @implNote Assuming that all dimensions are spatial
+ */
+@Plugin(type = Op.class, name = "thresholdConnectivityCharacteristics")
+public class ThresholdConnectivity<T extends RealType<T>>
+        extends AbstractUnaryFunctionOp<ImgPlus<T>, Connectivity.Characteristics> implements Contingent {
+    /** Smallest value of a foreground element */
+    @Parameter
+    private double min;
+
+    /** Largest value of a foreground element */
+    @Parameter
+    private double max;
+
+    /**
+     * If true, the Euler characteristic is summed in w-slabs concurrently.
+     * The result is exactly the same as in the serial calculation.
+     */
+    @Parameter(required = false)
+    private boolean parallel = true;
+
+    @Override
+    public Connectivity.Characteristics compute1(final ImgPlus<T> imgPlus) {
+        final RandomAccessibleInterval<BitType> foreground = thresholdView(imgPlus, min, max);
+        final double calibratedImgVolume = CalibratedAxisUtil.calibratedSpatialSpaceSize(imgPlus);
+
+        return Connectivity.calculateCharacteristics(foreground, calibratedImgVolume, parallel, null);
+    }
+
+    @Override
+    public boolean conforms() {
+        return in().numDimensions() == 3 && min <= max;
+    }
+
+    //region -- Helper methods --
+
+    /** Returns a view of the interval, where the elements whose values are in [min, max] are foreground */
+    static <T extends RealType<T>> RandomAccessibleInterval<BitType> thresholdView(
+            final RandomAccessibleInterval<T> interval, final double min, final double max) {
+        return Converters.convert(interval, (element, bit) -> {
+            final double value = element.getRealDouble();
+            bit.set(value >= min && value <= max);
+        }, new BitType());
+    }
+    //endregion
+}
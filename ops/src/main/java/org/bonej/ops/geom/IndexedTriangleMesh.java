@@ -0,0 +1,215 @@
+package org.bonej.ops.geom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import net.imagej.ops.geom.geom3d.mesh.DefaultMesh;
+import net.imagej.ops.geom.geom3d.mesh.Mesh;
+import net.imagej.ops.geom.geom3d.mesh.TriangularFacet;
+import net.imagej.ops.geom.geom3d.mesh.Vertex;
+
+/**
+ * A compact triangle mesh, where the vertices are shared by their triangles.
+ * <p>
+ * The coordinates of the vertices are stored in one primitive array, and the triangles refer to the vertices by
+ * their indices, so the mesh takes a few dozen bytes per triangle instead of an object per facet and vertex.
+ * The volume and surface area are calculated directly from the arrays.
+ * </p>
+ *
+ * @author Richard Domander
+ */
+public final class IndexedTriangleMesh {
+	/** Coordinates (x, y, z) of vertex i at [3 * i, 3 * i + 3) */
+	private final float[] coordinates;
+	/** Indices of the vertices of triangle i at [3 * i, 3 * i + 3), counter-clockwise when seen from outside */
+	private final int[] triangles;
+	/** Unit normals (x, y, z) of vertex i at [3 * i, 3 * i + 3), or null */
+	private final float[] normals;
+
+	/**
+	 * Creates a mesh without normals
+	 *
+	 * @param coordinates Coordinates of the vertices, three per vertex. The array is not copied
+	 * @param triangles   Indices of the vertices of the triangles, three per triangle. The array is not copied
+	 * @throws NullPointerException     if either array is null
+	 * @throws IllegalArgumentException if the lengths of the arrays are not divisible by three,
+	 *                                  or a triangle refers to a vertex that doesn't exist
+	 */
+	public IndexedTriangleMesh(final float[] coordinates, final int[] triangles) throws NullPointerException,
+			IllegalArgumentException {
+		this(coordinates, triangles, null);
+	}
+
+	/**
+	 * Creates a mesh with normals
+	 *
+	 * @param normals Unit normals of the vertices, three per vertex, or null. The array is not copied
+	 * @throws IllegalArgumentException if normals is not the same length as coordinates
+	 * @see #IndexedTriangleMesh(float[], int[])
+	 */
+	public IndexedTriangleMesh(final float[] coordinates, final int[] triangles, final float[] normals)
+			throws NullPointerException, IllegalArgumentException {
+		checkNotNull(coordinates, "Coordinates cannot be null");
+		checkNotNull(triangles, "Triangles cannot be null");
+		checkArgument(coordinates.length % 3 == 0, "There must be three coordinates per vertex");
+		checkArgument(triangles.length % 3 == 0, "There must be three vertices per triangle");
+		checkArgument(normals == null || normals.length == coordinates.length, "There must be one normal per vertex");
+		final int vertexCount = coordinates.length / 3;
+		for (final int vertex : triangles) {
+			checkArgument(vertex >= 0 && vertex < vertexCount, "Triangle refers to a vertex that doesn't exist");
+		}
+
+		this.coordinates = coordinates;
+		this.triangles = triangles;
+		this.normals = normals;
+	}
+
+	public int getVertexCount() {
+		return coordinates.length / 3;
+	}
+
+	public int getTriangleCount() {
+		return triangles.length / 3;
+	}
+
+	/** Returns the coordinate of the vertex in dimension d, where 0 <= d < 3 */
+	public float getCoordinate(final int vertex, final int d) {
+		return coordinates[3 * vertex + d];
+	}
+
+	/** Returns the index of the i<sup>th</sup> vertex of the triangle, where 0 <= i < 3 */
+	public int getTriangleVertex(final int triangle, final int i) {
+		return triangles[3 * triangle + i];
+	}
+
+	public boolean hasNormals() {
+		return normals != null;
+	}
+
+	/**
+	 * Returns the component of the normal of the vertex in dimension d, where 0 <= d < 3
+	 *
+	 * @throws IllegalStateException if the mesh has no normals
+	 */
+	public float getNormal(final int vertex, final int d) throws IllegalStateException {
+		if (normals == null) {
+			throw new IllegalStateException("The mesh has no normals");
+		}
+		return normals[3 * vertex + d];
+	}
+
+	/**
+	 * Returns a mesh with the same vertices and triangles, and the normals of the vertices
+	 * <p>
+	 * The normal of a vertex is the sum of the normals of its triangles weighted by their areas.
+	 * The arrays of vertices and triangles are shared with this mesh.
+	 * </p>
+	 */
+	public IndexedTriangleMesh withNormals() {
+		final double[] sums = new double[coordinates.length];
+		final double[] cross = new double[3];
+		for (int t = 0; t < triangles.length; t += 3) {
+			crossProduct(t, cross);
+			for (int i = 0; i < 3; i++) {
+				final int vertex = triangles[t + i];
+				for (int d = 0; d < 3; d++) {
+					sums[3 * vertex + d] += cross[d];
+				}
+			}
+		}
+
+		final float[] unitNormals = new float[coordinates.length];
+		for (int i = 0; i < unitNormals.length; i += 3) {
+			final double length = Math.sqrt(sums[i] * sums[i] + sums[i + 1] * sums[i + 1] + sums[i + 2] *
+					sums[i + 2]);
+			if (length == 0.0) {
+				continue;
+			}
+			for (int d = 0; d < 3; d++) {
+				unitNormals[i + d] = (float) (sums[i + d] / length);
+			}
+		}
+		return new IndexedTriangleMesh(coordinates, triangles, unitNormals);
+	}
+
+	/**
+	 * Calculates the volume enclosed by the mesh with the divergence theorem
+	 *
+	 * @implNote The mesh is assumed to be closed. The volume is calculated relative to the first vertex,
+	 *           so that it stays accurate far from the origin.
+	 */
+	public double volume() {
+		if (triangles.length == 0) {
+			return 0.0;
+		}
+
+		final double originX = coordinates[0];
+		final double originY = coordinates[1];
+		final double originZ = coordinates[2];
+		double sum = 0.0;
+		for (int t = 0; t < triangles.length; t += 3) {
+			final int a = 3 * triangles[t];
+			final int b = 3 * triangles[t + 1];
+			final int c = 3 * triangles[t + 2];
+			final double aX = coordinates[a] - originX;
+			final double aY = coordinates[a + 1] - originY;
+			final double aZ = coordinates[a + 2] - originZ;
+			final double bX = coordinates[b] - originX;
+			final double bY = coordinates[b + 1] - originY;
+			final double bZ = coordinates[b + 2] - originZ;
+			final double cX = coordinates[c] - originX;
+			final double cY = coordinates[c + 1] - originY;
+			final double cZ = coordinates[c + 2] - originZ;
+			sum += aX * (bY * cZ - bZ * cY) - aY * (bX * cZ - bZ * cX) + aZ * (bX * cY - bY * cX);
+		}
+		return Math.abs(sum) / 6.0;
+	}
+
+	/** Calculates the total area of the triangles */
+	public double surfaceArea() {
+		final double[] cross = new double[3];
+		double sum = 0.0;
+		for (int t = 0; t < triangles.length; t += 3) {
+			crossProduct(t, cross);
+			sum += Math.sqrt(cross[0] * cross[0] + cross[1] * cross[1] + cross[2] * cross[2]);
+		}
+		return sum / 2.0;
+	}
+
+	/**
+	 * Creates a {@link Mesh} of facet and vertex objects for the ops that need one
+	 *
+	 * @implNote The new mesh takes many times more memory than this one
+	 */
+	public Mesh toMesh() {
+		final Vertex[] vertices = new Vertex[getVertexCount()];
+		for (int i = 0; i < vertices.length; i++) {
+			vertices[i] = new Vertex(coordinates[3 * i], coordinates[3 * i + 1], coordinates[3 * i + 2]);
+		}
+		final DefaultMesh mesh = new DefaultMesh();
+		for (int t = 0; t < triangles.length; t += 3) {
+			mesh.addFace(new TriangularFacet(vertices[triangles[t]], vertices[triangles[t + 1]],
+					vertices[triangles[t + 2]]));
+		}
+		return mesh;
+	}
+
+	//region -- Helper methods --
+
+	/** Writes the cross product (b - a) x (c - a) of the triangle starting at index t, i.e. twice its area normal */
+	private void crossProduct(final int t, final double[] cross) {
+		final int a = 3 * triangles[t];
+		final int b = 3 * triangles[t + 1];
+		final int c = 3 * triangles[t + 2];
+		final double abX = coordinates[b] - coordinates[a];
+		final double abY = coordinates[b + 1] - coordinates[a + 1];
+		final double abZ = coordinates[b + 2] - coordinates[a + 2];
+		final double acX = coordinates[c] - coordinates[a];
+		final double acY = coordinates[c + 1] - coordinates[a + 1];
+		final double acZ = coordinates[c + 2] - coordinates[a + 2];
+		cross[0] = abY * acZ - abZ * acY;
+		cross[1] = abZ * acX - abX * acZ;
+		cross[2] = abX * acY - abY * acX;
+	}
+	//endregion
+}
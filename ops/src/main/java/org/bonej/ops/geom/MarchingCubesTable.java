@@ -0,0 +1,273 @@
+package org.bonej.ops.geom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lookup tables of the marching cubes algorithm for binary images, where the vertices of the surface
+ * are at the midpoints of the edges between foreground and background elements.
+ * <p>
+ * A cube has the elements of an 8-neighborhood at its corners. Corner n is at (x, y, z), where n = 4z + 2x + y,
+ * and bit n of a configuration is set if the corner is foreground, i.e. the same as the neighborhood patterns
+ * of {@link org.bonej.ops.connectivity.Octant}. Edge e of the cube joins the corners {@link #edgeCorners(int)}.
+ * </p>
+ * <p>
+ * The tables are generated by walking the faces of the cube instead of listing the triangles by hand.
+ * On faces where the foreground corners are diagonal, the foreground is connected across the face.
+ * Each face is cut the same way from both of its cubes, so the surface has no cracks,
+ * and its triangles are wound counter-clockwise when seen from the background.
+ * </p>
+ *
+ * @author Richard Domander
+ */
+public final class MarchingCubesTable {
+	/** Number of different configurations of a cube */
+	public static final int CONFIGURATIONS = 256;
+	/** Corners joined by each edge of the cube, the lower corner first */
+	private static final int[][] EDGES = createEdges();
+	/** Corners of each face of the cube, counter-clockwise when seen from outside the cube */
+	private static final int[][] FACES = { { 0, 1, 3, 2 }, { 4, 6, 7, 5 }, { 0, 2, 6, 4 }, { 1, 5, 7, 3 },
+			{ 0, 4, 5, 1 }, { 2, 3, 7, 6 } };
+	/** Edges of the triangles of each configuration, three per triangle */
+	private static final int[][] TRIANGLES = new int[CONFIGURATIONS][];
+	/** Volume of the foreground enclosed by the surface in a unit cube of each configuration */
+	private static final double[] VOLUMES = new double[CONFIGURATIONS];
+
+	static {
+		for (int configuration = 0; configuration < CONFIGURATIONS; configuration++) {
+			TRIANGLES[configuration] = createTriangles(configuration);
+			VOLUMES[configuration] = enclosedVolume(configuration, TRIANGLES[configuration]);
+		}
+	}
+
+	private MarchingCubesTable() {}
+
+	/**
+	 * Returns the triangles of the surface in a cube
+	 *
+	 * @return Edges of the vertices of the triangles, three per triangle.
+	 *         The returned array is shared, and must not be modified
+	 */
+	public static int[] triangles(final int configuration) {
+		return TRIANGLES[configuration];
+	}
+
+	/** Returns the volume of the foreground enclosed by the surface in a unit cube */
+	public static double enclosedVolume(final int configuration) {
+		return VOLUMES[configuration];
+	}
+
+	/**
+	 * Returns the volume enclosed by the surface of a binary image
+	 *
+	 * @param histogram Number of cubes of each configuration in the image padded with background
+	 * @return The volume, which is the same as the volume of the mesh of the image
+	 */
+	public static double enclosedVolume(final long[] histogram) {
+		double volume = 0.0;
+		for (int configuration = 0; configuration < CONFIGURATIONS; configuration++) {
+			volume += histogram[configuration] * VOLUMES[configuration];
+		}
+		return volume;
+	}
+
+	/** Returns the corners {a, b} of the edge, where a < b */
+	public static int[] edgeCorners(final int edge) {
+		return EDGES[edge].clone();
+	}
+
+	/** Returns the coordinate of the corner in dimension d, i.e. 0 or 1 */
+	public static int cornerCoordinate(final int corner, final int d) {
+		switch (d) {
+		case 0:
+			return (corner >> 1) & 1;
+		case 1:
+			return corner & 1;
+		default:
+			return corner >> 2;
+		}
+	}
+
+	/** Returns the coordinate of the midpoint of the edge in dimension d, i.e. 0, 0.5 or 1 */
+	public static double midpointCoordinate(final int edge, final int d) {
+		return 0.5 * (cornerCoordinate(EDGES[edge][0], d) + cornerCoordinate(EDGES[edge][1], d));
+	}
+
+	//region -- Helper methods --
+
+	private static int[][] createEdges() {
+		final List<int[]> edges = new ArrayList<>();
+		for (int a = 0; a < 8; a++) {
+			for (int bit = 1; bit < 8; bit <<= 1) {
+				if ((a & bit) == 0) {
+					edges.add(new int[] { a, a | bit });
+				}
+			}
+		}
+		return edges.toArray(new int[0][]);
+	}
+
+	private static int edgeIndex(final int a, final int b) {
+		for (int e = 0; e < EDGES.length; e++) {
+			if (EDGES[e][0] == Math.min(a, b) && EDGES[e][1] == Math.max(a, b)) {
+				return e;
+			}
+		}
+		throw new IllegalArgumentException("Corners " + a + " and " + b + " are not joined by an edge");
+	}
+
+	/**
+	 * Creates the triangles of a configuration
+	 * <p>
+	 * Going counter-clockwise around a face, the foreground on it is bounded by segments from each edge where
+	 * the corners change from foreground to background, to the next edge where they change back.
+	 * The surface traverses the same segments in the opposite direction, so following them from face to face
+	 * gives the polygons of the surface, which are then split into triangle fans.
+	 * </p>
+	 */
+	private static int[] createTriangles(final int configuration) {
+		final int[] next = new int[EDGES.length];
+		Arrays.fill(next, -1);
+		for (final int[] face : FACES) {
+			int exit = -1;
+			// Go around twice, so that each entry is met after the exit before it
+			for (int i = 0; i < 8; i++) {
+				final int a = face[i & 3];
+				final int b = face[(i + 1) & 3];
+				final boolean aForeground = isForeground(configuration, a);
+				final boolean bForeground = isForeground(configuration, b);
+				if (aForeground && !bForeground) {
+					exit = edgeIndex(a, b);
+				} else if (!aForeground && bForeground && exit >= 0) {
+					next[edgeIndex(a, b)] = exit;
+				}
+			}
+		}
+
+		final List<Integer> triangles = new ArrayList<>();
+		final boolean[] visited = new boolean[EDGES.length];
+		for (int start = 0; start < EDGES.length; start++) {
+			if (next[start] < 0 || visited[start]) {
+				continue;
+			}
+
+			final List<Integer> polygon = new ArrayList<>();
+			for (int edge = start; !visited[edge]; edge = next[edge]) {
+				visited[edge] = true;
+				polygon.add(edge);
+			}
+			final int size = polygon.size();
+			final int apex = fanApex(polygon);
+			for (int i = 1; i < size - 1; i++) {
+				triangles.add(polygon.get(apex));
+				triangles.add(polygon.get((apex + i) % size));
+				triangles.add(polygon.get((apex + i + 1) % size));
+			}
+		}
+		return triangles.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * Returns the index of the vertex of the polygon, from which it's split into a fan of triangles
+	 *
+	 * @implNote Picks the vertex with the fewest diagonals along the faces of the cube. Such a diagonal would make
+	 *           the surface touch the face, and overlap with the surface of the neighbouring cube
+	 */
+	private static int fanApex(final List<Integer> polygon) {
+		final int size = polygon.size();
+		int apex = 0;
+		int fewest = Integer.MAX_VALUE;
+		for (int i = 0; i < size; i++) {
+			int faceDiagonals = 0;
+			for (int j = 2; j < size - 1; j++) {
+				if (onSameFace(polygon.get(i), polygon.get((i + j) % size))) {
+					faceDiagonals++;
+				}
+			}
+			if (faceDiagonals < fewest) {
+				fewest = faceDiagonals;
+				apex = i;
+			}
+		}
+		return apex;
+	}
+
+	private static boolean onSameFace(final int edgeA, final int edgeB) {
+		for (final int[] face : FACES) {
+			if (onFace(edgeA, face) && onFace(edgeB, face)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean onFace(final int edge, final int[] face) {
+		int corners = 0;
+		for (final int corner : face) {
+			if (corner == EDGES[edge][0] || corner == EDGES[edge][1]) {
+				corners++;
+			}
+		}
+		return corners == 2;
+	}
+
+	/**
+	 * Calculates the foreground volume in a unit cube with the divergence theorem.
+	 * The flux of the position vector is zero through the faces at the origin,
+	 * so only the triangles, and the foreground on the three other faces contribute.
+	 */
+	private static double enclosedVolume(final int configuration, final int[] triangles) {
+		double volume = 0.0;
+		for (int i = 0; i < triangles.length; i += 3) {
+			volume += determinant(triangles[i], triangles[i + 1], triangles[i + 2]) / 6.0;
+		}
+		// Faces x = 1, y = 1 and z = 1
+		for (final int[] face : new int[][] { FACES[3], FACES[5], FACES[1] }) {
+			volume += faceArea(configuration, face) / 3.0;
+		}
+		return volume;
+	}
+
+	/** Returns the signed volume of the parallelepiped of the midpoints of three edges */
+	private static double determinant(final int a, final int b, final int c) {
+		final double[][] m = new double[3][3];
+		final int[] edges = { a, b, c };
+		for (int i = 0; i < 3; i++) {
+			for (int d = 0; d < 3; d++) {
+				m[i][d] = midpointCoordinate(edges[i], d);
+			}
+		}
+		return m[0][0] * (m[1][1] * m[2][2] - m[1][2] * m[2][1]) - m[0][1] * (m[1][0] * m[2][2] - m[1][2] * m[2][0]) +
+				m[0][2] * (m[1][0] * m[2][1] - m[1][1] * m[2][0]);
+	}
+
+	/** Returns the area of the foreground on a unit face, where the foreground corners are connected */
+	private static double faceArea(final int configuration, final int[] face) {
+		int count = 0;
+		for (final int corner : face) {
+			if (isForeground(configuration, corner)) {
+				count++;
+			}
+		}
+		switch (count) {
+		case 0:
+			return 0.0;
+		case 1:
+			return 1.0 / 8.0;
+		case 2:
+			final boolean diagonal = isForeground(configuration, face[0]) == isForeground(configuration, face[2]);
+			// Two background corners are cut off across the diagonal
+			return diagonal ? 3.0 / 4.0 : 1.0 / 2.0;
+		case 3:
+			return 7.0 / 8.0;
+		default:
+			return 1.0;
+		}
+	}
+
+	private static boolean isForeground(final int configuration, final int corner) {
+		return (configuration & (1 << corner)) != 0;
+	}
+	//endregion
+}
@@ -0,0 +1,372 @@
+package org.bonej.ops.geom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import net.imagej.ops.Contingent;
+import net.imagej.ops.Op;
+import net.imagej.ops.geom.geom3d.mesh.Mesh;
+import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.BooleanType;
+import net.imglib2.view.Views;
+
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+/**
+ * An Op which creates the surface mesh of a binary image with the marching cubes algorithm.
+ * <p>
+ * The cubes are meshed in w-slabs concurrently. The vertices on the planes between the slabs are created by both
+ * of their slabs, and merged when the slabs are stitched together, so the mesh has no duplicate vertices or cracks.
+ * The triangles are those of {@link MarchingCubesTable}, with the vertices at the midpoints of the edges
+ * between foreground and background elements. The image is padded with background, so the mesh is closed.
+ * </p>
+ * <p>
+ * Can be used instead of ops().geom().marchingCubes() for binary images, but the meshes are not identical.
+ * On faces of the cubes where the foreground corners are diagonal, {@link MarchingCubesTable} always connects
+ * the foreground, whereas the triangulation of ops().geom().marchingCubes() resolves them differently.
+ * Where there are no such faces, the meshes enclose the same volume. Where there are, the volumes differ slightly.
+ * The coordinates of the vertices are in the coordinates of the image.
+ * </p>
+ *
+ * @author Richard Domander
+ * @implNote Each plane of the image can have at most {@link Integer#MAX_VALUE} / 2 elements.
+ * The number of concurrent slabs is bounded by the memory available for their planes.
+ */
+@Plugin(type = Op.class, name = "parallelMarchingCubes")
+public class ParallelMarchingCubes<B extends BooleanType<B>> extends
+		AbstractUnaryFunctionOp<RandomAccessibleInterval<B>, Mesh> implements Contingent {
+	private static final int W_INDEX = 2;
+	/**
+	 * Bytes of the planes a slab works on per element of a plane:
+	 * two planes of elements, and three planes of vertices on the planes, and one between them
+	 */
+	private static final long SLAB_BYTES_PER_ELEMENT = 2 + 4 * (3 * 2 + 1);
+
+	/**
+	 * If true, the image is meshed in w-slabs concurrently.
+	 * The mesh is exactly the same as in the serial calculation.
+	 */
+	@Parameter(required = false)
+	private boolean parallel = true;
+
+	@Override
+	public Mesh compute1(final RandomAccessibleInterval<B> interval) {
+		return indexedMesh(interval, parallel).toMesh();
+	}
+
+	@Override
+	public boolean conforms() {
+		return in().numDimensions() == 3 && isPlaneSizeValid(in());
+	}
+
+	/**
+	 * Creates the surface mesh of a binary image as a compact {@link IndexedTriangleMesh},
+	 * which takes a fraction of the memory of the {@link Mesh} of the Op
+	 *
+	 * @param interval A 3D binary image
+	 * @param parallel If true, the image is meshed in w-slabs concurrently
+	 * @throws NullPointerException     if interval is null
+	 * @throws IllegalArgumentException if interval is not 3D, or its planes have more than
+	 *                                  {@link Integer#MAX_VALUE} / 2 elements
+	 */
+	public static <B extends BooleanType<B>> IndexedTriangleMesh indexedMesh(
+			final RandomAccessibleInterval<B> interval, final boolean parallel) throws NullPointerException,
+			IllegalArgumentException {
+		checkNotNull(interval, "Interval cannot be null");
+		checkArgument(interval.numDimensions() == 3, "Interval must be 3D");
+		checkArgument(isPlaneSizeValid(interval), "The planes of the interval are too large");
+
+		final float[] offset = { interval.min(0), interval.min(1), interval.min(2) };
+		final int layers = (int) interval.dimension(W_INDEX) + 1;
+		final int slabs = parallel ? Math.max(1, Math.min(layers, Math.min(Runtime.getRuntime()
+				.availableProcessors(), memorySlabs(interval.dimension(0) * interval.dimension(1))))) : 1;
+		return stitch(meshSlabs(Views.zeroMin(interval), slabs, parallel), offset);
+	}
+
+	//region -- Helper methods --
+
+	/**
+	 * True if a plane of the interval has at most {@link Integer#MAX_VALUE} / 2 elements,
+	 * and the vertex indices of a plane, i.e. a slot for each of its u- and v-edges, fit in an array
+	 */
+	private static boolean isPlaneSizeValid(final RandomAccessibleInterval<?> interval) {
+		final long uSize = interval.dimension(0);
+		final long vSize = interval.dimension(1);
+		return uSize * vSize <= Integer.MAX_VALUE / 2 &&
+				(uSize + 1) * (vSize + 2) + (uSize + 2) * (vSize + 1) <= Integer.MAX_VALUE &&
+				interval.dimension(W_INDEX) < Integer.MAX_VALUE;
+	}
+
+	/** Returns the number of slabs whose planes fit in half of the maximum memory of the JVM */
+	private static int memorySlabs(final long planeElements) {
+		final long slabBytes = Math.max(1, SLAB_BYTES_PER_ELEMENT * planeElements);
+		return (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 2 / slabBytes);
+	}
+
+	/**
+	 * Meshes the cubes of the image padded with background in w-slabs
+	 *
+	 * @param interval A zero-min interval
+	 * @param slabs    Number of slabs, at most the number of layers of cubes, i.e. the w-size + 1
+	 * @param parallel If true, the slabs are meshed concurrently
+	 */
+	static <B extends BooleanType<B>> List<Slab> meshSlabs(final RandomAccessibleInterval<B> interval,
+			final int slabs, final boolean parallel) {
+		// Layer w has the cubes between the planes w - 1 and w
+		final int layers = (int) interval.dimension(W_INDEX) + 1;
+		final IntStream slabStream = IntStream.range(0, slabs);
+
+		return (parallel ? slabStream.parallel() : slabStream).mapToObj(slab -> {
+			final int wStart = (int) ((long) slab * layers / slabs);
+			final int wEnd = (int) ((long) (slab + 1) * layers / slabs);
+			return meshSlab(interval, wStart, wEnd);
+		}).collect(Collectors.toList());
+	}
+
+	/** Meshes the cubes in the layers [wStart, wEnd) */
+	private static <B extends BooleanType<B>> Slab meshSlab(final RandomAccessibleInterval<B> interval,
+			final int wStart, final int wEnd) {
+		final int uSize = (int) interval.dimension(0);
+		final int vSize = (int) interval.dimension(1);
+		final int wSize = (int) interval.dimension(W_INDEX);
+		final Slab slab = new Slab(uSize, vSize);
+		boolean[] back = new boolean[uSize * vSize];
+		boolean[] front = new boolean[uSize * vSize];
+		readPlane(interval, wStart - 1, wSize, back);
+		// Vertices at the plane w - 1, halfway between the planes, and at the plane w
+		int[] backVertices = slab.bottomVertices;
+		final int[] middleVertices = slab.newMiddlePlane();
+		int[] frontVertices = slab.newVertexPlane();
+
+		for (int w = wStart; w < wEnd; w++) {
+			readPlane(interval, w, wSize, front);
+			for (int v = -1; v < vSize; v++) {
+				for (int u = -1; u < uSize; u++) {
+					final int configuration = configuration(back, front, uSize, vSize, u, v);
+					if (configuration == 0 || configuration == 255) {
+						continue;
+					}
+					slab.addCube(configuration, u, v, w - 1, backVertices, middleVertices, frontVertices);
+				}
+			}
+
+			final boolean[] swap = back;
+			back = front;
+			front = swap;
+			if (w < wEnd - 1) {
+				// The bottom plane is kept for stitching, other planes are recycled
+				final int[] recycled = backVertices == slab.bottomVertices ? slab.newVertexPlane() : backVertices;
+				Arrays.fill(recycled, -1);
+				backVertices = frontVertices;
+				frontVertices = recycled;
+				Arrays.fill(middleVertices, -1);
+			}
+		}
+		slab.topVertices = frontVertices;
+		return slab;
+	}
+
+	/**
+	 * Reads the plane w of the interval into the given array
+	 *
+	 * @param plane Elements of the plane in flat order, all false if w is outside the interval
+	 */
+	private static <B extends BooleanType<B>> void readPlane(final RandomAccessibleInterval<B> interval,
+			final int w, final int wSize, final boolean[] plane) {
+		if (w < 0 || w >= wSize) {
+			Arrays.fill(plane, false);
+			return;
+		}
+
+		final Cursor<B> cursor = Views.flatIterable(Views.hyperSlice(interval, W_INDEX, w)).cursor();
+		for (int i = 0; i < plane.length; i++) {
+			plane[i] = cursor.next().get();
+		}
+	}
+
+	/**
+	 * Returns the configuration of the cube with its lowest corner at (u, v) in the back plane,
+	 * see {@link MarchingCubesTable}
+	 */
+	private static int configuration(final boolean[] back, final boolean[] front, final int uSize,
+			final int vSize, final int u, final int v) {
+		int configuration = 0;
+		for (int corner = 0; corner < 8; corner++) {
+			final int cu = u + MarchingCubesTable.cornerCoordinate(corner, 0);
+			final int cv = v + MarchingCubesTable.cornerCoordinate(corner, 1);
+			if (cu < 0 || cv < 0 || cu >= uSize || cv >= vSize) {
+				continue;
+			}
+			final boolean[] plane = MarchingCubesTable.cornerCoordinate(corner, 2) == 0 ? back : front;
+			if (plane[cv * uSize + cu]) {
+				configuration |= 1 << corner;
+			}
+		}
+		return configuration;
+	}
+
+	/**
+	 * Joins the meshes of the slabs into one
+	 * <p>
+	 * The top vertices of each slab are the same as the bottom vertices of the next,
+	 * so the bottom vertices are mapped to the indices of the vertices of the previous slab.
+	 * </p>
+	 *
+	 * @param offset Translation (x, y, z) added to the coordinates of the vertices
+	 */
+	static IndexedTriangleMesh stitch(final List<Slab> slabs, final float[] offset) {
+		final int[][] globalIndices = new int[slabs.size()][];
+		int vertexCount = 0;
+		int triangleIndexCount = 0;
+		for (int s = 0; s < slabs.size(); s++) {
+			final Slab slab = slabs.get(s);
+			final int[] indices = new int[slab.vertexCount];
+			Arrays.fill(indices, -1);
+			if (s > 0) {
+				final int[] previousTop = slabs.get(s - 1).topVertices;
+				final int[] previousIndices = globalIndices[s - 1];
+				for (int i = 0; i < previousTop.length; i++) {
+					if (slab.bottomVertices[i] >= 0) {
+						indices[slab.bottomVertices[i]] = previousIndices[previousTop[i]];
+					}
+				}
+			}
+			for (int i = 0; i < indices.length; i++) {
+				if (indices[i] < 0) {
+					indices[i] = vertexCount++;
+				}
+			}
+			globalIndices[s] = indices;
+			triangleIndexCount += slab.triangleIndexCount;
+		}
+
+		final float[] coordinates = new float[3 * vertexCount];
+		final int[] triangles = new int[triangleIndexCount];
+		int t = 0;
+		for (int s = 0; s < slabs.size(); s++) {
+			final Slab slab = slabs.get(s);
+			final int[] indices = globalIndices[s];
+			for (int i = 0; i < slab.vertexCount; i++) {
+				for (int d = 0; d < 3; d++) {
+					coordinates[3 * indices[i] + d] = slab.coordinates[3 * i + d] + offset[d];
+				}
+			}
+			for (int i = 0; i < slab.triangleIndexCount; i++) {
+				triangles[t++] = indices[slab.triangles[i]];
+			}
+		}
+		return new IndexedTriangleMesh(coordinates, triangles);
+	}
+	//endregion
+
+	//region -- Helper classes --
+
+	/**
+	 * The mesh of a slab. The vertices are indexed in the order they were created, and each vertex is found by
+	 * its edge from arrays that cover one plane of vertices.
+	 * <p>
+	 * The vertices on a plane of elements are the midpoints of its u- and v-edges, so their arrays have a slot for
+	 * each edge. The vertices between two planes are the midpoints of the w-edges, one for each element.
+	 * </p>
+	 */
+	static final class Slab {
+		/** Number of u-edges on a plane, including those to the padding around it */
+		private final int uEdges;
+		/** Number of elements in a row of a plane, including the padding around it */
+		private final int paddedUSize;
+		private final int vertexPlaneSize;
+		private final int middlePlaneSize;
+		/** Indices of the vertices on the plane at the bottom of the slab, or -1 */
+		private final int[] bottomVertices;
+		/** Indices of the vertices on the plane at the top of the slab, or -1 */
+		private int[] topVertices;
+		private float[] coordinates = new float[3 * 64];
+		private int vertexCount;
+		private int[] triangles = new int[3 * 64];
+		private int triangleIndexCount;
+
+		private Slab(final int uSize, final int vSize) {
+			paddedUSize = uSize + 2;
+			uEdges = (uSize + 1) * (vSize + 2);
+			vertexPlaneSize = uEdges + paddedUSize * (vSize + 1);
+			middlePlaneSize = paddedUSize * (vSize + 2);
+			bottomVertices = newVertexPlane();
+		}
+
+		/** Creates the vertex indices of a plane of elements */
+		private int[] newVertexPlane() {
+			final int[] plane = new int[vertexPlaneSize];
+			Arrays.fill(plane, -1);
+			return plane;
+		}
+
+		/** Creates the vertex indices between two planes of elements */
+		private int[] newMiddlePlane() {
+			final int[] plane = new int[middlePlaneSize];
+			Arrays.fill(plane, -1);
+			return plane;
+		}
+
+		/**
+		 * Returns the index of an edge midpoint in its vertex plane
+		 *
+		 * @param u2 Doubled u-coordinate of the midpoint, odd on a u-edge
+		 * @param v2 Doubled v-coordinate of the midpoint, odd on a v-edge
+		 */
+		private int edgeIndex(final int u2, final int v2) {
+			if ((u2 & 1) != 0) {
+				return (v2 / 2 + 1) * (paddedUSize - 1) + (u2 + 1) / 2;
+			}
+			if ((v2 & 1) != 0) {
+				return uEdges + (v2 + 1) / 2 * paddedUSize + u2 / 2 + 1;
+			}
+			// A w-edge
+			return (v2 / 2 + 1) * paddedUSize + u2 / 2 + 1;
+		}
+
+		/** Adds the triangles of the cube with its lowest corner at (u, v, w) */
+		private void addCube(final int configuration, final int u, final int v, final int w, final int[] back,
+				final int[] middle, final int[] front) {
+			final int[] cubeTriangles = MarchingCubesTable.triangles(configuration);
+			if (triangleIndexCount + cubeTriangles.length > triangles.length) {
+				triangles = Arrays.copyOf(triangles, 2 * triangles.length + cubeTriangles.length);
+			}
+
+			for (final int edge : cubeTriangles) {
+				// Doubled coordinates of the midpoint, i.e. the sums of the coordinates of the corners of the edge
+				final int[] corners = MarchingCubesTable.edgeCorners(edge);
+				final int du = MarchingCubesTable.cornerCoordinate(corners[0], 0) + MarchingCubesTable
+						.cornerCoordinate(corners[1], 0);
+				final int dv = MarchingCubesTable.cornerCoordinate(corners[0], 1) + MarchingCubesTable
+						.cornerCoordinate(corners[1], 1);
+				final int dw = MarchingCubesTable.cornerCoordinate(corners[0], 2) + MarchingCubesTable
+						.cornerCoordinate(corners[1], 2);
+				final int[] plane = dw == 0 ? back : dw == 1 ? middle : front;
+				final int index = edgeIndex(2 * u + du, 2 * v + dv);
+				if (plane[index] < 0) {
+					plane[index] = addVertex(u + 0.5f * du, v + 0.5f * dv, w + 0.5f * dw);
+				}
+				triangles[triangleIndexCount++] = plane[index];
+			}
+		}
+
+		private int addVertex(final float u, final float v, final float w) {
+			if (3 * vertexCount == coordinates.length) {
+				coordinates = Arrays.copyOf(coordinates, 2 * coordinates.length);
+			}
+			coordinates[3 * vertexCount] = u;
+			coordinates[3 * vertexCount + 1] = v;
+			coordinates[3 * vertexCount + 2] = w;
+			return vertexCount++;
+		}
+	}
+	//endregion
+}
@@ -0,0 +1,497 @@
+package org.bonej.ops.particles;
+
+import net.imagej.ImgPlus;
+import net.imagej.ops.Contingent;
+import net.imagej.ops.Op;
+import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.img.planar.PlanarImgs;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.view.Views;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An Op which labels the connected foreground particles of a binary image.
+ * <p>
+ * The image is scanned in w-slabs concurrently, and the foreground runs along u of each particle are joined into a
+ * union-find forest. The forest is lock-free, so the particles that cross the seams between the slabs are merged
+ * concurrently as well. The labels are the same as in a serial scan.
+ * </p>
+ * <p>
+ * The forest has a node per run instead of per element, so it takes a fraction of the memory of the image,
+ * and the number of elements is not limited by the size of an array.
+ * </p>
+ *
+ * @author Richard Domander
+ * @implNote Each plane of the image can have at most {@link Integer#MAX_VALUE} elements,
+ *           and the image at most {@link Integer#MAX_VALUE} particles
+ * @implNote Assuming that all dimensions are spatial
+ */
+@Plugin(type = Op.class, name = "labelParticles")
+public class ParticleLabelling extends AbstractUnaryFunctionOp<ImgPlus<BitType>, ParticleLabelling.Results>
+        implements Contingent {
+    private static final int W_INDEX = 2;
+    /** Offsets (dv, dw) of the rows whose runs can touch a run in 26-connectivity, and come before it in scan order */
+    private static final int[][] PREVIOUS_26_ROWS = {{-1, 0}, {-1, -1}, {0, -1}, {1, -1}};
+    /** Offsets (dv, dw) of the rows whose runs can touch a run in 6-connectivity, and come before it in scan order */
+    private static final int[][] PREVIOUS_6_ROWS = {{-1, 0}, {0, -1}};
+
+    /**
+     * Number of neighbours connected to an element: 26 (faces, edges and corners), or 6 (faces only).
+     * The background is not labelled, so its connectivity doesn't matter.
+     */
+    @Parameter(required = false)
+    private int neighbourhood = 26;
+
+    /**
+     * If true, the image is labelled in w-slabs concurrently.
+     * The result is exactly the same as in the serial calculation.
+     */
+    @Parameter(required = false)
+    private boolean parallel = true;
+
+    /**
+     * @throws IllegalArgumentException if the image has more than {@link Integer#MAX_VALUE} particles
+     */
+    @Override
+    public Results compute1(final ImgPlus<BitType> imgPlus) throws IllegalArgumentException {
+        final int[] size = new int[3];
+        for (int d = 0; d < 3; d++) {
+            size[d] = (int) imgPlus.dimension(d);
+        }
+        final int slabs = parallel ? Math.max(1, Math.min(size[W_INDEX], Runtime.getRuntime().availableProcessors())) : 1;
+        final int[] wStarts = new int[slabs + 1];
+        for (int slab = 0; slab <= slabs; slab++) {
+            wStarts[slab] = (int) ((long) slab * size[W_INDEX] / slabs);
+        }
+        final int[][] rows = neighbourhood == 6 ? PREVIOUS_6_ROWS : PREVIOUS_26_ROWS;
+        // Runs touch diagonally in 26-connectivity, when one ends right before the other starts
+        final int reach = neighbourhood == 6 ? 0 : 1;
+        final RunPlane[] planes = new RunPlane[size[W_INDEX]];
+
+        slabStream(slabs).forEach(
+                slab -> joinSlab(imgPlus, planes, size, rows, reach, wStarts[slab], wStarts[slab + 1]));
+        slabStream(slabs - 1).forEach(slab -> joinPlane(planes, rows, reach, wStarts[slab + 1], false, true));
+
+        final long[] firstLabels = new long[slabs + 1];
+        final long[] rootCounts = slabStream(slabs)
+                .mapToLong(slab -> countRoots(planes, wStarts[slab], wStarts[slab + 1])).toArray();
+        for (int slab = 0; slab < slabs; slab++) {
+            firstLabels[slab + 1] = firstLabels[slab] + rootCounts[slab];
+        }
+        checkArgument(firstLabels[slabs] <= Integer.MAX_VALUE, "Too many particles to label");
+        final int particleCount = (int) firstLabels[slabs];
+
+        slabStream(slabs).forEach(slab -> numberRoots(planes, wStarts[slab], wStarts[slab + 1],
+                (int) firstLabels[slab] + 1));
+        final PlanarImg<IntType, IntArray> labelImg = PlanarImgs.ints(size[0], size[1], size[2]);
+        final ParticleStats stats = new ParticleStats(particleCount);
+        slabStream(slabs).forEach(slab -> resolveLabels(planes, labelImg, size, wStarts[slab], wStarts[slab + 1],
+                stats));
+
+        final ImgPlus<IntType> labelImgPlus = new ImgPlus<>(labelImg, imgPlus.getName() + " labels");
+        copyAxes(imgPlus, labelImgPlus);
+        return new Results(labelImgPlus, particleCount, stats);
+    }
+
+    @Override
+    public boolean conforms() {
+        return in().numDimensions() == 3 && (neighbourhood == 6 || neighbourhood == 26) &&
+                in().dimension(0) * in().dimension(1) <= Integer.MAX_VALUE &&
+                in().dimension(W_INDEX) <= Integer.MAX_VALUE;
+    }
+
+    //region -- Helper methods --
+
+    private IntStream slabStream(final int slabs) {
+        final IntStream stream = IntStream.range(0, slabs);
+        return parallel ? stream.parallel() : stream;
+    }
+
+    /**
+     * Finds the foreground runs of the slices [wStart, wEnd), adds them to the forest, and joins each run
+     * to the runs before it within the slab
+     */
+    private static void joinSlab(final RandomAccessibleInterval<BitType> interval, final RunPlane[] planes,
+                                 final int[] size, final int[][] rows, final int reach, final int wStart,
+                                 final int wEnd) {
+        for (int w = wStart; w < wEnd; w++) {
+            final Cursor<BitType> cursor = Views.flatIterable(Views.hyperSlice(interval, W_INDEX, w)).cursor();
+            planes[w] = new RunPlane(cursor, size[0], size[1], w);
+            joinPlane(planes, rows, reach, w, true, w > wStart);
+        }
+    }
+
+    /**
+     * Joins the runs of slice w to the touching runs before them
+     *
+     * @param sameSlice     If true, the runs are joined to the touching runs in slice w
+     * @param previousSlice If true, the runs are joined to the touching runs in slice w - 1
+     * @implNote The seams between the slabs are joined concurrently, and they may share trees with each other
+     */
+    private static void joinPlane(final RunPlane[] planes, final int[][] rows, final int reach, final int w,
+                                  final boolean sameSlice, final boolean previousSlice) {
+        final RunPlane plane = planes[w];
+        for (int v = 0; v < plane.vSize; v++) {
+            for (final int[] offset : rows) {
+                final int nv = v + offset[0];
+                final int nw = w + offset[1];
+                if (nv < 0 || nv >= plane.vSize || nw < 0 || !(offset[1] == 0 ? sameSlice : previousSlice)) {
+                    continue;
+                }
+                joinRows(planes, w, v, nw, nv, reach);
+            }
+        }
+    }
+
+    /**
+     * Joins the runs on row (v, w) to the runs they touch on row (nv, nw)
+     *
+     * @param reach 1 if runs touch when one ends right before the other starts, else 0
+     */
+    private static void joinRows(final RunPlane[] planes, final int w, final int v, final int nw, final int nv,
+                                 final int reach) {
+        final RunPlane plane = planes[w];
+        final RunPlane neighbourPlane = planes[nw];
+        int first = neighbourPlane.rowRuns[nv];
+        final int end = neighbourPlane.rowRuns[nv + 1];
+        for (int run = plane.rowRuns[v]; run < plane.rowRuns[v + 1]; run++) {
+            // The runs are in order, so a neighbour that ends before this run can't touch the next ones either
+            while (first < end && neighbourPlane.ends[first] + reach <= plane.starts[run]) {
+                first++;
+            }
+            for (int neighbour = first; neighbour < end &&
+                    neighbourPlane.starts[neighbour] < plane.ends[run] + reach; neighbour++) {
+                union(planes, runId(w, run), runId(nw, neighbour));
+            }
+        }
+    }
+
+    /** Returns the id of a run in the forest, which orders the runs in scan order */
+    private static long runId(final int w, final int run) {
+        return ((long) w << 32) | run;
+    }
+
+    private static RunPlane plane(final RunPlane[] planes, final long id) {
+        return planes[(int) (id >>> 32)];
+    }
+
+    private static long parent(final RunPlane[] planes, final long id) {
+        return plane(planes, id).parents.get((int) id);
+    }
+
+    /**
+     * Joins the trees of runs a and b
+     * <p>
+     * The root with the larger id is linked to the other root by a compare-and-set on its own entry,
+     * so the root of a tree is always its first run. If another thread links the root first,
+     * the roots are found again and the link retried.
+     * </p>
+     */
+    static void union(final RunPlane[] planes, final long a, final long b) {
+        long rootA = a;
+        long rootB = b;
+        while (true) {
+            rootA = find(planes, rootA);
+            rootB = find(planes, rootB);
+            if (rootA == rootB) {
+                return;
+            }
+
+            final long first = Math.min(rootA, rootB);
+            final long last = Math.max(rootA, rootB);
+            if (plane(planes, last).parents.compareAndSet((int) last, last, first)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finds the root of the tree of run id
+     *
+     * @implNote Halves the path to the root on the way. The links only ever move closer to the root,
+     *           so it's safe even if other threads are joining the tree
+     */
+    static long find(final RunPlane[] planes, final long id) {
+        long element = id;
+        long parent = parent(planes, element);
+        while (parent != element) {
+            final long grandparent = parent(planes, parent);
+            if (grandparent == parent) {
+                return parent;
+            }
+
+            plane(planes, element).parents.compareAndSet((int) element, parent, grandparent);
+            element = grandparent;
+            parent = parent(planes, element);
+        }
+        return element;
+    }
+
+    /** Counts the roots of the forest in the slices [wStart, wEnd) */
+    private static long countRoots(final RunPlane[] planes, final int wStart, final int wEnd) {
+        long roots = 0;
+        for (int w = wStart; w < wEnd; w++) {
+            for (int run = 0; run < planes[w].runCount; run++) {
+                if (parent(planes, runId(w, run)) == runId(w, run)) {
+                    roots++;
+                }
+            }
+        }
+        return roots;
+    }
+
+    /** Labels the roots in the slices [wStart, wEnd) in scan order, starting from firstLabel */
+    private static void numberRoots(final RunPlane[] planes, final int wStart, final int wEnd, final int firstLabel) {
+        int label = firstLabel;
+        for (int w = wStart; w < wEnd; w++) {
+            final RunPlane plane = planes[w];
+            for (int run = 0; run < plane.runCount; run++) {
+                if (parent(planes, runId(w, run)) == runId(w, run)) {
+                    plane.labels[run] = label;
+                    label++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Labels the elements of the slices [wStart, wEnd) with the labels of the roots of their runs,
+     * and adds the runs to the particle statistics
+     */
+    private static void resolveLabels(final RunPlane[] planes, final PlanarImg<IntType, IntArray> labelImg,
+                                      final int[] size, final int wStart, final int wEnd, final ParticleStats stats) {
+        for (int w = wStart; w < wEnd; w++) {
+            final RunPlane plane = planes[w];
+            final int[] labels = labelImg.getPlane(w).getCurrentStorageArray();
+            for (int v = 0; v < size[1]; v++) {
+                final int rowStart = v * size[0];
+                for (int run = plane.rowRuns[v]; run < plane.rowRuns[v + 1]; run++) {
+                    final long root = find(planes, runId(w, run));
+                    final int label = plane(planes, root).labels[(int) root];
+                    Arrays.fill(labels, rowStart + plane.starts[run], rowStart + plane.ends[run], label);
+                    stats.addRun(label, plane.starts[run], plane.ends[run], v, w);
+                }
+            }
+        }
+    }
+
+    private static void copyAxes(final ImgPlus<?> source, final ImgPlus<?> target) {
+        for (int d = 0; d < source.numDimensions(); d++) {
+            target.setAxis(source.axis(d).copy(), d);
+        }
+    }
+    //endregion
+
+    //region -- Helper classes --
+
+    /** The foreground runs along u of a slice, and their nodes in the union-find forest */
+    static final class RunPlane {
+        private final int vSize;
+        private final int runCount;
+        /** Runs of row v are [rowRuns[v], rowRuns[v + 1]) */
+        private final int[] rowRuns;
+        /** The runs are [starts[i], ends[i]) along u, in scan order */
+        private final int[] starts;
+        private final int[] ends;
+        /** Id of the parent of each run, which is the id of the run itself for a root */
+        private final AtomicLongArray parents;
+        /** Label of each root run */
+        private final int[] labels;
+
+        /** Finds the runs of slice w, whose elements the cursor iterates in flat order */
+        private RunPlane(final Cursor<BitType> cursor, final int uSize, final int vSize, final int w) {
+            this.vSize = vSize;
+            rowRuns = new int[vSize + 1];
+            int[] runStarts = new int[64];
+            int[] runEnds = new int[64];
+            int runs = 0;
+            for (int v = 0; v < vSize; v++) {
+                int runStart = -1;
+                for (int u = 0; u <= uSize; u++) {
+                    final boolean foreground = u < uSize && cursor.next().get();
+                    if (foreground && runStart < 0) {
+                        runStart = u;
+                    } else if (!foreground && runStart >= 0) {
+                        if (runs == runStarts.length) {
+                            runStarts = Arrays.copyOf(runStarts, 2 * runs);
+                            runEnds = Arrays.copyOf(runEnds, 2 * runs);
+                        }
+                        runStarts[runs] = runStart;
+                        runEnds[runs] = u;
+                        runs++;
+                        runStart = -1;
+                    }
+                }
+                rowRuns[v + 1] = runs;
+            }
+
+            runCount = runs;
+            starts = Arrays.copyOf(runStarts, runs);
+            ends = Arrays.copyOf(runEnds, runs);
+            labels = new int[runs];
+            parents = new AtomicLongArray(runs);
+            for (int run = 0; run < runs; run++) {
+                parents.set(run, runId(w, run));
+            }
+        }
+    }
+
+    /**
+     * Element counts and bounding boxes of the particles, indexed by label.
+     * The runs of the labels are added concurrently.
+     */
+    private static final class ParticleStats {
+        private final AtomicLongArray elementCounts;
+        /** Bounding box of label l at [6 * l, 6 * l + 6): min u, v, w, then max u, v, w */
+        private final AtomicIntegerArray boxes;
+
+        private ParticleStats(final int particleCount) {
+            elementCounts = new AtomicLongArray(particleCount + 1);
+            boxes = new AtomicIntegerArray(6 * (particleCount + 1));
+            for (int label = 1; label <= particleCount; label++) {
+                for (int d = 0; d < 3; d++) {
+                    boxes.set(6 * label + d, Integer.MAX_VALUE);
+                    boxes.set(6 * label + 3 + d, Integer.MIN_VALUE);
+                }
+            }
+        }
+
+        /** Adds the run [uStart, uEnd) of a label on row (v, w) */
+        private void addRun(final int label, final int uStart, final int uEnd, final int v, final int w) {
+            if (label == 0 || uEnd == uStart) {
+                return;
+            }
+
+            elementCounts.addAndGet(label, uEnd - uStart);
+            final int offset = 6 * label;
+            min(offset, uStart);
+            min(offset + 1, v);
+            min(offset + 2, w);
+            max(offset + 3, uEnd - 1);
+            max(offset + 4, v);
+            max(offset + 5, w);
+        }
+
+        private void min(final int index, final int value) {
+            int current = boxes.get(index);
+            while (value < current && !boxes.compareAndSet(index, current, value)) {
+                current = boxes.get(index);
+            }
+        }
+
+        private void max(final int index, final int value) {
+            int current = boxes.get(index);
+            while (value > current && !boxes.compareAndSet(index, current, value)) {
+                current = boxes.get(index);
+            }
+        }
+    }
+
+    /** The labelled particles */
+    public static final class Results {
+        /**
+         * Label of each element: 0 is background, and the particles are labelled 1, 2, 3...
+         * in the scan order of their first elements. Has the same calibration as the input image.
+         */
+        public final ImgPlus<IntType> labels;
+        /** Number of particles found */
+        public final int particleCount;
+        private final long[] elementCounts;
+        private final int[] boxes;
+
+        private Results(final ImgPlus<IntType> labels, final int particleCount, final ParticleStats stats) {
+            this.labels = labels;
+            this.particleCount = particleCount;
+            elementCounts = new long[particleCount + 1];
+            for (int label = 1; label <= particleCount; label++) {
+                elementCounts[label] = stats.elementCounts.get(label);
+            }
+            boxes = new int[stats.boxes.length()];
+            for (int i = 0; i < boxes.length; i++) {
+                boxes[i] = stats.boxes.get(i);
+            }
+        }
+
+        /**
+         * Returns the number of elements in the particle
+         *
+         * @throws IllegalArgumentException if there's no particle with the label
+         */
+        public long getElementCount(final int label) throws IllegalArgumentException {
+            checkLabel(label);
+            return elementCounts[label];
+        }
+
+        /**
+         * Returns the smallest interval that contains the particle
+         *
+         * @throws IllegalArgumentException if there's no particle with the label
+         */
+        public FinalInterval getBoundingBox(final int label) throws IllegalArgumentException {
+            checkLabel(label);
+            final int offset = 6 * label;
+            return new FinalInterval(new long[]{boxes[offset], boxes[offset + 1], boxes[offset + 2]},
+                    new long[]{boxes[offset + 3], boxes[offset + 4], boxes[offset + 5]});
+        }
+
+        /**
+         * Returns the label of the particle with the most elements
+         *
+         * @return The label, or 0 if there are no particles. Ties go to the smaller label
+         */
+        public int getLargestParticle() {
+            int largest = 0;
+            for (int label = 1; label <= particleCount; label++) {
+                if (elementCounts[label] > elementCounts[largest]) {
+                    largest = label;
+                }
+            }
+            return largest;
+        }
+
+        /**
+         * Creates a binary image of a single particle, e.g. for {@link org.bonej.ops.connectivity.Connectivity}
+         *
+         * @return An image of the same size and calibration as the input, where only the particle is foreground
+         * @throws IllegalArgumentException if there's no particle with the label
+         */
+        public ImgPlus<BitType> createParticleImage(final int label) throws IllegalArgumentException {
+            final FinalInterval box = getBoundingBox(label);
+            final ImgPlus<BitType> particle = new ImgPlus<>(
+                    ArrayImgs.bits(labels.dimension(0), labels.dimension(1), labels.dimension(2)),
+                    labels.getName() + " particle " + label);
+            copyAxes(labels, particle);
+
+            final Cursor<IntType> cursor = Views.interval(labels, box).localizingCursor();
+            final RandomAccess<BitType> access = particle.randomAccess();
+            while (cursor.hasNext()) {
+                if (cursor.next().get() == label) {
+                    access.setPosition(cursor);
+                    access.get().setOne();
+                }
+            }
+            return particle;
+        }
+
+        private void checkLabel(final int label) {
+            checkArgument(label > 0 && label <= particleCount, "No particle with label " + label);
+        }
+    }
+    //endregion
+}
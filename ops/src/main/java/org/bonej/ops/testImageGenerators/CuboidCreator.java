@@ -14,6 +14,7 @@ import net.imglib2.FinalDimensions;
 import net.imglib2.RandomAccess;
 import net.imglib2.img.Img;
 import net.imglib2.type.logic.BitType;
+import org.bonej.ops.binary.RunLengthVolume;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
@@ -70,6 +71,24 @@ public class CuboidCreator extends AbstractNullaryHybridCF<ImgPlus<BitType>> {
                 .binary(ops(), Ops.Create.Img.class, Img.class, Dimensions.class, new BitType());
     }
 
+    /**
+     * Creates the same cuboid as the op, but run-length encoded without a dense image,
+     * e.g. for testing ops on large sparse volumes
+     */
+    public static RunLengthVolume createRunLengthVolume(final int uSize, final int vSize, final int wSize,
+                                                        final int padding) {
+        final RunLengthVolume.Builder builder =
+                new RunLengthVolume.Builder(uSize + 2 * padding, vSize + 2 * padding, wSize + 2 * padding);
+
+        for (int w = padding; w < padding + wSize; w++) {
+            for (int v = padding; v < padding + vSize; v++) {
+                builder.addRun(v, w, padding, padding + uSize);
+            }
+        }
+
+        return builder.build();
+    }
+
     //region --Utility methods--
     public static void main(String... args) {
         final ImageJ ij = new ImageJ();
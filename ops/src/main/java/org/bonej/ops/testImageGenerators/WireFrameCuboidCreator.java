@@ -14,6 +14,7 @@ import net.imglib2.FinalDimensions;
 import net.imglib2.RandomAccess;
 import net.imglib2.img.Img;
 import net.imglib2.type.logic.BitType;
+import org.bonej.ops.binary.RunLengthVolume;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
@@ -51,6 +52,42 @@ public class WireFrameCuboidCreator extends AbstractNullaryHybridCF<ImgPlus<BitT
         ij.ui().show(cuboid);
     }
 
+    /**
+     * Creates the same wire-frame cuboid as the op, but run-length encoded without a dense image,
+     * e.g. for testing ops on large sparse volumes
+     */
+    public static RunLengthVolume createRunLengthVolume(final int uSize, final int vSize, final int wSize,
+                                                        final int padding) {
+        final RunLengthVolume.Builder builder =
+                new RunLengthVolume.Builder(uSize + 2 * padding, vSize + 2 * padding, wSize + 2 * padding);
+        final int u0 = padding;
+        final int u1 = padding + uSize - 1;
+        final int v0 = padding;
+        final int v1 = padding + vSize - 1;
+        final int w0 = padding;
+        final int w1 = padding + wSize - 1;
+
+        for (int w = w0; w <= w1; w++) {
+            final boolean wFace = w == w0 || w == w1;
+            for (int v = v0; v <= v1; v++) {
+                if (!wFace && v != v0 && v != v1) {
+                    continue;
+                }
+
+                if (wFace && (v == v0 || v == v1)) {
+                    // A u-edge of the frame
+                    builder.addRun(v, w, u0, u1 + 1);
+                } else {
+                    // The v- and w-edges cross the row at the corners
+                    builder.addRun(v, w, u0, u0 + 1);
+                    builder.addRun(v, w, u1, u1 + 1);
+                }
+            }
+        }
+
+        return builder.build();
+    }
+
     private void drawCuboidEdges(ImgPlus<BitType> cuboid, CuboidInfo info) {
         setCuboidLocation(info.cuboidLocation, info.u0, info.v0, info.w0);
         drawLine(cuboid, info.cuboidLocation, 0, uSize);
@@ -62,7 +99,7 @@ public class WireFrameCuboidCreator extends AbstractNullaryHybridCF<ImgPlus<BitT
         setCuboidLocation(info.cuboidLocation, info.u1, info.v1, info.w0);
         drawLine(cuboid, info.cuboidLocation, 2, wSize);
         setCuboidLocation(info.cuboidLocation, info.u0, info.v1, info.w0);
-        drawLine(cuboid, info.cuboidLocation, 0, vSize);
+        drawLine(cuboid, info.cuboidLocation, 0, uSize);
         drawLine(cuboid, info.cuboidLocation, 2, wSize);
 
         setCuboidLocation(info.cuboidLocation, info.u0, info.v0, info.w1);
@@ -71,7 +108,7 @@ public class WireFrameCuboidCreator extends AbstractNullaryHybridCF<ImgPlus<BitT
         setCuboidLocation(info.cuboidLocation, info.u1, info.v0, info.w1);
         drawLine(cuboid, info.cuboidLocation, 1, vSize);
         setCuboidLocation(info.cuboidLocation, info.u0, info.v1, info.w1);
-        drawLine(cuboid, info.cuboidLocation, 0, vSize);
+        drawLine(cuboid, info.cuboidLocation, 0, uSize);
     }
 
     private void setCuboidLocation(final long[] cuboidLocation, final long... location) {
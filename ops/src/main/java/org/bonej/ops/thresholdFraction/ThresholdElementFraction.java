@@ -3,36 +3,408 @@ package org.bonej.ops.thresholdFraction;
 import net.imagej.ops.Op;
 import net.imagej.ops.special.function.AbstractBinaryFunctionOp;
 import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.bonej.ops.binary.BlockOccupancy;
+import org.bonej.ops.binary.RunLengthVolume;
+import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
-import java.util.stream.StreamSupport;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * Counts the fraction of foreground elements in the interval that are within the given thresholds
  *
+ * Both counts are found in a single pass over the elements, which is split into chunks that are counted in parallel.
+ * ArrayImgs of UnsignedByteType, UnsignedShortType and FloatType are counted by kernels,
+ * which compare the primitive values in their arrays directly.
+ *
+ * The counts can be limited to an irregular ROI with a run-length encoded mask.
+ *
  * @author Richard Domander
  * @apiNote The plugin assumes that foregroundCutOff.compareTo(minThreshold) <= 0,
  *          and minThreshold.compareTo(maxThreshold) <= 0
- * @todo How to implement the limit calculations to ROIs option from BoneJ1?
- * @todo How to apply calculations only to areas defined by masks (irregular rois)?
  */
 @Plugin(type = Op.class)
 public class ThresholdElementFraction<S, T extends Comparable<S>> extends
         AbstractBinaryFunctionOp<IterableInterval<T>, ThresholdElementFraction.Settings<S>, ThresholdElementFraction.Results> {
+    /** Smallest number of elements counted in a chunk of its own, so that small images aren't split */
+    private static final int MIN_CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Optional block occupancy of the foreground, i.e. elements >= foregroundCutOff.
+     * If given, the foreground is counted from the blocks, and the elements within thresholds are counted
+     * only in blocks that aren't empty. Requires that the interval is random accessible.
+     */
+    @Parameter(required = false)
+    private BlockOccupancy foregroundBlocks = null;
+
+    /**
+     * Optional run-length encoded foreground, i.e. elements >= foregroundCutOff.
+     * If given, the foreground is counted from the run lengths, and the elements within thresholds are counted
+     * only along the runs. Requires that the interval is random accessible.
+     */
+    @Parameter(required = false)
+    private RunLengthVolume foregroundRuns = null;
+
+    /**
+     * If true, the elements are counted in chunks concurrently, or in slabs along w when counting
+     * in blocks, runs or a mask. The result is exactly the same as in the serial calculation.
+     */
+    @Parameter(required = false)
+    private boolean parallel = true;
+
+    /**
+     * Optional histogram of the interval. If given, the elements are counted from the histogram
+     * without scanning the interval. Requires that the settings are RealTypes.
+     * NaN elements are counted as foreground and within thresholds, like when the interval is scanned,
+     * because NaN compares equal to every value.
+     *
+     * @see ThresholdHistogram
+     */
+    @Parameter(required = false)
+    private ThresholdHistogram histogram = null;
+
+    /**
+     * Optional run-length encoded mask, e.g. an irregular ROI. If given, only the elements along the runs of the mask
+     * are counted, so the cost scales with the size of the mask, not the interval. Requires that the interval is
+     * random accessible. The mask takes precedence over the other optional parameters.
+     */
+    @Parameter(required = false)
+    private RunLengthVolume mask = null;
+
+    /**
+     * @throws IllegalArgumentException if foregroundBlocks, foregroundRuns, histogram or mask were given for an interval
+     *                                  of a different size, if histogram was given, and the settings aren't
+     *                                  RealTypes, or if mask, foregroundBlocks or foregroundRuns were given, and the
+     *                                  interval isn't random accessible
+     */
     @Override
-    public Results compute2(final IterableInterval<T> interval, final Settings<S> settings) {
-        final long foregroundElements = StreamSupport.stream(interval.spliterator(), false)
-                .filter(e -> e.compareTo(settings.foregroundCutOff) >= 0).count();
+    public Results compute2(final IterableInterval<T> interval, final Settings<S> settings)
+            throws IllegalArgumentException {
+        if (mask != null) {
+            checkArgument(interval instanceof RandomAccessibleInterval, "Mask requires a random accessible interval");
+            checkArgument(mask.matches(interval), "Mask doesn't match the interval");
+            final Counts counts = countInMask((RandomAccessibleInterval<T>) interval, settings, mask, parallel);
+            return new Results(counts.thresholdElements, counts.foregroundElements);
+        }
+
+        if (histogram != null) {
+            checkArgument(histogram.getElementCount() == interval.size(), "Histogram doesn't match the interval");
+            checkArgument(settings.foregroundCutOff instanceof RealType, "Histogram requires RealType settings");
+            return histogram.query(((RealType<?>) settings.foregroundCutOff).getRealDouble(),
+                    ((RealType<?>) settings.minThreshold).getRealDouble(),
+                    ((RealType<?>) settings.maxThreshold).getRealDouble());
+        }
+
+        if (foregroundRuns != null) {
+            checkArgument(interval instanceof RandomAccessibleInterval, "Runs require a random accessible interval");
+            checkArgument(foregroundRuns.matches(interval), "Runs don't match the interval");
+            return countInRuns((RandomAccessibleInterval<T>) interval, settings);
+        }
+
+        if (foregroundBlocks != null) {
+            checkArgument(interval instanceof RandomAccessibleInterval,
+                    "Block occupancy requires a random accessible interval");
+            checkArgument(foregroundBlocks.matches(interval), "Block occupancy doesn't match the interval");
+            return countInBlocks((RandomAccessibleInterval<T>) interval, settings);
+        }
+
+        final Counts counts = countPrimitives(interval, settings, parallel).orElseGet(() ->
+                interval instanceof RandomAccessibleInterval ?
+                        countSlabs((RandomAccessibleInterval<T>) interval, settings, parallel) :
+                        countElements(interval, settings));
+
+        return new Results(counts.thresholdElements, counts.foregroundElements);
+    }
+
+    //region -- Helper methods --
+
+    /**
+     * Counts the foreground elements and the elements within thresholds in a single pass
+     *
+     * @implNote Uses the same comparisons as the specialized kernels, i.e. compareTo
+     */
+    private static <S, T extends Comparable<S>> Counts countElements(final Iterable<T> elements,
+                                                                     final Settings<S> settings) {
+        final Counts counts = new Counts();
+        for (final T e : elements) {
+            if (e.compareTo(settings.foregroundCutOff) >= 0) {
+                counts.foregroundElements++;
+            }
+            if (e.compareTo(settings.minThreshold) >= 0 && e.compareTo(settings.maxThreshold) <= 0) {
+                counts.thresholdElements++;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Counts the elements in slabs along the last dimension of the interval
+     *
+     * @param parallel If true, the slabs are counted concurrently
+     */
+    private static <S, T extends Comparable<S>> Counts countSlabs(final RandomAccessibleInterval<T> interval,
+                                                                  final Settings<S> settings,
+                                                                  final boolean parallel) {
+        if (interval.numDimensions() == 0 || Intervals.numElements(interval) == 0) {
+            return countElements(Views.iterable(interval), settings);
+        }
+
+        final int lastDimension = interval.numDimensions() - 1;
+        final long size = interval.dimension(lastDimension);
+        final int slabs = parallel ? (int) Math.max(1, Math.min(size, Runtime.getRuntime().availableProcessors())) : 1;
+        final long[] min = Intervals.minAsLongArray(interval);
+        final long[] max = Intervals.maxAsLongArray(interval);
+
+        return chunkStream(slabs, parallel).mapToObj(slab -> {
+            final long[] slabMin = min.clone();
+            final long[] slabMax = max.clone();
+            slabMin[lastDimension] = min[lastDimension] + slab * size / slabs;
+            slabMax[lastDimension] = min[lastDimension] + (slab + 1) * size / slabs - 1;
+            return countElements(Views.interval(interval, slabMin, slabMax), settings);
+        }).reduce(new Counts(), Counts::sum);
+    }
+
+    /**
+     * Counts the elements with a kernel that compares primitive values,
+     * if the interval is an ArrayImg of UnsignedByteType, UnsignedShortType or FloatType
+     *
+     * @return The counts, or empty if there's no kernel for the interval
+     * @implNote The kernels reproduce the compareTo of the types, e.g. NaN compares equal to every float
+     */
+    private static <S, T extends Comparable<S>> Optional<Counts> countPrimitives(final IterableInterval<T> interval,
+                                                                                final Settings<S> settings,
+                                                                                final boolean parallel) {
+        if (!(interval instanceof ArrayImg) || interval.size() == 0) {
+            return Optional.empty();
+        }
+
+        final Object access = ((ArrayImg<?, ?>) interval).update(null);
+        if (!(access instanceof ArrayDataAccess)) {
+            return Optional.empty();
+        }
+
+        final Object data = ((ArrayDataAccess<?>) access).getCurrentStorageArray();
+        final T type = interval.firstElement();
+        final int length = (int) interval.size();
+        if (type instanceof UnsignedByteType && data instanceof byte[]) {
+            final byte[] values = (byte[]) data;
+            final int cutOff = ((UnsignedByteType) settings.foregroundCutOff).get();
+            final int min = ((UnsignedByteType) settings.minThreshold).get();
+            final int max = ((UnsignedByteType) settings.maxThreshold).get();
+            return Optional.of(countChunks(length, parallel, (start, end) -> {
+                final Counts counts = new Counts();
+                for (int i = start; i < end; i++) {
+                    final int value = values[i] & 0xFF;
+                    counts.foregroundElements += value >= cutOff ? 1 : 0;
+                    counts.thresholdElements += value >= min && value <= max ? 1 : 0;
+                }
+                return counts;
+            }));
+        }
+
+        if (type instanceof UnsignedShortType && data instanceof short[]) {
+            final short[] values = (short[]) data;
+            final int cutOff = ((UnsignedShortType) settings.foregroundCutOff).get();
+            final int min = ((UnsignedShortType) settings.minThreshold).get();
+            final int max = ((UnsignedShortType) settings.maxThreshold).get();
+            return Optional.of(countChunks(length, parallel, (start, end) -> {
+                final Counts counts = new Counts();
+                for (int i = start; i < end; i++) {
+                    final int value = values[i] & 0xFFFF;
+                    counts.foregroundElements += value >= cutOff ? 1 : 0;
+                    counts.thresholdElements += value >= min && value <= max ? 1 : 0;
+                }
+                return counts;
+            }));
+        }
 
-        final long thresholdElements = StreamSupport.stream(interval.spliterator(), false)
-                .filter(e -> e.compareTo(settings.minThreshold) >= 0 && e.compareTo(settings.maxThreshold) <= 0)
-                .count();
+        if (type instanceof FloatType && data instanceof float[]) {
+            final float[] values = (float[]) data;
+            final float cutOff = ((FloatType) settings.foregroundCutOff).get();
+            final float min = ((FloatType) settings.minThreshold).get();
+            final float max = ((FloatType) settings.maxThreshold).get();
+            return Optional.of(countChunks(length, parallel, (start, end) -> {
+                final Counts counts = new Counts();
+                for (int i = start; i < end; i++) {
+                    final float value = values[i];
+                    counts.foregroundElements += !(value < cutOff) ? 1 : 0;
+                    counts.thresholdElements += !(value < min) && !(value > max) ? 1 : 0;
+                }
+                return counts;
+            }));
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Counts the elements along the runs of the mask
+     *
+     * @param parallel If true, slabs of the mask along w are counted concurrently
+     */
+    private static <S, T extends Comparable<S>> Counts countInMask(final RandomAccessibleInterval<T> interval,
+                                                                   final Settings<S> settings,
+                                                                   final RunLengthVolume mask,
+                                                                   final boolean parallel) {
+        final RandomAccessibleInterval<T> zeroMinInterval = Views.zeroMin(interval);
+        final int wSize = mask.getWSize();
+        final int slabs = parallel ? Math.max(1, Math.min(wSize, Runtime.getRuntime().availableProcessors())) : 1;
+
+        return chunkStream(slabs, parallel).mapToObj(slab -> {
+            final Counts counts = new Counts();
+            final RandomAccess<T> access = zeroMinInterval.randomAccess();
+            final int wEnd = (int) ((long) (slab + 1) * wSize / slabs);
+            for (int w = (int) ((long) slab * wSize / slabs); w < wEnd; w++) {
+                access.setPosition(w, 2);
+                for (int v = 0; v < mask.getVSize(); v++) {
+                    access.setPosition(v, 1);
+                    for (int run = mask.firstRun(v, w); run < mask.endRun(v, w); run++) {
+                        access.setPosition(mask.runStart(run), 0);
+                        for (int u = mask.runStart(run); u < mask.runEnd(run); u++) {
+                            final T e = access.get();
+                            if (e.compareTo(settings.foregroundCutOff) >= 0) {
+                                counts.foregroundElements++;
+                            }
+                            if (e.compareTo(settings.minThreshold) >= 0 && e.compareTo(settings.maxThreshold) <= 0) {
+                                counts.thresholdElements++;
+                            }
+                            access.fwd(0);
+                        }
+                    }
+                }
+            }
+            return counts;
+        }).reduce(new Counts(), Counts::sum);
+    }
+
+    /**
+     * Counts the elements [0, length) of a primitive array in chunks
+     *
+     * @param parallel If true, the chunks are counted concurrently
+     * @param kernel   Counts the elements [start, end)
+     */
+    private static Counts countChunks(final int length, final boolean parallel, final ChunkKernel kernel) {
+        final int chunks = parallel ? Math.max(1, Math.min(length / MIN_CHUNK_SIZE,
+                Runtime.getRuntime().availableProcessors())) : 1;
 
-        return new Results(thresholdElements, foregroundElements);
+        return chunkStream(chunks, parallel).mapToObj(chunk -> {
+            final int start = (int) ((long) chunk * length / chunks);
+            final int end = (int) ((long) (chunk + 1) * length / chunks);
+            return kernel.count(start, end);
+        }).reduce(new Counts(), Counts::sum);
     }
 
+    private static IntStream chunkStream(final int chunks, final boolean parallel) {
+        final IntStream stream = IntStream.range(0, chunks);
+        return parallel ? stream.parallel() : stream;
+    }
+
+    /**
+     * Counts the elements using the foreground block occupancy, skipping the empty blocks
+     *
+     * @implNote If parallel is true, slabs of block layers along w are counted concurrently
+     */
+    private Results countInBlocks(final RandomAccessibleInterval<T> interval, final Settings<S> settings) {
+        final RandomAccessibleInterval<T> zeroMinInterval = Views.zeroMin(interval);
+        final int layers = foregroundBlocks.getGridSize(2);
+        final int slabs = parallel ? Math.max(1, Math.min(layers, Runtime.getRuntime().availableProcessors())) : 1;
+
+        final long thresholdElements = chunkStream(slabs, parallel).mapToLong(slab -> {
+            long count = 0;
+            final int bwEnd = (int) ((long) (slab + 1) * layers / slabs);
+            for (int bw = (int) ((long) slab * layers / slabs); bw < bwEnd; bw++) {
+                for (long bv = 0; bv < foregroundBlocks.getGridSize(1); bv++) {
+                    for (long bu = 0; bu < foregroundBlocks.getGridSize(0); bu++) {
+                        // Elements within thresholds are foreground, so there are none in empty blocks
+                        if (foregroundBlocks.getState(bu, bv, bw) == BlockOccupancy.State.EMPTY) {
+                            continue;
+                        }
+
+                        for (final T e : Views.interval(zeroMinInterval, foregroundBlocks.getBlock(bu, bv, bw))) {
+                            if (e.compareTo(settings.minThreshold) >= 0 && e.compareTo(settings.maxThreshold) <= 0) {
+                                count++;
+                            }
+                        }
+                    }
+                }
+            }
+            return count;
+        }).sum();
+
+        return new Results(thresholdElements, foregroundBlocks.getForegroundCount());
+    }
+
+    /**
+     * Counts the elements using the run-length encoded foreground, scanning only along the runs
+     *
+     * @implNote If parallel is true, slabs of the runs along w are counted concurrently
+     */
+    private Results countInRuns(final RandomAccessibleInterval<T> interval, final Settings<S> settings) {
+        final RandomAccessibleInterval<T> zeroMinInterval = Views.zeroMin(interval);
+        final int wSize = foregroundRuns.getWSize();
+        final int slabs = parallel ? Math.max(1, Math.min(wSize, Runtime.getRuntime().availableProcessors())) : 1;
+
+        final long thresholdElements = chunkStream(slabs, parallel).mapToLong(slab -> {
+            long count = 0;
+            final RandomAccess<T> access = zeroMinInterval.randomAccess();
+            final int wEnd = (int) ((long) (slab + 1) * wSize / slabs);
+            for (int w = (int) ((long) slab * wSize / slabs); w < wEnd; w++) {
+                access.setPosition(w, 2);
+                for (int v = 0; v < foregroundRuns.getVSize(); v++) {
+                    access.setPosition(v, 1);
+                    for (int run = foregroundRuns.firstRun(v, w); run < foregroundRuns.endRun(v, w); run++) {
+                        access.setPosition(foregroundRuns.runStart(run), 0);
+                        for (int u = foregroundRuns.runStart(run); u < foregroundRuns.runEnd(run); u++) {
+                            final T e = access.get();
+                            if (e.compareTo(settings.minThreshold) >= 0 && e.compareTo(settings.maxThreshold) <= 0) {
+                                count++;
+                            }
+                            access.fwd(0);
+                        }
+                    }
+                }
+            }
+            return count;
+        }).sum();
+
+        return new Results(thresholdElements, foregroundRuns.getForegroundCount());
+    }
+    //endregion
+
     //region -- Helper classes --
 
+    /** Counts the elements [start, end) of a primitive array */
+    @FunctionalInterface
+    private interface ChunkKernel {
+        Counts count(int start, int end);
+    }
+
+    /** Element counts of a chunk of the interval, which can be summed in a parallel reduction */
+    private static final class Counts {
+        private long foregroundElements;
+        private long thresholdElements;
+
+        private static Counts sum(final Counts a, final Counts b) {
+            final Counts sum = new Counts();
+            sum.foregroundElements = a.foregroundElements + b.foregroundElements;
+            sum.thresholdElements = a.thresholdElements + b.thresholdElements;
+            return sum;
+        }
+    }
+
     /**
      * A helper class for passing the input settings of the Op type safely,
      * without having to memorize array indices etc.
@@ -64,7 +436,7 @@ public class ThresholdElementFraction<S, T extends Comparable<S>> extends
         /** Ratio of thresholdElements / foregroundElements */
         public final double elementRatio;
 
-        private Results(final long thresholdElements, final long foregroundElements) {
+        Results(final long thresholdElements, final long foregroundElements) {
             this.thresholdElements = thresholdElements;
             this.foregroundElements = foregroundElements;
             elementRatio = ((double) thresholdElements) / foregroundElements;
@@ -0,0 +1,276 @@
+package org.bonej.ops.thresholdFraction;
+
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.bonej.ops.thresholdFraction.ThresholdElementFraction.Results;
+import org.bonej.ops.thresholdFraction.ThresholdElementFraction.Settings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A cumulative intensity histogram of an image, which answers any number of threshold queries
+ * without scanning the image again, e.g. when tuning the thresholds of {@link ThresholdElementFraction}.
+ *
+ * The histogram is built once, concurrently in slabs along the last dimension if the image is random accessible.
+ * Each query is then answered from the cumulative counts of the bins.
+ *
+ * Integer images have one bin for each value between their minimum and maximum, so their counts are exact.
+ * Real images have a given number of bins of equal width between their minimum and maximum.
+ * Their thresholds are rounded outwards to the edges of the bins, i.e. an element is counted to be >= x,
+ * and <= x if it's in the same bin as x.
+ *
+ * @author Richard Domander
+ * @implNote NaN elements are not in any bin. Like in the compareTo of the real types, and thus
+ *           in {@link ThresholdElementFraction}, they compare equal to every value,
+ *           i.e. they're always foreground and within thresholds.
+ */
+public final class ThresholdHistogram {
+    /** Largest number of bins in an integer histogram, i.e. the largest range of values */
+    public static final int MAX_EXACT_BINS = 1 << 24;
+
+    private final double min;
+    private final double max;
+    private final double binWidth;
+    private final boolean exact;
+    private final long elementCount;
+    /** Number of NaN elements, which are outside the bins */
+    private final long nanCount;
+    /** Number of elements in bins [0, i) at index i */
+    private final long[] cumulativeCounts;
+
+    private ThresholdHistogram(final double min, final double max, final double binWidth, final boolean exact,
+                               final long elementCount, final long nanCount, final long[] counts) {
+        this.min = min;
+        this.max = max;
+        this.binWidth = binWidth;
+        this.exact = exact;
+        this.elementCount = elementCount;
+        this.nanCount = nanCount;
+        cumulativeCounts = new long[counts.length + 1];
+        for (int i = 0; i < counts.length; i++) {
+            cumulativeCounts[i + 1] = cumulativeCounts[i] + counts[i];
+        }
+    }
+
+    /**
+     * Builds an exact histogram of an integer image
+     *
+     * @param parallel If true, and the interval is random accessible, the histogram is built in slabs concurrently
+     * @throws NullPointerException     if interval is null
+     * @throws IllegalArgumentException if the range of values is larger than {@link #MAX_EXACT_BINS}
+     */
+    public static <T extends IntegerType<T>> ThresholdHistogram ofIntegers(final IterableInterval<T> interval,
+                                                                          final boolean parallel)
+            throws NullPointerException, IllegalArgumentException {
+        checkNotNull(interval, "Interval cannot be null");
+
+        final List<IterableInterval<T>> slabs = split(interval, parallel);
+        final long[] range = stream(slabs, parallel).map(slab -> {
+            final long[] slabRange = {Long.MAX_VALUE, Long.MIN_VALUE};
+            for (final T e : slab) {
+                final long value = e.getIntegerLong();
+                slabRange[0] = Math.min(slabRange[0], value);
+                slabRange[1] = Math.max(slabRange[1], value);
+            }
+            return slabRange;
+        }).reduce(new long[]{Long.MAX_VALUE, Long.MIN_VALUE},
+                (a, b) -> new long[]{Math.min(a[0], b[0]), Math.max(a[1], b[1])});
+        if (range[0] > range[1]) {
+            return new ThresholdHistogram(0.0, 0.0, 1.0, true, 0, 0, new long[0]);
+        }
+
+        final long min = range[0];
+        checkArgument(range[1] - min >= 0 && range[1] - min < MAX_EXACT_BINS,
+                "The range of values is too large for an exact histogram");
+        final int bins = (int) (range[1] - min + 1);
+        final long[] counts = stream(slabs, parallel).map(slab -> {
+            final long[] slabCounts = new long[bins];
+            for (final T e : slab) {
+                slabCounts[(int) (e.getIntegerLong() - min)]++;
+            }
+            return slabCounts;
+        }).reduce(new long[bins], ThresholdHistogram::sum);
+
+        return new ThresholdHistogram(min, range[1], 1.0, true, interval.size(), 0, counts);
+    }
+
+    /**
+     * Builds a histogram of a real image
+     *
+     * @param bins     Number of bins of equal width between the minimum and maximum of the image
+     * @param parallel If true, and the interval is random accessible, the histogram is built in slabs concurrently
+     * @throws NullPointerException     if interval is null
+     * @throws IllegalArgumentException if bins < 1
+     */
+    public static <T extends RealType<T>> ThresholdHistogram ofReals(final IterableInterval<T> interval,
+                                                                    final int bins, final boolean parallel)
+            throws NullPointerException, IllegalArgumentException {
+        checkNotNull(interval, "Interval cannot be null");
+        checkArgument(bins >= 1, "There must be at least one bin");
+
+        final List<IterableInterval<T>> slabs = split(interval, parallel);
+        final double[] range = stream(slabs, parallel).map(slab -> {
+            final double[] slabRange = {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+            for (final T e : slab) {
+                final double value = e.getRealDouble();
+                if (value != value) {
+                    continue;
+                }
+                slabRange[0] = Math.min(slabRange[0], value);
+                slabRange[1] = Math.max(slabRange[1], value);
+            }
+            return slabRange;
+        }).reduce(new double[]{Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY},
+                (a, b) -> new double[]{Math.min(a[0], b[0]), Math.max(a[1], b[1])});
+        if (!(range[0] <= range[1])) {
+            // Empty, or all NaN
+            return new ThresholdHistogram(0.0, 0.0, 1.0, false, interval.size(), interval.size(), new long[0]);
+        }
+
+        final double min = range[0];
+        // All elements fall in the first bin if they're equal
+        final double binWidth = range[1] > min ? (range[1] - min) / bins : 1.0;
+        // The NaN elements are counted in an extra slot after the bins
+        final long[] counts = stream(slabs, parallel).map(slab -> {
+            final long[] slabCounts = new long[bins + 1];
+            for (final T e : slab) {
+                final double value = e.getRealDouble();
+                if (value == value) {
+                    slabCounts[Math.min(bins - 1, (int) ((value - min) / binWidth))]++;
+                } else {
+                    slabCounts[bins]++;
+                }
+            }
+            return slabCounts;
+        }).reduce(new long[bins + 1], ThresholdHistogram::sum);
+
+        return new ThresholdHistogram(min, range[1], binWidth, false, interval.size(), counts[bins],
+                Arrays.copyOf(counts, bins));
+    }
+
+    /** Returns the number of elements in the image the histogram was built from, including NaNs */
+    public long getElementCount() {
+        return elementCount;
+    }
+
+    /** Returns the number of bins */
+    public int getBinCount() {
+        return cumulativeCounts.length - 1;
+    }
+
+    /** Returns true if each bin is a single integer value, i.e. the counts are exact */
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * Counts the foreground elements and the elements within thresholds
+     * <p>
+     * NaN elements are always counted as foreground and within thresholds, see {@link ThresholdHistogram}.
+     * </p>
+     *
+     * @param foregroundCutOff Elements whose values >= foregroundCutOff are foreground
+     * @param minThreshold     Minimum value for elements within threshold
+     * @param maxThreshold     Maximum value for elements within threshold
+     */
+    public Results query(final double foregroundCutOff, final double minThreshold, final double maxThreshold) {
+        final long foregroundElements = countAtLeast(foregroundCutOff) + nanCount;
+        final long thresholdElements = Math.max(0, countAtLeast(minThreshold) - countAbove(maxThreshold)) + nanCount;
+        return new Results(thresholdElements, foregroundElements);
+    }
+
+    /**
+     * Counts the foreground elements and the elements within thresholds
+     *
+     * @throws NullPointerException if settings is null
+     * @see #query(double, double, double)
+     */
+    public <S extends RealType<S>> Results query(final Settings<S> settings) throws NullPointerException {
+        checkNotNull(settings, "Settings cannot be null");
+        return query(settings.foregroundCutOff.getRealDouble(), settings.minThreshold.getRealDouble(),
+                settings.maxThreshold.getRealDouble());
+    }
+
+    //region -- Helper methods --
+
+    /** Counts the elements >= x, or the elements in the bin of x and above */
+    private long countAtLeast(final double x) {
+        return elementsFrom(exact ? Math.ceil(x - min) : binOf(x));
+    }
+
+    /** Counts the elements > x, or the elements in the bins above the bin of x */
+    private long countAbove(final double x) {
+        return elementsFrom(binOf(x) + 1);
+    }
+
+    /**
+     * Returns the bin of x, which may be out of range
+     *
+     * @implNote The maximum is in the last bin, like when the histogram is built
+     */
+    private double binOf(final double x) {
+        final double bin = Math.floor((x - min) / binWidth);
+        return x <= max ? Math.min(bin, getBinCount() - 1) : bin;
+    }
+
+    /** Counts the elements in the bins from the given bin onwards, which may be out of range */
+    private long elementsFrom(final double bin) {
+        final int bins = getBinCount();
+        if (bin != bin || bin >= bins) {
+            return 0;
+        }
+        if (bin <= 0) {
+            return cumulativeCounts[bins];
+        }
+        return cumulativeCounts[bins] - cumulativeCounts[(int) bin];
+    }
+
+    /** Splits the interval into slabs along its last dimension, if it's random accessible */
+    @SuppressWarnings("unchecked")
+    private static <T> List<IterableInterval<T>> split(final IterableInterval<T> interval, final boolean parallel) {
+        final List<IterableInterval<T>> slabs = new ArrayList<>();
+        if (!parallel || !(interval instanceof RandomAccessibleInterval) || interval.numDimensions() == 0 ||
+                interval.size() == 0) {
+            slabs.add(interval);
+            return slabs;
+        }
+
+        final RandomAccessibleInterval<T> rai = (RandomAccessibleInterval<T>) interval;
+        final int lastDimension = rai.numDimensions() - 1;
+        final long size = rai.dimension(lastDimension);
+        final int slabCount = (int) Math.max(1, Math.min(size, Runtime.getRuntime().availableProcessors()));
+        final long[] min = Intervals.minAsLongArray(rai);
+        final long[] max = Intervals.maxAsLongArray(rai);
+        for (int slab = 0; slab < slabCount; slab++) {
+            final long[] slabMin = min.clone();
+            final long[] slabMax = max.clone();
+            slabMin[lastDimension] = min[lastDimension] + slab * size / slabCount;
+            slabMax[lastDimension] = min[lastDimension] + (slab + 1) * size / slabCount - 1;
+            slabs.add(Views.interval(rai, slabMin, slabMax));
+        }
+        return slabs;
+    }
+
+    private static <T> Stream<T> stream(final List<T> slabs, final boolean parallel) {
+        return parallel ? slabs.parallelStream() : slabs.stream();
+    }
+
+    private static long[] sum(final long[] a, final long[] b) {
+        final long[] sum = new long[a.length];
+        for (int i = 0; i < a.length; i++) {
+            sum[i] = a[i] + b[i];
+        }
+        return sum;
+    }
+    //endregion
+}
@@ -6,19 +6,39 @@ import net.imagej.ops.Op;
 import net.imagej.ops.geom.geom3d.mesh.Mesh;
 import net.imagej.ops.special.function.AbstractBinaryFunctionOp;
 import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
 import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
 import net.imglib2.img.Img;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.bonej.ops.binary.BlockOccupancy;
+import org.bonej.ops.binary.RunLengthVolume;
+import org.bonej.ops.connectivity.MinkowskiFunctionals;
+import org.bonej.ops.geom.IndexedTriangleMesh;
+import org.bonej.ops.geom.MarchingCubesTable;
+import org.bonej.ops.geom.ParallelMarchingCubes;
 import org.bonej.ops.testImageGenerators.CuboidCreator;
+import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 /**
  * An Op which calculates the volumes thresholded and foreground elements in the interval.
- * The volumes are determined from meshes created with the marching cubes algorithm.
+ * The volumes are determined from meshes created with the marching cubes algorithm, see
+ * {@link ParallelMarchingCubes}. Its triangulation always connects the foreground across the faces of the cubes
+ * where the foreground corners are diagonal, unlike ops().geom().marchingCubes(), which was used before.
+ * Thus the volumes and their ratio can differ slightly from earlier results on images with such faces.
+ * The volumes can be limited to an irregular ROI with a run-length encoded mask.
+ * If only the volumes are needed, they can be calculated without creating the meshes.
  *
  * @author Richard Domander
  */
@@ -26,6 +46,39 @@ import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 public class ThresholdVolumeFraction<T extends NativeType<T> & RealType<T>> extends
         AbstractBinaryFunctionOp<IterableInterval<T>, ThresholdVolumeFraction.Settings, ThresholdVolumeFraction.Results>
         implements Contingent {
+    /**
+     * Optional block occupancy of the foreground, i.e. elements >= foregroundCutOff.
+     * If given, the masks are filled only in blocks that aren't empty, and full blocks are set to foreground
+     * without comparing their elements. Requires that the interval is random accessible.
+     */
+    @Parameter(required = false)
+    private BlockOccupancy foregroundBlocks = null;
+
+    /**
+     * Optional run-length encoded mask, e.g. an irregular ROI. If given, only the elements along the runs of the mask
+     * are thresholded into the meshes, and the masks and meshes cover only the bounding box of the mask.
+     * Requires that the interval is random accessible. The mask takes precedence over foregroundBlocks.
+     */
+    @Parameter(required = false)
+    private RunLengthVolume mask = null;
+
+    /**
+     * If true, and neither mask nor foregroundBlocks were given, marching cubes reads the interval through
+     * lazily thresholded views, instead of two masks that are allocated and filled first.
+     * The views compare each element every time it's read, but save two image sized allocations and a pass.
+     */
+    @Parameter(required = false)
+    private boolean lazyMasks = false;
+
+    /**
+     * If true, only the volumes are calculated, and no meshes are created. The volumes are summed from the volumes
+     * of the marching cubes configurations in the triangulation of {@link MarchingCubesTable}, so they're the same
+     * as those of the meshes to floating-point tolerance. Unless mask or foregroundBlocks were given, the interval is read through
+     * lazily thresholded views, so no memory is needed beyond the input.
+     */
+    @Parameter(required = false)
+    private boolean volumeOnly = false;
+
     //region -- Utility methods --
     public static void main(String... args) {
         final ImageJ ij = new ImageJ();
@@ -41,17 +94,12 @@ public class ThresholdVolumeFraction<T extends NativeType<T> & RealType<T>> exte
     }
 
     /**
-     * @throws NotImplementedException if interval is a Dataset
+     * @throws NotImplementedException  if interval is a Dataset
+     * @throws IllegalArgumentException if foregroundBlocks or mask were given for an interval of a different size,
+     *                                  or if either was given, and the interval isn't random accessible
      */
     @Override
     public Results compute2(final IterableInterval<T> interval, final Settings settings) {
-        final Img<BitType> thresholdMask = ops().create().img(interval, new BitType());
-        final Img<BitType> foregroundMask = ops().create().img(interval, new BitType());
-        final long[] location = new long[interval.numDimensions()];
-        final Cursor<T> cursor = interval.localizingCursor();
-        final RandomAccess<BitType> foregroundAccess = foregroundMask.randomAccess();
-        final RandomAccess<BitType> thresholdAccess = thresholdMask.randomAccess();
-
         // Create elements of type T from settings that can be compared to type T in interval
         final T cutoff = interval.firstElement().createVariable();
         cutoff.setReal(settings.foregroundCutOff);
@@ -59,11 +107,140 @@ public class ThresholdVolumeFraction<T extends NativeType<T> & RealType<T>> exte
         minThreshold.setReal(settings.minThreshold);
         final T maxThreshold = interval.firstElement().createVariable();
         maxThreshold.setReal(settings.maxThreshold);
+        checkArgument(foregroundBlocks == null || interval instanceof RandomAccessibleInterval,
+                "Block occupancy requires a random accessible interval");
+
+        if ((lazyMasks || volumeOnly) && mask == null && foregroundBlocks == null && interval instanceof RandomAccessibleInterval) {
+            final RandomAccessibleInterval<T> zeroMinInterval = Views.zeroMin((RandomAccessibleInterval<T>) interval);
+            final RandomAccessibleInterval<BitType> foregroundView = Converters.convert(zeroMinInterval,
+                    (element, bit) -> bit.set(element.compareTo(cutoff) >= 0), new BitType());
+            final RandomAccessibleInterval<BitType> thresholdView = Converters.convert(zeroMinInterval,
+                    (element, bit) -> bit.set(element.compareTo(cutoff) >= 0 &&
+                            element.compareTo(minThreshold) >= 0 && element.compareTo(maxThreshold) <= 0),
+                    new BitType());
+            return createResults(thresholdView, foregroundView);
+        }
+
+        if (mask != null) {
+            checkArgument(interval instanceof RandomAccessibleInterval, "Mask requires a random accessible interval");
+            checkArgument(mask.matches(interval), "Mask doesn't match the interval");
+            // Padded by one element, so that the masks have background around the foreground like in the full image
+            final Interval box = mask.getBoundingBox().map(b -> Intervals.intersect(Intervals.expand(b, 1),
+                    Views.zeroMin((RandomAccessibleInterval<T>) interval))).orElse(new FinalInterval(1, 1, 1));
+            final long[] boxMin = Intervals.minAsLongArray(box);
+            final RandomAccessibleInterval<BitType> thresholdMask = Views.translate(
+                    ops().create().img(box, new BitType()), boxMin);
+            final RandomAccessibleInterval<BitType> foregroundMask = Views.translate(
+                    ops().create().img(box, new BitType()), boxMin);
+            fillMasksInRuns((RandomAccessibleInterval<T>) interval, cutoff, minThreshold, maxThreshold,
+                    foregroundMask, thresholdMask);
+            return createResults(thresholdMask, foregroundMask);
+        }
+
+        final Img<BitType> thresholdMask = ops().create().img(interval, new BitType());
+        final Img<BitType> foregroundMask = ops().create().img(interval, new BitType());
+        if (foregroundBlocks != null) {
+            checkArgument(foregroundBlocks.matches(interval), "Block occupancy doesn't match the interval");
+            final RandomAccessibleInterval<T> zeroMinInterval = Views.zeroMin((RandomAccessibleInterval<T>) interval);
+            for (long bw = 0; bw < foregroundBlocks.getGridSize(2); bw++) {
+                for (long bv = 0; bv < foregroundBlocks.getGridSize(1); bv++) {
+                    for (long bu = 0; bu < foregroundBlocks.getGridSize(0); bu++) {
+                        final BlockOccupancy.State state = foregroundBlocks.getState(bu, bv, bw);
+                        if (state == BlockOccupancy.State.EMPTY) {
+                            continue;
+                        }
+
+                        fillAlignedMasks(zeroMinInterval, foregroundBlocks.getBlock(bu, bv, bw),
+                                state == BlockOccupancy.State.FULL ? null : cutoff, minThreshold, maxThreshold,
+                                foregroundMask, thresholdMask);
+                    }
+                }
+            }
+        } else if (interval instanceof RandomAccessibleInterval) {
+            final RandomAccessibleInterval<T> zeroMinInterval = Views.zeroMin((RandomAccessibleInterval<T>) interval);
+            fillAlignedMasks(zeroMinInterval, zeroMinInterval, cutoff, minThreshold, maxThreshold, foregroundMask,
+                    thresholdMask);
+        } else {
+            fillMasks(interval, cutoff, minThreshold, maxThreshold, foregroundMask, thresholdMask);
+        }
+
+        return createResults(thresholdMask, foregroundMask);
+    }
+
+    @Override
+    public boolean conforms() {
+        return in1().numDimensions() == 3;
+    }
+    //endregion
+
+    //region -- Helper methods --
+
+    private Results createResults(final RandomAccessibleInterval<BitType> thresholdMask,
+                                  final RandomAccessibleInterval<BitType> foregroundMask) {
+        if (volumeOnly) {
+            final double thresholdVolume = MarchingCubesTable.enclosedVolume(
+                    MinkowskiFunctionals.countConfigurations(Views.zeroMin(thresholdMask), true));
+            final double foregroundVolume = MarchingCubesTable.enclosedVolume(
+                    MinkowskiFunctionals.countConfigurations(Views.zeroMin(foregroundMask), true));
+            return new Results(null, null, thresholdVolume, foregroundVolume);
+        }
+
+        final IndexedTriangleMesh thresholdMesh = ParallelMarchingCubes.indexedMesh(thresholdMask, true);
+        final double thresholdVolume = thresholdMesh.volume();
+        final IndexedTriangleMesh foregroundMesh = ParallelMarchingCubes.indexedMesh(foregroundMask, true);
+        final double foregroundVolume = foregroundMesh.volume();
+
+        return new Results(thresholdMesh, foregroundMesh, thresholdVolume, foregroundVolume);
+    }
+
+    /**
+     * Sets the foreground elements, and the elements within thresholds, of the region in the masks
+     *
+     * @param interval A zero-min interval of the same size as the masks
+     * @param region   The region of the interval to threshold
+     * @param cutoff   Elements >= cutoff are foreground, or null if all the elements are foreground
+     * @implNote The interval and the masks are iterated with cursors in the same flat order,
+     *           so that no element needs to be localized
+     */
+    private void fillAlignedMasks(final RandomAccessibleInterval<T> interval, final Interval region, final T cutoff,
+                                  final T minThreshold, final T maxThreshold, final Img<BitType> foregroundMask,
+                                  final Img<BitType> thresholdMask) {
+        final Cursor<T> cursor = Views.flatIterable(Views.interval(interval, region)).cursor();
+        final Cursor<BitType> foregroundCursor = Views.flatIterable(Views.interval(foregroundMask, region)).cursor();
+        final Cursor<BitType> thresholdCursor = Views.flatIterable(Views.interval(thresholdMask, region)).cursor();
+
+        while (cursor.hasNext()) {
+            final T element = cursor.next();
+            final BitType foreground = foregroundCursor.next();
+            final BitType threshold = thresholdCursor.next();
+            if (cutoff != null && element.compareTo(cutoff) < 0) {
+                continue;
+            }
+
+            foreground.setOne();
+            if (element.compareTo(minThreshold) >= 0 && element.compareTo(maxThreshold) <= 0) {
+                threshold.setOne();
+            }
+        }
+    }
+
+    /**
+     * Sets the foreground elements, and the elements within thresholds, of the interval in the masks
+     *
+     * @param cutoff Elements >= cutoff are foreground, or null if all the elements are foreground
+     * @implNote Localizes each element, because the iteration order of the interval may differ from the masks
+     */
+    private void fillMasks(final IterableInterval<T> interval, final T cutoff, final T minThreshold,
+                           final T maxThreshold, final Img<BitType> foregroundMask, final Img<BitType> thresholdMask) {
+        final long[] location = new long[interval.numDimensions()];
+        final Cursor<T> cursor = interval.localizingCursor();
+        final RandomAccess<BitType> foregroundAccess = foregroundMask.randomAccess();
+        final RandomAccess<BitType> thresholdAccess = thresholdMask.randomAccess();
 
         while (cursor.hasNext()) {
             cursor.fwd();
             T element = cursor.get();
-            if (element.compareTo(cutoff) < 0) {
+            if (cutoff != null && element.compareTo(cutoff) < 0) {
                 continue;
             }
 
@@ -76,18 +253,42 @@ public class ThresholdVolumeFraction<T extends NativeType<T> & RealType<T>> exte
                 thresholdAccess.get().setOne();
             }
         }
-
-        final Mesh thresholdMesh = ops().geom().marchingCubes(thresholdMask);
-        final double thresholdVolume = ops().geom().size(thresholdMesh).get();
-        final Mesh foregroundMesh = ops().geom().marchingCubes(foregroundMask);
-        final double foregroundVolume = ops().geom().size(foregroundMesh).get();
-
-        return new Results(thresholdMesh, foregroundMesh, thresholdVolume, foregroundVolume);
     }
 
-    @Override
-    public boolean conforms() {
-        return in1().numDimensions() == 3;
+    /**
+     * Sets the foreground elements, and the elements within thresholds, along the runs of the mask
+     *
+     * @implNote Only the elements in the runs are visited, so the cost scales with the size of the mask
+     */
+    private void fillMasksInRuns(final RandomAccessibleInterval<T> interval, final T cutoff, final T minThreshold,
+                                 final T maxThreshold, final RandomAccessibleInterval<BitType> foregroundMask,
+                                 final RandomAccessibleInterval<BitType> thresholdMask) {
+        final RandomAccess<T> access = Views.zeroMin(interval).randomAccess();
+        final RandomAccess<BitType> foregroundAccess = foregroundMask.randomAccess();
+        final RandomAccess<BitType> thresholdAccess = thresholdMask.randomAccess();
+
+        for (int w = 0; w < mask.getWSize(); w++) {
+            for (int v = 0; v < mask.getVSize(); v++) {
+                for (int run = mask.firstRun(v, w); run < mask.endRun(v, w); run++) {
+                    final long[] start = {mask.runStart(run), v, w};
+                    access.setPosition(start);
+                    foregroundAccess.setPosition(start);
+                    thresholdAccess.setPosition(start);
+                    for (int u = mask.runStart(run); u < mask.runEnd(run); u++) {
+                        final T element = access.get();
+                        if (element.compareTo(cutoff) >= 0) {
+                            foregroundAccess.get().setOne();
+                            if (element.compareTo(minThreshold) >= 0 && element.compareTo(maxThreshold) <= 0) {
+                                thresholdAccess.get().setOne();
+                            }
+                        }
+                        access.fwd(0);
+                        foregroundAccess.fwd(0);
+                        thresholdAccess.fwd(0);
+                    }
+                }
+            }
+        }
     }
     //endregion
 
@@ -109,25 +310,44 @@ public class ThresholdVolumeFraction<T extends NativeType<T> & RealType<T>> exte
         }
     }
 
-    /** A helper class to pass outputs type safely */
+    /**
+     * A helper class to pass outputs type safely
+     * <p>
+     * The meshes are compact {@link IndexedTriangleMesh}es instead of {@link Mesh}es.
+     * Call {@link #toThresholdMesh()} or {@link #toForegroundMesh()} where a {@link Mesh} is needed.
+     * </p>
+     */
     public static final class Results {
-        /** A mesh created from the elements within the thresholds */
-        public final Mesh thresholdMesh;
-        /** A mesh created from the foreground elements */
-        public final Mesh foregroundMesh;
+        /**
+         * A mesh created from the elements within the thresholds with {@link ParallelMarchingCubes},
+         * or null in volume only mode
+         */
+        public final IndexedTriangleMesh thresholdMesh;
+        /** A mesh created from the foreground elements, or null in volume only mode */
+        public final IndexedTriangleMesh foregroundMesh;
         public final double thresholdMeshVolume;
         public final double foregroundMeshVolume;
         /** Ratio of threshold & foreground mesh volumes */
         public final double volumeRatio;
 
-        public Results(final Mesh thresholdMesh, final Mesh foregroundMesh, final double thresholdMeshVolume,
-                       final double foregroundMeshVolume) {
+        public Results(final IndexedTriangleMesh thresholdMesh, final IndexedTriangleMesh foregroundMesh,
+                       final double thresholdMeshVolume, final double foregroundMeshVolume) {
             this.thresholdMesh = thresholdMesh;
             this.foregroundMesh = foregroundMesh;
             this.thresholdMeshVolume = thresholdMeshVolume;
             this.foregroundMeshVolume = foregroundMeshVolume;
             volumeRatio = thresholdMeshVolume / foregroundMeshVolume;
         }
+
+        /** Creates a {@link Mesh} of the elements within the thresholds, or returns null in volume only mode */
+        public Mesh toThresholdMesh() {
+            return thresholdMesh == null ? null : thresholdMesh.toMesh();
+        }
+
+        /** Creates a {@link Mesh} of the foreground elements, or returns null in volume only mode */
+        public Mesh toForegroundMesh() {
+            return foregroundMesh == null ? null : foregroundMesh.toMesh();
+        }
     }
     //endregion
 }
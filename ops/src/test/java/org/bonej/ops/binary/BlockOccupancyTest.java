@@ -0,0 +1,78 @@
+package org.bonej.ops.binary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.logic.BitType;
+
+import org.bonej.ops.binary.BlockOccupancy.State;
+import org.junit.Test;
+
+/**
+ * Unit tests for the BlockOccupancy class
+ *
+ * @author Richard Domander
+ */
+public class BlockOccupancyTest {
+	@Test(expected = IllegalArgumentException.class)
+	public void testOfThrowsIllegalArgumentExceptionIf2D() {
+		BlockOccupancy.of(ArrayImgs.bits(4, 4));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOfThrowsIllegalArgumentExceptionIfBlockSizeNonPositive() {
+		BlockOccupancy.of(ArrayImgs.bits(4, 4, 4), BitType::get, 0);
+	}
+
+	@Test
+	public void testStates() {
+		// Foreground where u < 4, so with blocks of 3 the first block column is full, and the second mixed
+		final Img<BitType> img = ArrayImgs.bits(8, 3, 3);
+		final Cursor<BitType> cursor = img.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get().set(cursor.getLongPosition(0) < 4);
+		}
+
+		final BlockOccupancy blocks = BlockOccupancy.of(img, BitType::get, 3);
+
+		assertEquals(3, blocks.getGridSize(0));
+		assertEquals(1, blocks.getGridSize(1));
+		assertEquals(State.FULL, blocks.getState(0, 0, 0));
+		assertEquals(State.MIXED, blocks.getState(1, 0, 0));
+		assertEquals(State.EMPTY, blocks.getState(2, 0, 0));
+		assertEquals(State.EMPTY, blocks.getState(-1, 0, 0));
+		assertEquals(9, blocks.getForegroundCount(1, 0, 0));
+		assertEquals(36, blocks.getForegroundCount());
+	}
+
+	@Test
+	public void testIsUniformNeighborhood() {
+		final Img<BitType> img = ArrayImgs.bits(6, 6, 6);
+		final Cursor<BitType> cursor = img.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get().set(cursor.getLongPosition(0) >= 3);
+		}
+
+		final BlockOccupancy blocks = BlockOccupancy.of(img, BitType::get, 3);
+
+		// The empty blocks at u = 0 have empty blocks, or the outside, before them
+		assertTrue(blocks.isUniformNeighborhood(0, 1, 1));
+		// The full blocks have the empty blocks before them on the u-axis
+		assertFalse(blocks.isUniformNeighborhood(1, 1, 1));
+	}
+
+	@Test
+	public void testGetBlockIsClippedToImage() {
+		final BlockOccupancy blocks = BlockOccupancy.of(ArrayImgs.bits(5, 5, 5), BitType::get, 3);
+
+		assertEquals(3, blocks.getBlock(1, 0, 0).min(0));
+		assertEquals(4, blocks.getBlock(1, 0, 0).max(0));
+		assertEquals(State.EMPTY, blocks.getState(1, 1, 1));
+	}
+}
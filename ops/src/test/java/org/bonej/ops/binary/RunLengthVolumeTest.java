@@ -0,0 +1,102 @@
+package org.bonej.ops.binary;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.util.Intervals;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the RunLengthVolume class
+ *
+ * @author Richard Domander
+ */
+public class RunLengthVolumeTest {
+	@Test(expected = IllegalArgumentException.class)
+	public void testAddRunThrowsIllegalArgumentExceptionIfRowsOutOfOrder() {
+		new RunLengthVolume.Builder(5, 2, 2).addRun(1, 1, 0, 2).addRun(0, 1, 0, 2);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testAddRunThrowsIllegalArgumentExceptionIfRunOutsideVolume() {
+		new RunLengthVolume.Builder(5, 2, 2).addRun(0, 0, 3, 6);
+	}
+
+	@Test
+	public void testAddRunMergesTouchingRuns() {
+		final RunLengthVolume volume = new RunLengthVolume.Builder(10, 1, 1).addRun(0, 0, 1, 3).addRun(0, 0, 3, 5)
+				.addRun(0, 0, 7, 8).build();
+
+		assertEquals(2, volume.getRunCount());
+		assertEquals(1, volume.runStart(0));
+		assertEquals(5, volume.runEnd(0));
+		assertEquals(5, volume.getForegroundCount());
+	}
+
+	@Test
+	public void testOfMatchesImage() {
+		final Img<BitType> img = ArrayImgs.bits(70, 5, 4);
+		final Random random = new Random(0x12E);
+		final Cursor<BitType> cursor = img.cursor();
+		long foreground = 0;
+		while (cursor.hasNext()) {
+			final boolean value = random.nextInt(5) == 0;
+			cursor.next().set(value);
+			foreground += value ? 1 : 0;
+		}
+
+		final RunLengthVolume volume = RunLengthVolume.of(img);
+
+		assertEquals(foreground, volume.getForegroundCount());
+		final Cursor<BitType> imgCursor = img.localizingCursor();
+		final Cursor<BitType> decodedCursor = volume.toImg().cursor();
+		while (imgCursor.hasNext()) {
+			imgCursor.fwd();
+			final boolean expected = imgCursor.get().get();
+			assertEquals(expected, volume.get(imgCursor.getLongPosition(0), imgCursor.getLongPosition(1),
+					imgCursor.getLongPosition(2)));
+			assertEquals(expected, decodedCursor.next().get());
+		}
+	}
+
+	@Test
+	public void testOfThreshold() {
+		final Img<UnsignedByteType> img = ArrayImgs.unsignedBytes(10, 2, 2);
+		final Cursor<UnsignedByteType> cursor = img.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get().set((int) cursor.getLongPosition(0));
+		}
+
+		final RunLengthVolume volume = RunLengthVolume.ofThreshold(img, 3, 6);
+
+		assertEquals(4 * 2 * 2, volume.getForegroundCount());
+		assertEquals(1, volume.endRun(1, 1) - volume.firstRun(1, 1));
+		assertTrue(volume.get(3, 1, 1));
+		assertFalse(volume.get(7, 1, 1));
+		assertFalse(volume.get(-1, 0, 0));
+	}
+
+	@Test
+	public void testGetBoundingBox() {
+		final RunLengthVolume volume = new RunLengthVolume.Builder(10, 5, 6).addRun(3, 1, 4, 6).addRun(1, 4, 2, 3)
+				.addRun(1, 4, 7, 9).build();
+
+		final Interval box = volume.getBoundingBox().get();
+
+		assertArrayEquals(new long[] { 2, 1, 1 }, Intervals.minAsLongArray(box));
+		assertArrayEquals(new long[] { 8, 3, 4 }, Intervals.maxAsLongArray(box));
+		assertFalse(new RunLengthVolume.Builder(10, 5, 6).build().getBoundingBox().isPresent());
+	}
+}
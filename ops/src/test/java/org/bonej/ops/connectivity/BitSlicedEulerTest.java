@@ -0,0 +1,76 @@
+package org.bonej.ops.connectivity;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the BitSlicedEuler class
+ *
+ * @author Richard Domander
+ */
+public class BitSlicedEulerTest {
+	@Test(expected = IllegalArgumentException.class)
+	public void testSumDeltaEulerThrowsIllegalArgumentExceptionIfSizesDiffer() {
+		BitSlicedEuler.sumDeltaEuler(new BitPlane(2, 2), new BitPlane(2, 3));
+	}
+
+	/** A single element is in four octants of the plane pair, and adds 1 to each */
+	@Test
+	public void testSumDeltaEulerSingleElement() {
+		final BitPlane back = new BitPlane(3, 3);
+		final BitPlane front = new BitPlane(3, 3);
+		front.set(1, 1, true);
+
+		assertEquals(4, BitSlicedEuler.sumDeltaEuler(back, front));
+	}
+
+	/** Test with widths around the word boundaries that the sums match the octants read one by one */
+	@Test
+	public void testSumDeltaEulerMatchesOctants() {
+		final Random random = new Random(0xB175);
+
+		for (final int uSize : new int[]{0, 1, 2, 63, 64, 65, 127, 128, 200}) {
+			for (int i = 0; i < 10; i++) {
+				final double density = random.nextDouble();
+				final BitPlane back = randomPlane(uSize, 4, density, random);
+				final BitPlane front = randomPlane(uSize, 4, density, random);
+
+				assertEquals("Wrong sum with uSize " + uSize, sumOctants(back, front),
+						BitSlicedEuler.sumDeltaEuler(back, front));
+			}
+		}
+	}
+
+	/** Sums the Euler deltas of the octants whose last element is in the front plane one octant at a time */
+	private static int sumOctants(final BitPlane back, final BitPlane front) {
+		int sum = 0;
+		for (int v = 0; v < back.vSize; v++) {
+			for (int u = 0; u < back.uSize; u++) {
+				int pattern = 0;
+				for (int n = 0; n < 8; n++) {
+					// See the bit order of Octant#getNeighborhoodPattern()
+					final BitPlane plane = ((n >> 2) & 1) == 0 ? back : front;
+					if (plane.get(u - 1 + ((n >> 1) & 1), v - 1 + (n & 1))) {
+						pattern |= 1 << n;
+					}
+				}
+				sum += Connectivity.getDeltaEuler(pattern);
+			}
+		}
+		return sum;
+	}
+
+	private static BitPlane randomPlane(final int uSize, final int vSize, final double density,
+			final Random random) {
+		final BitPlane plane = new BitPlane(uSize, vSize);
+		for (int v = 0; v < vSize; v++) {
+			for (int u = 0; u < uSize; u++) {
+				plane.set(u, v, random.nextDouble() < density);
+			}
+		}
+		return plane;
+	}
+}
@@ -0,0 +1,68 @@
+package org.bonej.ops.connectivity;
+
+import static org.junit.Assert.assertEquals;
+
+import net.imagej.ImageJ;
+import net.imagej.ops.Ops;
+import net.imagej.ops.special.function.BinaryFunctionOp;
+import net.imagej.ops.special.function.Functions;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.type.logic.BitType;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Regression tests for the BorderCounts class
+ *
+ * @author Richard Domander
+ * @implNote Expected values were produced with the legacy edge correction code, which counted each term in its own
+ *           pass over the borders
+ */
+public class BorderCountsTest {
+	private static final ImageJ IMAGE_J = new ImageJ();
+	private static final double ERROR_MARGIN = 1E-12;
+	private static BinaryFunctionOp<Dimensions, BitType, Img<BitType>> imgCreator;
+
+	@BeforeClass
+	public static void oneTimeSetUp() {
+		imgCreator = (BinaryFunctionOp) Functions.binary(IMAGE_J.op(), Ops.Create.Img.class, Img.class,
+				Dimensions.class, new BitType());
+	}
+
+	@AfterClass
+	public static void oneTimeTearDown() {
+		IMAGE_J.context().dispose();
+	}
+
+	@Test
+	public void regressionTestFullCube() {
+		final Img<BitType> img = imgCreator.compute1(new FinalDimensions(3, 3, 3));
+		img.forEach(BitType::setOne);
+
+		assertEquals(-8.0, BorderCounts.count(img, false).edgeCorrection(), ERROR_MARGIN);
+		assertEquals(-8.0, BorderCounts.count(img, true).edgeCorrection(), ERROR_MARGIN);
+	}
+
+	@Test
+	public void regressionTestCornerElement() {
+		final Img<BitType> img = imgCreator.compute1(new FinalDimensions(4, 3, 2));
+		img.randomAccess().get().setOne();
+
+		assertEquals(1.375, BorderCounts.count(img, true).edgeCorrection(), ERROR_MARGIN);
+	}
+
+	@Test
+	public void regressionTestFaceElement() {
+		final Img<BitType> img = imgCreator.compute1(new FinalDimensions(4, 3, 2));
+		final RandomAccess<BitType> access = img.randomAccess();
+		access.setPosition(new long[]{1, 1, 1});
+		access.get().setOne();
+
+		assertEquals(0.5, BorderCounts.count(img, true).edgeCorrection(), ERROR_MARGIN);
+	}
+}
@@ -0,0 +1,177 @@
+package org.bonej.ops.connectivity;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+import net.imagej.ImageJ;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for the ConnectivityShard class
+ *
+ * @author Richard Domander
+ */
+public class ConnectivityShardTest {
+	private static final ImageJ IMAGE_J = new ImageJ();
+	private static final double ERROR_MARGIN = 1E-12;
+	private static final int[] SHARD_STARTS = {0, 4, 9, 13};
+	private static ImageStack stack;
+	private static Connectivity.Characteristics expected;
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void oneTimeSetUp() {
+		final int uSize = 70;
+		final int vSize = 6;
+		final Random random = new Random(0xB0E);
+		stack = new ImageStack(uSize, vSize);
+		for (int w = 0; w < SHARD_STARTS[SHARD_STARTS.length - 1]; w++) {
+			final byte[] pixels = new byte[uSize * vSize];
+			for (int i = 0; i < pixels.length; i++) {
+				pixels[i] = (byte) (random.nextInt(3) == 0 ? 0xFF : 0x00);
+			}
+			stack.addSlice(new ByteProcessor(uSize, vSize, pixels));
+		}
+		expected = (Connectivity.Characteristics) IMAGE_J.op().run(StreamingConnectivity.class,
+				new ImageStackSliceSource(stack, null), false);
+	}
+
+	@AfterClass
+	public static void oneTimeTearDown() {
+		IMAGE_J.context().dispose();
+	}
+
+	@Test
+	public void testMergeMatchesSingleSweep() {
+		final BitSliceSource source = new ImageStackSliceSource(stack, null);
+		final List<ConnectivityShard> shards = new ArrayList<>();
+		for (int i = 0; i < SHARD_STARTS.length - 1; i++) {
+			shards.add(ConnectivityShard.compute(source, SHARD_STARTS[i], SHARD_STARTS[i + 1]));
+		}
+		// Shards can be merged in any order
+		Collections.reverse(shards);
+
+		assertSameCharacteristics(ConnectivityShard.merge(shards));
+	}
+
+	@Test
+	public void testWriteAndRead() throws IOException {
+		final BitSliceSource source = new ImageStackSliceSource(stack, null);
+		final List<ConnectivityShard> shards = new ArrayList<>();
+		for (int i = 0; i < SHARD_STARTS.length - 1; i++) {
+			final Path file = temporaryFolder.newFile("shard" + i + ".txt").toPath();
+			ConnectivityShard.compute(source, SHARD_STARTS[i], SHARD_STARTS[i + 1]).write(file);
+			shards.add(ConnectivityShard.read(file));
+		}
+
+		assertEquals(SHARD_STARTS[1], shards.get(1).getWStart());
+		assertEquals(SHARD_STARTS[2], shards.get(1).getWEnd());
+		assertSameCharacteristics(ConnectivityShard.merge(shards));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMergeThrowsIllegalArgumentExceptionIfSlicesMissing() {
+		final BitSliceSource source = new ImageStackSliceSource(stack, null);
+
+		ConnectivityShard.merge(Arrays.asList(ConnectivityShard.compute(source, 0, 4),
+				ConnectivityShard.compute(source, 9, 13)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMergeThrowsIllegalArgumentExceptionIfShardsOverlap() {
+		final BitSliceSource source = new ImageStackSliceSource(stack, null);
+
+		ConnectivityShard.merge(Arrays.asList(ConnectivityShard.compute(source, 0, 9),
+				ConnectivityShard.compute(source, 4, 13)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testComputeThrowsIllegalArgumentExceptionIfRangeOutsideImage() {
+		ConnectivityShard.compute(new ImageStackSliceSource(stack, null), 4, 14);
+	}
+
+	/** Test that the far faces can't be counted twice by an empty shard at the end of the image */
+	@Test(expected = IllegalArgumentException.class)
+	public void testComputeThrowsIllegalArgumentExceptionIfRangeEmpty() {
+		ConnectivityShard.compute(new ImageStackSliceSource(stack, null), 13, 13);
+	}
+
+	@Test(expected = IOException.class)
+	public void testReadThrowsIOExceptionIfRangeEmpty() throws IOException {
+		final Path file = temporaryFolder.newFile("shard.txt").toPath();
+		ConnectivityShard.compute(new ImageStackSliceSource(stack, null), 9, 13).write(file);
+		final Properties properties = new Properties();
+		try (final InputStream stream = Files.newInputStream(file)) {
+			properties.load(stream);
+		}
+		properties.setProperty("wStart", "13");
+		try (final OutputStream stream = Files.newOutputStream(file)) {
+			properties.store(stream, null);
+		}
+
+		ConnectivityShard.read(file);
+	}
+
+	/** Test that shards computed by separate worker processes merge into the same result */
+	@Test
+	public void testWorkerProcesses() throws IOException, InterruptedException {
+		final File sliceDirectory = temporaryFolder.newFolder("slices");
+		for (int w = 0; w < stack.getSize(); w++) {
+			final String name = String.format("slice%03d.tif", w);
+			IJ.saveAsTiff(new ImagePlus(name, stack.getProcessor(w + 1)),
+					new File(sliceDirectory, name).getPath());
+		}
+		final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		final String classPath = System.getProperty("java.class.path");
+
+		final List<Process> workers = new ArrayList<>();
+		final List<Path> shardFiles = new ArrayList<>();
+		for (int i = 0; i < SHARD_STARTS.length - 1; i++) {
+			final Path shardFile = new File(temporaryFolder.getRoot(), "shard" + i + ".txt").toPath();
+			shardFiles.add(shardFile);
+			workers.add(new ProcessBuilder(java, "-cp", classPath, ConnectivityShard.class.getName(), "shard",
+					sliceDirectory.getPath(), Integer.toString(SHARD_STARTS[i]),
+					Integer.toString(SHARD_STARTS[i + 1]), shardFile.toString()).inheritIO().start());
+		}
+		for (final Process worker : workers) {
+			assertEquals("Worker failed", 0, worker.waitFor());
+		}
+		final List<ConnectivityShard> shards = new ArrayList<>();
+		for (final Path shardFile : shardFiles) {
+			shards.add(ConnectivityShard.read(shardFile));
+		}
+
+		assertSameCharacteristics(ConnectivityShard.merge(shards));
+	}
+
+	private static void assertSameCharacteristics(final Connectivity.Characteristics results) {
+		assertEquals(expected.eulerCharacteristic, results.eulerCharacteristic, ERROR_MARGIN);
+		assertEquals(expected.deltaChi, results.deltaChi, ERROR_MARGIN);
+		assertEquals(expected.connectivity, results.connectivity, ERROR_MARGIN);
+		assertEquals(expected.connectivityDensity, results.connectivityDensity, ERROR_MARGIN);
+	}
+}
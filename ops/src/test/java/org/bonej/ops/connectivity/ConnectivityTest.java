@@ -3,16 +3,21 @@ package org.bonej.ops.connectivity;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
+import java.util.Random;
+
 import net.imagej.ImageJ;
 import net.imagej.ImgPlus;
 import net.imagej.ops.Ops;
 import net.imagej.ops.special.function.BinaryFunctionOp;
 import net.imagej.ops.special.function.Functions;
+import net.imglib2.Cursor;
 import net.imglib2.Dimensions;
 import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccess;
 import net.imglib2.img.Img;
 import net.imglib2.type.logic.BitType;
 
+import org.bonej.ops.binary.BlockOccupancy;
 import org.bonej.ops.testImageGenerators.WireFrameCuboidCreator;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -95,4 +100,121 @@ public class ConnectivityTest {
 		assertEquals(EXPECTED_CONNECTIVITY, results.connectivity, ERROR_MARGIN);
 		assertEquals(EXPECTED_DENSITY, results.connectivityDensity, ERROR_MARGIN);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testParallelEulerCharacteristicMatchesSerial() {
+		final double[] calibration = {0.2, 0.2, 0.2};
+		final ImgPlus<BitType> cuboid = (ImgPlus<BitType>) IMAGE_J.op().run(WireFrameCuboidCreator.class, null, 12L,
+				9L, 17L, 1L, calibration);
+
+		final Connectivity.Characteristics serial = (Connectivity.Characteristics) IMAGE_J.op().run(Connectivity.class,
+				cuboid, false);
+		final Connectivity.Characteristics parallel = (Connectivity.Characteristics) IMAGE_J.op()
+				.run(Connectivity.class, cuboid, true);
+
+		assertEquals(serial.eulerCharacteristic, parallel.eulerCharacteristic, 0.0);
+		assertEquals(serial.deltaChi, parallel.deltaChi, 0.0);
+		assertEquals(serial.connectivityDensity, parallel.connectivityDensity, 0.0);
+	}
+
+	/** Test that skipping the uniform blocks of an image with empty padding and a solid core gives the same results */
+	@Test
+	public void testBlockOccupancyDoesNotChangeResults() {
+		final Img<BitType> img = imgCreator.compute1(new FinalDimensions(100, 20, 18));
+		final Random random = new Random(0xB10C);
+		final Cursor<BitType> cursor = img.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			final long u = cursor.getLongPosition(0);
+			final boolean core = u >= 8 && u < 70 && cursor.getLongPosition(1) >= 4 && cursor.getLongPosition(2) >= 4;
+			final boolean noise = u >= 70 && u < 80 && random.nextBoolean();
+			cursor.get().set(core || noise);
+		}
+		final ImgPlus<BitType> imgPlus = new ImgPlus<>(img);
+		final BlockOccupancy blocks = BlockOccupancy.of(img, BitType::get, 4);
+
+		final Connectivity.Characteristics expected = (Connectivity.Characteristics) IMAGE_J.op()
+				.run(Connectivity.class, imgPlus);
+		final Connectivity.Characteristics results = (Connectivity.Characteristics) IMAGE_J.op()
+				.run(Connectivity.class, imgPlus, true, blocks);
+
+		assertEquals(expected.eulerCharacteristic, results.eulerCharacteristic, 0.0);
+		assertEquals(expected.deltaChi, results.deltaChi, 0.0);
+		assertEquals(expected.connectivityDensity, results.connectivityDensity, 0.0);
+	}
+
+	/**
+	 * Test that the pattern lookup gives the same change in Euler characteristic
+	 * as indexing EULER_LUT from the neighbors of an Octant, for all the 256
+	 * possible neighborhoods
+	 */
+	@Test
+	public void testDeltaEulerMatchesEulerLutForAllPatterns() {
+		final Img<BitType> img = imgCreator.compute1(new FinalDimensions(2, 2, 2));
+		final RandomAccess<BitType> access = img.randomAccess();
+		final Octant octant = new Octant(img);
+
+		for (int pattern = 0; pattern < 256; pattern++) {
+			for (int bit = 0; bit < 8; bit++) {
+				// Octant order: bit 0 = (u-1, v-1, w-1), 1 = (u-1, v, w-1), 2 =
+				// (u, v-1, w-1) ... 7 = (u, v, w)
+				access.setPosition((bit >> 1) & 1, 0);
+				access.setPosition(bit & 1, 1);
+				access.setPosition((bit >> 2) & 1, 2);
+				access.get().set((pattern & (1 << bit)) != 0);
+			}
+			octant.setNeighborhood(1, 1, 1);
+
+			assertEquals("Octant read the wrong pattern", pattern, octant.getNeighborhoodPattern());
+			assertEquals("Wrong delta Euler for pattern " + pattern, cascadeDeltaEuler(octant),
+					Connectivity.getDeltaEuler(octant));
+		}
+	}
+
+	/** The reference EULER_LUT lookup, which builds its index neighbor by neighbor */
+	private static int cascadeDeltaEuler(final Octant octant) {
+		if (octant.isNeighborhoodEmpty()) {
+			return 0;
+		}
+
+		int index = 1;
+		if (octant.isNeighborForeground(8)) {
+			if (octant.isNeighborForeground(1)) { index |= 128; }
+			if (octant.isNeighborForeground(2)) { index |= 64; }
+			if (octant.isNeighborForeground(3)) { index |= 32; }
+			if (octant.isNeighborForeground(4)) { index |= 16; }
+			if (octant.isNeighborForeground(5)) { index |= 8; }
+			if (octant.isNeighborForeground(6)) { index |= 4; }
+			if (octant.isNeighborForeground(7)) { index |= 2; }
+		} else if (octant.isNeighborForeground(7)) {
+			if (octant.isNeighborForeground(2)) { index |= 128; }
+			if (octant.isNeighborForeground(4)) { index |= 64; }
+			if (octant.isNeighborForeground(1)) { index |= 32; }
+			if (octant.isNeighborForeground(3)) { index |= 16; }
+			if (octant.isNeighborForeground(6)) { index |= 8; }
+			if (octant.isNeighborForeground(5)) { index |= 2; }
+		} else if (octant.isNeighborForeground(6)) {
+			if (octant.isNeighborForeground(3)) { index |= 128; }
+			if (octant.isNeighborForeground(1)) { index |= 64; }
+			if (octant.isNeighborForeground(4)) { index |= 32; }
+			if (octant.isNeighborForeground(2)) { index |= 16; }
+			if (octant.isNeighborForeground(5)) { index |= 4; }
+		} else if (octant.isNeighborForeground(5)) {
+			if (octant.isNeighborForeground(4)) { index |= 128; }
+			if (octant.isNeighborForeground(3)) { index |= 64; }
+			if (octant.isNeighborForeground(2)) { index |= 32; }
+			if (octant.isNeighborForeground(1)) { index |= 16; }
+		} else if (octant.isNeighborForeground(4)) {
+			if (octant.isNeighborForeground(1)) { index |= 8; }
+			if (octant.isNeighborForeground(3)) { index |= 4; }
+			if (octant.isNeighborForeground(2)) { index |= 2; }
+		} else if (octant.isNeighborForeground(3)) {
+			if (octant.isNeighborForeground(2)) { index |= 8; }
+			if (octant.isNeighborForeground(1)) { index |= 4; }
+		} else if (octant.isNeighborForeground(2)) {
+			if (octant.isNeighborForeground(1)) { index |= 2; }
+		}
+
+		return Connectivity.EULER_LUT[index];
+	}
+}
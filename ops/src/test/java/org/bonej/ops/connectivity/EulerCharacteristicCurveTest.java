@@ -0,0 +1,140 @@
+package org.bonej.ops.connectivity;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import net.imagej.ImageJ;
+import net.imagej.ImgPlus;
+import net.imagej.ops.Ops;
+import net.imagej.ops.special.function.BinaryFunctionOp;
+import net.imagej.ops.special.function.Functions;
+import net.imglib2.Cursor;
+import net.imglib2.Dimensions;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for the EulerCharacteristicCurve class
+ *
+ * @author Richard Domander
+ */
+public class EulerCharacteristicCurveTest {
+	private static final ImageJ IMAGE_J = new ImageJ();
+	private static final double ERROR_MARGIN = 1E-12;
+	private static BinaryFunctionOp<Dimensions, BitType, Img<BitType>> imgCreator;
+
+	@BeforeClass
+	public static void oneTimeSetUp() {
+		imgCreator = (BinaryFunctionOp) Functions.binary(IMAGE_J.op(), Ops.Create.Img.class, Img.class,
+				Dimensions.class, new BitType());
+	}
+
+	@AfterClass
+	public static void oneTimeTearDown() {
+		IMAGE_J.context().dispose();
+	}
+
+	@Test
+	public void testLevel() {
+		final double[] thresholds = {1.0, 2.5, 4.0};
+
+		assertEquals(-1, EulerCharacteristicCurve.level(thresholds, 0.5));
+		assertEquals(0, EulerCharacteristicCurve.level(thresholds, 1.0));
+		assertEquals(1, EulerCharacteristicCurve.level(thresholds, 3.0));
+		assertEquals(2, EulerCharacteristicCurve.level(thresholds, 9.0));
+		assertEquals(-1, EulerCharacteristicCurve.level(thresholds, Double.NaN));
+	}
+
+	/** Test that negative zero is foreground at a zero threshold, because -0.0 >= 0.0 */
+	@Test
+	public void testLevelOfNegativeZero() {
+		assertEquals(0, EulerCharacteristicCurve.level(new double[]{0.0, 1.0}, -0.0));
+		assertEquals(0, EulerCharacteristicCurve.level(new double[]{-0.0, 1.0}, 0.0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testThrowsIllegalArgumentExceptionIfThresholdsNotAscending() {
+		final ImgPlus<UnsignedByteType> imgPlus = new ImgPlus<>(ArrayImgs.unsignedBytes(3, 3, 3));
+
+		IMAGE_J.op().run(EulerCharacteristicCurve.class, imgPlus, new double[]{2.0, 1.0});
+	}
+
+	/** Test that each point of the curve matches Connectivity on the image binarized at its threshold */
+	@Test
+	public void testCurveMatchesBinarizedConnectivity() {
+		final Img<UnsignedByteType> img = ArrayImgs.unsignedBytes(9, 7, 6);
+		final Random random = new Random(0xB0E);
+		final Cursor<UnsignedByteType> cursor = img.cursor();
+		while (cursor.hasNext()) {
+			cursor.next().set(random.nextInt(10));
+		}
+		final double[] thresholds = {0.5, 3.0, 5.0, 8.0, 9.5};
+
+		final EulerCharacteristicCurve.Results results = (EulerCharacteristicCurve.Results) IMAGE_J.op()
+				.run(EulerCharacteristicCurve.class, new ImgPlus<>(img), thresholds);
+
+		assertArrayEquals(thresholds, results.thresholds, 0.0);
+		for (int k = 0; k < thresholds.length; k++) {
+			final Connectivity.Characteristics expected = (Connectivity.Characteristics) IMAGE_J.op()
+					.run(Connectivity.class, new ImgPlus<>(binarize(img, thresholds[k])));
+			final Connectivity.Characteristics result = results.characteristics[k];
+
+			assertEquals(expected.eulerCharacteristic, result.eulerCharacteristic, ERROR_MARGIN);
+			assertEquals(expected.deltaChi, result.deltaChi, ERROR_MARGIN);
+			assertEquals(expected.connectivity, result.connectivity, ERROR_MARGIN);
+			assertEquals(expected.connectivityDensity, result.connectivityDensity, ERROR_MARGIN);
+		}
+	}
+
+	@Test
+	public void testDefaultThresholdsSpanValueRange() {
+		final Img<UnsignedByteType> img = ArrayImgs.unsignedBytes(4, 4, 4);
+		final Cursor<UnsignedByteType> cursor = img.cursor();
+		int i = 0;
+		while (cursor.hasNext()) {
+			cursor.next().set(10 + (i++ % 11));
+		}
+
+		final EulerCharacteristicCurve.Results results = (EulerCharacteristicCurve.Results) IMAGE_J.op()
+				.run(EulerCharacteristicCurve.class, new ImgPlus<>(img), null, 6);
+
+		assertArrayEquals(new double[]{10, 12, 14, 16, 18, 20}, results.thresholds, ERROR_MARGIN);
+	}
+
+	@Test
+	public void testDefaultThresholdsSkipNaN() {
+		final Img<FloatType> img = ArrayImgs.floats(4, 4, 4);
+		final Cursor<FloatType> cursor = img.cursor();
+		int i = 0;
+		while (cursor.hasNext()) {
+			cursor.next().set(i % 7 == 0 ? Float.NaN : 10 + (i % 11));
+			i++;
+		}
+
+		final EulerCharacteristicCurve.Results results = (EulerCharacteristicCurve.Results) IMAGE_J.op()
+				.run(EulerCharacteristicCurve.class, new ImgPlus<>(img));
+
+		assertEquals(256, results.thresholds.length);
+		assertEquals(10.0, results.thresholds[0], ERROR_MARGIN);
+		assertEquals(20.0, results.thresholds[255], ERROR_MARGIN);
+	}
+
+	private static Img<BitType> binarize(final Img<UnsignedByteType> img, final double threshold) {
+		final Img<BitType> binary = imgCreator.compute1(img);
+		final Cursor<BitType> cursor = binary.cursor();
+		final Cursor<UnsignedByteType> valueCursor = img.cursor();
+		while (cursor.hasNext()) {
+			cursor.next().set(valueCursor.next().getRealDouble() >= threshold);
+		}
+		return binary;
+	}
+}
@@ -0,0 +1,156 @@
+package org.bonej.ops.connectivity;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import net.imagej.ImageJ;
+import net.imagej.ImgPlus;
+import net.imagej.ops.Ops;
+import net.imagej.ops.special.function.BinaryFunctionOp;
+import net.imagej.ops.special.function.Functions;
+import net.imglib2.Cursor;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.real.DoubleType;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for the EulerIndex class
+ *
+ * @author Richard Domander
+ */
+public class EulerIndexTest {
+	private static final ImageJ IMAGE_J = new ImageJ();
+	private static final double ERROR_MARGIN = 1E-12;
+	private static BinaryFunctionOp<Dimensions, BitType, Img<BitType>> imgCreator;
+
+	@BeforeClass
+	public static void oneTimeSetUp() {
+		imgCreator = (BinaryFunctionOp) Functions.binary(IMAGE_J.op(), Ops.Create.Img.class, Img.class,
+				Dimensions.class, new BitType());
+	}
+
+	@AfterClass
+	public static void oneTimeTearDown() {
+		IMAGE_J.context().dispose();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testQueryThrowsIllegalArgumentExceptionIfBoxOutsideImage() {
+		final EulerIndex index = new EulerIndex(new ImgPlus<>(imgCreator.compute1(new FinalDimensions(3, 3, 3))));
+
+		index.query(new long[]{0, 0, 0}, new long[]{3, 2, 2});
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testQueryThrowsIllegalArgumentExceptionIfBoxEmpty() {
+		final EulerIndex index = new EulerIndex(new ImgPlus<>(imgCreator.compute1(new FinalDimensions(3, 3, 3))));
+
+		index.query(new long[]{2, 0, 0}, new long[]{1, 2, 2});
+	}
+
+	/** Test that queries match Connectivity on cropped images, including boxes that cut through the foreground */
+	@Test
+	public void testQueriesMatchConnectivityOnCrops() {
+		final Img<BitType> img = randomImage(9, 7, 6, 0xB0E);
+		final EulerIndex index = new EulerIndex(new ImgPlus<>(img));
+		final Random random = new Random(0xC0FFEE);
+
+		for (int i = 0; i < 25; i++) {
+			final long[] min = new long[3];
+			final long[] max = new long[3];
+			for (int d = 0; d < 3; d++) {
+				final int size = (int) img.dimension(d);
+				min[d] = random.nextInt(size);
+				max[d] = min[d] + random.nextInt(size - (int) min[d]);
+			}
+
+			final Connectivity.Characteristics expected = (Connectivity.Characteristics) IMAGE_J.op()
+					.run(Connectivity.class, new ImgPlus<>(crop(img, min, max)));
+			final Connectivity.Characteristics results = index.query(min, max);
+
+			assertEquals(expected.eulerCharacteristic, results.eulerCharacteristic, ERROR_MARGIN);
+			assertEquals(expected.deltaChi, results.deltaChi, ERROR_MARGIN);
+			assertEquals(expected.connectivity, results.connectivity, ERROR_MARGIN);
+			assertEquals(expected.connectivityDensity, results.connectivityDensity, ERROR_MARGIN);
+		}
+	}
+
+	/** Test that the sums stay the same when the tables are split into several slabs */
+	@Test
+	public void testQueriesMatchAcrossSlabs() {
+		final ImgPlus<BitType> imgPlus = new ImgPlus<>(randomImage(6, 5, 9, 0x51AB));
+		final EulerIndex index = new EulerIndex(imgPlus);
+		final EulerIndex slabbedIndex = new EulerIndex(new IntervalSliceSource(imgPlus), 2);
+		final Random random = new Random(0xFACE);
+
+		for (int i = 0; i < 25; i++) {
+			final long[] min = new long[3];
+			final long[] max = new long[3];
+			for (int d = 0; d < 3; d++) {
+				final int size = (int) imgPlus.dimension(d);
+				min[d] = random.nextInt(size);
+				max[d] = min[d] + random.nextInt(size - (int) min[d]);
+			}
+
+			final Connectivity.Characteristics expected = index.query(min, max);
+			final Connectivity.Characteristics results = slabbedIndex.query(min, max);
+
+			assertEquals(expected.eulerCharacteristic, results.eulerCharacteristic, ERROR_MARGIN);
+			assertEquals(expected.deltaChi, results.deltaChi, ERROR_MARGIN);
+		}
+	}
+
+	@Test
+	public void testLocalConnectivityDensity() {
+		final Img<BitType> img = randomImage(10, 8, 5, 0xBEEF);
+		final EulerIndex index = new EulerIndex(new ImgPlus<>(img));
+		final long[] cellSize = {4, 4, 5};
+
+		final Img<DoubleType> densities = index.localConnectivityDensity(cellSize);
+
+		final long[] gridSize = new long[3];
+		densities.dimensions(gridSize);
+		assertArrayEquals(new long[]{3, 2, 1}, gridSize);
+		final RandomAccess<DoubleType> access = densities.randomAccess();
+		access.setPosition(new long[]{2, 1, 0});
+		final double expected = index.query(new long[]{8, 4, 0}, new long[]{9, 7, 4}).connectivityDensity;
+		assertEquals(expected, access.get().get(), ERROR_MARGIN);
+	}
+
+	private static Img<BitType> randomImage(final long uSize, final long vSize, final long wSize, final long seed) {
+		final Img<BitType> img = imgCreator.compute1(new FinalDimensions(uSize, vSize, wSize));
+		final Random random = new Random(seed);
+		final Cursor<BitType> cursor = img.cursor();
+		while (cursor.hasNext()) {
+			cursor.next().set(random.nextInt(3) == 0);
+		}
+		return img;
+	}
+
+	private static Img<BitType> crop(final Img<BitType> img, final long[] min, final long[] max) {
+		final Img<BitType> crop = imgCreator.compute1(new FinalDimensions(max[0] - min[0] + 1,
+				max[1] - min[1] + 1, max[2] - min[2] + 1));
+		final Cursor<BitType> cursor = crop.localizingCursor();
+		final RandomAccess<BitType> access = img.randomAccess();
+		final long[] position = new long[3];
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.localize(position);
+			for (int d = 0; d < 3; d++) {
+				position[d] += min[d];
+			}
+			access.setPosition(position);
+			cursor.get().set(access.get());
+		}
+		return crop;
+	}
+}
@@ -0,0 +1,144 @@
+package org.bonej.ops.connectivity;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import net.imagej.ImageJ;
+import net.imagej.ImgPlus;
+import net.imagej.ops.Ops;
+import net.imagej.ops.special.function.BinaryFunctionOp;
+import net.imagej.ops.special.function.Functions;
+import net.imglib2.Cursor;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.type.logic.BitType;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for the EulerTracker class
+ *
+ * @author Richard Domander
+ */
+public class EulerTrackerTest {
+	private static final ImageJ IMAGE_J = new ImageJ();
+	private static final double ERROR_MARGIN = 1E-12;
+	private static BinaryFunctionOp<Dimensions, BitType, Img<BitType>> imgCreator;
+
+	@BeforeClass
+	public static void oneTimeSetUp() {
+		imgCreator = (BinaryFunctionOp) Functions.binary(IMAGE_J.op(), Ops.Create.Img.class, Img.class,
+				Dimensions.class, new BitType());
+	}
+
+	@AfterClass
+	public static void oneTimeTearDown() {
+		IMAGE_J.context().dispose();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUpdateThrowsIAEIfPositionOutsideImage() {
+		final EulerTracker tracker = new EulerTracker(randomImgPlus(0x5EED));
+
+		tracker.update(Collections.singletonList(new long[]{8, 0, 0}));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUpdateThrowsIAEIfMaskHasOtherDimensions() {
+		final EulerTracker tracker = new EulerTracker(randomImgPlus(0x5EED));
+
+		tracker.update(imgCreator.compute1(new FinalDimensions(8, 6, 4)));
+	}
+
+	@Test
+	public void testSetMatchesConnectivity() {
+		final ImgPlus<BitType> imgPlus = randomImgPlus(0x5EED);
+		final EulerTracker tracker = new EulerTracker(imgPlus);
+		final Random random = new Random(0xED17);
+
+		for (int i = 0; i < 50; i++) {
+			tracker.set(random.nextInt(8), random.nextInt(6), random.nextInt(5), random.nextBoolean());
+			assertSameCharacteristics(imgPlus, tracker);
+		}
+	}
+
+	@Test
+	public void testUpdateWithChangedPositionsMatchesConnectivity() {
+		final ImgPlus<BitType> imgPlus = randomImgPlus(0xFACE);
+		final EulerTracker tracker = new EulerTracker(imgPlus);
+		final RandomAccess<BitType> access = imgPlus.randomAccess();
+		final Random random = new Random(0xC0DE);
+
+		for (int i = 0; i < 10; i++) {
+			final List<long[]> changed = new ArrayList<>();
+			for (int j = 0; j < 12; j++) {
+				final long[] position = {random.nextInt(8), random.nextInt(6), random.nextInt(5)};
+				if (changed.stream().anyMatch(p -> p[0] == position[0] && p[1] == position[1] &&
+						p[2] == position[2])) {
+					continue;
+				}
+				access.setPosition(position);
+				access.get().not();
+				changed.add(position);
+			}
+
+			tracker.update(changed);
+
+			assertSameCharacteristics(imgPlus, tracker);
+		}
+	}
+
+	@Test
+	public void testUpdateWithDiffMaskMatchesConnectivity() {
+		final ImgPlus<BitType> imgPlus = randomImgPlus(0xD1FF);
+		final EulerTracker tracker = new EulerTracker(imgPlus);
+		final RandomAccess<BitType> access = imgPlus.randomAccess();
+		final Random random = new Random(0xBEEF);
+
+		for (int i = 0; i < 10; i++) {
+			final Img<BitType> diffMask = imgCreator.compute1(new FinalDimensions(8, 6, 5));
+			final Cursor<BitType> cursor = diffMask.localizingCursor();
+			while (cursor.hasNext()) {
+				cursor.fwd();
+				if (random.nextInt(10) == 0) {
+					cursor.get().setOne();
+					access.setPosition(cursor);
+					access.get().not();
+				}
+			}
+
+			tracker.update(diffMask);
+
+			assertSameCharacteristics(imgPlus, tracker);
+		}
+	}
+
+	private static void assertSameCharacteristics(final ImgPlus<BitType> imgPlus, final EulerTracker tracker) {
+		final Connectivity.Characteristics expected = (Connectivity.Characteristics) IMAGE_J.op()
+				.run(Connectivity.class, imgPlus);
+		final Connectivity.Characteristics results = tracker.getCharacteristics();
+
+		assertEquals(expected.eulerCharacteristic, results.eulerCharacteristic, ERROR_MARGIN);
+		assertEquals(expected.deltaChi, results.deltaChi, ERROR_MARGIN);
+		assertEquals(expected.connectivity, results.connectivity, ERROR_MARGIN);
+		assertEquals(expected.connectivityDensity, results.connectivityDensity, ERROR_MARGIN);
+	}
+
+	private static ImgPlus<BitType> randomImgPlus(final long seed) {
+		final Img<BitType> img = imgCreator.compute1(new FinalDimensions(8, 6, 5));
+		final Random random = new Random(seed);
+		final Cursor<BitType> cursor = img.cursor();
+		while (cursor.hasNext()) {
+			cursor.next().set(random.nextInt(3) == 0);
+		}
+		return new ImgPlus<>(img);
+	}
+}
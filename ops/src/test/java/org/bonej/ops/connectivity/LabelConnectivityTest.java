@@ -0,0 +1,105 @@
+package org.bonej.ops.connectivity;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+import java.util.Random;
+
+import net.imagej.ImageJ;
+import net.imagej.ImgPlus;
+import net.imagej.ops.Ops;
+import net.imagej.ops.special.function.BinaryFunctionOp;
+import net.imagej.ops.special.function.Functions;
+import net.imglib2.Cursor;
+import net.imglib2.Dimensions;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for the LabelConnectivity class
+ *
+ * @author Richard Domander
+ */
+public class LabelConnectivityTest {
+	private static final ImageJ IMAGE_J = new ImageJ();
+	private static final double ERROR_MARGIN = 1E-12;
+	private static BinaryFunctionOp<Dimensions, BitType, Img<BitType>> imgCreator;
+
+	@BeforeClass
+	public static void oneTimeSetUp() {
+		imgCreator = (BinaryFunctionOp) Functions.binary(IMAGE_J.op(), Ops.Create.Img.class, Img.class,
+				Dimensions.class, new BitType());
+	}
+
+	@AfterClass
+	public static void oneTimeTearDown() {
+		IMAGE_J.context().dispose();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testLabelConnectivityFailsMatchWith2DImage() {
+		final ImgPlus<UnsignedByteType> imgPlus = new ImgPlus<>(ArrayImgs.unsignedBytes(3, 3));
+
+		IMAGE_J.op().op(LabelConnectivity.class, imgPlus);
+	}
+
+	/** Test that each label gets the same characteristics as its own binary image */
+	@Test
+	public void testLabelsMatchBinaryConnectivity() {
+		final Img<UnsignedByteType> labels = ArrayImgs.unsignedBytes(9, 7, 6);
+		final Random random = new Random(0xB0E);
+		final Cursor<UnsignedByteType> cursor = labels.cursor();
+		while (cursor.hasNext()) {
+			cursor.next().set(random.nextInt(4));
+		}
+
+		final Map<Integer, Connectivity.Characteristics> results =
+				(Map<Integer, Connectivity.Characteristics>) IMAGE_J.op().run(LabelConnectivity.class,
+						new ImgPlus<>(labels));
+
+		assertEquals(3, results.size());
+		for (int label = 1; label <= 3; label++) {
+			final Connectivity.Characteristics expected = (Connectivity.Characteristics) IMAGE_J.op()
+					.run(Connectivity.class, new ImgPlus<>(binaryImage(labels, label)));
+			final Connectivity.Characteristics result = results.get(label);
+
+			assertEquals(expected.eulerCharacteristic, result.eulerCharacteristic, ERROR_MARGIN);
+			assertEquals(expected.deltaChi, result.deltaChi, ERROR_MARGIN);
+			assertEquals(expected.connectivity, result.connectivity, ERROR_MARGIN);
+			assertEquals(expected.connectivityDensity, result.connectivityDensity, ERROR_MARGIN);
+		}
+	}
+
+	/** Test that the labels on the faces get the same border counts as their own binary images */
+	@Test
+	public void testLabelBorderCountsMatchBinaryBorderCounts() {
+		final Img<UnsignedByteType> labels = ArrayImgs.unsignedBytes(6, 5, 4);
+		final Random random = new Random(0xFACE);
+		labels.forEach(e -> e.set(random.nextInt(6)));
+
+		final LabelBorderCounts serial = LabelBorderCounts.count(labels, 6, false);
+		final LabelBorderCounts parallel = LabelBorderCounts.count(labels, 6, true);
+
+		for (int label = 1; label < 6; label++) {
+			final double expected = BorderCounts.count(binaryImage(labels, label), false).edgeCorrection();
+			assertEquals(expected, serial.edgeCorrection(label), ERROR_MARGIN);
+			assertEquals(expected, parallel.edgeCorrection(label), ERROR_MARGIN);
+		}
+	}
+
+	private static Img<BitType> binaryImage(final Img<UnsignedByteType> labels, final int label) {
+		final Img<BitType> img = imgCreator.compute1(labels);
+		final Cursor<BitType> cursor = img.cursor();
+		final Cursor<UnsignedByteType> labelCursor = labels.cursor();
+		while (cursor.hasNext()) {
+			cursor.next().set(labelCursor.next().get() == label);
+		}
+		return img;
+	}
+}
@@ -0,0 +1,150 @@
+package org.bonej.ops.connectivity;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import net.imagej.ImageJ;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.DefaultLinearAxis;
+import net.imagej.ops.Ops;
+import net.imagej.ops.special.function.BinaryFunctionOp;
+import net.imagej.ops.special.function.Functions;
+import net.imglib2.Cursor;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.img.Img;
+import net.imglib2.type.logic.BitType;
+
+import org.bonej.ops.testImageGenerators.WireFrameCuboidCreator;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for the MinkowskiFunctionals class
+ *
+ * @author Richard Domander
+ */
+public class MinkowskiFunctionalsTest {
+	private static final ImageJ IMAGE_J = new ImageJ();
+	private static final double ERROR_MARGIN = 1E-12;
+	/** Allowed relative error of the estimates for a digitized ball */
+	private static final double BALL_TOLERANCE = 0.02;
+	private static BinaryFunctionOp<Dimensions, BitType, Img<BitType>> imgCreator;
+
+	@BeforeClass
+	public static void oneTimeSetUp() {
+		imgCreator = (BinaryFunctionOp) Functions.binary(IMAGE_J.op(), Ops.Create.Img.class, Img.class,
+				Dimensions.class, new BitType());
+	}
+
+	@AfterClass
+	public static void oneTimeTearDown() {
+		IMAGE_J.context().dispose();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMinkowskiFunctionalsFailsMatchWith2DImage() {
+		final ImgPlus<BitType> imgPlus = new ImgPlus<>(imgCreator.compute1(new FinalDimensions(3, 3)));
+
+		IMAGE_J.op().op(MinkowskiFunctionals.class, imgPlus);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMinkowskiFunctionalsFailsMatchWithNonSpatialAxis() {
+		final ImgPlus<BitType> imgPlus = new ImgPlus<>(imgCreator.compute1(new FinalDimensions(3, 3, 3)), "Channels",
+				new DefaultLinearAxis(Axes.X), new DefaultLinearAxis(Axes.Y), new DefaultLinearAxis(Axes.CHANNEL));
+
+		IMAGE_J.op().op(MinkowskiFunctionals.class, imgPlus);
+	}
+
+	/** Test that the octants of the image padded with background are counted */
+	@Test
+	public void testCountConfigurations() {
+		final Img<BitType> img = imgCreator.compute1(new FinalDimensions(70, 3, 2));
+		img.firstElement().setOne();
+
+		final long[] histogram = MinkowskiFunctionals.countConfigurations(img, false);
+
+		assertEquals(71 * 4 * 3, Arrays.stream(histogram).sum());
+		// The element is every neighbor once
+		for (int neighbor = 0; neighbor < 8; neighbor++) {
+			assertEquals(1, histogram[1 << neighbor]);
+		}
+	}
+
+	@Test
+	public void testCountConfigurationsParallelMatchesSerial() {
+		final Img<BitType> img = imgCreator.compute1(new FinalDimensions(67, 9, 13));
+		final Random random = new Random(0xB0E);
+		final Cursor<BitType> cursor = img.cursor();
+		while (cursor.hasNext()) {
+			cursor.next().set(random.nextInt(3) == 0);
+		}
+
+		final long[] serial = MinkowskiFunctionals.countConfigurations(img, false);
+		final long[] parallel = MinkowskiFunctionals.countConfigurations(img, true);
+
+		assertEquals(Arrays.toString(serial), Arrays.toString(parallel));
+	}
+
+	/** Test the estimates of a digitized ball against the functionals of a sphere */
+	@Test
+	public void testBall() {
+		final double radius = 12.0;
+		final double[] elementSize = {0.5, 1.0, 1.5};
+		final ImgPlus<BitType> ball = createBall(radius, elementSize);
+
+		final MinkowskiFunctionals.Results results =
+				(MinkowskiFunctionals.Results) IMAGE_J.op().run(MinkowskiFunctionals.class, ball);
+
+		assertRelativeEquals(4.0 / 3.0 * Math.PI * radius * radius * radius, results.volume);
+		assertRelativeEquals(4.0 * Math.PI * radius * radius, results.surfaceArea);
+		assertRelativeEquals(2.0 * radius, results.meanBreadth);
+		assertRelativeEquals(4.0 * Math.PI * radius, results.integralOfMeanCurvature);
+		assertEquals(1.0, results.eulerCharacteristic, ERROR_MARGIN);
+	}
+
+	/** Test that the Euler characteristic is the same as in Connectivity when the foreground is padded */
+	@Test
+	public void testEulerCharacteristicMatchesConnectivity() {
+		final double[] calibration = {0.2, 0.2, 0.2};
+		final ImgPlus<BitType> cuboid = (ImgPlus<BitType>) IMAGE_J.op().run(WireFrameCuboidCreator.class, null, 10L,
+				10L, 10L, 1L, calibration);
+
+		final Connectivity.Characteristics expected =
+				(Connectivity.Characteristics) IMAGE_J.op().run(Connectivity.class, cuboid);
+		final MinkowskiFunctionals.Results results =
+				(MinkowskiFunctionals.Results) IMAGE_J.op().run(MinkowskiFunctionals.class, cuboid);
+
+		assertEquals(expected.eulerCharacteristic, results.eulerCharacteristic, ERROR_MARGIN);
+	}
+
+	private static void assertRelativeEquals(final double expected, final double actual) {
+		assertEquals(expected, actual, Math.abs(expected) * BALL_TOLERANCE);
+	}
+
+	private static ImgPlus<BitType> createBall(final double radius, final double[] elementSize) {
+		final long[] size = new long[3];
+		for (int d = 0; d < 3; d++) {
+			size[d] = (long) Math.ceil(2 * radius / elementSize[d]) + 4;
+		}
+		final Img<BitType> img = imgCreator.compute1(new FinalDimensions(size));
+		final Cursor<BitType> cursor = img.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			double distance = 0.0;
+			for (int d = 0; d < 3; d++) {
+				final double x = (cursor.getDoublePosition(d) - size[d] / 2.0) * elementSize[d];
+				distance += x * x;
+			}
+			cursor.get().set(distance <= radius * radius);
+		}
+
+		return new ImgPlus<>(img, "Ball", new DefaultLinearAxis(Axes.X, "mm", elementSize[0]),
+				new DefaultLinearAxis(Axes.Y, "mm", elementSize[1]), new DefaultLinearAxis(Axes.Z, "mm", elementSize[2]));
+	}
+}
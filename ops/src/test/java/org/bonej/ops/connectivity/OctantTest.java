@@ -4,6 +4,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Random;
+
 import net.imagej.ImageJ;
 import net.imagej.ops.Ops;
 import net.imagej.ops.special.function.BinaryFunctionOp;
@@ -12,7 +14,9 @@ import net.imglib2.Cursor;
 import net.imglib2.Dimensions;
 import net.imglib2.FinalDimensions;
 import net.imglib2.img.Img;
+import net.imglib2.img.planar.PlanarImgFactory;
 import net.imglib2.type.logic.BitType;
+import net.imglib2.view.Views;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -83,6 +87,116 @@ public class OctantTest {
 		assertEquals("Wrong number of foreground neighbors", 1, octant.getNeighborCount());
 	}
 
+	/**
+	 * Test that the neighborhoods read directly from packed bits match those read
+	 * through a RandomAccess, also at the borders of the interval
+	 */
+	@Test
+	public void testPackedNeighborhoodsMatchRandomAccess() throws AssertionError {
+		final long[] dimensions = {67, 5, 4};
+		final Img<BitType> arrayImg = imgCreator.compute1(new FinalDimensions(dimensions));
+		final Img<BitType> planarImg = new PlanarImgFactory<BitType>().create(dimensions, new BitType());
+		final Random random = new Random(0xC0FFEE);
+		final Cursor<BitType> arrayCursor = arrayImg.cursor();
+		final Cursor<BitType> planarCursor = planarImg.cursor();
+		while (arrayCursor.hasNext()) {
+			final boolean foreground = random.nextBoolean();
+			arrayCursor.next().set(foreground);
+			planarCursor.next().set(foreground);
+		}
+		final Octant viewOctant = new Octant(Views.interval(arrayImg, arrayImg));
+		final Octant arrayOctant = new Octant(arrayImg);
+		final Octant planarOctant = new Octant(planarImg);
+
+		for (long w = 0; w <= dimensions[2]; w++) {
+			for (long v = 0; v <= dimensions[1]; v++) {
+				for (long u = 0; u <= dimensions[0]; u++) {
+					viewOctant.setNeighborhood(u, v, w);
+					arrayOctant.setNeighborhood(u, v, w);
+					planarOctant.setNeighborhood(u, v, w);
+					for (int n = 1; n <= 8; n++) {
+						assertEquals("ArrayImg neighbor differs", viewOctant.isNeighborForeground(n),
+								arrayOctant.isNeighborForeground(n));
+						assertEquals("PlanarImg neighbor differs", viewOctant.isNeighborForeground(n),
+								planarOctant.isNeighborForeground(n));
+					}
+				}
+			}
+		}
+	}
+
+	/** Test that moving the neighborhood forward gives the same patterns as setting it, for both ways of reading */
+	@Test
+	public void testNextMatchesSetNeighborhood() throws AssertionError {
+		final long[] dimensions = {67, 4, 3};
+		final Img<BitType> img = imgCreator.compute1(new FinalDimensions(dimensions));
+		final Random random = new Random(0xFEED);
+		img.forEach(e -> e.set(random.nextBoolean()));
+
+		for (final Octant octant : new Octant[]{new Octant(img), new Octant(Views.interval(img, img))}) {
+			final Octant expected = new Octant(img);
+			for (long w = 0; w <= dimensions[2]; w++) {
+				for (long v = 0; v <= dimensions[1]; v++) {
+					octant.setNeighborhood(0, v, w);
+					for (long u = 1; u <= dimensions[0]; u++) {
+						octant.next();
+						expected.setNeighborhood(u, v, w);
+						assertEquals("Wrong pattern at (" + u + ", " + v + ", " + w + ")",
+								expected.getNeighborhoodPattern(), octant.getNeighborhoodPattern());
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testOutsidePlaneIsBackground() {
+		final BitPlane plane = new BitPlane(2, 2);
+		plane.set(0, 0, true);
+
+		assertFalse(plane.get(-1, 0));
+		assertFalse(plane.get(0, 2));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetPlanesThrowsIllegalArgumentExceptionIfSizesDiffer() {
+		new Octant(new BitPlane(2, 2), new BitPlane(3, 2));
+	}
+
+	/** Test that the neighborhoods read from planes match those read from the interval, also when moving forward */
+	@Test
+	public void testPlaneNeighborhoodsMatchInterval() throws AssertionError {
+		final long[] dimensions = {70, 6, 5};
+		final Img<BitType> img = imgCreator.compute1(new FinalDimensions(dimensions));
+		final Random random = new Random(0xDEAD);
+		img.forEach(e -> e.set(random.nextBoolean()));
+		final BitPlaneReader reader = new BitPlaneReader(img);
+		BitPlane back = reader.createPlane();
+		BitPlane front = reader.createPlane();
+		final Octant expected = new Octant(img);
+		final Octant octant = new Octant(back, front);
+
+		for (int w = 0; w < dimensions[2]; w++) {
+			reader.read(w, front);
+			octant.setPlanes(back, front);
+			for (int v = 0; v < dimensions[1]; v++) {
+				octant.setNeighborhood(0, v, w);
+				for (int u = 0; u < dimensions[0]; u++) {
+					if (u > 0) {
+						octant.next();
+					}
+					expected.setNeighborhood(u, v, w);
+					assertEquals("Wrong pattern at (" + u + ", " + v + ", " + w + ")",
+							expected.getNeighborhoodPattern(), octant.getNeighborhoodPattern());
+				}
+			}
+
+			final BitPlane swap = back;
+			back = front;
+			front = swap;
+		}
+	}
+
 	@BeforeClass
 	public static void oneTimeSetUp() {
 		imgCreator = (BinaryFunctionOp) Functions.binary(IMAGE_J.op(), Ops.Create.Img.class, Img.class,
@@ -0,0 +1,166 @@
+package org.bonej.ops.connectivity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+import net.imagej.ImageJ;
+import net.imagej.ImgPlus;
+import net.imagej.ops.Ops;
+import net.imagej.ops.special.function.BinaryFunctionOp;
+import net.imagej.ops.special.function.Functions;
+import net.imglib2.Cursor;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.type.logic.BitType;
+
+import org.bonej.ops.binary.RunLengthVolume;
+import org.bonej.ops.testImageGenerators.WireFrameCuboidCreator;
+import org.bonej.ops.triplePointAngles.StaticImagePlusGenerator;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for the StreamingConnectivity class
+ *
+ * @author Richard Domander
+ */
+public class StreamingConnectivityTest {
+	private static final ImageJ IMAGE_J = new ImageJ();
+	private static final double ERROR_MARGIN = 1E-12;
+	private static BinaryFunctionOp<Dimensions, BitType, Img<BitType>> imgCreator;
+
+	@BeforeClass
+	public static void oneTimeSetUp() {
+		imgCreator = (BinaryFunctionOp) Functions.binary(IMAGE_J.op(), Ops.Create.Img.class, Img.class,
+				Dimensions.class, new BitType());
+	}
+
+	@AfterClass
+	public static void oneTimeTearDown() {
+		IMAGE_J.context().dispose();
+	}
+
+	@Test
+	public void testIntervalSourceMatchesConnectivity() {
+		final double[] calibration = {0.2, 0.2, 0.2};
+		final ImgPlus<BitType> cuboid = (ImgPlus<BitType>) IMAGE_J.op().run(WireFrameCuboidCreator.class, null, 10L,
+				10L, 10L, 1L, calibration);
+
+		assertSameCharacteristics(cuboid);
+	}
+
+	/** Test with an image whose foreground touches the borders, so that the edge correction matters */
+	@Test
+	public void testBorderTouchingImageMatchesConnectivity() {
+		final Img<BitType> img = imgCreator.compute1(new FinalDimensions(9, 7, 6));
+		final Random random = new Random(0xB0E);
+		final Cursor<BitType> cursor = img.cursor();
+		while (cursor.hasNext()) {
+			cursor.next().set(random.nextInt(4) == 0);
+		}
+
+		assertSameCharacteristics(new ImgPlus<>(img));
+	}
+
+	@Test
+	public void regressionTestImageStackSource() {
+		final BitSliceSource source = ImageStackSliceSource
+				.fromImagePlus(StaticImagePlusGenerator.wireFrameCuboid(10, 10, 10, 1));
+
+		final Connectivity.Characteristics results = (Connectivity.Characteristics) IMAGE_J.op()
+				.run(StreamingConnectivity.class, source);
+
+		assertEquals(-4.0, results.eulerCharacteristic, ERROR_MARGIN);
+		assertEquals(-4.0, results.deltaChi, ERROR_MARGIN);
+		assertEquals(5.0, results.connectivity, ERROR_MARGIN);
+		assertEquals(5.0 / (12 * 12 * 12), results.connectivityDensity, ERROR_MARGIN);
+	}
+
+	/** Test that the slabs of a byte stack are swept in parallel with the same results as Connectivity */
+	@Test
+	public void testParallelImageStackSourceMatchesConnectivity() {
+		final int uSize = 70;
+		final int vSize = 5;
+		final int wSize = 13;
+		final ImageStack stack = new ImageStack(uSize, vSize);
+		final Img<BitType> img = imgCreator.compute1(new FinalDimensions(uSize, vSize, wSize));
+		final RandomAccess<BitType> access = img.randomAccess();
+		final Random random = new Random(0xB0E);
+		for (int w = 0; w < wSize; w++) {
+			final byte[] pixels = new byte[uSize * vSize];
+			for (int i = 0; i < pixels.length; i++) {
+				if (random.nextInt(3) == 0) {
+					pixels[i] = (byte) 0xFF;
+					access.setPosition(new long[]{i % uSize, i / uSize, w});
+					access.get().setOne();
+				}
+			}
+			stack.addSlice(new ByteProcessor(uSize, vSize, pixels));
+		}
+		final BitSliceSource source = new ImageStackSliceSource(stack, null);
+
+		final Connectivity.Characteristics expected = (Connectivity.Characteristics) IMAGE_J.op()
+				.run(Connectivity.class, new ImgPlus<>(img));
+		final Connectivity.Characteristics serial = (Connectivity.Characteristics) IMAGE_J.op()
+				.run(StreamingConnectivity.class, source, false);
+		final Connectivity.Characteristics parallel = (Connectivity.Characteristics) IMAGE_J.op()
+				.run(StreamingConnectivity.class, source, true);
+
+		assertTrue(source.supportsConcurrentReads());
+		for (final Connectivity.Characteristics results : new Connectivity.Characteristics[]{serial, parallel}) {
+			assertEquals(expected.eulerCharacteristic, results.eulerCharacteristic, ERROR_MARGIN);
+			assertEquals(expected.deltaChi, results.deltaChi, ERROR_MARGIN);
+			assertEquals(expected.connectivity, results.connectivity, ERROR_MARGIN);
+			assertEquals(expected.connectivityDensity, results.connectivityDensity, ERROR_MARGIN);
+		}
+	}
+
+	/** Test that the run-length encoded wire-frame matches the op, and gives the same results as the dense image */
+	@Test
+	public void testRunLengthSourceMatchesConnectivity() {
+		final double[] calibration = {1.0, 1.0, 1.0};
+		final ImgPlus<BitType> cuboid = (ImgPlus<BitType>) IMAGE_J.op().run(WireFrameCuboidCreator.class, null, 12L,
+				9L, 7L, 1L, calibration);
+		final RunLengthVolume volume = WireFrameCuboidCreator.createRunLengthVolume(12, 9, 7, 1);
+
+		assertEquals(RunLengthVolume.of(cuboid).getRunCount(), volume.getRunCount());
+		final Cursor<BitType> cursor = cuboid.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			assertEquals(cursor.get().get(), volume.get(cursor.getLongPosition(0), cursor.getLongPosition(1),
+					cursor.getLongPosition(2)));
+		}
+
+		final Connectivity.Characteristics expected = (Connectivity.Characteristics) IMAGE_J.op()
+				.run(Connectivity.class, cuboid);
+		final Connectivity.Characteristics results = (Connectivity.Characteristics) IMAGE_J.op()
+				.run(StreamingConnectivity.class, new RunLengthSliceSource(volume));
+
+		assertEquals("A closed wire-frame should have connectivity 5", 5.0, expected.connectivity, ERROR_MARGIN);
+		assertEquals(expected.eulerCharacteristic, results.eulerCharacteristic, ERROR_MARGIN);
+		assertEquals(expected.deltaChi, results.deltaChi, ERROR_MARGIN);
+		assertEquals(expected.connectivity, results.connectivity, ERROR_MARGIN);
+		assertEquals(expected.connectivityDensity, results.connectivityDensity, ERROR_MARGIN);
+	}
+
+	private static void assertSameCharacteristics(final ImgPlus<BitType> imgPlus) {
+		final Connectivity.Characteristics expected = (Connectivity.Characteristics) IMAGE_J.op()
+				.run(Connectivity.class, imgPlus);
+
+		final Connectivity.Characteristics results = (Connectivity.Characteristics) IMAGE_J.op()
+				.run(StreamingConnectivity.class, new IntervalSliceSource(imgPlus));
+
+		assertEquals(expected.eulerCharacteristic, results.eulerCharacteristic, ERROR_MARGIN);
+		assertEquals(expected.deltaChi, results.deltaChi, ERROR_MARGIN);
+		assertEquals(expected.connectivity, results.connectivity, ERROR_MARGIN);
+		assertEquals(expected.connectivityDensity, results.connectivityDensity, ERROR_MARGIN);
+	}
+}
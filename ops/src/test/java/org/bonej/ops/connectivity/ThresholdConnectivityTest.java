@@ -0,0 +1,75 @@
+package org.bonej.ops.connectivity;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import net.imagej.ImageJ;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.DefaultLinearAxis;
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for the ThresholdConnectivity class
+ *
+ * @author Richard Domander
+ */
+public class ThresholdConnectivityTest {
+	private static final ImageJ IMAGE_J = new ImageJ();
+	private static final double ERROR_MARGIN = 1E-12;
+
+	@AfterClass
+	public static void oneTimeTearDown() {
+		IMAGE_J.context().dispose();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testThresholdConnectivityFailsMatchWith2DImage() {
+		final ImgPlus<UnsignedShortType> imgPlus = new ImgPlus<>(ArrayImgs.unsignedShorts(3, 3));
+
+		IMAGE_J.op().op(ThresholdConnectivity.class, imgPlus, 0.0, 1.0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testThresholdConnectivityFailsMatchIfMinGreaterThanMax() {
+		final ImgPlus<UnsignedShortType> imgPlus = new ImgPlus<>(ArrayImgs.unsignedShorts(3, 3, 3));
+
+		IMAGE_J.op().op(ThresholdConnectivity.class, imgPlus, 2.0, 1.0);
+	}
+
+	/** Test that the results are the same as with Connectivity on a binarized copy of the image */
+	@Test
+	public void testThresholdConnectivityMatchesBinaryConnectivity() {
+		final Img<UnsignedShortType> img = ArrayImgs.unsignedShorts(70, 9, 8);
+		final Img<BitType> binary = ArrayImgs.bits(70, 9, 8);
+		final Random random = new Random(0xB0E);
+		final Cursor<UnsignedShortType> cursor = img.cursor();
+		final Cursor<BitType> binaryCursor = binary.cursor();
+		while (cursor.hasNext()) {
+			final int value = random.nextInt(4000);
+			cursor.next().set(value);
+			binaryCursor.next().set(value >= 1000 && value <= 2000);
+		}
+		final DefaultLinearAxis xAxis = new DefaultLinearAxis(Axes.X, "mm", 0.5);
+		final DefaultLinearAxis yAxis = new DefaultLinearAxis(Axes.Y, "mm", 0.5);
+		final DefaultLinearAxis zAxis = new DefaultLinearAxis(Axes.Z, "mm", 0.5);
+
+		final Connectivity.Characteristics expected = (Connectivity.Characteristics) IMAGE_J.op()
+				.run(Connectivity.class, new ImgPlus<>(binary, "", xAxis, yAxis, zAxis));
+		final Connectivity.Characteristics results = (Connectivity.Characteristics) IMAGE_J.op()
+				.run(ThresholdConnectivity.class, new ImgPlus<>(img, "", xAxis, yAxis, zAxis), 1000.0, 2000.0);
+
+		assertEquals(expected.eulerCharacteristic, results.eulerCharacteristic, ERROR_MARGIN);
+		assertEquals(expected.deltaChi, results.deltaChi, ERROR_MARGIN);
+		assertEquals(expected.connectivity, results.connectivity, ERROR_MARGIN);
+		assertEquals(expected.connectivityDensity, results.connectivityDensity, ERROR_MARGIN);
+	}
+}
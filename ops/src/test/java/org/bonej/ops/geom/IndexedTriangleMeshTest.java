@@ -0,0 +1,119 @@
+package org.bonej.ops.geom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import net.imagej.ImageJ;
+import net.imagej.ops.geom.geom3d.mesh.Mesh;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.logic.BitType;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for the IndexedTriangleMesh class
+ *
+ * @author Richard Domander
+ */
+public class IndexedTriangleMeshTest {
+	private static final ImageJ IMAGE_J = new ImageJ();
+	private static final double DELTA = 1e-9;
+
+	@AfterClass
+	public static void oneTimeTearDown() {
+		IMAGE_J.context().dispose();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructorThrowsIAEIfVertexDoesNotExist() {
+		new IndexedTriangleMesh(new float[] { 0, 0, 0, 1, 0, 0, 0, 1, 0 }, new int[] { 0, 1, 3 });
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructorThrowsIAEIfNormalsDoNotMatchVertices() {
+		new IndexedTriangleMesh(new float[] { 0, 0, 0 }, new int[0], new float[] { 0, 0, 1, 0, 0, 1 });
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testGetNormalThrowsISEWithoutNormals() {
+		new IndexedTriangleMesh(new float[] { 0, 0, 0 }, new int[0]).getNormal(0, 0);
+	}
+
+	@Test
+	public void testEmptyMesh() {
+		final IndexedTriangleMesh mesh = new IndexedTriangleMesh(new float[0], new int[0]);
+
+		assertEquals("Empty mesh should have no volume", 0.0, mesh.volume(), DELTA);
+		assertEquals("Empty mesh should have no area", 0.0, mesh.surfaceArea(), DELTA);
+	}
+
+	/** Test the volume and area of an octahedron with vertices 0.5 from its center, i.e. the mesh of one element */
+	@Test
+	public void testVolumeAndAreaOfOctahedron() {
+		final Img<BitType> img = ArrayImgs.bits(1, 1, 1);
+		img.firstElement().setOne();
+
+		final IndexedTriangleMesh mesh = ParallelMarchingCubes.indexedMesh(img, false);
+
+		assertEquals("Octahedron should have 6 vertices", 6, mesh.getVertexCount());
+		assertEquals("Octahedron should have 8 triangles", 8, mesh.getTriangleCount());
+		assertEquals("Incorrect volume", 1.0 / 6.0, mesh.volume(), DELTA);
+		// Each face is an equilateral triangle with sides of sqrt(0.5)
+		assertEquals("Incorrect surface area", 8 * Math.sqrt(3.0) / 4.0 * 0.5, mesh.surfaceArea(), DELTA);
+	}
+
+	@Test
+	public void testVolumeFarFromOrigin() {
+		final float[] coordinates = { 0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 0, 1 };
+		final float[] translated = coordinates.clone();
+		for (int i = 0; i < translated.length; i++) {
+			translated[i] += 100_000;
+		}
+		final int[] triangles = { 0, 2, 1, 0, 1, 3, 0, 3, 2, 1, 2, 3 };
+
+		final double volume = new IndexedTriangleMesh(coordinates, triangles).volume();
+		final double translatedVolume = new IndexedTriangleMesh(translated, triangles).volume();
+
+		assertEquals("Incorrect volume of a tetrahedron", 1.0 / 6.0, volume, DELTA);
+		assertEquals("Translation should not change volume", volume, translatedVolume, DELTA);
+	}
+
+	/** Test that the normals of the vertices of an octahedron point away from its center */
+	@Test
+	public void testWithNormals() {
+		final Img<BitType> img = ArrayImgs.bits(1, 1, 1);
+		img.firstElement().setOne();
+		final IndexedTriangleMesh mesh = ParallelMarchingCubes.indexedMesh(img, false);
+
+		final IndexedTriangleMesh withNormals = mesh.withNormals();
+
+		assertFalse(mesh.hasNormals());
+		assertTrue(withNormals.hasNormals());
+		assertEquals("Normals should not change vertices", mesh.getVertexCount(), withNormals.getVertexCount());
+		for (int v = 0; v < withNormals.getVertexCount(); v++) {
+			for (int d = 0; d < 3; d++) {
+				assertEquals("Normal doesn't point away from the center", 2.0 * withNormals.getCoordinate(v, d),
+						withNormals.getNormal(v, d), DELTA);
+			}
+		}
+	}
+
+	@Test
+	public void testToMesh() {
+		final Img<BitType> img = ArrayImgs.bits(3, 3, 3);
+		img.forEach(BitType::setOne);
+		final IndexedTriangleMesh indexedMesh = ParallelMarchingCubes.indexedMesh(img, false);
+
+		final Mesh mesh = indexedMesh.toMesh();
+
+		assertEquals("Mesh has a different number of facets", indexedMesh.getTriangleCount(), mesh.getFacets()
+				.size());
+		assertEquals("Mesh has a different volume", indexedMesh.volume(), IMAGE_J.op().geom().size(mesh).get(),
+				DELTA);
+		assertEquals("Mesh has a different area", indexedMesh.surfaceArea(), IMAGE_J.op().geom().boundarySize(mesh)
+				.get(), DELTA);
+	}
+}
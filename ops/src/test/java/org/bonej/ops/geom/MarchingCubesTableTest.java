@@ -0,0 +1,158 @@
+package org.bonej.ops.geom;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the MarchingCubesTable class
+ *
+ * @author Richard Domander
+ */
+public class MarchingCubesTableTest {
+	private static final double DELTA = 1e-12;
+
+	@Test
+	public void testEnclosedVolumeOfEmptyAndFullCube() {
+		assertEquals("Empty cube should have no volume", 0.0, MarchingCubesTable.enclosedVolume(0), DELTA);
+		assertEquals("Full cube should have unit volume", 1.0, MarchingCubesTable.enclosedVolume(255), DELTA);
+		assertEquals("Empty cube should have no triangles", 0, MarchingCubesTable.triangles(0).length);
+		assertEquals("Full cube should have no triangles", 0, MarchingCubesTable.triangles(255).length);
+	}
+
+	/** Test that a single corner is cut off by a triangle, which encloses a tetrahedron with sides of 0.5 */
+	@Test
+	public void testEnclosedVolumeOfCorner() {
+		for (int corner = 0; corner < 8; corner++) {
+			final int configuration = 1 << corner;
+
+			assertEquals("Incorrect volume of corner " + corner, 1.0 / 48.0,
+					MarchingCubesTable.enclosedVolume(configuration), DELTA);
+			assertEquals("Corner should have one triangle", 3, MarchingCubesTable.triangles(configuration).length);
+		}
+	}
+
+	/** Test that the foreground and background volumes add up, when the configuration has no ambiguous faces */
+	@Test
+	public void testEnclosedVolumeOfComplement() {
+		final int[][] faces = { { 0, 1, 3, 2 }, { 4, 6, 7, 5 }, { 0, 2, 6, 4 }, { 1, 5, 7, 3 }, { 0, 4, 5, 1 },
+				{ 2, 3, 7, 6 } };
+		for (int configuration = 0; configuration < MarchingCubesTable.CONFIGURATIONS; configuration++) {
+			boolean ambiguous = false;
+			for (final int[] face : faces) {
+				final boolean diagonal = bit(configuration, face[0]) == bit(configuration, face[2]) &&
+						bit(configuration, face[1]) == bit(configuration, face[3]) &&
+						bit(configuration, face[0]) != bit(configuration, face[1]);
+				ambiguous |= diagonal;
+			}
+			if (ambiguous) {
+				continue;
+			}
+
+			assertEquals("Volumes of configuration " + configuration + " and its complement don't add up", 1.0,
+					MarchingCubesTable.enclosedVolume(configuration) +
+							MarchingCubesTable.enclosedVolume(255 - configuration), DELTA);
+		}
+	}
+
+	/** Test that a single element is enclosed by an octahedron with vertices 0.5 from its center */
+	@Test
+	public void testEnclosedVolumeOfSingleElement() {
+		final long[] histogram = new long[MarchingCubesTable.CONFIGURATIONS];
+		for (int corner = 0; corner < 8; corner++) {
+			histogram[1 << corner]++;
+		}
+
+		assertEquals("Incorrect volume of an element", 1.0 / 6.0, MarchingCubesTable.enclosedVolume(histogram),
+				DELTA);
+	}
+
+	/**
+	 * Test that the surface of random images is closed, i.e. each directed edge of a triangle has exactly one
+	 * opposite edge, and that the volume of the triangles is the same as the volume from the table
+	 */
+	@Test
+	public void testSurfaceIsClosedAndMatchesEnclosedVolume() {
+		final Random random = new Random(0xC0FFEE);
+		for (int i = 0; i < 50; i++) {
+			final int size = 2 + random.nextInt(6);
+			final boolean[][][] image = new boolean[size][size][size];
+			final double density = random.nextDouble();
+			for (int x = 0; x < size; x++) {
+				for (int y = 0; y < size; y++) {
+					for (int z = 0; z < size; z++) {
+						image[x][y][z] = random.nextDouble() < density;
+					}
+				}
+			}
+			final Map<String, Integer> directedEdges = new HashMap<>();
+			double meshVolume = 0.0;
+			double tableVolume = 0.0;
+
+			for (int x = -1; x < size; x++) {
+				for (int y = -1; y < size; y++) {
+					for (int z = -1; z < size; z++) {
+						final int configuration = configuration(image, x, y, z);
+						tableVolume += MarchingCubesTable.enclosedVolume(configuration);
+						final int[] triangles = MarchingCubesTable.triangles(configuration);
+						for (int t = 0; t < triangles.length; t += 3) {
+							final double[][] vertices = new double[3][];
+							for (int v = 0; v < 3; v++) {
+								vertices[v] = new double[] {
+										x + MarchingCubesTable.midpointCoordinate(triangles[t + v], 0),
+										y + MarchingCubesTable.midpointCoordinate(triangles[t + v], 1),
+										z + MarchingCubesTable.midpointCoordinate(triangles[t + v], 2) };
+							}
+							meshVolume += determinant(vertices) / 6.0;
+							for (int v = 0; v < 3; v++) {
+								directedEdges.merge(key(vertices[v], vertices[(v + 1) % 3]), 1, Integer::sum);
+							}
+						}
+					}
+				}
+			}
+
+			for (final Map.Entry<String, Integer> edge : directedEdges.entrySet()) {
+				final String[] ends = edge.getKey().split(">");
+				assertEquals("Edge used more than once", 1, edge.getValue().intValue());
+				assertEquals("Edge has no opposite", 1, directedEdges.getOrDefault(ends[1] + ">" + ends[0], 0)
+						.intValue());
+			}
+			assertEquals("Volume of the mesh doesn't match the table", meshVolume, tableVolume, 1e-9);
+		}
+	}
+
+	//region -- Helper methods --
+
+	private static boolean bit(final int configuration, final int corner) {
+		return (configuration & (1 << corner)) != 0;
+	}
+
+	private static int configuration(final boolean[][][] image, final int x, final int y, final int z) {
+		final int size = image.length;
+		int configuration = 0;
+		for (int corner = 0; corner < 8; corner++) {
+			final int cx = x + MarchingCubesTable.cornerCoordinate(corner, 0);
+			final int cy = y + MarchingCubesTable.cornerCoordinate(corner, 1);
+			final int cz = z + MarchingCubesTable.cornerCoordinate(corner, 2);
+			if (cx >= 0 && cy >= 0 && cz >= 0 && cx < size && cy < size && cz < size && image[cx][cy][cz]) {
+				configuration |= 1 << corner;
+			}
+		}
+		return configuration;
+	}
+
+	private static double determinant(final double[][] m) {
+		return m[0][0] * (m[1][1] * m[2][2] - m[1][2] * m[2][1]) - m[0][1] * (m[1][0] * m[2][2] - m[1][2] * m[2][0]) +
+				m[0][2] * (m[1][0] * m[2][1] - m[1][1] * m[2][0]);
+	}
+
+	private static String key(final double[] a, final double[] b) {
+		return a[0] + "," + a[1] + "," + a[2] + ">" + b[0] + "," + b[1] + "," + b[2];
+	}
+	//endregion
+}
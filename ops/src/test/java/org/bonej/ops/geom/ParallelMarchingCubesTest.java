@@ -0,0 +1,200 @@
+package org.bonej.ops.geom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import net.imagej.ImageJ;
+import net.imagej.ops.geom.geom3d.mesh.Mesh;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.view.Views;
+
+import org.bonej.ops.connectivity.MinkowskiFunctionals;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for the ParallelMarchingCubes Op
+ *
+ * @author Richard Domander
+ */
+public class ParallelMarchingCubesTest {
+	private static final ImageJ IMAGE_J = new ImageJ();
+	private static final double DELTA = 1e-9;
+	private static final float[] ORIGIN = { 0, 0, 0 };
+
+	@AfterClass
+	public static void oneTimeTearDown() {
+		IMAGE_J.context().dispose();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMatchingFailsIf2DImage() {
+		IMAGE_J.op().op(ParallelMarchingCubes.class, ArrayImgs.bits(5, 5));
+	}
+
+	/** Test that a single element is enclosed by an octahedron with vertices 0.5 from its center */
+	@Test
+	public void testSingleElement() {
+		final Img<BitType> img = ArrayImgs.bits(1, 1, 1);
+		img.firstElement().setOne();
+
+		final Mesh mesh = (Mesh) IMAGE_J.op().run(ParallelMarchingCubes.class, Views.translate(img, 5, 6, 7));
+
+		assertEquals("Octahedron should have 8 faces", 8, mesh.getFacets().size());
+		assertEquals("Incorrect volume of an element", 1.0 / 6.0, IMAGE_J.op().geom().size(mesh).get(), DELTA);
+	}
+
+	@Test
+	public void testParallelMeshMatchesSerial() {
+		final Img<BitType> img = randomImage(new Random(0xC0FFEE), 20, 15, 30, 0.5);
+
+		final Mesh serial = (Mesh) IMAGE_J.op().run(ParallelMarchingCubes.class, img, false);
+		final Mesh parallel = (Mesh) IMAGE_J.op().run(ParallelMarchingCubes.class, img, true);
+
+		assertEquals("Parallel mesh has a different number of faces", serial.getFacets().size(), parallel
+				.getFacets().size());
+		final double expectedVolume = MarchingCubesTable.enclosedVolume(MinkowskiFunctionals.countConfigurations(img,
+				false));
+		assertEquals("Incorrect serial volume", expectedVolume, IMAGE_J.op().geom().size(serial).get(), DELTA);
+		assertEquals("Incorrect parallel volume", expectedVolume, IMAGE_J.op().geom().size(parallel).get(), DELTA);
+	}
+
+	@Test
+	public void testIndexedMeshMatchesOp() {
+		final Img<BitType> img = randomImage(new Random(0xFACE), 10, 10, 10, 0.3);
+
+		final Mesh mesh = (Mesh) IMAGE_J.op().run(ParallelMarchingCubes.class, img);
+		final IndexedTriangleMesh indexedMesh = ParallelMarchingCubes.indexedMesh(img, true);
+
+		assertEquals("Indexed mesh has a different number of triangles", mesh.getFacets().size(), indexedMesh
+				.getTriangleCount());
+		assertEquals("Indexed mesh has a different volume", IMAGE_J.op().geom().size(mesh).get(), indexedMesh
+				.volume(), DELTA);
+	}
+
+	/** Test that the volume is the same as that of ops marching cubes, when no face has diagonal foreground */
+	@Test
+	public void testVolumeMatchesOpsWithoutAmbiguousFaces() {
+		final Img<BitType> img = ArrayImgs.bits(16, 14, 12);
+		// Boxes that don't touch each other, so each cube meets at most one box
+		fill(img, 0, 0, 0, 3, 4, 2);
+		fill(img, 6, 2, 1, 12, 5, 6);
+		fill(img, 2, 8, 4, 15, 13, 11);
+		fill(img, 9, 9, 0, 9, 9, 0);
+		assertEquals(0, ambiguousFaces(img));
+
+		final Mesh opsMesh = IMAGE_J.op().geom().marchingCubes(img);
+		final IndexedTriangleMesh mesh = ParallelMarchingCubes.indexedMesh(img, true);
+
+		assertEquals(IMAGE_J.op().geom().size(opsMesh).get(), mesh.volume(), DELTA);
+	}
+
+	/**
+	 * Test the gap to the volume of ops marching cubes, when some faces have diagonal foreground,
+	 * which the triangulations resolve differently
+	 */
+	@Test
+	public void testVolumeGapToOpsWithAmbiguousFaces() {
+		final Img<BitType> img = ArrayImgs.bits(20, 20, 20);
+		fill(img, 2, 2, 2, 17, 17, 17);
+		final RandomAccess<BitType> access = img.randomAccess();
+		// Pairs of background elements that touch only at an edge inside the solid
+		for (int i = 0; i < 4; i++) {
+			access.setPosition(new long[] { 4 + 3 * i, 5, 6 + 2 * i });
+			access.get().setZero();
+			access.setPosition(new long[] { 5 + 3 * i, 6, 6 + 2 * i });
+			access.get().setZero();
+		}
+		assertTrue(ambiguousFaces(img) > 0);
+
+		final double opsVolume = IMAGE_J.op().geom().size(IMAGE_J.op().geom().marchingCubes(img)).get();
+		final double volume = ParallelMarchingCubes.indexedMesh(img, true).volume();
+
+		assertEquals("The gap to ops marching cubes should be small", opsVolume, volume, 0.02 * opsVolume);
+	}
+
+	/** Test that the vertices on the planes between the slabs are merged when they're stitched */
+	@Test
+	public void testStitchedSlabsHaveNoDuplicateVertices() {
+		final Random random = new Random(0xBEEF);
+		for (int i = 0; i < 10; i++) {
+			final Img<BitType> img = randomImage(random, 8, 8, 12, random.nextDouble());
+
+			final IndexedTriangleMesh serial = ParallelMarchingCubes.stitch(ParallelMarchingCubes.meshSlabs(img, 1,
+					false), ORIGIN);
+			final IndexedTriangleMesh slabs = ParallelMarchingCubes.stitch(ParallelMarchingCubes.meshSlabs(img, 13,
+					false), ORIGIN);
+
+			assertEquals("Stitched mesh has a different number of vertices", serial.getVertexCount(), slabs
+					.getVertexCount());
+			assertEquals("Stitched mesh has a different number of triangles", serial.getTriangleCount(), slabs
+					.getTriangleCount());
+			final Set<String> coordinates = new HashSet<>();
+			for (int v = 0; v < slabs.getVertexCount(); v++) {
+				assertTrue("Duplicate vertex", coordinates.add(slabs.getCoordinate(v, 0) + "," +
+						slabs.getCoordinate(v, 1) + "," + slabs.getCoordinate(v, 2)));
+			}
+		}
+	}
+
+	//region -- Helper methods --
+
+	private static Img<BitType> randomImage(final Random random, final long width, final long height,
+			final long depth, final double density) {
+		final Img<BitType> img = ArrayImgs.bits(width, height, depth);
+		img.forEach(e -> e.set(random.nextDouble() < density));
+		return img;
+	}
+
+	private static void fill(final Img<BitType> img, final long u0, final long v0, final long w0, final long u1,
+			final long v1, final long w1) {
+		final Cursor<BitType> cursor = Views.interval(img, new long[] { u0, v0, w0 }, new long[] { u1, v1, w1 })
+				.cursor();
+		while (cursor.hasNext()) {
+			cursor.next().setOne();
+		}
+	}
+
+	/**
+	 * Counts the faces of the cubes of the image padded with background, where the foreground corners are diagonal
+	 */
+	private static int ambiguousFaces(final Img<BitType> img) {
+		final RandomAccess<BitType> access = Views.extendZero(img).randomAccess();
+		final long[] position = new long[3];
+		int faces = 0;
+		for (int d0 = 0; d0 < 3; d0++) {
+			final int d1 = (d0 + 1) % 3;
+			for (position[2] = -1; position[2] <= img.dimension(2); position[2]++) {
+				for (position[1] = -1; position[1] <= img.dimension(1); position[1]++) {
+					for (position[0] = -1; position[0] <= img.dimension(0); position[0]++) {
+						final boolean a = get(access, position, 0, 0, d0, d1);
+						final boolean b = get(access, position, 1, 0, d0, d1);
+						final boolean c = get(access, position, 0, 1, d0, d1);
+						final boolean d = get(access, position, 1, 1, d0, d1);
+						if (a == d && b == c && a != b) {
+							faces++;
+						}
+					}
+				}
+			}
+		}
+		return faces;
+	}
+
+	private static boolean get(final RandomAccess<BitType> access, final long[] position, final int step0,
+			final int step1, final int d0, final int d1) {
+		access.setPosition(position);
+		access.move(step0, d0);
+		access.move(step1, d1);
+		return access.get().get();
+	}
+	//endregion
+}
@@ -0,0 +1,182 @@
+package org.bonej.ops.particles;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import net.imagej.ImageJ;
+import net.imagej.ImgPlus;
+import net.imagej.ops.Ops;
+import net.imagej.ops.special.function.BinaryFunctionOp;
+import net.imagej.ops.special.function.Functions;
+import net.imglib2.Cursor;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.util.Intervals;
+
+import org.bonej.ops.connectivity.Connectivity;
+import org.bonej.ops.particles.ParticleLabelling.Results;
+import org.bonej.ops.testImageGenerators.WireFrameCuboidCreator;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for the ParticleLabelling class
+ *
+ * @author Richard Domander
+ */
+public class ParticleLabellingTest {
+	private static final ImageJ IMAGE_J = new ImageJ();
+	private static final double ERROR_MARGIN = 1E-12;
+	private static BinaryFunctionOp<Dimensions, BitType, Img<BitType>> imgCreator;
+
+	@BeforeClass
+	public static void oneTimeSetUp() {
+		imgCreator = (BinaryFunctionOp) Functions.binary(IMAGE_J.op(), Ops.Create.Img.class, Img.class,
+				Dimensions.class, new BitType());
+	}
+
+	@AfterClass
+	public static void oneTimeTearDown() {
+		IMAGE_J.context().dispose();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParticleLabellingFailsMatchWith2DImage() {
+		final ImgPlus<BitType> imgPlus = new ImgPlus<>(imgCreator.compute1(new FinalDimensions(3, 3)));
+
+		IMAGE_J.op().op(ParticleLabelling.class, imgPlus);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParticleLabellingFailsMatchWithBadNeighbourhood() {
+		final ImgPlus<BitType> imgPlus = new ImgPlus<>(imgCreator.compute1(new FinalDimensions(3, 3, 3)));
+
+		IMAGE_J.op().op(ParticleLabelling.class, imgPlus, 18);
+	}
+
+	@Test
+	public void testSeparateCuboids() {
+		final Img<BitType> img = imgCreator.compute1(new FinalDimensions(10, 10, 10));
+		fill(img, new FinalInterval(new long[]{5, 1, 2}, new long[]{8, 3, 4}));
+		fill(img, new FinalInterval(new long[]{1, 6, 6}, new long[]{2, 8, 9}));
+
+		final Results results = (Results) IMAGE_J.op().run(ParticleLabelling.class, new ImgPlus<>(img));
+
+		assertEquals(2, results.particleCount);
+		// Labels go in the scan order of the first elements
+		assertEquals(4 * 3 * 3, results.getElementCount(1));
+		assertEquals(2 * 3 * 4, results.getElementCount(2));
+		assertTrue(Intervals.equals(new FinalInterval(new long[]{5, 1, 2}, new long[]{8, 3, 4}),
+				results.getBoundingBox(1)));
+		assertTrue(Intervals.equals(new FinalInterval(new long[]{1, 6, 6}, new long[]{2, 8, 9}),
+				results.getBoundingBox(2)));
+		assertEquals(1, results.getLargestParticle());
+		final RandomAccess<IntType> access = results.labels.randomAccess();
+		access.setPosition(new long[]{1, 7, 9});
+		assertEquals(2, access.get().get());
+		access.setPosition(new long[]{0, 0, 0});
+		assertEquals(0, access.get().get());
+	}
+
+	/** Test that elements touching only at corners are one particle in 26-connectivity, but not in 6 */
+	@Test
+	public void testNeighbourhood() {
+		final Img<BitType> img = imgCreator.compute1(new FinalDimensions(4, 4, 4));
+		final RandomAccess<BitType> access = img.randomAccess();
+		for (int i = 0; i < 4; i++) {
+			access.setPosition(new long[]{i, i, i});
+			access.get().setOne();
+		}
+		final ImgPlus<BitType> imgPlus = new ImgPlus<>(img);
+
+		final Results fullResults = (Results) IMAGE_J.op().run(ParticleLabelling.class, imgPlus, 26);
+		final Results faceResults = (Results) IMAGE_J.op().run(ParticleLabelling.class, imgPlus, 6);
+
+		assertEquals(1, fullResults.particleCount);
+		assertEquals(4, fullResults.getElementCount(1));
+		assertEquals(4, faceResults.particleCount);
+	}
+
+	/** Test that the parallel labelling gives exactly the same labels as the serial */
+	@Test
+	public void testParallelMatchesSerial() {
+		final Img<BitType> img = imgCreator.compute1(new FinalDimensions(17, 13, 40));
+		final Random random = new Random(0xB0E);
+		final Cursor<BitType> cursor = img.cursor();
+		while (cursor.hasNext()) {
+			cursor.next().set(random.nextInt(4) == 0);
+		}
+		final ImgPlus<BitType> imgPlus = new ImgPlus<>(img);
+
+		for (final int neighbourhood : new int[]{6, 26}) {
+			final Results serial = (Results) IMAGE_J.op().run(ParticleLabelling.class, imgPlus, neighbourhood,
+					false);
+			final Results parallel = (Results) IMAGE_J.op().run(ParticleLabelling.class, imgPlus, neighbourhood,
+					true);
+
+			assertEquals(serial.particleCount, parallel.particleCount);
+			final Cursor<IntType> serialCursor = serial.labels.cursor();
+			final Cursor<IntType> parallelCursor = parallel.labels.cursor();
+			while (serialCursor.hasNext()) {
+				assertEquals(serialCursor.next().get(), parallelCursor.next().get());
+			}
+			for (int label = 1; label <= serial.particleCount; label++) {
+				assertEquals(serial.getElementCount(label), parallel.getElementCount(label));
+				assertTrue(Intervals.equals(serial.getBoundingBox(label), parallel.getBoundingBox(label)));
+			}
+		}
+	}
+
+	/** Test that the image of a particle gives the same connectivity as an image of it alone */
+	@Test
+	public void testParticleImageConnectivity() {
+		final double[] calibration = {0.2, 0.2, 0.2};
+		final ImgPlus<BitType> cuboid = (ImgPlus<BitType>) IMAGE_J.op().run(WireFrameCuboidCreator.class, null, 10L,
+				10L, 10L, 1L, calibration);
+		final Connectivity.Characteristics expected = (Connectivity.Characteristics) IMAGE_J.op()
+				.run(Connectivity.class, cuboid);
+		final RandomAccess<BitType> access = cuboid.randomAccess();
+		access.setPosition(new long[]{11, 11, 0});
+		access.get().setOne();
+
+		final Results results = (Results) IMAGE_J.op().run(ParticleLabelling.class, cuboid);
+		final ImgPlus<BitType> particle = results.createParticleImage(results.getLargestParticle());
+		final Connectivity.Characteristics characteristics = (Connectivity.Characteristics) IMAGE_J.op()
+				.run(Connectivity.class, particle);
+
+		assertEquals(2, results.particleCount);
+		assertEquals(expected.eulerCharacteristic, characteristics.eulerCharacteristic, ERROR_MARGIN);
+		assertEquals(expected.deltaChi, characteristics.deltaChi, ERROR_MARGIN);
+		assertEquals(expected.connectivity, characteristics.connectivity, ERROR_MARGIN);
+		assertEquals(expected.connectivityDensity, characteristics.connectivityDensity, ERROR_MARGIN);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetElementCountThrowsIllegalArgumentExceptionIfNoParticle() {
+		final ImgPlus<BitType> imgPlus = new ImgPlus<>(imgCreator.compute1(new FinalDimensions(3, 3, 3)));
+		final Results results = (Results) IMAGE_J.op().run(ParticleLabelling.class, imgPlus);
+
+		results.getElementCount(1);
+	}
+
+	private static void fill(final Img<BitType> img, final FinalInterval interval) {
+		final RandomAccess<BitType> access = img.randomAccess();
+		final long[] position = new long[3];
+		for (position[2] = interval.min(2); position[2] <= interval.max(2); position[2]++) {
+			for (position[1] = interval.min(1); position[1] <= interval.max(1); position[1]++) {
+				for (position[0] = interval.min(0); position[0] <= interval.max(0); position[0]++) {
+					access.setPosition(position);
+					access.get().setOne();
+				}
+			}
+		}
+	}
+}
@@ -7,13 +7,22 @@ import net.imagej.ImageJ;
 import net.imagej.ops.Ops;
 import net.imagej.ops.special.function.BinaryFunctionOp;
 import net.imagej.ops.special.function.Functions;
+import net.imglib2.Cursor;
 import net.imglib2.Dimensions;
 import net.imglib2.FinalDimensions;
 import net.imglib2.RandomAccess;
 import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
 
+import org.bonej.ops.binary.BlockOccupancy;
+import org.bonej.ops.binary.RunLengthVolume;
 import org.bonej.ops.thresholdFraction.ThresholdElementFraction.Results;
 import org.bonej.ops.thresholdFraction.ThresholdElementFraction.Settings;
 import org.junit.AfterClass;
@@ -66,4 +75,153 @@ public class ThresholdElementFractionTest {
 		assertEquals("Incorrect number of elements within thresholds", 5L, results.thresholdElements);
 		assertEquals("Incorrect ratio of elements", 0.5, results.elementRatio, 1E-12);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testThresholdElementFractionWithForegroundBlocks() {
+		final Settings<LongType> settings = new Settings<>(new LongType(1L), new LongType(5L), new LongType(9L));
+		final Img<LongType> img = imgCreator.compute1(new FinalDimensions(11, 6, 5));
+		final Cursor<LongType> cursor = img.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			// Values 0 - 10 along u, and background where v < 3
+			cursor.get().set(cursor.getLongPosition(1) < 3 ? 0 : cursor.getLongPosition(0));
+		}
+		final BlockOccupancy foregroundBlocks = BlockOccupancy.of(img, e -> e.get() >= 1L, 3);
+
+		for (final boolean parallel : new boolean[] { true, false }) {
+			final Results results = (Results) IMAGE_J.op().run(ThresholdElementFraction.class, img, settings,
+					foregroundBlocks, null, parallel);
+
+			assertEquals("Incorrect number of foreground elements", 10L * 3 * 5, results.foregroundElements);
+			assertEquals("Incorrect number of elements within thresholds", 5L * 3 * 5, results.thresholdElements);
+		}
+	}
+
+	@Test
+	public void testThresholdElementFractionWithForegroundRuns() {
+		final Settings<LongType> settings = new Settings<>(new LongType(1L), new LongType(5L), new LongType(9L));
+		final Img<LongType> img = imgCreator.compute1(new FinalDimensions(11, 6, 5));
+		final Cursor<LongType> cursor = img.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			// Values 0 - 10 along u, and background where v < 3
+			cursor.get().set(cursor.getLongPosition(1) < 3 ? 0 : cursor.getLongPosition(0));
+		}
+		final RunLengthVolume foregroundRuns = RunLengthVolume.ofThreshold(img, 1.0, Double.POSITIVE_INFINITY);
+
+		for (final boolean parallel : new boolean[] { true, false }) {
+			final Results results = (Results) IMAGE_J.op().run(ThresholdElementFraction.class, img, settings, null,
+					foregroundRuns, parallel);
+
+			assertEquals("Incorrect number of foreground elements", 10L * 3 * 5, results.foregroundElements);
+			assertEquals("Incorrect number of elements within thresholds", 5L * 3 * 5, results.thresholdElements);
+		}
+	}
+
+	@Test
+	public void testThresholdElementFractionWithMask() {
+		final Settings<LongType> settings = new Settings<>(new LongType(1L), new LongType(5L), new LongType(9L));
+		final Img<LongType> img = imgCreator.compute1(new FinalDimensions(11, 6, 5));
+		final Cursor<LongType> cursor = img.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get().set(cursor.getLongPosition(0));
+		}
+		// Mask rows where v < 3, and one element 10 in row v = 4
+		final RunLengthVolume.Builder builder = new RunLengthVolume.Builder(11, 6, 5);
+		for (int w = 0; w < 5; w++) {
+			for (int v = 0; v < 3; v++) {
+				builder.addRun(v, w, 0, 11);
+			}
+			builder.addRun(4, w, 10, 11);
+		}
+		final RunLengthVolume mask = builder.build();
+
+		for (final boolean parallel : new boolean[] { true, false }) {
+			final Results results = (Results) IMAGE_J.op().run(ThresholdElementFraction.class, img, settings, null,
+					null, parallel, null, mask);
+
+			assertEquals("Incorrect number of foreground elements", 10L * 3 * 5 + 5, results.foregroundElements);
+			assertEquals("Incorrect number of elements within thresholds", 5L * 3 * 5, results.thresholdElements);
+		}
+	}
+
+	@Test
+	public void testThresholdElementFractionUnsignedByteKernel() {
+		final ArrayImg<UnsignedByteType, ?> img = ArrayImgs.unsignedBytes(300, 300, 3);
+		final Cursor<UnsignedByteType> cursor = img.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get().set((int) ((cursor.getLongPosition(0) + 7 * cursor.getLongPosition(1)) % 256));
+		}
+		final Settings<UnsignedByteType> settings = new Settings<>(new UnsignedByteType(100),
+				new UnsignedByteType(200), new UnsignedByteType(255));
+
+		assertKernelMatchesGenericCount(img, settings);
+	}
+
+	@Test
+	public void testThresholdElementFractionUnsignedShortKernel() {
+		final ArrayImg<UnsignedShortType, ?> img = ArrayImgs.unsignedShorts(300, 300, 3);
+		final Cursor<UnsignedShortType> cursor = img.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get().set((int) ((cursor.getLongPosition(0) * 311 + cursor.getLongPosition(1) * 17) % 65536));
+		}
+		final Settings<UnsignedShortType> settings = new Settings<>(new UnsignedShortType(1000),
+				new UnsignedShortType(40000), new UnsignedShortType(65535));
+
+		assertKernelMatchesGenericCount(img, settings);
+	}
+
+	@Test
+	public void testThresholdElementFractionFloatKernel() {
+		final ArrayImg<FloatType, ?> img = ArrayImgs.floats(300, 300, 3);
+		final Cursor<FloatType> cursor = img.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get().set((float) Math.sin(cursor.getLongPosition(0) * 0.1 + cursor.getLongPosition(1)));
+		}
+		final Settings<FloatType> settings = new Settings<>(new FloatType(-0.5f), new FloatType(0.25f),
+				new FloatType(0.75f));
+
+		assertKernelMatchesGenericCount(img, settings);
+	}
+
+	//region -- Helper methods --
+
+	/**
+	 * Asserts that the kernel of the ArrayImg gives the same counts in parallel and serially,
+	 * as the generic count of a view, which has no kernel
+	 */
+	private static <T extends Comparable<T>> void assertKernelMatchesGenericCount(final ArrayImg<T, ?> img,
+			final Settings<T> settings) {
+		long foregroundElements = 0;
+		long thresholdElements = 0;
+		for (final T e : img) {
+			if (e.compareTo(settings.foregroundCutOff) >= 0) {
+				foregroundElements++;
+			}
+			if (e.compareTo(settings.minThreshold) >= 0 && e.compareTo(settings.maxThreshold) <= 0) {
+				thresholdElements++;
+			}
+		}
+
+		for (final boolean parallel : new boolean[] { true, false }) {
+			final Results kernelResults = (Results) IMAGE_J.op().run(ThresholdElementFraction.class, img, settings,
+					null, null, parallel);
+			final Results viewResults = (Results) IMAGE_J.op().run(ThresholdElementFraction.class,
+					Views.interval(img, img), settings, null, null, parallel);
+
+			assertEquals("Incorrect number of foreground elements", foregroundElements,
+					kernelResults.foregroundElements);
+			assertEquals("Incorrect number of elements within thresholds", thresholdElements,
+					kernelResults.thresholdElements);
+			assertEquals("Incorrect number of foreground elements", foregroundElements,
+					viewResults.foregroundElements);
+			assertEquals("Incorrect number of elements within thresholds", thresholdElements,
+					viewResults.thresholdElements);
+		}
+	}
+	//endregion
+}
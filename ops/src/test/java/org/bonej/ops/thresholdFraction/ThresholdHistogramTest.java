@@ -0,0 +1,187 @@
+package org.bonej.ops.thresholdFraction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import net.imagej.ImageJ;
+import net.imglib2.Cursor;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import org.bonej.ops.thresholdFraction.ThresholdElementFraction.Results;
+import org.bonej.ops.thresholdFraction.ThresholdElementFraction.Settings;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for the ThresholdHistogram class
+ *
+ * @author Richard Domander
+ */
+public class ThresholdHistogramTest {
+	private static final ImageJ IMAGE_J = new ImageJ();
+
+	@AfterClass
+	public static void oneTimeTearDown() {
+		IMAGE_J.context().dispose();
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testOfIntegersThrowsNPEIfIntervalNull() {
+		ThresholdHistogram.ofIntegers((ArrayImg<LongType, ?>) null, true);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOfIntegersThrowsIAEIfRangeTooLarge() {
+		final ArrayImg<LongType, ?> img = ArrayImgs.longs(2);
+		final Cursor<LongType> cursor = img.cursor();
+		cursor.next().set(0L);
+		cursor.next().set(ThresholdHistogram.MAX_EXACT_BINS);
+
+		ThresholdHistogram.ofIntegers(img, true);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOfRealsThrowsIAEIfNoBins() {
+		ThresholdHistogram.ofReals(ArrayImgs.floats(2), 0, true);
+	}
+
+	@Test
+	public void testIntegerQueriesMatchThresholdElementFraction() {
+		final ArrayImg<UnsignedShortType, ?> img = ArrayImgs.unsignedShorts(40, 30, 20);
+		final Cursor<UnsignedShortType> cursor = img.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get().set((int) ((cursor.getLongPosition(0) * 37 + cursor.getLongPosition(2) * 101) % 1000 + 50));
+		}
+		final int[][] queries = { { 0, 0, 2000 }, { 100, 300, 700 }, { 500, 500, 500 }, { 51, 1049, 1049 },
+				{ 1049, 10, 20 }, { 900, 2000, 3000 } };
+
+		for (final boolean parallel : new boolean[] { true, false }) {
+			final ThresholdHistogram histogram = ThresholdHistogram.ofIntegers(img, parallel);
+			assertTrue("Integer histogram should be exact", histogram.isExact());
+			assertEquals("Incorrect number of bins", 1000, histogram.getBinCount());
+
+			for (final int[] query : queries) {
+				final Settings<UnsignedShortType> settings = new Settings<>(new UnsignedShortType(query[0]),
+						new UnsignedShortType(query[1]), new UnsignedShortType(query[2]));
+				final Results expected = (Results) IMAGE_J.op().run(ThresholdElementFraction.class, img, settings);
+
+				final Results results = histogram.query(settings);
+
+				assertEquals("Incorrect number of foreground elements", expected.foregroundElements,
+						results.foregroundElements);
+				assertEquals("Incorrect number of elements within thresholds", expected.thresholdElements,
+						results.thresholdElements);
+			}
+		}
+	}
+
+	@Test
+	public void testIntegerQueryBetweenValues() {
+		final ArrayImg<LongType, ?> img = ArrayImgs.longs(11);
+		final Cursor<LongType> cursor = img.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get().set(cursor.getLongPosition(0));
+		}
+		final ThresholdHistogram histogram = ThresholdHistogram.ofIntegers(img, true);
+
+		final Results results = histogram.query(0.5, 4.5, 9.5);
+
+		assertEquals("Incorrect number of foreground elements", 10L, results.foregroundElements);
+		assertEquals("Incorrect number of elements within thresholds", 5L, results.thresholdElements);
+	}
+
+	@Test
+	public void testRealQueriesRoundOutwardsToBins() {
+		// Values 0, 1, ..., 99 in ten bins of width 9.9
+		final ArrayImg<FloatType, ?> img = ArrayImgs.floats(10, 10);
+		final Cursor<FloatType> cursor = img.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get().set(cursor.getLongPosition(1) * 10 + cursor.getLongPosition(0));
+		}
+		final ThresholdHistogram histogram = ThresholdHistogram.ofReals(img, 10, true);
+
+		// Bin edges are 19.8 and 29.7, so 20 and 25 round outwards to them
+		final Results results = histogram.query(25.0, 20.0, 25.0);
+
+		assertTrue("Real histogram should not be exact", !histogram.isExact());
+		assertEquals("Incorrect number of foreground elements", 80L, results.foregroundElements);
+		assertEquals("Incorrect number of elements within thresholds", 10L, results.thresholdElements);
+	}
+
+	/** Test that NaN elements are counted like when the interval is scanned, i.e. they compare equal to every value */
+	@Test
+	public void testRealQueriesCountNaNLikeThresholdElementFraction() {
+		final ArrayImg<FloatType, ?> img = ArrayImgs.floats(4);
+		final Cursor<FloatType> cursor = img.cursor();
+		cursor.next().set(Float.NaN);
+		cursor.next().set(1.0f);
+		cursor.next().set(2.0f);
+		cursor.next().set(Float.NaN);
+		final ThresholdHistogram histogram = ThresholdHistogram.ofReals(img, 4, false);
+		final Settings<FloatType> settings = new Settings<>(new FloatType(1.5f), new FloatType(0.0f),
+				new FloatType(1.0f));
+		final Results expected = (Results) IMAGE_J.op().run(ThresholdElementFraction.class, img, settings);
+
+		final Results results = histogram.query(settings);
+
+		assertEquals("Incorrect number of foreground elements", 3L, expected.foregroundElements);
+		assertEquals("Incorrect number of elements within thresholds", 3L, expected.thresholdElements);
+		assertEquals("Incorrect number of foreground elements", expected.foregroundElements,
+				results.foregroundElements);
+		assertEquals("Incorrect number of elements within thresholds", expected.thresholdElements,
+				results.thresholdElements);
+	}
+
+	@Test
+	public void testRealQueriesAllNaN() {
+		final ArrayImg<FloatType, ?> img = ArrayImgs.floats(2);
+		img.forEach(e -> e.set(Float.NaN));
+
+		final Results results = ThresholdHistogram.ofReals(img, 4, false).query(0.0, 0.0, 10.0);
+
+		assertEquals("Incorrect number of foreground elements", 2L, results.foregroundElements);
+		assertEquals("Incorrect number of elements within thresholds", 2L, results.thresholdElements);
+	}
+
+	/** Test that thresholds at the maximum of the image find the elements in the last bin */
+	@Test
+	public void testRealQueriesAtMaximum() {
+		final ArrayImg<FloatType, ?> img = ArrayImgs.floats(4);
+		final Cursor<FloatType> cursor = img.cursor();
+		cursor.next().set(0.0f);
+		cursor.next().set(1.0f);
+		cursor.next().set(1.0f);
+		cursor.next().set(0.0f);
+
+		final Results results = ThresholdHistogram.ofReals(img, 256, false).query(1.0, 1.0, 1.0);
+
+		assertEquals("Incorrect number of foreground elements", 2L, results.foregroundElements);
+		assertEquals("Incorrect number of elements within thresholds", 2L, results.thresholdElements);
+	}
+
+	@Test
+	public void testThresholdElementFractionWithHistogram() {
+		final ArrayImg<LongType, ?> img = ArrayImgs.longs(11, 4, 3);
+		final Cursor<LongType> cursor = img.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get().set(cursor.getLongPosition(0));
+		}
+		final ThresholdHistogram histogram = ThresholdHistogram.ofIntegers(Views.interval(img, img), true);
+		final Settings<LongType> settings = new Settings<>(new LongType(1L), new LongType(5L), new LongType(9L));
+
+		final Results results = (Results) IMAGE_J.op().run(ThresholdElementFraction.class, img, settings, null, null,
+				true, histogram);
+
+		assertEquals("Incorrect number of foreground elements", 10L * 4 * 3, results.foregroundElements);
+		assertEquals("Incorrect number of elements within thresholds", 5L * 4 * 3, results.thresholdElements);
+	}
+}
@@ -1,16 +1,23 @@
 package org.bonej.ops.thresholdFraction;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
 
 import net.imagej.ImageJ;
 import net.imagej.ops.create.img.CreateImgFromDimsAndType;
+import net.imglib2.Cursor;
 import net.imglib2.FinalDimensions;
 import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccess;
 import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.integer.LongType;
 
+import org.bonej.ops.binary.BlockOccupancy;
+import org.bonej.ops.binary.RunLengthVolume;
 import org.bonej.ops.testImageGenerators.CuboidCreator;
 import org.bonej.ops.thresholdFraction.ThresholdVolumeFraction.Results;
 import org.bonej.ops.thresholdFraction.ThresholdVolumeFraction.Settings;
@@ -65,6 +72,7 @@ public class ThresholdVolumeFractionTest {
 		assertEquals("Incorrect foreground surface volume ", octahedronVolume, results.foregroundMeshVolume,
 				ERROR_MARGIN);
 		assertEquals("Incorrect volume ratio ", 1.0, results.volumeRatio, ERROR_MARGIN);
+		assertEquals("Octahedron should have 8 faces", 8, results.toForegroundMesh().getFacets().size());
 	}
 
 	/**
@@ -92,6 +100,133 @@ public class ThresholdVolumeFractionTest {
 		assertEquals("Incorrect volume ratio ", 0.5, results.volumeRatio, 0.05);
 	}
 
+	/** Test that filling the masks only in the non-empty foreground blocks gives the same meshes */
+	@Test
+	public void testForegroundBlocksDoNotChangeResults() throws AssertionError {
+		final Settings settings = new Settings(3, 6, 10);
+		final Img<LongType> testImg = (Img<LongType>) IMAGE_J.op().run(CreateImgFromDimsAndType.class,
+				new FinalDimensions(10, 10, 10), new LongType());
+		fillWithThirdDimGradient(testImg);
+		final BlockOccupancy foregroundBlocks = BlockOccupancy.of(testImg, e -> e.get() >= 3, 4);
+
+		final Results expected = (Results) IMAGE_J.op().run(ThresholdVolumeFraction.class, testImg, settings);
+		final Results results = (Results) IMAGE_J.op().run(ThresholdVolumeFraction.class, testImg, settings,
+				foregroundBlocks);
+
+		assertEquals(expected.thresholdMeshVolume, results.thresholdMeshVolume, ERROR_MARGIN);
+		assertEquals(expected.foregroundMeshVolume, results.foregroundMeshVolume, ERROR_MARGIN);
+	}
+
+	/** Test that the mask gives the same meshes as an image, where the elements outside it are background */
+	@Test
+	public void testMaskMatchesMaskedImage() throws AssertionError {
+		final Settings settings = new Settings(3, 6, 10);
+		final Img<LongType> testImg = (Img<LongType>) IMAGE_J.op().run(CreateImgFromDimsAndType.class,
+				new FinalDimensions(10, 10, 10), new LongType());
+		fillWithThirdDimGradient(testImg);
+		final Img<LongType> maskedImg = testImg.copy();
+		final Img<BitType> maskImg = ArrayImgs.bits(10, 10, 10);
+		final Cursor<BitType> cursor = maskImg.localizingCursor();
+		final RandomAccess<LongType> access = maskedImg.randomAccess();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			// A slanted wedge
+			if (cursor.getLongPosition(0) + cursor.getLongPosition(1) < 12) {
+				cursor.get().setOne();
+			} else {
+				access.setPosition(cursor);
+				access.get().set(0);
+			}
+		}
+		final RunLengthVolume mask = RunLengthVolume.of(maskImg);
+
+		final Results expected = (Results) IMAGE_J.op().run(ThresholdVolumeFraction.class, maskedImg, settings);
+		final Results results = (Results) IMAGE_J.op().run(ThresholdVolumeFraction.class, testImg, settings, null,
+				mask);
+
+		assertEquals(expected.thresholdMeshVolume, results.thresholdMeshVolume, ERROR_MARGIN);
+		assertEquals(expected.foregroundMeshVolume, results.foregroundMeshVolume, ERROR_MARGIN);
+	}
+
+	/** Test that the meshes of a mask are in the coordinates of the image, although they cover only the mask */
+	@Test
+	public void testMaskMeshesAreInImageCoordinates() throws AssertionError {
+		final Settings settings = new Settings(1, 1, 1);
+		final Img<LongType> testImg = ArrayImgs.longs(10, 10, 10);
+		testImg.forEach(e -> e.set(1));
+		final RunLengthVolume mask = new RunLengthVolume.Builder(10, 10, 10).addRun(6, 7, 5, 6).build();
+
+		final Results results = (Results) IMAGE_J.op().run(ThresholdVolumeFraction.class, testImg, settings, null,
+				mask);
+		final Results volumeOnly = (Results) IMAGE_J.op().run(ThresholdVolumeFraction.class, testImg, settings,
+				null, mask, false, true);
+
+		assertEquals("Mesh of one element should be an octahedron", 6, results.foregroundMesh.getVertexCount());
+		for (int v = 0; v < 6; v++) {
+			assertEquals(5.0, results.foregroundMesh.getCoordinate(v, 0), 0.5);
+			assertEquals(6.0, results.foregroundMesh.getCoordinate(v, 1), 0.5);
+			assertEquals(7.0, results.foregroundMesh.getCoordinate(v, 2), 0.5);
+		}
+		assertEquals(1.0 / 6.0, results.foregroundMeshVolume, ERROR_MARGIN);
+		assertEquals(1.0 / 6.0, volumeOnly.foregroundMeshVolume, ERROR_MARGIN);
+	}
+
+	/** Test that the lazily thresholded views give the same meshes as the masks */
+	@Test
+	public void testLazyMasksDoNotChangeResults() throws AssertionError {
+		final Settings settings = new Settings(3, 6, 8);
+		final Img<LongType> testImg = (Img<LongType>) IMAGE_J.op().run(CreateImgFromDimsAndType.class,
+				new FinalDimensions(10, 10, 10), new LongType());
+		fillWithThirdDimGradient(testImg);
+
+		final Results expected = (Results) IMAGE_J.op().run(ThresholdVolumeFraction.class, testImg, settings);
+		final Results results = (Results) IMAGE_J.op().run(ThresholdVolumeFraction.class, testImg, settings, null,
+				null, true);
+
+		assertEquals(expected.thresholdMeshVolume, results.thresholdMeshVolume, ERROR_MARGIN);
+		assertEquals(expected.foregroundMeshVolume, results.foregroundMeshVolume, ERROR_MARGIN);
+	}
+
+	/** Test that the volume only mode gives the same volumes as the meshes, without creating them */
+	@Test
+	public void testVolumeOnlyMatchesMeshVolumes() throws AssertionError {
+		final Settings settings = new Settings(3, 6, 8);
+		final Img<LongType> testImg = (Img<LongType>) IMAGE_J.op().run(CreateImgFromDimsAndType.class,
+				new FinalDimensions(10, 10, 10), new LongType());
+		fillWithThirdDimGradient(testImg);
+		final BlockOccupancy foregroundBlocks = BlockOccupancy.of(testImg, e -> e.get() >= 3, 4);
+
+		final Results expected = (Results) IMAGE_J.op().run(ThresholdVolumeFraction.class, testImg, settings);
+		final Results results = (Results) IMAGE_J.op().run(ThresholdVolumeFraction.class, testImg, settings, null,
+				null, false, true);
+		final Results blockResults = (Results) IMAGE_J.op().run(ThresholdVolumeFraction.class, testImg, settings,
+				foregroundBlocks, null, false, true);
+
+		assertNull("Volume only mode should not create meshes", results.thresholdMesh);
+		assertNull("Volume only mode should not create meshes", results.foregroundMesh);
+		assertEquals(expected.thresholdMeshVolume, results.thresholdMeshVolume, 1e-9);
+		assertEquals(expected.foregroundMeshVolume, results.foregroundMeshVolume, 1e-9);
+		assertEquals(expected.thresholdMeshVolume, blockResults.thresholdMeshVolume, 1e-9);
+		assertEquals(expected.foregroundMeshVolume, blockResults.foregroundMeshVolume, 1e-9);
+	}
+
+	/** Test that the volume only mode matches the meshes on random elements, which make ambiguous cube faces */
+	@Test
+	public void testVolumeOnlyMatchesMeshVolumesOnRandomImage() throws AssertionError {
+		final Settings settings = new Settings(2, 3, 4);
+		final Img<LongType> testImg = ArrayImgs.longs(15, 12, 10);
+		final Random random = new Random(0xB0E);
+		testImg.forEach(e -> e.set(random.nextInt(5)));
+
+		final Results expected = (Results) IMAGE_J.op().run(ThresholdVolumeFraction.class, testImg, settings);
+		final Results results = (Results) IMAGE_J.op().run(ThresholdVolumeFraction.class, testImg, settings, null,
+				null, false, true);
+
+		assertEquals(expected.thresholdMeshVolume, results.thresholdMeshVolume, 1e-9);
+		assertEquals(expected.foregroundMeshVolume, results.foregroundMeshVolume, 1e-9);
+		assertEquals(expected.volumeRatio, results.volumeRatio, 1e-9);
+	}
+
 	/**
 	 * Fills the img with a gradient that grows along the third dimension axis
 	 * Gradient starts from 1
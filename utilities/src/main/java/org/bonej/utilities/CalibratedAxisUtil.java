@@ -8,6 +8,7 @@ import net.imglib2.Dimensions;
 import javax.annotation.Nullable;
 import java.util.Iterator;
 import java.util.Optional;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -57,6 +58,24 @@ public final class CalibratedAxisUtil {
         return calibratedElementSize;
     }
 
+    /**
+     * Returns the calibrated size of a single element along each spatial axis of the given space,
+     * e.g. the width, height and depth of an element in a 3D space
+     *
+     * @return Sizes in the order of the spatial axes, or 1.0 for each if calibration cannot be determined
+     * (@see spatialAxisUnitsMatch)
+     * @throws NullPointerException if space == null
+     * @implNote Only works with linear axes
+     */
+    public static <T extends AnnotatedSpace<CalibratedAxis> & Dimensions> double[] calibratedSpatialElementSizes(
+            final T space) throws NullPointerException {
+        checkNotNull(space, "Cannot determine element sizes in a null space");
+
+        final boolean unitsMatch = spatialAxisUnitsMatch(space);
+        return IntStream.range(0, space.numDimensions()).filter(d -> space.axis(d).type().isSpatial())
+                .mapToDouble(d -> unitsMatch ? space.axis(d).averageScale(0, space.dimension(d)) : 1.0).toArray();
+    }
+
     /**
      * Returns the calibrated spatial size of the given space
      *
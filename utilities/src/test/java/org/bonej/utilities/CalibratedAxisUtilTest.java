@@ -89,6 +89,34 @@ public class CalibratedAxisUtilTest {
         CalibratedAxisUtil.calibratedSpatialElementSize(null);
     }
 
+    @Test
+    public void testCalibratedSpatialElementSizes() throws AssertionError {
+        final DefaultLinearAxis xAxis = new DefaultLinearAxis(Axes.X, "mm", 0.5);
+        final DefaultLinearAxis yAxis = new DefaultLinearAxis(Axes.Y, "mm", 0.25);
+        final DefaultLinearAxis timeAxis = new DefaultLinearAxis(Axes.TIME, "s", 2.0);
+        final Img<BitType> img = imgCreator.compute1(DIMENSIONS);
+        final ImgPlus<BitType> imgPlus = new ImgPlus<>(img, "", xAxis, timeAxis, yAxis);
+
+        final double[] result = CalibratedAxisUtil.calibratedSpatialElementSizes(imgPlus);
+
+        assertEquals("Wrong number of spatial sizes", 2, result.length);
+        assertEquals("Incorrect element width", 0.5, result[0], 1e-12);
+        assertEquals("Incorrect element height", 0.25, result[1], 1e-12);
+    }
+
+    @Test
+    public void testCalibratedSpatialElementSizesReturnsOnesWithMismatchingUnits() throws AssertionError {
+        final DefaultLinearAxis xAxis = new DefaultLinearAxis(Axes.X, "mm", 0.5);
+        final DefaultLinearAxis yAxis = new DefaultLinearAxis(Axes.Y, "cm", 0.25);
+        final Img<BitType> img = imgCreator.compute1(new FinalDimensions(10, 10));
+        final ImgPlus<BitType> imgPlus = new ImgPlus<>(img, "", xAxis, yAxis);
+
+        final double[] result = CalibratedAxisUtil.calibratedSpatialElementSizes(imgPlus);
+
+        assertEquals("Spatial element width should be 1.0", 1.0, result[0], 1e-12);
+        assertEquals("Spatial element height should be 1.0", 1.0, result[1], 1e-12);
+    }
+
     @Test
     public void testCalibratedSpatialSpaceSize() throws AssertionError {
         final int dimensionSize = 10;